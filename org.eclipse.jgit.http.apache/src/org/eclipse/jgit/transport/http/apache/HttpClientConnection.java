@@ -85,6 +85,7 @@
 import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.config.Registry;
 import org.apache.http.config.RegistryBuilder;
@@ -92,9 +93,11 @@
 import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.conn.ssl.X509HostnameVerifier;
+import org.apache.http.entity.BufferedHttpEntity;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.BasicHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
 import org.eclipse.jgit.transport.http.HttpConnection;
 import org.eclipse.jgit.transport.http.apache.internal.HttpApacheText;
 import org.eclipse.jgit.util.TemporaryBuffer;
@@ -106,6 +109,9 @@
  * @since 3.3
  */
 public class HttpClientConnection implements HttpConnection {
+	/** Milliseconds to wait for a pooled connection if no timeout is set. */
+	private static final int DEFAULT_POOL_TIMEOUT = 30 * 1000;
+
 	HttpClient client;
 
 	URL url;
@@ -132,25 +138,21 @@ public class HttpClientConnection implements HttpConnection {
 
 	SSLContext ctx;
 
+	/** Client of the factory's connection pool; null if not pooled. */
+	private HttpClient pooledClient;
+
 	private HttpClient getClient() {
+		if (client == null && pooledClient != null && hostnameverifier == null
+				&& ctx == null) {
+			// Settings are applied per request, see execute().
+			client = pooledClient;
+		}
 		if (client == null) {
 			HttpClientBuilder clientBuilder = HttpClients.custom();
-			RequestConfig.Builder configBuilder = RequestConfig.custom();
-			if (proxy != null && !Proxy.NO_PROXY.equals(proxy)) {
-				isUsingProxy = true;
-				InetSocketAddress adr = (InetSocketAddress) proxy.address();
-				clientBuilder.setProxy(
-						new HttpHost(adr.getHostName(), adr.getPort()));
-			}
-			if (timeout != null) {
-				configBuilder.setConnectTimeout(timeout.intValue());
-			}
-			if (readTimeout != null) {
-				configBuilder.setSocketTimeout(readTimeout.intValue());
-			}
-			if (followRedirects != null) {
-				configBuilder
-						.setRedirectsEnabled(followRedirects.booleanValue());
+			RequestConfig.Builder configBuilder = newRequestConfig();
+			HttpHost proxyHost = getProxyHost();
+			if (proxyHost != null) {
+				clientBuilder.setProxy(proxyHost);
 			}
 			if (hostnameverifier != null) {
 				SSLConnectionSocketFactory sslConnectionFactory = new SSLConnectionSocketFactory(
@@ -171,6 +173,39 @@ private HttpClient getClient() {
 		return client;
 	}
 
+	private RequestConfig.Builder newRequestConfig() {
+		RequestConfig.Builder configBuilder = RequestConfig.custom();
+		if (timeout != null) {
+			configBuilder.setConnectTimeout(timeout.intValue());
+		}
+		if (readTimeout != null) {
+			configBuilder.setSocketTimeout(readTimeout.intValue());
+		}
+		if (followRedirects != null) {
+			configBuilder.setRedirectsEnabled(followRedirects.booleanValue());
+		}
+		return configBuilder;
+	}
+
+	private HttpHost getProxyHost() {
+		if (proxy == null || Proxy.NO_PROXY.equals(proxy)) {
+			return null;
+		}
+		isUsingProxy = true;
+		InetSocketAddress adr = (InetSocketAddress) proxy.address();
+		return new HttpHost(adr.getHostName(), adr.getPort());
+	}
+
+	/**
+	 * Use a client shared by all connections of a factory.
+	 * <p>
+	 * The shared client is bypassed if this connection needs its own TLS
+	 * configuration.
+	 */
+	void setPooledClient(HttpClient pooled) {
+		this.pooledClient = pooled;
+	}
+
 	private SSLContext getSSLContext() {
 		if (ctx == null) {
 			try {
@@ -242,8 +277,23 @@ private void execute() throws IOException, ClientProtocolException {
 			return;
 		}
 
+		HttpClient c = getClient();
+		if (c == pooledClient && req instanceof HttpRequestBase) {
+			RequestConfig.Builder configBuilder = newRequestConfig();
+			configBuilder.setProxy(getProxyHost());
+			// Waiting for a pooled connection is part of connecting. Never
+			// wait forever: a connection that is not released would hang
+			// every later request to the same route.
+			configBuilder.setConnectionRequestTimeout(
+					timeout != null && timeout.intValue() > 0
+							? timeout.intValue()
+							: DEFAULT_POOL_TIMEOUT);
+			((HttpRequestBase) req).setConfig(configBuilder.build());
+		}
+
 		if (entity == null) {
-			resp = getClient().execute(req);
+			resp = c.execute(req);
+			releaseUnlessSuccessful();
 			return;
 		}
 
@@ -252,13 +302,31 @@ private void execute() throws IOException, ClientProtocolException {
 				HttpEntityEnclosingRequest eReq = (HttpEntityEnclosingRequest) req;
 				eReq.setEntity(entity);
 			}
-			resp = getClient().execute(req);
+			resp = c.execute(req);
+			releaseUnlessSuccessful();
 		} finally {
 			entity.close();
 			entity = null;
 		}
 	}
 
+	/**
+	 * Buffer the (small) body of error responses, returning the pooled
+	 * connection right away. Callers frequently never read such a body, which
+	 * would otherwise hold the connection until it is garbage.
+	 */
+	private void releaseUnlessSuccessful() throws IOException {
+		if (client != pooledClient) {
+			return;
+		}
+		HttpEntity body = resp.getEntity();
+		int status = resp.getStatusLine().getStatusCode();
+		if (body != null && (status < 200 || 300 <= status)) {
+			resp.setEntity(new BufferedHttpEntity(body));
+			EntityUtils.consume(body);
+		}
+	}
+
 	public Map<String, List<String>> getHeaderFields() {
 		Map<String, List<String>> ret = new HashMap<String, List<String>>();
 		for (Header hdr : resp.getAllHeaders()) {
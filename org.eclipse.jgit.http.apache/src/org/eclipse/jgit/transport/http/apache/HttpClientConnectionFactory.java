@@ -43,24 +43,182 @@
 package org.eclipse.jgit.transport.http.apache;
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.net.Proxy;
 import java.net.URL;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.http.client.HttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.eclipse.jgit.transport.http.HttpConnection;
 import org.eclipse.jgit.transport.http.HttpConnectionFactory;
 
 /**
  * A factory returning instances of {@link HttpClientConnection}
+ * <p>
+ * All connections created by one factory share a bounded pool of persistent
+ * (keep-alive) connections, so consecutive requests to the same server reuse
+ * the TCP connection and TLS session instead of establishing a new one for
+ * every request. Connections that need their own TLS configuration (see
+ * {@link HttpClientConnection#configure}) are not pooled.
+ * <p>
+ * The shared client does not store cookies, so no state leaks between the
+ * repositories and credentials using the same factory. Idle connections are
+ * closed in the background.
  *
  * @since 3.3
  */
 public class HttpClientConnectionFactory implements HttpConnectionFactory {
+	/**
+	 * Default maximum number of pooled connections.
+	 *
+	 * @since 4.7
+	 */
+	public static final int DEFAULT_MAX_TOTAL = 64;
+
+	/**
+	 * Default maximum number of pooled connections to a single host.
+	 *
+	 * @since 4.7
+	 */
+	public static final int DEFAULT_MAX_PER_HOST = 8;
+
+	/**
+	 * Default time in milliseconds an idle connection is kept in the pool.
+	 *
+	 * @since 4.7
+	 */
+	public static final long DEFAULT_IDLE_TIMEOUT = 30 * 1000;
+
+	private static final ScheduledExecutorService EVICTOR = newEvictor();
+
+	private static ScheduledExecutorService newEvictor() {
+		ScheduledThreadPoolExecutor e = new ScheduledThreadPoolExecutor(1,
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "JGit-HttpIdleEvictor"); //$NON-NLS-1$
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		e.setRemoveOnCancelPolicy(true);
+		return e;
+	}
+
+	private final PoolingHttpClientConnectionManager connectionManager;
+
+	private final HttpClient client;
+
+	private final long idleTimeout;
+
+	/**
+	 * Create a factory with the default pool limits.
+	 */
+	public HttpClientConnectionFactory() {
+		this(DEFAULT_MAX_TOTAL, DEFAULT_MAX_PER_HOST, DEFAULT_IDLE_TIMEOUT,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Create a factory with custom pool limits.
+	 *
+	 * @param maxTotal
+	 *            maximum number of connections in the pool.
+	 * @param maxPerHost
+	 *            maximum number of connections to a single host. Requests
+	 *            exceeding the limit wait for a connection to be returned, at
+	 *            most for the connection's connect timeout.
+	 * @param idleTimeout
+	 *            time an unused connection is kept open for reuse.
+	 * @param unit
+	 *            unit of {@code idleTimeout}.
+	 * @since 4.7
+	 */
+	public HttpClientConnectionFactory(int maxTotal, int maxPerHost,
+			long idleTimeout, TimeUnit unit) {
+		connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(maxTotal);
+		connectionManager.setDefaultMaxPerRoute(maxPerHost);
+		client = HttpClients.custom().setConnectionManager(connectionManager)
+				.disableCookieManagement().build();
+		this.idleTimeout = unit.toMillis(idleTimeout);
+		IdleEvictor.schedule(connectionManager, this.idleTimeout);
+	}
+
 	public HttpConnection create(URL url) throws IOException {
-		return new HttpClientConnection(url.toString());
+		return create(url, null);
 	}
 
 	public HttpConnection create(URL url, Proxy proxy)
 			throws IOException {
-		return new HttpClientConnection(url.toString(), proxy);
+		HttpClientConnection conn = new HttpClientConnection(url.toString(),
+				proxy);
+		conn.setPooledClient(client);
+		return conn;
+	}
+
+	/**
+	 * Close pooled connections that have been idle longer than the idle
+	 * timeout, or that the server declared as expired.
+	 * <p>
+	 * This is also done periodically in the background.
+	 *
+	 * @since 4.7
+	 */
+	public void evictIdleConnections() {
+		evict(connectionManager, idleTimeout);
+	}
+
+	private static void evict(PoolingHttpClientConnectionManager cm,
+			long idleMillis) {
+		cm.closeExpiredConnections();
+		cm.closeIdleConnections(idleMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Periodically evicts idle connections of one pool.
+	 * <p>
+	 * Only weakly references the pool, and stops once the pool is garbage
+	 * collected, so an abandoned factory does not stay reachable.
+	 */
+	private static final class IdleEvictor implements Runnable {
+		static void schedule(PoolingHttpClientConnectionManager cm,
+				long idleMillis) {
+			long period = Math.max(idleMillis / 2, 1000);
+			IdleEvictor e = new IdleEvictor(cm, idleMillis);
+			e.future = EVICTOR.scheduleWithFixedDelay(e, period, period,
+					TimeUnit.MILLISECONDS);
+		}
+
+		private final WeakReference<PoolingHttpClientConnectionManager> pool;
+
+		private final long idleMillis;
+
+		private volatile ScheduledFuture<?> future;
+
+		private IdleEvictor(PoolingHttpClientConnectionManager cm,
+				long idleMillis) {
+			this.pool = new WeakReference<PoolingHttpClientConnectionManager>(cm);
+			this.idleMillis = idleMillis;
+		}
+
+		@Override
+		public void run() {
+			PoolingHttpClientConnectionManager cm = pool.get();
+			if (cm == null) {
+				ScheduledFuture<?> f = future;
+				if (f != null) {
+					f.cancel(false);
+				}
+				return;
+			}
+			evict(cm, idleMillis);
+		}
 	}
 }
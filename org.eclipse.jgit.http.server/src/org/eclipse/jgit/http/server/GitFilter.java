@@ -270,6 +270,12 @@ public void init(FilterConfig filterConfig) throws ServletException {
 					.through(enabled)//
 					.through(new RegexGroupFilter(2))//
 					.with(new ObjectFileServlet.PackIdx());
+
+			serveRegex("^/(.*)/objects/(info/clone\\.bundle)$")//
+					.through(mustBeLocal)//
+					.through(enabled)//
+					.through(new RegexGroupFilter(2))//
+					.with(new ObjectFileServlet.Bundle());
 		}
 	}
 
@@ -109,6 +109,14 @@ static class PackIdx extends PackData {
 		}
 	}
 
+	static class Bundle extends PackData {
+		private static final long serialVersionUID = 1L;
+
+		Bundle() {
+			super("application/x-git-bundle");
+		}
+	}
+
 	private final String contentType;
 
 	ObjectFileServlet(final String contentType) {
@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.http.test;
+
+import static org.eclipse.jgit.util.HttpSupport.HDR_AUTHORIZATION;
+import static org.eclipse.jgit.util.HttpSupport.HDR_RANGE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.http.server.GitServlet;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.junit.http.AccessEvent;
+import org.eclipse.jgit.junit.http.HttpTestCase;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.transport.HttpTransport;
+import org.eclipse.jgit.transport.Transport;
+import org.eclipse.jgit.transport.TransportHttp;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.transport.http.HttpConnectionFactory;
+import org.eclipse.jgit.transport.http.JDKHttpConnectionFactory;
+import org.eclipse.jgit.transport.http.apache.HttpClientConnectionFactory;
+import org.eclipse.jgit.transport.resolver.RepositoryResolver;
+import org.eclipse.jgit.util.IO;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+@RunWith(Parameterized.class)
+public class CloneBundleTest extends HttpTestCase {
+	private static final String BUNDLE = "objects/info/clone.bundle";
+
+	private TestRepository<Repository> src;
+
+	private URIish remoteURI;
+
+	private RevCommit A, B;
+
+	@Parameters
+	public static Collection<Object[]> data() {
+		// run all tests with both connection factories we have
+		return Arrays.asList(new Object[][] {
+				{ new JDKHttpConnectionFactory() },
+				{ new HttpClientConnectionFactory() } });
+	}
+
+	public CloneBundleTest(HttpConnectionFactory cf) {
+		HttpTransport.setConnectionFactory(cf);
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+
+		src = createTestRepository();
+		final String srcName = src.getRepository().getDirectory().getName();
+		StoredConfig cfg = src.getRepository().getConfig();
+		cfg.setString("uploadpack", null, "clonebundleuri", BUNDLE);
+		cfg.save();
+
+		GitServlet gs = new GitServlet();
+		gs.setRepositoryResolver(
+				new RepositoryResolver<HttpServletRequest>() {
+					@Override
+					public Repository open(HttpServletRequest req,
+							String name) throws RepositoryNotFoundException {
+						if (!name.equals(srcName))
+							throw new RepositoryNotFoundException(name);
+						Repository db = src.getRepository();
+						db.incrementOpen();
+						return db;
+					}
+				});
+		ServletContextHandler app = server.addContext("/git");
+		app.addServlet(new ServletHolder(gs), "/*");
+		server.setUp();
+
+		remoteURI = toURIish(app, srcName);
+
+		A = src.commit().add("A", "A").create();
+		B = src.commit().parent(A).add("B", "B").create();
+		src.update(master, B);
+	}
+
+	@Test
+	public void testCloneStartsFromBundle() throws Exception {
+		writeBundle();
+		RevCommit C = src.commit().parent(B).add("C", "C").create();
+		src.update(master, C);
+
+		Repository dst = fetch();
+		assertEquals(C, dst.exactRef(master).getObjectId());
+		assertTrue(dst.hasObject(A));
+		fsck(dst, C);
+
+		List<AccessEvent> bundle = getRequests(remoteURI, BUNDLE);
+		assertEquals(1, bundle.size());
+		assertEquals(200, bundle.get(0).getStatus());
+		assertNull(bundle.get(0).getRequestHeader(HDR_RANGE));
+		assertEquals(1, getRequests(remoteURI, "git-upload-pack").size());
+		assertFalse(new File(dst.getDirectory(), "clone-bundle").exists());
+	}
+
+	@Test
+	public void testBundleCoversAllRefs() throws Exception {
+		writeBundle();
+
+		Repository dst = fetch();
+		assertEquals(B, dst.exactRef(master).getObjectId());
+		fsck(dst, B);
+
+		assertEquals(1, getRequests(remoteURI, BUNDLE).size());
+		assertEquals(0, getRequests(remoteURI, "git-upload-pack").size());
+	}
+
+	@Test
+	public void testResumePartialDownload() throws Exception {
+		File bundle = writeBundle();
+		byte[] data = IO.readFully(bundle);
+		Repository dst = createBareRepository();
+		File part = partialFile(dst);
+		try (FileOutputStream out = new FileOutputStream(part)) {
+			out.write(data, 0, data.length / 2);
+		}
+		String etag = ObjectId.fromRaw(data, data.length - 20).name();
+		try (FileOutputStream out = new FileOutputStream(
+				new File(part.getParentFile(), etagName()))) {
+			out.write(Constants.encode(etag));
+		}
+
+		fetch(dst);
+		assertEquals(B, dst.exactRef(master).getObjectId());
+		fsck(dst, B);
+
+		List<AccessEvent> requests = getRequests(remoteURI, BUNDLE);
+		assertEquals(1, requests.size());
+		assertEquals(206, requests.get(0).getStatus());
+		assertEquals("bytes=" + (data.length / 2) + "-",
+				requests.get(0).getRequestHeader(HDR_RANGE));
+		assertFalse(part.exists());
+	}
+
+	@Test
+	public void testStalePartialDownloadIsReplaced() throws Exception {
+		Repository dst = createBareRepository();
+		File part = partialFile(dst);
+		try (FileOutputStream out = new FileOutputStream(part)) {
+			out.write(Constants.encode("garbage"));
+		}
+		try (FileOutputStream out = new FileOutputStream(
+				new File(part.getParentFile(), etagName()))) {
+			out.write(Constants.encode(ObjectId.zeroId().name()));
+		}
+		writeBundle();
+
+		fetch(dst);
+		assertEquals(B, dst.exactRef(master).getObjectId());
+		fsck(dst, B);
+
+		List<AccessEvent> requests = getRequests(remoteURI, BUNDLE);
+		assertEquals(1, requests.size());
+		assertEquals(200, requests.get(0).getStatus());
+		assertFalse(part.exists());
+	}
+
+	@Test
+	public void testMissingBundleFallsBackToFetch() throws Exception {
+		Repository dst = fetch();
+		assertEquals(B, dst.exactRef(master).getObjectId());
+		fsck(dst, B);
+
+		List<AccessEvent> bundle = getRequests(remoteURI, BUNDLE);
+		assertEquals(1, bundle.size());
+		assertEquals(404, bundle.get(0).getStatus());
+		assertEquals(1, getRequests(remoteURI, "git-upload-pack").size());
+	}
+
+	@Test
+	public void testNoCredentialsSentToOtherOrigin() throws Exception {
+		writeBundle();
+		// Same server, but reached through another host name.
+		String other = "http://localhost:" + server.getPort()
+				+ remoteURI.getPath() + "/" + BUNDLE;
+		StoredConfig cfg = src.getRepository().getConfig();
+		cfg.setString("uploadpack", null, "clonebundleuri", other);
+		cfg.save();
+
+		Repository dst = createBareRepository();
+		try (Transport t = Transport.open(dst, remoteURI)) {
+			t.setUseCloneBundle(true);
+			((TransportHttp) t).setAdditionalHeaders(Collections
+					.singletonMap(HDR_AUTHORIZATION, "Basic c2VjcmV0"));
+			t.fetch(NullProgressMonitor.INSTANCE, mirror(master));
+		}
+		assertEquals(B, dst.exactRef(master).getObjectId());
+		fsck(dst, B);
+
+		List<AccessEvent> bundle = getRequests(remoteURI, BUNDLE);
+		assertEquals(1, bundle.size());
+		assertEquals(200, bundle.get(0).getStatus());
+		assertNull(bundle.get(0).getRequestHeader(HDR_AUTHORIZATION));
+		List<AccessEvent> refs = getRequests(remoteURI, "info/refs");
+		assertEquals("Basic c2VjcmV0",
+				refs.get(0).getRequestHeader(HDR_AUTHORIZATION));
+	}
+
+	private File writeBundle() throws Exception {
+		return new GC((FileRepository) src.getRepository()).writeCloneBundle();
+	}
+
+	private Repository fetch() throws Exception {
+		return fetch(createBareRepository());
+	}
+
+	private Repository fetch(Repository dst) throws Exception {
+		try (Transport t = Transport.open(dst, remoteURI)) {
+			t.setUseCloneBundle(true);
+			t.fetch(NullProgressMonitor.INSTANCE, mirror(master));
+		}
+		return dst;
+	}
+
+	private File partialFile(Repository dst) {
+		File dir = new File(dst.getDirectory(), "clone-bundle");
+		dir.mkdirs();
+		return new File(dir, bundleName() + ".part");
+	}
+
+	private String etagName() {
+		return bundleName() + ".etag";
+	}
+
+	private String bundleName() {
+		String url = remoteURI.toString() + "/" + BUNDLE;
+		return "jgit-clone-bundle-" + ObjectId.fromRaw(Constants
+				.newMessageDigest().digest(Constants.encode(url))).name();
+	}
+}
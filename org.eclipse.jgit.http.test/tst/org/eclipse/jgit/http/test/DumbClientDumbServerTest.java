@@ -57,8 +57,10 @@
 import java.net.URI;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.eclipse.jetty.servlet.DefaultServlet;
 import org.eclipse.jetty.servlet.ServletContextHandler;
@@ -210,6 +212,36 @@ public void testInitialClone_Loose() throws Exception {
 		assertEquals(200, loose.get(0).getStatus());
 	}
 
+	@Test
+	public void testInitialClone_LooseSequential() throws Exception {
+		assertCloneDownloadsEachObjectOnce(1);
+	}
+
+	@Test
+	public void testInitialClone_LooseParallel() throws Exception {
+		assertCloneDownloadsEachObjectOnce(8);
+	}
+
+	private void assertCloneDownloadsEachObjectOnce(int concurrency)
+			throws Exception {
+		Repository dst = createBareRepository();
+		try (Transport t = Transport.open(dst, remoteURI)) {
+			t.setDumbFetchConcurrency(concurrency);
+			t.fetch(NullProgressMonitor.INSTANCE, mirror(master));
+		}
+		assertEquals(B, dst.exactRef(master).getObjectId());
+		fsck(dst, B);
+
+		Set<String> paths = new HashSet<String>();
+		for (AccessEvent e : getRequests()) {
+			if (e.getPath().matches(".*/objects/[0-9a-f]{2}/[0-9a-f]{38}")) {
+				assertTrue(e.getPath(), paths.add(e.getPath()));
+			}
+		}
+		// 2 commits, 2 trees and 3 blobs.
+		assertEquals(7, paths.size());
+	}
+
 	@Test
 	public void testInitialClone_Packed() throws Exception {
 		new TestRepository<Repository>(remoteRepository).packAndPrune();
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.http.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jgit.junit.http.HttpTestCase;
+import org.eclipse.jgit.transport.http.HttpConnection;
+import org.eclipse.jgit.transport.http.apache.HttpClientConnectionFactory;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.RawParseUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HttpClientConnectionFactoryTest extends HttpTestCase {
+	private final List<Integer> remotePorts = new ArrayList<>();
+
+	private final List<String> cookies = new ArrayList<>();
+
+	private HttpClientConnectionFactory factory;
+
+	private String base;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+
+		ServletContextHandler app = server.addContext("/test");
+		app.addServlet(new ServletHolder(new HttpServlet() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void doGet(HttpServletRequest req,
+					HttpServletResponse rsp) throws IOException {
+				synchronized (remotePorts) {
+					remotePorts.add(Integer.valueOf(req.getRemotePort()));
+					cookies.add(req.getHeader("Cookie"));
+				}
+				if (req.getPathInfo().equals("/slow")) {
+					try {
+						Thread.sleep(1000);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				rsp.addHeader("Set-Cookie", "session=secret; Path=/");
+				rsp.setContentType("text/plain");
+				rsp.getWriter().write("ok");
+			}
+		}), "/*");
+		server.setUp();
+
+		factory = new HttpClientConnectionFactory();
+		base = server.getURI() + "/test";
+	}
+
+	private String get(String path, Integer readTimeout) throws IOException {
+		HttpConnection c = factory.create(new URL(base + path));
+		c.setRequestMethod("GET");
+		if (readTimeout != null)
+			c.setReadTimeout(readTimeout.intValue());
+		assertEquals(200, c.getResponseCode());
+		try (InputStream in = c.getInputStream()) {
+			ByteBuffer buf = IO.readWholeStream(in, 16);
+			return RawParseUtils.decode(buf.array(), 0, buf.limit());
+		}
+	}
+
+	@Test
+	public void testConnectionIsReused() throws Exception {
+		for (int i = 0; i < 3; i++)
+			assertEquals("ok", get("/ok", null));
+
+		assertEquals(3, remotePorts.size());
+		assertEquals(remotePorts.get(0), remotePorts.get(1));
+		assertEquals(remotePorts.get(0), remotePorts.get(2));
+	}
+
+	@Test
+	public void testCookiesAreNotShared() throws Exception {
+		get("/ok", null);
+		get("/ok", null);
+
+		assertEquals(2, cookies.size());
+		assertNull(cookies.get(1));
+	}
+
+	@Test
+	public void testReadTimeoutIsPerRequest() throws Exception {
+		try {
+			get("/slow", Integer.valueOf(100));
+			fail("expected read timeout");
+		} catch (SocketTimeoutException e) {
+			// expected
+		}
+
+		// The short timeout of the previous request does not stick to the
+		// shared client.
+		assertEquals("ok", get("/slow", null));
+		assertEquals("ok", get("/slow", Integer.valueOf(5000)));
+	}
+}
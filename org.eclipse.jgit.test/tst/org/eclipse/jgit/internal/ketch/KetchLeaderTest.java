@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.ketch;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.eclipse.jgit.internal.ketch.KetchConstants.DEFAULT_TXN_NAMESPACE;
+import static org.eclipse.jgit.transport.ReceiveCommand.Result.OK;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.internal.storage.reftree.Command;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.eclipse.jgit.util.time.MonotonicSystemClock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KetchLeaderTest {
+	private ScheduledExecutorService executor;
+
+	private InMemoryRepository repo;
+
+	private TestRepository<InMemoryRepository> git;
+
+	private KetchLeader leader;
+
+	private Duration groupCommitWindow = Duration.ZERO;
+
+	private int maxProposals = 256;
+
+	private long maxProposalBytes = 1 << 20;
+
+	@Before
+	public void setUp() throws Exception {
+		executor = Executors.newScheduledThreadPool(2);
+		repo = new InMemoryRepository(new DfsRepositoryDescription("test"));
+		git = new TestRepository<>(repo);
+	}
+
+	@After
+	public void tearDown() {
+		if (leader != null) {
+			leader.shutdown();
+		}
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testRoundStartsAfterGroupCommitWindow() throws Exception {
+		groupCommitWindow = Duration.ofMillis(300);
+		startLeader();
+		long head = head();
+
+		long start = System.nanoTime();
+		Proposal a = queue("refs/heads/a");
+		Proposal b = queue("refs/heads/b");
+		assertFalse(awaitDone(a, 100, TimeUnit.MILLISECONDS));
+		assertExecuted(a);
+		assertExecuted(b);
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertTrue(elapsed >= groupCommitWindow.toMillis());
+		assertEquals(head + 1, head());
+	}
+
+	@Test
+	public void testFullRoundStartsBeforeGroupCommitWindow() throws Exception {
+		groupCommitWindow = Duration.ofHours(1);
+		maxProposals = 2;
+		startLeader();
+		long head = head();
+
+		Proposal a = queue("refs/heads/a");
+		Proposal b = queue("refs/heads/b");
+		assertExecuted(a);
+		assertExecuted(b);
+		assertEquals(head + 1, head());
+	}
+
+	@Test
+	public void testProposalsSplitAcrossBoundedRounds() throws Exception {
+		maxProposals = 2;
+		startLeader();
+		long head = head();
+
+		List<Proposal> all = queueWhileLeaderBlocked(5);
+		for (Proposal p : all) {
+			assertExecuted(p);
+		}
+		assertEquals(head + 3, head());
+	}
+
+	@Test
+	public void testProposalBytesBoundRounds() throws Exception {
+		maxProposalBytes = 1;
+		startLeader();
+		long head = head();
+
+		List<Proposal> all = queueWhileLeaderBlocked(3);
+		for (Proposal p : all) {
+			assertExecuted(p);
+		}
+		assertEquals(head + 3, head());
+	}
+
+	@Test
+	public void testQueuedProposalsShareOneRound() throws Exception {
+		startLeader();
+		long head = head();
+
+		List<Proposal> all = queueWhileLeaderBlocked(5);
+		for (Proposal p : all) {
+			assertExecuted(p);
+		}
+		assertEquals(head + 1, head());
+	}
+
+	private void startLeader() throws Exception {
+		KetchSystem system = new KetchSystem(executor,
+				new MonotonicSystemClock(), DEFAULT_TXN_NAMESPACE) {
+			@Override
+			public Duration getGroupCommitWindow() {
+				return groupCommitWindow;
+			}
+
+			@Override
+			public int getMaxProposalsPerRound() {
+				return maxProposals;
+			}
+
+			@Override
+			public long getMaxProposalBytesPerRound() {
+				return maxProposalBytes;
+			}
+		};
+		leader = new KetchLeader(system) {
+			@Override
+			protected Repository openRepository() {
+				repo.incrementOpen();
+				return repo;
+			}
+		};
+		leader.setReplicas(Collections.<KetchReplica> singletonList(
+				new LocalReplica(leader, "local", new ReplicaConfig())));
+
+		// The first proposal runs the election, never delayed.
+		assertExecuted(queue("refs/heads/master"));
+		assertEquals(KetchLeader.State.LEADER, leader.snapshot().getState());
+	}
+
+	private List<Proposal> queueWhileLeaderBlocked(int cnt) throws Exception {
+		List<Proposal> all = new ArrayList<>(cnt);
+		leader.lock.lock();
+		try {
+			for (int i = 0; i < cnt; i++) {
+				all.add(queue("refs/heads/b" + i));
+			}
+		} finally {
+			leader.lock.unlock();
+		}
+		return all;
+	}
+
+	private Proposal queue(String ref) throws Exception {
+		RevCommit c = git.commit().message(ref).create();
+		Proposal p;
+		try (RevWalk rw = new RevWalk(repo)) {
+			p = new Proposal(rw, Collections.singletonList(
+					new ReceiveCommand(ObjectId.zeroId(), c, ref)));
+		}
+		leader.queueProposal(p);
+		return p;
+	}
+
+	private long head() {
+		return leader.snapshot().getHead().getIndex();
+	}
+
+	private static void assertExecuted(Proposal p) throws Exception {
+		assertTrue(awaitDone(p, 10, SECONDS));
+		assertEquals(Proposal.State.EXECUTED, p.getState());
+		for (Command c : p.getCommands()) {
+			assertEquals(OK, c.getResult());
+		}
+	}
+
+	/** Proposal.await returns on any state change, not only when done. */
+	private static boolean awaitDone(Proposal p, long wait, TimeUnit unit)
+			throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(wait);
+		long left;
+		while (!p.isDone()
+				&& (left = deadline - System.nanoTime()) > 0) {
+			p.await(Math.max(1, TimeUnit.NANOSECONDS.toMillis(left)),
+					TimeUnit.MILLISECONDS);
+		}
+		return p.isDone();
+	}
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.ketch;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.eclipse.jgit.internal.ketch.KetchConstants.CONFIG_KEY_TYPE;
+import static org.eclipse.jgit.internal.ketch.KetchConstants.DEFAULT_TXN_NAMESPACE;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_REMOTE;
+import static org.eclipse.jgit.transport.ReceiveCommand.Result.OK;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.MockSystemReader;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.eclipse.jgit.util.SystemReader;
+import org.eclipse.jgit.util.time.MonotonicSystemClock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KetchReplicaTest {
+	private static final String ACCEPTED = DEFAULT_TXN_NAMESPACE
+			+ KetchConstants.ACCEPTED;
+
+	private static final String COMMITTED = DEFAULT_TXN_NAMESPACE
+			+ KetchConstants.COMMITTED;
+
+	private ScheduledExecutorService executor;
+
+	private InMemoryRepository repo;
+
+	private TestRepository<InMemoryRepository> git;
+
+	private MockSystemReader mockSystemReader;
+
+	private KetchLeader leader;
+
+	private ManualReplica follower;
+
+	@Before
+	public void setUp() throws Exception {
+		executor = Executors.newScheduledThreadPool(2);
+		repo = new InMemoryRepository(new DfsRepositoryDescription("test"));
+		git = new TestRepository<>(repo);
+		mockSystemReader = new MockSystemReader();
+		SystemReader.setInstance(mockSystemReader);
+	}
+
+	@After
+	public void tearDown() {
+		if (leader != null) {
+			leader.shutdown();
+		}
+		executor.shutdownNow();
+		SystemReader.setInstance(null);
+	}
+
+	@Test
+	public void testMaxInFlightBoundsConcurrentPushes() throws Exception {
+		startLeader(2);
+		LogIndex i0 = LogIndex.unknown(ObjectId.zeroId());
+		LogIndex i1 = i0.nextIndex(id(1));
+		LogIndex i2 = i1.nextIndex(id(2));
+
+		leader.lock.lock();
+		try {
+			follower.pushTxnAcceptedAsync(round(i0, i1));
+			follower.pushCommitAsync(i0);
+			follower.pushTxnAcceptedAsync(round(i1, i2));
+		} finally {
+			leader.lock.unlock();
+		}
+
+		ReplicaPushRequest accept = follower.next();
+		ReplicaPushRequest commit = follower.next();
+		assertEquals(Collections.singletonMap(ACCEPTED, i1), newIds(accept));
+		assertEquals(Collections.singletonMap(COMMITTED, i0), newIds(commit));
+		assertNull(follower.pushes.poll());
+		assertEquals(2, snapshot().getInFlightRequests());
+
+		complete(accept);
+		assertEquals(Collections.singletonMap(ACCEPTED, i2),
+				newIds(follower.next()));
+		assertEquals(2, snapshot().getInFlightRequests());
+	}
+
+	@Test
+	public void testQueuedPushesLeaveInLogOrder() throws Exception {
+		startLeader(2);
+		LogIndex i0 = LogIndex.unknown(ObjectId.zeroId());
+		LogIndex i1 = i0.nextIndex(id(1));
+		LogIndex i2 = i1.nextIndex(id(2));
+
+		leader.lock.lock();
+		try {
+			follower.pushTxnAcceptedAsync(round(i0, i1));
+			follower.pushTxnAcceptedAsync(round(i1, i2));
+			follower.pushCommitAsync(i2);
+		} finally {
+			leader.lock.unlock();
+		}
+
+		// The commit of i2 touches no running reference and maxInFlight
+		// has room, but must not overtake the queued accept of i2.
+		ReplicaPushRequest first = follower.next();
+		assertEquals(Collections.singletonMap(ACCEPTED, i1), newIds(first));
+		assertNull(follower.pushes.poll());
+		assertEquals(1, snapshot().getInFlightRequests());
+
+		complete(first);
+		Map<String, ObjectId> expect = new HashMap<>();
+		expect.put(ACCEPTED, i2);
+		expect.put(COMMITTED, i2);
+		assertEquals(expect, newIds(follower.next()));
+		assertNull(follower.pushes.poll());
+	}
+
+	@Test
+	public void testStaleQueuedCommitIsDropped() throws Exception {
+		startLeader(2);
+		LogIndex i0 = LogIndex.unknown(ObjectId.zeroId());
+		LogIndex i1 = i0.nextIndex(id(1));
+		LogIndex i2 = i1.nextIndex(id(2));
+
+		leader.lock.lock();
+		try {
+			follower.pushCommitAsync(i1);
+			follower.pushCommitAsync(i1);
+			follower.pushTxnAcceptedAsync(round(i1, i2));
+		} finally {
+			leader.lock.unlock();
+		}
+
+		ReplicaPushRequest commit = follower.next();
+		assertEquals(Collections.singletonMap(COMMITTED, i1), newIds(commit));
+		assertNull(follower.pushes.poll());
+
+		// The queued commit of i1 was reached by the first push; sending
+		// it again would fail and abort the accept of i2 with it.
+		complete(commit);
+		ReplicaPushRequest accept = follower.next();
+		assertEquals(Collections.singletonMap(ACCEPTED, i2), newIds(accept));
+	}
+
+	@Test
+	public void testLagAndLatency() throws Exception {
+		startLeader(1);
+
+		// The follower holds its pushes, so the election round and the
+		// round of this proposal commit with the local replica alone.
+		assertExecuted(queue("refs/heads/master"));
+		assertEquals(2, leader.snapshot().getHead().getIndex());
+
+		ReplicaPushRequest election = follower.next();
+		ReplicaSnapshot s = snapshot();
+		assertEquals(-1, s.getLag());
+		assertEquals(0, s.getLastLatencyMillis());
+		assertEquals(0, s.getAverageLatencyMillis());
+
+		mockSystemReader.tick(2);
+		complete(election);
+		s = snapshot();
+		assertEquals(KetchReplica.State.LAGGING, s.getState());
+		assertEquals(1, s.getLag());
+		assertEquals(2000, s.getLastLatencyMillis());
+		assertEquals(2000, s.getAverageLatencyMillis());
+
+		ReplicaPushRequest round = follower.next();
+		mockSystemReader.tick(6);
+		complete(round);
+		s = snapshot();
+		assertEquals(KetchReplica.State.CURRENT, s.getState());
+		assertEquals(0, s.getLag());
+		assertEquals(6000, s.getLastLatencyMillis());
+		assertEquals(3000, s.getAverageLatencyMillis());
+	}
+
+	private void startLeader(int maxInFlight) {
+		leader = new KetchLeader(new KetchSystem(executor,
+				new MonotonicSystemClock(), DEFAULT_TXN_NAMESPACE)) {
+			@Override
+			protected Repository openRepository() {
+				repo.incrementOpen();
+				return repo;
+			}
+		};
+
+		Config cfg = new Config();
+		cfg.setString(CONFIG_KEY_REMOTE, "follower", CONFIG_KEY_TYPE,
+				"FOLLOWER_ONLY");
+		cfg.setInt(CONFIG_KEY_REMOTE, "follower", "ketch-maxInFlight",
+				maxInFlight);
+		follower = new ManualReplica(leader,
+				ReplicaConfig.newFromConfig(cfg, "follower"));
+		leader.setReplicas(Arrays.asList(
+				new LocalReplica(leader, "local", new ReplicaConfig()),
+				follower));
+
+		leader.lock.lock();
+		try {
+			follower.initialize(Collections.<String, Ref> emptyMap());
+		} finally {
+			leader.lock.unlock();
+		}
+	}
+
+	private Round round(LogIndex oldIndex, LogIndex newIndex) {
+		Round r = new Round(leader, oldIndex) {
+			@Override
+			void start() {
+				// Pushed directly by the test.
+			}
+
+			@Override
+			void success() {
+				// Pushed directly by the test.
+			}
+		};
+		r.acceptedNewIndex = newIndex;
+		return r;
+	}
+
+	private Proposal queue(String ref) throws Exception {
+		RevCommit c = git.commit().message(ref).create();
+		Proposal p;
+		try (RevWalk rw = new RevWalk(repo)) {
+			p = new Proposal(rw, Collections.singletonList(
+					new ReceiveCommand(ObjectId.zeroId(), c, ref)));
+		}
+		leader.queueProposal(p);
+		return p;
+	}
+
+	private ReplicaSnapshot snapshot() {
+		for (ReplicaSnapshot s : leader.snapshot().getReplicas()) {
+			if (s.getReplica() == follower) {
+				return s;
+			}
+		}
+		throw new AssertionError("follower not in leader snapshot");
+	}
+
+	private static void complete(ReplicaPushRequest req) {
+		for (ReceiveCommand cmd : req.getCommands()) {
+			cmd.setResult(OK);
+		}
+		req.done(null);
+	}
+
+	private static Map<String, ObjectId> newIds(ReplicaPushRequest req) {
+		Map<String, ObjectId> ids = new HashMap<>();
+		for (ReceiveCommand cmd : req.getCommands()) {
+			ids.put(cmd.getRefName(), cmd.getNewId());
+		}
+		return ids;
+	}
+
+	private static ObjectId id(int i) {
+		return ObjectId.fromString(String.format("%040x", Integer.valueOf(i)));
+	}
+
+	private static void assertExecuted(Proposal p) throws Exception {
+		long deadline = System.nanoTime() + SECONDS.toNanos(10);
+		while (!p.isDone() && System.nanoTime() < deadline) {
+			p.await(100, TimeUnit.MILLISECONDS);
+		}
+		assertTrue(p.isDone());
+		assertEquals(Proposal.State.EXECUTED, p.getState());
+	}
+
+	private static class ManualReplica extends KetchReplica {
+		final BlockingQueue<ReplicaPushRequest> pushes =
+				new LinkedBlockingQueue<>();
+
+		ManualReplica(KetchLeader leader, ReplicaConfig cfg) {
+			super(leader, "follower", cfg);
+		}
+
+		ReplicaPushRequest next() throws InterruptedException {
+			ReplicaPushRequest req = pushes.poll(10, SECONDS);
+			assertNotNull(req);
+			return req;
+		}
+
+		@Override
+		protected void startPush(ReplicaPushRequest req) {
+			pushes.add(req);
+		}
+
+		@Override
+		protected void blockingFetch(Repository repo, ReplicaFetchRequest req)
+				throws IOException {
+			throw new IOException("fetch not supported");
+		}
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.dfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+import org.eclipse.jgit.internal.storage.pack.PackExt;
+import org.eclipse.jgit.junit.TestRng;
+import org.eclipse.jgit.lib.Constants;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DfsBlockCacheTest {
+	private static final int BLOCK_SIZE = 512;
+
+	private InMemoryRepository db;
+
+	private DfsBlockCache cache;
+
+	private DfsPackFile pack;
+
+	@Before
+	public void setUp() throws Exception {
+		init(newConfig());
+	}
+
+	private static DfsBlockCacheConfig newConfig() {
+		return new DfsBlockCacheConfig()
+				.setBlockSize(BLOCK_SIZE)
+				.setBlockLimit(4 * BLOCK_SIZE)
+				.setConcurrencyLevel(4);
+	}
+
+	private void init(DfsBlockCacheConfig cfg) throws Exception {
+		DfsBlockCache.reconfigure(cfg);
+		cache = DfsBlockCache.getInstance();
+
+		db = new InMemoryRepository(new DfsRepositoryDescription("test"));
+		byte[] data = new TestRng("DfsBlockCacheTest").nextBytes(16384);
+		try (DfsInserter ins = (DfsInserter) db.newObjectInserter()) {
+			ins.setCompressionLevel(Deflater.NO_COMPRESSION);
+			ins.insert(Constants.OBJ_BLOB, data);
+			ins.flush();
+		}
+		pack = db.getObjectDatabase().getPacks()[0];
+	}
+
+	@Test
+	public void testSizeStaysWithinLimit() throws Exception {
+		try (DfsReader ctx = (DfsReader) db.newObjectReader()) {
+			for (long pos = 0; pos < pack.length; pos += BLOCK_SIZE) {
+				DfsBlock b = cache.getOrLoad(pack, pos, ctx);
+				assertTrue(b.contains(pack.key, pos));
+				assertTrue(cache.getCurrentSize() <= 4 * BLOCK_SIZE);
+			}
+		}
+		assertTrue(cache.getEvictions() > 0);
+		assertEquals(cache.getCurrentSize(), pack.key.cachedSize.get());
+	}
+
+	@Test
+	public void testIndexEvictedWithoutReservation() throws Exception {
+		readIndexThenAllBlocks();
+		assertFalse(pack.isIndexLoaded());
+		assertTrue(cache.getEvictions(PackExt.INDEX) > 0);
+	}
+
+	@Test
+	public void testReservedIndexSurvivesDataChurn() throws Exception {
+		init(newConfig().setReservedSize(PackExt.INDEX, BLOCK_SIZE));
+		readIndexThenAllBlocks();
+		assertTrue(pack.isIndexLoaded());
+		assertEquals(0, cache.getEvictions(PackExt.INDEX));
+		assertTrue(cache.getEvictions(PackExt.PACK) > 0);
+		assertTrue(cache.getCurrentSize() <= 4 * BLOCK_SIZE);
+
+		try (DfsReader ctx = (DfsReader) db.newObjectReader()) {
+			pack.getPackIndex(ctx);
+		}
+		// The inserter cached the index when it wrote the pack.
+		assertEquals(0, cache.getMissCount(PackExt.INDEX));
+		assertEquals(2, cache.getHitCount(PackExt.INDEX));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testReservationMustBeBelowLimit() {
+		DfsBlockCache.reconfigure(newConfig()
+				.setReservedSize(PackExt.INDEX, 2 * BLOCK_SIZE)
+				.setReservedSize(PackExt.BITMAP_INDEX, 2 * BLOCK_SIZE));
+	}
+
+	private void readIndexThenAllBlocks() throws Exception {
+		try (DfsReader ctx = (DfsReader) db.newObjectReader()) {
+			pack.getPackIndex(ctx);
+			for (long pos = 0; pos < pack.length; pos += BLOCK_SIZE)
+				cache.getOrLoad(pack, pos, ctx);
+		}
+	}
+
+	@Test
+	public void testReadAheadDoesNotReplaceCachedBlock() throws Exception {
+		try (DfsReader ctx = (DfsReader) db.newObjectReader()) {
+			DfsBlock b = cache.getOrLoad(pack, BLOCK_SIZE, ctx);
+			long size = cache.getCurrentSize();
+			cache.putReadAhead(new DfsBlock(pack.key, BLOCK_SIZE,
+					new byte[BLOCK_SIZE]));
+			assertEquals(size, cache.getCurrentSize());
+			assertSame(b, cache.getOrLoad(pack, BLOCK_SIZE, ctx));
+		}
+	}
+
+	@Test
+	public void testConcurrentMissesLoadOnce() throws Exception {
+		final int threads = 8;
+		final CyclicBarrier start = new CyclicBarrier(threads);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<DfsBlock>> results = new ArrayList<Future<DfsBlock>>();
+			for (int i = 0; i < threads; i++) {
+				results.add(pool.submit(new Callable<DfsBlock>() {
+					@Override
+					public DfsBlock call() throws Exception {
+						try (DfsReader ctx = (DfsReader) db
+								.newObjectReader()) {
+							start.await();
+							return cache.getOrLoad(pack, BLOCK_SIZE, ctx);
+						}
+					}
+				}));
+			}
+			DfsBlock first = results.get(0).get();
+			for (Future<DfsBlock> f : results)
+				assertSame(first, f.get());
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(threads, cache.getTotalRequestCount());
+		assertTrue(cache.getMissCount() >= 1);
+	}
+}
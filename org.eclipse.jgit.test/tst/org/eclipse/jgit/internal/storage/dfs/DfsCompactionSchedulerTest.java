@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.dfs;
+
+import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.COMPACT;
+import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.INSERT;
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.eclipse.jgit.events.ListenerHandle;
+import org.eclipse.jgit.internal.storage.dfs.DfsCompactionScheduler.SourceStatistics;
+import org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DfsCompactionSchedulerTest {
+	private InMemoryRepository repo;
+
+	private DfsObjDatabase odb;
+
+	private List<Runnable> queued;
+
+	private DfsCompactionScheduler scheduler;
+
+	private List<ObjectId> blobs;
+
+	@Before
+	public void setUp() throws Exception {
+		DfsRepositoryDescription desc = new DfsRepositoryDescription("test");
+		repo = new InMemoryRepository(desc);
+		odb = repo.getObjectDatabase();
+		queued = new ArrayList<Runnable>();
+		blobs = new ArrayList<ObjectId>();
+		scheduler = new DfsCompactionScheduler(repo, new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				queued.add(command);
+			}
+		});
+	}
+
+	@Test
+	public void testSmallTierCompactedWhenFull() throws Exception {
+		packs(3);
+		assertEquals(3, odb.getPacks().length);
+		assertTrue(scheduler.selectPacks().isEmpty());
+		assertFalse(scheduler.compact(null));
+
+		packs(1);
+		assertEquals(4, scheduler.selectPacks().size());
+		assertTrue(scheduler.compact(null));
+		assertEquals(1, odb.getPacks().length);
+		assertEquals(COMPACT,
+				odb.getPacks()[0].getPackDescription().getPackSource());
+		assertEquals(1, scheduler.getCompactionCount());
+		assertEquals(4, scheduler.getCompactedPackCount());
+		assertReachable();
+	}
+
+	@Test
+	public void testTiersCompactedSeparately() throws Exception {
+		scheduler.setTierBaseSize(1).setTierRatio(2);
+		packs(4);
+		assertTrue(scheduler.compact(null));
+
+		// The compacted pack is in a larger tier than new packs.
+		packs(3);
+		assertTrue(scheduler.selectPacks().isEmpty());
+		packs(1);
+		List<DfsPackFile> selected = scheduler.selectPacks();
+		assertEquals(4, selected.size());
+		for (DfsPackFile pack : selected)
+			assertEquals(INSERT,
+					pack.getPackDescription().getPackSource());
+
+		// With a single tier the compacted pack joins the next compaction.
+		scheduler.setTierBaseSize(1024 * 1024);
+		assertEquals(5, scheduler.selectPacks().size());
+	}
+
+	@Test
+	public void testMaxPackCountBoundsPacks() throws Exception {
+		scheduler.setPacksPerTier(100).setMaxPackCount(3);
+		packs(5);
+		assertEquals(3, scheduler.selectPacks().size());
+		assertTrue(scheduler.compact(null));
+		assertEquals(3, odb.getPacks().length);
+		assertFalse(scheduler.compact(null));
+		assertReachable();
+	}
+
+	@Test
+	public void testBudgetLimitsCompaction() throws Exception {
+		packs(4);
+		long size = scheduler.getSourceStatistics().get(INSERT)
+				.getTotalSize();
+		scheduler.setMaxBytesPerCompaction(size / 2);
+		int selected = scheduler.selectPacks().size();
+		assertTrue(selected >= 2 && selected < 4);
+
+		scheduler.setMaxBytesPerCompaction(1);
+		assertTrue(scheduler.selectPacks().isEmpty());
+	}
+
+	@Test
+	public void testScheduledOnPacksChanged() throws Exception {
+		ListenerHandle handle = scheduler.start();
+		try {
+			assertEquals(1, queued.size());
+			queued.remove(0).run();
+			assertEquals(0, scheduler.getCompactionCount());
+
+			packs(4);
+			assertEquals(1, queued.size());
+			queued.remove(0).run();
+		} finally {
+			handle.remove();
+		}
+		assertTrue(queued.isEmpty());
+		assertEquals(1, scheduler.getCompactionCount());
+		assertEquals(1, odb.getPacks().length);
+		assertReachable();
+	}
+
+	@Test
+	public void testSourceStatistics() throws Exception {
+		packs(2);
+		Map<PackSource, SourceStatistics> stats = scheduler
+				.getSourceStatistics();
+		assertEquals(1, stats.size());
+		assertEquals(2, stats.get(INSERT).getPackCount());
+		assertTrue(stats.get(INSERT).getTotalSize() > 0);
+	}
+
+	private void packs(int n) throws Exception {
+		for (int i = 0; i < n; i++) {
+			try (ObjectInserter ins = repo.newObjectInserter()) {
+				blobs.add(ins.insert(OBJ_BLOB,
+						Constants.encode("blob " + blobs.size())));
+				ins.flush();
+			}
+		}
+	}
+
+	private void assertReachable() throws Exception {
+		try (ObjectReader reader = repo.newObjectReader()) {
+			for (ObjectId id : blobs)
+				assertTrue(reader.has(id));
+		}
+	}
+}
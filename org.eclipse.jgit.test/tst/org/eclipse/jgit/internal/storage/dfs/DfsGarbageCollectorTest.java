@@ -4,29 +4,42 @@
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.GC_REST;
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.INSERT;
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.UNREACHABLE_GARBAGE;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.OBJECT_SIZE_INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
+import static org.eclipse.jgit.lib.ObjectReader.OBJ_ANY;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource;
+import org.eclipse.jgit.internal.storage.file.PackObjectSizeIndexWriter;
+import org.eclipse.jgit.internal.storage.pack.PackExt;
 import org.eclipse.jgit.junit.MockSystemReader;
 import org.eclipse.jgit.junit.TestRepository;
 import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.AsyncObjectSizeQueue;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevBlob;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.storage.pack.PackConfig;
+import org.eclipse.jgit.transport.PackedObjectInfo;
 import org.eclipse.jgit.util.SystemReader;
 import org.junit.After;
 import org.junit.Before;
@@ -541,6 +554,141 @@ public void testEstimateUnreachableGarbagePackSize() throws Exception {
 		}
 	}
 
+	@Test
+	public void testObjectSizeIndexWritten() throws Exception {
+		StringBuilder msg = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			msg.append(i).append(": i am a teapot\n");
+		}
+		RevBlob a = git.blob(msg.toString());
+		RevCommit c0 = git.commit().add("tea", a).message("0").create();
+		msg.append("short and stout\n");
+		RevBlob b = git.blob(msg.toString());
+		RevCommit c1 = git.commit().parent(c0).tick(1).add("tea", b)
+				.message("1").create();
+		git.update("master", c1);
+
+		PackConfig cfg = new PackConfig();
+		cfg.setWriteObjectSizeIndex(true);
+		DfsGarbageCollector gc = new DfsGarbageCollector(repo);
+		gc.setGarbageTtl(0, TimeUnit.MILLISECONDS); // disable TTL
+		gc.setPackConfig(cfg);
+		run(gc);
+
+		assertEquals(1, odb.getPacks().length);
+		DfsPackFile pack = odb.getPacks()[0];
+		assertTrue(pack.getPackDescription().hasFileExt(OBJECT_SIZE_INDEX));
+		try (DfsReader reader = (DfsReader) odb.newReader()) {
+			assertNotNull(pack.getObjectSizeIndex(reader));
+			assertEquals(msg.length() - 16, reader.getObjectSize(a, OBJ_ANY));
+			assertEquals(msg.length(), reader.getObjectSize(b, OBJ_ANY));
+			assertEquals(reader.open(c1).getSize(),
+					reader.getObjectSize(c1, OBJ_ANY));
+		}
+	}
+
+	@Test
+	public void testInserterWritesObjectSizeIndex() throws Exception {
+		repo.getConfig().setBoolean("pack", null, "writeObjectSizeIndex",
+				true);
+		RevBlob a = git.blob("a blob");
+		assertEquals(1, odb.getPacks().length);
+		DfsPackFile pack = odb.getPacks()[0];
+		assertTrue(pack.getPackDescription().hasFileExt(OBJECT_SIZE_INDEX));
+		try (DfsReader reader = (DfsReader) odb.newReader()) {
+			assertEquals(6, pack.getObjectSize(reader, a));
+		}
+	}
+
+	@Test
+	public void testObjectSizeQueueUsesIndex() throws Exception {
+		repo.getConfig().setBoolean("pack", null, "writeObjectSizeIndex",
+				true);
+		RevBlob a = git.blob("a blob");
+		DfsPackDescription desc = odb.getPacks()[0].getPackDescription();
+
+		// Record a size that differs from the blob, so a correct answer
+		// can only come from the index.
+		byte[] pack = readFile(desc, PACK);
+		PackedObjectInfo info = new PackedObjectInfo(a);
+		info.setFullSize(42);
+		try (DfsOutputStream out = odb.writeFile(desc, OBJECT_SIZE_INDEX)) {
+			new PackObjectSizeIndexWriter(out).write(
+					Collections.singletonList(info),
+					Arrays.copyOfRange(pack, pack.length - 20, pack.length));
+		}
+
+		try (DfsReader reader = (DfsReader) odb.newReader()) {
+			AsyncObjectSizeQueue<RevBlob> q = reader
+					.getObjectSize(Collections.singletonList(a), true);
+			try {
+				assertTrue(q.next());
+				assertEquals(42, q.getSize());
+			} finally {
+				q.release();
+			}
+		}
+	}
+
+	@Test
+	public void testObjectSizeIndexOfOtherPackIgnored() throws Exception {
+		repo.getConfig().setBoolean("pack", null, "writeObjectSizeIndex",
+				true);
+		RevBlob a = git.blob("a blob");
+		RevBlob b = git.blob("another blob");
+		assertEquals(2, odb.getPacks().length);
+		DfsPackFile packA = odb.getPacks()[0];
+		DfsPackFile packB = odb.getPacks()[1];
+		if (!isObjectInPack(a, packA)) {
+			packA = odb.getPacks()[1];
+			packB = odb.getPacks()[0];
+		}
+
+		byte[] sizes = readFile(packA.getPackDescription(),
+				OBJECT_SIZE_INDEX);
+		try (DfsOutputStream out = odb.writeFile(
+				packB.getPackDescription(), OBJECT_SIZE_INDEX)) {
+			out.write(sizes);
+		}
+
+		try (DfsReader reader = (DfsReader) odb.newReader()) {
+			assertNull(packB.getObjectSizeIndex(reader));
+			assertEquals(12, packB.getObjectSize(reader, b));
+		}
+	}
+
+	@Test
+	public void testWriteExecutorClosesFiles() throws Exception {
+		final AtomicInteger closes = new AtomicInteger();
+		final ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			odb.setWriteExecutor(new Executor() {
+				@Override
+				public void execute(Runnable command) {
+					closes.incrementAndGet();
+					pool.execute(command);
+				}
+			});
+
+			RevCommit commit0 = commit().message("0").create();
+			RevCommit commit1 = commit().message("1").parent(commit0).create();
+			git.update("master", commit1);
+			assertTrue("inserter closed files", closes.get() > 0);
+
+			closes.set(0);
+			gcNoTtl();
+			assertTrue("gc closed files", closes.get() > 0);
+
+			assertEquals(1, odb.getPacks().length);
+			DfsPackFile pack = odb.getPacks()[0];
+			assertEquals(GC, pack.getPackDescription().getPackSource());
+			assertTrue("commit0 in pack", isObjectInPack(commit0, pack));
+			assertTrue("commit1 in pack", isObjectInPack(commit1, pack));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
 	private TestRepository<InMemoryRepository>.CommitBuilder commit() {
 		return git.commit();
 	}
@@ -581,6 +729,17 @@ private static boolean isReachable(Repository repo, AnyObjectId id)
 		return false;
 	}
 
+	private byte[] readFile(DfsPackDescription desc, PackExt ext)
+			throws IOException {
+		try (ReadableChannel rc = odb.openFile(desc, ext)) {
+			ByteBuffer buf = ByteBuffer.allocate((int) rc.size());
+			while (buf.hasRemaining() && rc.read(buf) > 0) {
+				// Keep reading until the whole file is in buf.
+			}
+			return buf.array();
+		}
+	}
+
 	private boolean isObjectInPack(AnyObjectId id, DfsPackFile pack)
 			throws IOException {
 		try (DfsReader reader = new DfsReader(odb)) {
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.dfs;
+
+import static org.eclipse.jgit.internal.storage.pack.PackExt.INDEX;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.jgit.junit.TestRng;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DfsPagedPackIndexTest {
+	private InMemoryRepository db;
+
+	private List<ObjectId> ids;
+
+	private List<byte[]> data;
+
+	private DfsPackFile pack;
+
+	@Before
+	public void setUp() throws Exception {
+		db = new InMemoryRepository(new DfsRepositoryDescription("test"));
+		TestRng rng = new TestRng("DfsPagedPackIndexTest");
+		ids = new ArrayList<ObjectId>();
+		data = new ArrayList<byte[]>();
+		try (ObjectInserter ins = db.newObjectInserter()) {
+			for (int i = 0; i < 500; i++) {
+				byte[] d = rng.nextBytes(20 + i % 50);
+				ids.add(ins.insert(Constants.OBJ_BLOB, d));
+				data.add(d);
+			}
+			ins.flush();
+		}
+
+		DfsBlockCache.reconfigure(new DfsBlockCacheConfig()
+				.setBlockSize(512)
+				.setBlockLimit(1024 * 1024));
+		db.getObjectDatabase().clearCache();
+		db.getObjectDatabase().getReaderOptions().setPagedIndexThreshold(1);
+		pack = db.getObjectDatabase().getPacks()[0];
+	}
+
+	@Test
+	public void testLookupReadsFewBlocks() throws Exception {
+		long indexSize = pack.getPackDescription().getFileSize(INDEX);
+		try (ObjectReader reader = db.newObjectReader()) {
+			assertArrayEquals(data.get(7),
+					reader.open(ids.get(7)).getCachedBytes());
+		}
+		assertFalse(pack.isIndexLoaded());
+		long cached = DfsBlockCache.getInstance().getCurrentSize(INDEX);
+		assertTrue(cached > 0);
+		assertTrue(cached < indexSize / 2);
+	}
+
+	@Test
+	public void testAllObjectsFound() throws Exception {
+		try (DfsReader reader = (DfsReader) db.newObjectReader()) {
+			for (int i = 0; i < ids.size(); i++) {
+				assertTrue(reader.has(ids.get(i)));
+				assertArrayEquals(data.get(i),
+						reader.open(ids.get(i)).getCachedBytes());
+			}
+			assertFalse(reader.has(ObjectId
+					.fromString("0000000000000000000000000000000000000001")));
+			assertFalse(reader.has(ObjectId
+					.fromString("ffffffffffffffffffffffffffffffffffffffff")));
+			assertEquals(ids.size(), pack.getObjectCount(reader));
+		}
+		assertFalse(pack.isIndexLoaded());
+	}
+
+	@Test
+	public void testOffsetsMatchFullIndex() throws Exception {
+		try (DfsReader reader = (DfsReader) db.newObjectReader()) {
+			long[] paged = new long[ids.size()];
+			for (int i = 0; i < ids.size(); i++)
+				paged[i] = pack.findOffset(reader, ids.get(i));
+
+			pack.getPackIndex(reader);
+			assertTrue(pack.isIndexLoaded());
+			for (int i = 0; i < ids.size(); i++)
+				assertEquals(pack.getPackIndex(reader).findOffset(ids.get(i)),
+						paged[i]);
+		}
+	}
+
+	@Test
+	public void testResolveAbbreviation() throws Exception {
+		try (ObjectReader reader = db.newObjectReader()) {
+			for (int i = 0; i < 20; i++) {
+				ObjectId id = ids.get(i);
+				Collection<ObjectId> r = reader
+						.resolve(AbbreviatedObjectId.fromString(id.name()
+								.substring(0, 7)));
+				assertTrue(r.contains(id));
+			}
+		}
+		assertFalse(pack.isIndexLoaded());
+
+		// Short abbreviations match the same objects as the full index.
+		String[] abbrs = { "0", "00", "a", "ff", "7e" };
+		List<Set<ObjectId>> paged = new ArrayList<Set<ObjectId>>();
+		try (DfsReader reader = (DfsReader) db.newObjectReader()) {
+			for (String abbr : abbrs) {
+				Set<ObjectId> r = new HashSet<ObjectId>();
+				pack.resolve(reader, r, AbbreviatedObjectId.fromString(abbr),
+						256);
+				paged.add(r);
+			}
+			assertFalse(pack.isIndexLoaded());
+
+			for (int i = 0; i < abbrs.length; i++) {
+				Set<ObjectId> full = new HashSet<ObjectId>();
+				pack.getPackIndex(reader).resolve(full,
+						AbbreviatedObjectId.fromString(abbrs[i]), 256);
+				assertEquals(full, paged.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void testDisabledLoadsWholeIndex() throws Exception {
+		db.getObjectDatabase().getReaderOptions().setPagedIndexThreshold(0);
+		try (ObjectReader reader = db.newObjectReader()) {
+			assertTrue(reader.has(ids.get(0)));
+		}
+		assertTrue(pack.isIndexLoaded());
+	}
+}
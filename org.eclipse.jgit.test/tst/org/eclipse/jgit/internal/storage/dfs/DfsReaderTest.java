@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.dfs;
+
+import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.junit.TestRng;
+import org.eclipse.jgit.lib.AsyncObjectLoaderQueue;
+import org.eclipse.jgit.lib.AsyncObjectSizeQueue;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DfsReaderTest {
+	private InMemoryRepository db;
+
+	private ExecutorService pool;
+
+	private AtomicInteger tasks;
+
+	private Map<ObjectId, byte[]> blobs;
+
+	@Before
+	public void setUp() throws Exception {
+		DfsBlockCache.reconfigure(new DfsBlockCacheConfig()
+				.setBlockSize(512)
+				.setBlockLimit(64 * 1024));
+
+		pool = Executors.newFixedThreadPool(4);
+		tasks = new AtomicInteger();
+		db = new InMemoryRepository(new DfsRepositoryDescription("test"));
+		db.getObjectDatabase().getReaderOptions()
+				.setAsyncReadExecutor(new Executor() {
+					@Override
+					public void execute(Runnable command) {
+						tasks.incrementAndGet();
+						pool.execute(command);
+					}
+				}).setAsyncReadAhead(4);
+
+		TestRng rng = new TestRng("DfsReaderTest");
+		blobs = new HashMap<ObjectId, byte[]>();
+		try (DfsInserter ins = (DfsInserter) db.newObjectInserter()) {
+			ins.setCompressionLevel(Deflater.NO_COMPRESSION);
+			for (int i = 0; i < 50; i++) {
+				byte[] data = rng.nextBytes(100 + i * 20);
+				blobs.put(ins.insert(Constants.OBJ_BLOB, data), data);
+			}
+			ins.flush();
+		}
+
+		// Start from an empty cache so the queue has to load every block.
+		DfsBlockCache.reconfigure(new DfsBlockCacheConfig()
+				.setBlockSize(512)
+				.setBlockLimit(64 * 1024));
+		db.getObjectDatabase().clearCache();
+	}
+
+	@After
+	public void tearDown() {
+		pool.shutdownNow();
+	}
+
+	@Test
+	public void testOpenLoadsBlocksInParallel() throws Exception {
+		List<ObjectId> want = new ArrayList<ObjectId>(blobs.keySet());
+		int seen = 0;
+		try (ObjectReader reader = db.newObjectReader()) {
+			AsyncObjectLoaderQueue<ObjectId> q = reader.open(want, true);
+			try {
+				while (q.next()) {
+					assertArrayEquals(blobs.get(q.getObjectId()),
+							q.open().getCachedBytes());
+					seen++;
+				}
+			} finally {
+				q.release();
+			}
+		}
+		assertEquals(blobs.size(), seen);
+		assertTrue(tasks.get() > 0);
+	}
+
+	@Test
+	public void testObjectSizeQueue() throws Exception {
+		List<ObjectId> want = new ArrayList<ObjectId>(blobs.keySet());
+		int seen = 0;
+		try (ObjectReader reader = db.newObjectReader()) {
+			AsyncObjectSizeQueue<ObjectId> q = reader.getObjectSize(want,
+					true);
+			try {
+				while (q.next()) {
+					assertEquals(blobs.get(q.getObjectId()).length,
+							q.getSize());
+					seen++;
+				}
+			} finally {
+				q.release();
+			}
+		}
+		assertEquals(blobs.size(), seen);
+		assertTrue(tasks.get() > 0);
+	}
+
+	@Test(timeout = 60000)
+	public void testCancelledQueueDoesNotWait() throws Exception {
+		List<ObjectId> want = new ArrayList<ObjectId>(blobs.keySet());
+		int seen = 0;
+		try (ObjectReader reader = db.newObjectReader()) {
+			AsyncObjectLoaderQueue<ObjectId> q = reader.open(want, true);
+			try {
+				assertTrue(q.next());
+				q.cancel(false);
+				do {
+					assertArrayEquals(blobs.get(q.getObjectId()),
+							q.open().getCachedBytes());
+					seen++;
+				} while (q.next());
+			} finally {
+				q.release();
+			}
+		}
+		assertEquals(blobs.size(), seen);
+	}
+
+	@Test
+	public void testMissingObjectReported() throws Exception {
+		List<ObjectId> want = new ArrayList<ObjectId>(blobs.keySet());
+		ObjectId missing = ObjectId
+				.fromString("0123456789012345678901234567890123456789");
+		want.add(missing);
+		try (ObjectReader reader = db.newObjectReader()) {
+			AsyncObjectLoaderQueue<ObjectId> q = reader.open(want, true);
+			try {
+				boolean found = false;
+				while (q.next()) {
+					if (q.getObjectId().equals(missing)) {
+						try {
+							q.open();
+							fail("expected MissingObjectException");
+						} catch (MissingObjectException e) {
+							found = true;
+						}
+					} else {
+						assertFalse(q.open().isLarge());
+					}
+				}
+				assertTrue(found);
+			} finally {
+				q.release();
+			}
+		}
+	}
+
+	@Test
+	public void testSequentialScanReadsAhead() throws Exception {
+		db.getObjectDatabase().getReaderOptions().setReadAheadLimit(4096);
+		DfsPackFile pack = db.getObjectDatabase().getPacks()[0];
+		long len = pack.getPackDescription().getFileSize(PACK);
+		int blocks = (int) ((len + 511) / 512);
+		assertTrue(blocks > 8);
+
+		DfsAccessPattern p;
+		try (DfsReader reader = (DfsReader) db.newObjectReader()) {
+			for (long pos = 0; pos < len; pos += 512)
+				assertEquals(pos, pack.getOrLoadBlock(pos, reader).start);
+
+			p = reader.getAccessPattern(pack);
+			assertEquals(1, p.getRandomReads());
+			assertEquals(blocks, p.getBlocksRead());
+			assertTrue(p.getReadAheadBlocks() > blocks / 2);
+			assertTrue(p.getSequentialReads() < blocks / 2);
+		}
+		DfsBlockCache cache = DfsBlockCache.getInstance();
+		assertEquals(len, cache.getCurrentSize(PACK));
+		assertEquals(blocks - p.getSequentialReads() - 1,
+				cache.getHitCount(PACK));
+
+		try (ObjectReader reader = db.newObjectReader()) {
+			for (Map.Entry<ObjectId, byte[]> e : blobs.entrySet())
+				assertArrayEquals(e.getValue(),
+						reader.open(e.getKey()).getCachedBytes());
+		}
+	}
+
+	@Test
+	public void testRandomAccessReadsSingleBlocks() throws Exception {
+		db.getObjectDatabase().getReaderOptions().setReadAheadLimit(4096);
+		DfsPackFile pack = db.getObjectDatabase().getPacks()[0];
+		long len = pack.getPackDescription().getFileSize(PACK);
+		long last = ((len - 1) / 512) * 512;
+
+		try (DfsReader reader = (DfsReader) db.newObjectReader()) {
+			for (long pos = last; pos >= 0; pos -= 1024)
+				pack.getOrLoadBlock(pos, reader);
+
+			DfsAccessPattern p = reader.getAccessPattern(pack);
+			assertEquals(0, p.getSequentialReads());
+			assertEquals(0, p.getReadAheadBlocks());
+			assertEquals(p.getRandomReads(), p.getBlocksRead());
+		}
+	}
+
+	@Test
+	public void testMissingObjectRemembered() throws Exception {
+		DfsObjDatabase odb = db.getObjectDatabase();
+		byte[] data = Constants.encode("not yet inserted");
+		ObjectId id = new ObjectInserter.Formatter().idFor(
+				Constants.OBJ_BLOB, data);
+
+		try (ObjectReader reader = db.newObjectReader()) {
+			assertFalse(reader.has(id));
+			assertEquals(0, odb.getMissingObjectHitCount());
+			assertFalse(reader.has(id));
+			assertEquals(1, odb.getMissingObjectHitCount());
+			try {
+				reader.open(id);
+				fail("expected MissingObjectException");
+			} catch (MissingObjectException e) {
+				assertEquals(2, odb.getMissingObjectHitCount());
+			}
+
+			try (ObjectInserter ins = db.newObjectInserter()) {
+				ins.insert(Constants.OBJ_BLOB, data);
+				ins.flush();
+			}
+			assertTrue(reader.has(id));
+		}
+	}
+
+	@Test
+	public void testRescanAfterMissIsRateLimited() throws Exception {
+		DfsObjDatabase odb = db.getObjectDatabase();
+		odb.getReaderOptions().setMinRescanInterval(60 * 1000);
+		ObjectId id = ObjectId
+				.fromString("0123456789012345678901234567890123456789");
+
+		try (ObjectReader reader = db.newObjectReader()) {
+			odb.getPackList().markDirty();
+			assertFalse(reader.has(id));
+			assertEquals(1, odb.getMissRescanCount());
+			assertEquals(0, odb.getSkippedRescanCount());
+
+			odb.getCurrentPackList().markDirty();
+			assertFalse(reader.has(id));
+			assertEquals(1, odb.getMissRescanCount());
+			assertEquals(1, odb.getSkippedRescanCount());
+		}
+	}
+}
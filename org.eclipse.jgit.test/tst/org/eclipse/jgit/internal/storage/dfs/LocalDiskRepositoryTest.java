@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.dfs;
+
+import static org.eclipse.jgit.internal.storage.pack.PackExt.INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LocalDiskRepositoryTest extends LocalDiskRepositoryTestCase {
+	private File dir;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		dir = createTempDirectory("dfs");
+	}
+
+	@Test
+	public void testReopen() throws Exception {
+		RevCommit c;
+		RevTag t;
+		try (LocalDiskRepository repo = open()) {
+			repo.create(true);
+			TestRepository<LocalDiskRepository> git = new TestRepository<>(
+					repo);
+			c = git.branch("master").commit().add("file", "content")
+					.create();
+			t = git.tag("v1", c);
+			git.update("refs/tags/v1", t);
+		}
+
+		try (LocalDiskRepository repo = open()) {
+			assertTrue(repo.exists());
+			Ref head = repo.exactRef(Constants.HEAD);
+			assertTrue(head.isSymbolic());
+			assertEquals("refs/heads/master", head.getTarget().getName());
+			assertEquals(c, head.getObjectId());
+
+			Ref tag = repo.getRefDatabase().peel(repo.exactRef("refs/tags/v1"));
+			assertEquals(t, tag.getObjectId());
+			assertEquals(c, tag.getPeeledObjectId());
+
+			try (RevWalk rw = new RevWalk(repo)) {
+				RevCommit parsed = rw.parseCommit(c);
+				RevBlob b = (RevBlob) new TestRepository<>(repo)
+						.get(parsed.getTree(), "file");
+				assertEquals("content",
+						new String(repo.open(b).getBytes(), "UTF-8"));
+			}
+		}
+	}
+
+	@Test
+	public void testGarbageCollectAndPrune() throws Exception {
+		RevCommit c0;
+		RevCommit c1;
+		try (LocalDiskRepository repo = open()) {
+			repo.create(true);
+			TestRepository<LocalDiskRepository> git = new TestRepository<>(
+					repo);
+			c0 = git.branch("master").commit().message("0").create();
+			c1 = git.branch("master").commit().message("1").create();
+			assertTrue(repo.getObjectDatabase().getPacks().length > 1);
+
+			// The age counts from the replacement, not from the write.
+			mockSystemReader.tick((int) TimeUnit.HOURS.toSeconds(2));
+			DfsGarbageCollector gc = new DfsGarbageCollector(repo);
+			gc.setGarbageTtl(0, TimeUnit.MILLISECONDS);
+			assertTrue(gc.pack(NullProgressMonitor.INSTANCE));
+
+			// Replaced packs stay on disk until pruned.
+			assertEquals(0, repo.prunePacks(TimeUnit.HOURS.toMillis(1)));
+			mockSystemReader.tick((int) TimeUnit.HOURS.toSeconds(1) + 1);
+			assertTrue(repo.prunePacks(TimeUnit.HOURS.toMillis(1)) > 0);
+			assertEquals(0, repo.prunePacks(0));
+		}
+
+		try (LocalDiskRepository repo = open()) {
+			DfsPackFile[] packs = repo.getObjectDatabase().getPacks();
+			assertEquals(1, packs.length);
+			DfsPackDescription desc = packs[0].getPackDescription();
+			assertEquals(DfsObjDatabase.PackSource.GC, desc.getPackSource());
+			assertTrue(desc.hasFileExt(INDEX));
+			assertEquals(new File(dir, "objects/pack/"
+					+ desc.getFileName(PACK)).length(),
+					desc.getFileSize(PACK));
+			try (ObjectReader reader = repo.newObjectReader()) {
+				assertTrue(reader.has(c1));
+				assertTrue(reader.has(c0));
+			}
+		}
+	}
+
+	@Test
+	public void testPruneKeepsPackBeingWritten() throws Exception {
+		try (LocalDiskRepository repo = open()) {
+			repo.create(true);
+			File packDir = new File(dir, "objects/pack");
+			try (ObjectInserter ins = repo.newObjectInserter()) {
+				ObjectId id = ins.insert(Constants.OBJ_BLOB,
+						Constants.encode("pending"));
+				String[] written = packDir.list();
+				assertTrue(written.length > 0);
+
+				mockSystemReader.tick((int) TimeUnit.HOURS.toSeconds(2));
+				assertEquals(0, repo.prunePacks(0));
+				assertEquals(written.length, packDir.list().length);
+
+				ins.flush();
+				assertTrue(repo.getObjectDatabase().has(id));
+			}
+		}
+	}
+
+	@Test
+	public void testAtomicBatchUpdate() throws Exception {
+		try (LocalDiskRepository repo = open()) {
+			repo.create(true);
+			TestRepository<LocalDiskRepository> git = new TestRepository<>(
+					repo);
+			RevCommit a = git.commit().message("a").create();
+			RevCommit b = git.commit().message("b").create();
+			git.update("refs/heads/x", a);
+
+			BatchRefUpdate batch = repo.getRefDatabase().newBatchUpdate();
+			batch.setAtomic(true);
+			batch.addCommand(Arrays.asList(
+					new ReceiveCommand(ObjectId.zeroId(), b, "refs/heads/y"),
+					new ReceiveCommand(b, a, "refs/heads/x")));
+			try (RevWalk rw = new RevWalk(repo)) {
+				batch.execute(rw, NullProgressMonitor.INSTANCE);
+			}
+			assertEquals(ReceiveCommand.Result.LOCK_FAILURE,
+					batch.getCommands().get(1).getResult());
+			assertNull(repo.exactRef("refs/heads/y"));
+
+			batch = repo.getRefDatabase().newBatchUpdate();
+			batch.setAtomic(true);
+			batch.addCommand(Arrays.asList(
+					new ReceiveCommand(ObjectId.zeroId(), b, "refs/heads/y"),
+					new ReceiveCommand(a, b, "refs/heads/x")));
+			try (RevWalk rw = new RevWalk(repo)) {
+				batch.execute(rw, NullProgressMonitor.INSTANCE);
+			}
+			for (ReceiveCommand cmd : batch.getCommands())
+				assertEquals(ReceiveCommand.Result.OK, cmd.getResult());
+		}
+
+		try (LocalDiskRepository repo = open()) {
+			assertEquals(repo.exactRef("refs/heads/x").getObjectId(),
+					repo.exactRef("refs/heads/y").getObjectId());
+		}
+	}
+
+	@Test
+	public void testRollbackDeletesFiles() throws IOException {
+		try (LocalDiskRepository repo = open()) {
+			DfsObjDatabase odb = repo.getObjectDatabase();
+			DfsPackDescription desc = odb
+					.newPack(DfsObjDatabase.PackSource.INSERT);
+			odb.writeFile(desc, PACK).close();
+			File pack = new File(dir, "objects/pack/"
+					+ desc.getFileName(PACK));
+			assertTrue(pack.exists());
+			odb.rollbackPack(Arrays.asList(desc));
+			assertFalse(pack.exists());
+			assertEquals(0, odb.getPacks().length);
+		}
+	}
+
+	private LocalDiskRepository open() throws IOException {
+		return new LocalDiskRepository.Builder().setDirectory(dir).build();
+	}
+}
@@ -43,8 +43,12 @@
 
 package org.eclipse.jgit.internal.storage.file;
 
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
+import static org.eclipse.jgit.lib.Constants.OBJ_COMMIT;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -55,9 +59,11 @@
 import java.util.List;
 
 import org.eclipse.jgit.junit.TestRepository.BranchBuilder;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.storage.pack.PackConfig;
+import org.eclipse.jgit.util.FileUtils;
 import org.junit.Test;
 import org.junit.experimental.theories.DataPoints;
 import org.junit.experimental.theories.Theories;
@@ -288,6 +294,57 @@ private void testPreserveOldPacks() throws Exception {
 		assertTrue(preservePackFile.exists());
 	}
 
+	@Theory
+	public void testObjectSizeIndex(boolean aggressive) throws Exception {
+		BranchBuilder bb = tr.branch("refs/heads/master");
+		bb.commit().add("A", "A").add("B", "B").create();
+		RevCommit second = bb.commit().add("A", "A2").add("B", "B2")
+				.create();
+
+		PackConfig pconfig = configureGc(gc, aggressive);
+		pconfig.setWriteObjectSizeIndex(true);
+		gc.gc();
+
+		Collection<PackFile> packs = repo.getObjectDatabase().getPacks();
+		assertEquals(1, packs.size());
+		PackFile pack = packs.iterator().next();
+		assertTrue(nameFor(pack, ".objsize").exists());
+		assertNotNull(pack.getObjectSizeIndex());
+		try (ObjectReader reader = repo.newObjectReader()) {
+			assertEquals(2, reader.getObjectSize(
+					repo.resolve(second.name() + ":A"), OBJ_BLOB));
+			assertEquals(reader.open(second).getSize(),
+					reader.getObjectSize(second, OBJ_COMMIT));
+		}
+	}
+
+	@Theory
+	public void testCorruptObjectSizeIndexIgnored(boolean aggressive)
+			throws Exception {
+		BranchBuilder bb = tr.branch("refs/heads/master");
+		RevCommit first = bb.commit().add("A", "A").create();
+
+		PackConfig pconfig = configureGc(gc, aggressive);
+		pconfig.setWriteObjectSizeIndex(true);
+		gc.gc();
+
+		PackFile pack = repo.getObjectDatabase().getPacks().iterator().next();
+		File sizeIdx = nameFor(pack, ".objsize");
+		FileUtils.delete(sizeIdx);
+		write(sizeIdx, "not an object size index");
+
+		assertNull(pack.getObjectSizeIndex());
+		try (ObjectReader reader = repo.newObjectReader()) {
+			assertEquals(1, reader.getObjectSize(
+					repo.resolve(first.name() + ":A"), OBJ_BLOB));
+		}
+	}
+
+	private static File nameFor(PackFile pack, String ext) {
+		String name = pack.getPackFile().getPath();
+		return new File(name.substring(0, name.lastIndexOf('.')) + ext);
+	}
+
 	private PackConfig configureGc(GC myGc, boolean aggressive) {
 		PackConfig pconfig = new PackConfig(repo);
 		if (aggressive) {
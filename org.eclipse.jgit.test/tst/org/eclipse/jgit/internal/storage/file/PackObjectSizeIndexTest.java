@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.transport.PackedObjectInfo;
+import org.junit.Test;
+
+public class PackObjectSizeIndexTest {
+	private static final byte[] PACK_CHECKSUM = new byte[20];
+
+	static {
+		for (int i = 0; i < PACK_CHECKSUM.length; i++)
+			PACK_CHECKSUM[i] = (byte) i;
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		List<PackedObjectInfo> objs = new ArrayList<PackedObjectInfo>();
+		objs.add(object("1111111111111111111111111111111111111111", 0));
+		objs.add(object("2222222222222222222222222222222222222222", 42));
+		objs.add(object("3333333333333333333333333333333333333333",
+				Integer.MAX_VALUE));
+		objs.add(object("4444444444444444444444444444444444444444",
+				1L << 31));
+		objs.add(object("5555555555555555555555555555555555555555",
+				5L << 40));
+
+		PackObjectSizeIndex idx = PackObjectSizeIndex.read(
+				new ByteArrayInputStream(write(objs)));
+		assertEquals(objs.size(), idx.getObjectCount());
+		for (int i = 0; i < objs.size(); i++)
+			assertEquals(objs.get(i).getFullSize(), idx.getSize(i));
+		assertArrayEquals(PACK_CHECKSUM, idx.getPackChecksum());
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		List<PackedObjectInfo> objs = Collections.emptyList();
+		PackObjectSizeIndex idx = PackObjectSizeIndex.read(
+				new ByteArrayInputStream(write(objs)));
+		assertEquals(0, idx.getObjectCount());
+	}
+
+	@Test
+	public void testUnknownSizeRejected() throws IOException {
+		List<PackedObjectInfo> objs = new ArrayList<PackedObjectInfo>();
+		objs.add(new PackedObjectInfo(ObjectId.zeroId()));
+		try {
+			write(objs);
+			fail("expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testBadSignature() throws IOException {
+		byte[] data = write(Collections.<PackedObjectInfo> emptyList());
+		data[1] = 'X';
+		try {
+			PackObjectSizeIndex.read(new ByteArrayInputStream(data));
+			fail("expected IOException");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private static PackedObjectInfo object(String name, long size) {
+		PackedObjectInfo obj = new PackedObjectInfo(
+				ObjectId.fromString(name));
+		obj.setFullSize(size);
+		return obj;
+	}
+
+	private static byte[] write(List<PackedObjectInfo> objs)
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new PackObjectSizeIndexWriter(out).write(objs, PACK_CHECKSUM);
+		return out.toByteArray();
+	}
+}
@@ -53,10 +53,12 @@
 import static org.eclipse.jgit.transport.ReceiveCommand.Result.REJECTED_OTHER_REASON;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.IOException;
 import java.util.Arrays;
@@ -272,6 +274,112 @@ public void testApplyCannotCreateParentRef() throws Exception {
 		assertEquals(treeId, write(tree));
 	}
 
+	@Test
+	public void testApplyReplaceRefWithDirectory() throws Exception {
+		RefTree tree = RefTree.newEmptyTree();
+		RevBlob a = git.blob("A");
+		Command cmd = new Command(null, ref(R_MASTER, a));
+		assertTrue(tree.apply(Collections.singletonList(cmd)));
+		write(tree);
+
+		RevBlob b = git.blob("B");
+		Command cmd1 = create(R_MASTER + "/sub", b);
+		Command cmd2 = update(R_MASTER, a, ObjectId.zeroId());
+		assertTrue(tree.apply(Arrays.asList(cmd1, cmd2)));
+		ObjectId treeId = write(tree);
+
+		try (RevWalk rw = new RevWalk(repo)) {
+			RefTree read = RefTree.read(rw.getObjectReader(),
+					rw.parseTree(treeId));
+			assertNull(read.exactRef(rw.getObjectReader(), R_MASTER));
+			Ref r = read.exactRef(rw.getObjectReader(), R_MASTER + "/sub");
+			assertNotNull(r);
+			assertEquals(b, r.getObjectId());
+			assertEquals(treeId, write(read));
+		}
+	}
+
+	@Test
+	public void testCopyIsIndependent() throws Exception {
+		RefTree tree = RefTree.newEmptyTree();
+		RevBlob a = git.blob("A");
+		Command cmd = new Command(null, ref(R_MASTER, a));
+		assertTrue(tree.apply(Collections.singletonList(cmd)));
+		ObjectId treeId = write(tree);
+
+		RefTree copy = tree.copy();
+		RevBlob b = git.blob("B");
+		Command cmd1 = update(R_MASTER, a, b);
+		Command cmd2 = create(R_HEADS + "next", b);
+		assertTrue(copy.apply(Arrays.asList(cmd1, cmd2)));
+		assertNotEquals(treeId, write(copy));
+		assertEquals(treeId, write(tree));
+
+		try (ObjectReader reader = repo.newObjectReader()) {
+			assertEquals(a, tree.exactRef(reader, R_MASTER).getObjectId());
+			assertNull(tree.exactRef(reader, R_HEADS + "next"));
+			assertEquals(b, copy.exactRef(reader, R_MASTER).getObjectId());
+		}
+	}
+
+	@Test
+	public void testTreesReadFromCacheAreIndependent() throws Exception {
+		RefTree tree = RefTree.newEmptyTree();
+		RevBlob a = git.blob("A");
+		Command cmd1 = create(R_MASTER, a);
+		Command cmd2 = create(R_HEADS + "topic/x", a);
+		assertTrue(tree.apply(Arrays.asList(cmd1, cmd2)));
+		ObjectId treeId = write(tree);
+
+		try (RevWalk rw = new RevWalk(repo)) {
+			ObjectReader reader = rw.getObjectReader();
+			RefTree t1 = RefTree.read(reader, rw.parseTree(treeId));
+			RefTree t2 = RefTree.read(reader, rw.parseTree(treeId));
+
+			RevBlob b = git.blob("B");
+			assertTrue(t1.apply(Collections.singletonList(
+					update(R_HEADS + "topic/x", a, b))));
+			ObjectId newId = write(t1);
+			assertNotEquals(treeId, newId);
+
+			assertEquals(a, t2.exactRef(reader, R_HEADS + "topic/x")
+					.getObjectId());
+			assertEquals(treeId, write(t2));
+
+			RefTree t3 = RefTree.read(reader, rw.parseTree(newId));
+			assertEquals(b, t3.exactRef(reader, R_HEADS + "topic/x")
+					.getObjectId());
+			assertEquals(a, t3.exactRef(reader, R_MASTER).getObjectId());
+		}
+	}
+
+	@Test
+	public void testCacheSize() throws Exception {
+		RefTree tree = RefTree.newEmptyTree();
+		RevBlob a = git.blob("A");
+		assertTrue(tree.apply(Collections.singletonList(create(R_MASTER, a))));
+		ObjectId treeId = write(tree);
+		InMemoryRepository other = new InMemoryRepository(
+				new DfsRepositoryDescription("other"));
+
+		// Written trees are cached, the reader does not see their objects.
+		try (RevWalk rw = new RevWalk(other)) {
+			ObjectReader reader = rw.getObjectReader();
+			RefTree cached = RefTree.read(reader, rw.lookupTree(treeId));
+			assertEquals(a, cached.exactRef(reader, R_MASTER).getObjectId());
+		}
+
+		RefTree.setCacheSize(0);
+		try (RevWalk rw = new RevWalk(other)) {
+			RefTree.read(rw.getObjectReader(), rw.lookupTree(treeId));
+			fail("tree read from disabled cache");
+		} catch (MissingObjectException e) {
+			// expected
+		} finally {
+			RefTree.setCacheSize(RefTree.DEFAULT_CACHE_ENTRIES);
+		}
+	}
+
 	private static Ref ref(String name, ObjectId id) {
 		return new ObjectIdRef.PeeledNonTag(LOOSE, name, id);
 	}
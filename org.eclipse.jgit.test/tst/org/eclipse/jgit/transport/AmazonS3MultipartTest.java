@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.RawParseUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AmazonS3MultipartTest {
+	private static final String BUCKET = "bucket";
+
+	private static final int PART = (int) AmazonS3.MIN_PART_SIZE;
+
+	private FakeS3 s3;
+
+	private ProxySelector oldProxySelector;
+
+	@Before
+	public void setUp() throws Exception {
+		s3 = new FakeS3();
+		oldProxySelector = ProxySelector.getDefault();
+		// Every bucket host name is sent to the fake server.
+		ProxySelector.setDefault(new ProxySelector() {
+			@Override
+			public List<Proxy> select(URI uri) {
+				return Collections.singletonList(new Proxy(Proxy.Type.HTTP,
+						s3.getAddress()));
+			}
+
+			@Override
+			public void connectFailed(URI uri, SocketAddress sa,
+					IOException ioe) {
+				// Ignored.
+			}
+		});
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		ProxySelector.setDefault(oldProxySelector);
+		s3.close();
+	}
+
+	@Test
+	public void testSmallObjectIsSentWithOnePut() throws Exception {
+		byte[] data = data(1000);
+		put(newClient(PART, 2), "small", data);
+
+		assertArrayEquals(data, s3.objects.get("/small"));
+		assertEquals(Collections.singletonList("PUT /small"), s3.requests);
+	}
+
+	@Test
+	public void testLargeObjectIsSentInParts() throws Exception {
+		byte[] data = data(2 * PART + 5);
+		put(newClient(PART, 3), "large", data);
+
+		assertArrayEquals(data, s3.objects.get("/large"));
+		assertEquals("POST /large?uploads", s3.requests.get(0));
+		assertEquals(3, s3.count("PUT /large?partNumber="));
+		assertEquals("POST /large?uploadId=u1",
+				s3.requests.get(s3.requests.size() - 1));
+		for (String auth : s3.authorizations)
+			assertTrue(auth.startsWith("AWS key:"));
+	}
+
+	@Test
+	public void testFailedPartIsRetried() throws Exception {
+		s3.failPart = 2;
+		s3.failStatus = 500;
+		byte[] data = data(3 * PART);
+		put(newClient(PART, 2), "retry", data);
+
+		assertArrayEquals(data, s3.objects.get("/retry"));
+		assertEquals(4, s3.count("PUT /retry?partNumber="));
+	}
+
+	@Test
+	public void testRejectedPartAbortsUpload() throws Exception {
+		s3.failPart = 2;
+		s3.failStatus = 403;
+		try {
+			put(newClient(PART, 2), "denied", data(3 * PART));
+			fail("upload did not fail");
+		} catch (IOException e) {
+			assertNotNull(e.getMessage());
+		}
+
+		assertFalse(s3.objects.containsKey("/denied"));
+		assertEquals(1, s3.count("DELETE /denied?uploadId=u1"));
+		assertEquals(0, s3.count("POST /denied?uploadId="));
+	}
+
+	@Test
+	public void testInvalidPartSizeIsRejected() {
+		for (long size : new long[] { -1, 1024, AmazonS3.MIN_PART_SIZE - 1,
+				AmazonS3.MAX_PART_SIZE + 1 }) {
+			try {
+				newClient(size, 1);
+				fail("accepted part size " + size);
+			} catch (IllegalArgumentException e) {
+				assertTrue(e.getMessage().contains(String.valueOf(size)));
+			}
+		}
+		newClient(0, 1);
+		newClient(AmazonS3.MIN_PART_SIZE, 1);
+		newClient(AmazonS3.MAX_PART_SIZE, 1);
+	}
+
+	private static AmazonS3 newClient(long partSize, int threads) {
+		Properties props = new Properties();
+		props.setProperty("accesskey", "key");
+		props.setProperty("secretkey", "secret");
+		props.setProperty("multipart.part-size", String.valueOf(partSize));
+		props.setProperty("multipart.threads", String.valueOf(threads));
+		return new AmazonS3(props);
+	}
+
+	private static void put(AmazonS3 client, String key, byte[] data)
+			throws IOException {
+		OutputStream out = client.beginPut(BUCKET, key, null, null);
+		try {
+			// Write in odd sized chunks crossing the part boundaries.
+			for (int p = 0; p < data.length; p += 700)
+				out.write(data, p, Math.min(700, data.length - p));
+		} finally {
+			out.close();
+		}
+	}
+
+	private static byte[] data(int len) {
+		byte[] data = new byte[len];
+		for (int i = 0; i < len; i++)
+			data[i] = (byte) (i * 31 + i / 251);
+		return data;
+	}
+
+	/** Minimal stand-in for the S3 REST API, reached as an HTTP proxy. */
+	private static class FakeS3 implements Runnable {
+		private static final Pattern ETAG = Pattern
+				.compile("<ETag>\"p(\\d+)\"</ETag>");
+
+		final List<String> requests = Collections
+				.synchronizedList(new ArrayList<String>());
+
+		final List<String> authorizations = Collections
+				.synchronizedList(new ArrayList<String>());
+
+		final Map<String, byte[]> objects = Collections
+				.synchronizedMap(new HashMap<String, byte[]>());
+
+		final Map<Integer, byte[]> parts = Collections
+				.synchronizedMap(new TreeMap<Integer, byte[]>());
+
+		volatile int failPart;
+
+		volatile int failStatus;
+
+		private final ServerSocket socket;
+
+		private final Thread acceptor;
+
+		FakeS3() throws IOException {
+			socket = new ServerSocket(0);
+			acceptor = new Thread(this, "FakeS3");
+			acceptor.start();
+		}
+
+		InetSocketAddress getAddress() {
+			return new InetSocketAddress("localhost", socket.getLocalPort());
+		}
+
+		int count(String prefix) {
+			int n = 0;
+			synchronized (requests) {
+				for (String r : requests)
+					if (r.startsWith(prefix))
+						n++;
+			}
+			return n;
+		}
+
+		void close() throws Exception {
+			socket.close();
+			acceptor.join();
+		}
+
+		@Override
+		public void run() {
+			for (;;) {
+				final Socket s;
+				try {
+					s = socket.accept();
+				} catch (IOException closed) {
+					return;
+				}
+				new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							try {
+								serve(s);
+							} finally {
+								s.close();
+							}
+						} catch (IOException e) {
+							// The client sees the connection fail.
+						}
+					}
+				}).start();
+			}
+		}
+
+		void serve(Socket s) throws IOException {
+			InputStream in = s.getInputStream();
+			String[] request = readLine(in).split(" ");
+			Map<String, String> headers = new HashMap<String, String>();
+			for (String line; (line = readLine(in)).length() > 0;) {
+				int colon = line.indexOf(':');
+				headers.put(line.substring(0, colon).toLowerCase(),
+						line.substring(colon + 1).trim());
+			}
+			String len = headers.get("content-length");
+			byte[] body = new byte[len != null ? Integer.parseInt(len) : 0];
+			IO.readFully(in, body, 0, body.length);
+
+			String method = request[0];
+			URI uri = URI.create(request[1]);
+			String path = uri.getRawPath();
+			String query = uri.getRawQuery();
+			requests.add(method + " " + path
+					+ (query != null ? "?" + query : ""));
+			authorizations.add(headers.get("authorization"));
+
+			Map<String, String> args = new HashMap<String, String>();
+			if (query != null) {
+				for (String a : query.split("&")) {
+					int eq = a.indexOf('=');
+					args.put(eq < 0 ? a : a.substring(0, eq),
+							eq < 0 ? "" : a.substring(eq + 1));
+				}
+			}
+
+			OutputStream out = s.getOutputStream();
+			if (method.equals("POST") && args.containsKey("uploads")) {
+				respond(out, 200, null, "<InitiateMultipartUploadResult>"
+						+ "<UploadId>u1</UploadId>"
+						+ "</InitiateMultipartUploadResult>");
+			} else if (method.equals("PUT") && args.containsKey("partNumber")) {
+				int n = Integer.parseInt(args.get("partNumber"));
+				if (n == failPart) {
+					failPart = 0;
+					respond(out, failStatus, null, "");
+					return;
+				}
+				parts.put(Integer.valueOf(n), body);
+				respond(out, 200, "\"p" + n + "\"", "");
+			} else if (method.equals("POST") && args.containsKey("uploadId")) {
+				ByteArrayOutputStream obj = new ByteArrayOutputStream();
+				Matcher m = ETAG.matcher(RawParseUtils.decode(body));
+				while (m.find())
+					obj.write(parts.get(Integer.valueOf(m.group(1))));
+				objects.put(path, obj.toByteArray());
+				respond(out, 200, null, "<CompleteMultipartUploadResult>"
+						+ "</CompleteMultipartUploadResult>");
+			} else if (method.equals("DELETE")) {
+				respond(out, 204, null, null);
+			} else if (method.equals("PUT")) {
+				objects.put(path, body);
+				respond(out, 200, null, "");
+			} else {
+				respond(out, 400, null, "");
+			}
+		}
+
+		private static String readLine(InputStream in) throws IOException {
+			StringBuilder line = new StringBuilder();
+			for (int c; (c = in.read()) != '\n';) {
+				if (c < 0)
+					throw new IOException("unexpected end of request");
+				if (c != '\r')
+					line.append((char) c);
+			}
+			return line.toString();
+		}
+
+		private static void respond(OutputStream out, int status,
+				String etag, String body) throws IOException {
+			StringBuilder r = new StringBuilder();
+			r.append("HTTP/1.1 ").append(status).append(" Status\r\n");
+			r.append("Connection: close\r\n");
+			if (etag != null)
+				r.append("ETag: ").append(etag).append("\r\n");
+			if (body != null) {
+				byte[] b = Constants.encode(body);
+				r.append("Content-Type: application/xml\r\n");
+				r.append("Content-Length: ").append(b.length).append("\r\n");
+			}
+			r.append("\r\n");
+			if (body != null)
+				r.append(body);
+			out.write(Constants.encode(r.toString()));
+			out.flush();
+		}
+	}
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.resolver.RepositoryResolver;
+import org.eclipse.jgit.transport.resolver.UploadPackFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DaemonTest {
+	private Daemon daemon;
+
+	private InMemoryRepository repo;
+
+	@Before
+	public void setUp() throws Exception {
+		repo = new InMemoryRepository(new DfsRepositoryDescription("repo"));
+		daemon = new Daemon(new InetSocketAddress(
+				InetAddress.getLoopbackAddress(), 0));
+		daemon.setRepositoryResolver(new RepositoryResolver<DaemonClient>() {
+			@Override
+			public Repository open(DaemonClient req, String name) {
+				repo.incrementOpen();
+				return repo;
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		daemon.stop();
+	}
+
+	private Socket connect() throws IOException {
+		return new Socket(daemon.getAddress().getAddress(),
+				daemon.getAddress().getPort());
+	}
+
+	private static void requestUploadPack(Socket s) throws IOException {
+		PacketLineOut out = new PacketLineOut(s.getOutputStream());
+		out.writeString("git-upload-pack /repo\0host=localhost\0");
+		out.flush();
+	}
+
+	private static String read(Socket s) throws IOException {
+		return new PacketLineIn(s.getInputStream()).readString();
+	}
+
+	private void awaitConnections(int n) throws InterruptedException {
+		for (int i = 0; i < 500 && daemon.getConnectionCount() != n; i++)
+			Thread.sleep(10);
+		assertEquals(n, daemon.getConnectionCount());
+	}
+
+	@Test
+	public void testMaxConnectionsPerAddress() throws Exception {
+		daemon.setMaxConnectionsPerAddress(1);
+		daemon.start();
+
+		try (Socket first = connect()) {
+			awaitConnections(1);
+			try (Socket second = connect()) {
+				assertTrue(read(second)
+						.startsWith("ERR Too many connections from"));
+			}
+		}
+		awaitConnections(0);
+	}
+
+	@Test
+	public void testRejectedByExecutor() throws Exception {
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 1,
+				TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+		daemon.setExecutor(pool);
+		daemon.start();
+
+		try (Socket first = connect()) {
+			awaitConnections(1);
+			try (Socket second = connect()) {
+				assertEquals("ERR Too many connections, try again later",
+						read(second));
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testServiceBusy() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		daemon.setUploadPackFactory(new UploadPackFactory<DaemonClient>() {
+			@Override
+			public UploadPack create(DaemonClient req, Repository db) {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return new UploadPack(db);
+			}
+		});
+		daemon.getService("upload-pack").setMaxSessions(1);
+		daemon.start();
+
+		try (Socket first = connect()) {
+			requestUploadPack(first);
+			assertTrue(started.await(5, TimeUnit.SECONDS));
+			try (Socket second = connect()) {
+				requestUploadPack(second);
+				assertEquals(
+						"ERR Service git-upload-pack is busy, try again later",
+						read(second));
+			}
+			release.countDown();
+			// The first client still receives its advertisement.
+			assertTrue(read(first).contains("capabilities^{}"));
+		}
+	}
+
+	@Test
+	public void testQueuedClientGivesUp() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		daemon.setUploadPackFactory(new UploadPackFactory<DaemonClient>() {
+			@Override
+			public UploadPack create(DaemonClient req, Repository db) {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return new UploadPack(db);
+			}
+		});
+		DaemonService service = daemon.getService("upload-pack");
+		service.setMaxSessions(1);
+		service.setMaxQueued(1);
+		service.setMaxQueueWait(1);
+		daemon.start();
+
+		try (Socket first = connect()) {
+			requestUploadPack(first);
+			assertTrue(started.await(5, TimeUnit.SECONDS));
+			try (Socket second = connect()) {
+				requestUploadPack(second);
+				// Queued, then refused once the wait expires.
+				assertEquals(
+						"ERR Service git-upload-pack is busy, try again later",
+						read(second));
+			}
+			release.countDown();
+			assertTrue(read(first).contains("capabilities^{}"));
+		}
+	}
+
+	@Test
+	public void testQueuedClientsDoNotHoldExecutorThreads() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		daemon.setUploadPackFactory(new UploadPackFactory<DaemonClient>() {
+			@Override
+			public UploadPack create(DaemonClient req, Repository db) {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return new UploadPack(db);
+			}
+		});
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(2, 2, 1,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+		daemon.setExecutor(pool);
+		DaemonService service = daemon.getService("upload-pack");
+		service.setMaxSessions(1);
+		service.setMaxQueued(2);
+		daemon.start();
+
+		try (Socket first = connect()) {
+			requestUploadPack(first);
+			assertTrue(started.await(5, TimeUnit.SECONDS));
+
+			// The first session holds one thread. Each queued client must
+			// give the other thread back instead of waiting on it.
+			try (Socket second = connect()) {
+				requestUploadPack(second);
+				awaitActiveThreads(pool, 1);
+				try (Socket third = connect()) {
+					requestUploadPack(third);
+					awaitActiveThreads(pool, 1);
+
+					// Each session ends when its client wants nothing,
+					// handing the slot to the next queued client.
+					release.countDown();
+					assertAdvertisedThenEnd(first);
+					assertAdvertisedThenEnd(second);
+					assertAdvertisedThenEnd(third);
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static void assertAdvertisedThenEnd(Socket s) throws IOException {
+		assertTrue(read(s).contains("capabilities^{}"));
+		PacketLineIn in = new PacketLineIn(s.getInputStream());
+		while (in.readString() != PacketLineIn.END) {
+			// Skip the rest of the advertisement.
+		}
+		PacketLineOut out = new PacketLineOut(s.getOutputStream());
+		out.end();
+		out.flush();
+	}
+
+	private static void awaitActiveThreads(ThreadPoolExecutor pool, int n)
+			throws InterruptedException {
+		for (int i = 0; i < 500 && pool.getActiveCount() != n; i++)
+			Thread.sleep(10);
+		assertEquals(n, pool.getActiveCount());
+	}
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DiskUploadPackCacheTest extends LocalDiskRepositoryTestCase {
+	private File dir;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		dir = createTempDirectory("packcache");
+	}
+
+	private static UploadPackCache.Key key(ObjectId want) {
+		return new UploadPackCache.Key(Collections.singleton(want),
+				Collections.<ObjectId> emptySet(),
+				Collections.<ObjectId> emptySet(), 0, FilterSpec.NO_FILTER,
+				Collections.<String> emptySet(),
+				Collections.<ObjectId> emptySet());
+	}
+
+	private static ObjectId id(int n) {
+		return ObjectId.fromString(String.format("%040x", n));
+	}
+
+	private static byte[] write(UploadPackCache cache, UploadPackCache.Key key,
+			final byte[] data) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		cache.writePack(key, out, new UploadPackCache.PackGenerator() {
+			@Override
+			public void writePack(OutputStream os) throws IOException {
+				os.write(data);
+			}
+		});
+		return out.toByteArray();
+	}
+
+	/** Writes {@code data} once {@code release} opens. */
+	private static UploadPackCache.PackGenerator blocked(
+			final CountDownLatch release, final AtomicInteger calls,
+			final byte[] data) {
+		return new UploadPackCache.PackGenerator() {
+			@Override
+			public void writePack(OutputStream out) throws IOException {
+				calls.incrementAndGet();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				out.write(data);
+			}
+		};
+	}
+
+	private static Future<byte[]> writeAsync(ExecutorService pool,
+			final UploadPackCache cache, final UploadPackCache.Key key,
+			final UploadPackCache.PackGenerator generator) {
+		return pool.submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws Exception {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				cache.writePack(key, out, generator);
+				return out.toByteArray();
+			}
+		});
+	}
+
+	private static void awaitWaiters(DiskUploadPackCache cache, long n)
+			throws InterruptedException {
+		for (int i = 0; i < 500 && cache.getWaitCount() < n; i++)
+			Thread.sleep(10);
+		assertEquals(n, cache.getWaitCount());
+	}
+
+	private static byte[] upload(InMemoryRepository repo,
+			UploadPackCache cache, ObjectId want) throws Exception {
+		ByteArrayOutputStream send = new ByteArrayOutputStream();
+		PacketLineOut pckOut = new PacketLineOut(send);
+		pckOut.writeString("want " + want.name() + " ofs-delta\n");
+		pckOut.end();
+		pckOut.writeString("done\n");
+
+		UploadPack up = new UploadPack(repo);
+		up.setBiDirectionalPipe(false);
+		up.setPackCache(cache);
+		ByteArrayOutputStream recv = new ByteArrayOutputStream();
+		up.upload(new ByteArrayInputStream(send.toByteArray()), recv, null);
+		return recv.toByteArray();
+	}
+
+	@Test
+	public void testIdenticalRequestServedFromCache() throws Exception {
+		TestRepository<InMemoryRepository> remote = new TestRepository<InMemoryRepository>(
+				new InMemoryRepository(new DfsRepositoryDescription("remote")));
+		RevCommit a = remote.commit().add("file", "content").create();
+		remote.update("master", a);
+		DiskUploadPackCache cache = new DiskUploadPackCache(dir,
+				1024 * 1024, 0, TimeUnit.SECONDS);
+
+		byte[] first = upload(remote.getRepository(), cache, a);
+		assertEquals(1, cache.getMissCount());
+		assertEquals(0, cache.getHitCount());
+		assertTrue(cache.getCachedBytes() > 0);
+
+		byte[] second = upload(remote.getRepository(), cache, a);
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.getHitCount());
+		assertArrayEquals(first, second);
+	}
+
+	@Test
+	public void testEvictLeastRecentlyUsed() throws Exception {
+		DiskUploadPackCache cache = new DiskUploadPackCache(dir, 10, 0,
+				TimeUnit.SECONDS);
+		write(cache, key(id(1)), new byte[] { 1, 1, 1, 1 });
+		write(cache, key(id(2)), new byte[] { 2, 2, 2, 2 });
+		write(cache, key(id(1)), null);
+		write(cache, key(id(3)), new byte[] { 3, 3, 3, 3 });
+
+		assertEquals(8, cache.getCachedBytes());
+		assertEquals(1, cache.getHitCount());
+		assertArrayEquals(new byte[] { 1, 1, 1, 1 },
+				write(cache, key(id(1)), null));
+		assertArrayEquals(new byte[] { 2 },
+				write(cache, key(id(2)), new byte[] { 2 }));
+	}
+
+	@Test
+	public void testPackLargerThanCacheNotStored() throws Exception {
+		DiskUploadPackCache cache = new DiskUploadPackCache(dir, 2, 0,
+				TimeUnit.SECONDS);
+		byte[] data = { 1, 2, 3 };
+		assertArrayEquals(data, write(cache, key(id(1)), data));
+		assertEquals(0, cache.getCachedBytes());
+		assertArrayEquals(data, write(cache, key(id(1)), data));
+		assertEquals(2, cache.getMissCount());
+		assertEquals(0, dir.list().length);
+	}
+
+	@Test
+	public void testFailedGeneratorNotStored() throws Exception {
+		DiskUploadPackCache cache = new DiskUploadPackCache(dir, 100, 0,
+				TimeUnit.SECONDS);
+		try {
+			cache.writePack(key(id(1)), new ByteArrayOutputStream(),
+					new UploadPackCache.PackGenerator() {
+						@Override
+						public void writePack(OutputStream out)
+								throws IOException {
+							out.write(1);
+							throw new IOException("broken");
+						}
+					});
+			fail("expected IOException");
+		} catch (IOException e) {
+			assertEquals("broken", e.getMessage());
+		}
+		assertEquals(0, cache.getCachedBytes());
+		assertEquals(0, dir.list().length);
+	}
+
+	@Test
+	public void testReopenAdoptsExistingPacks() throws Exception {
+		DiskUploadPackCache cache = new DiskUploadPackCache(dir, 100, 0,
+				TimeUnit.SECONDS);
+		write(cache, key(id(1)), new byte[] { 1, 2 });
+		assertTrue(new File(dir, "incoming_1.tmp").createNewFile());
+
+		cache = new DiskUploadPackCache(dir, 100, 0, TimeUnit.SECONDS);
+		assertEquals(2, cache.getCachedBytes());
+		assertArrayEquals(new byte[] { 1, 2 }, write(cache, key(id(1)), null));
+		assertEquals(1, cache.getHitCount());
+		assertFalse(new File(dir, "incoming_1.tmp").exists());
+	}
+
+	@Test
+	public void testConcurrentIdenticalRequestsGenerateOnce()
+			throws Exception {
+		DiskUploadPackCache cache = new DiskUploadPackCache(dir, 100, 0,
+				TimeUnit.SECONDS);
+		byte[] data = { 1, 2, 3 };
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger calls = new AtomicInteger();
+		UploadPackCache.PackGenerator gen = blocked(release, calls, data);
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			Future<byte[]> first = writeAsync(pool, cache, key(id(1)), gen);
+			for (int i = 0; i < 500 && calls.get() == 0; i++)
+				Thread.sleep(10);
+			Future<byte[]> second = writeAsync(pool, cache, key(id(1)), gen);
+			awaitWaiters(cache, 1);
+			release.countDown();
+
+			assertArrayEquals(data, first.get(10, TimeUnit.SECONDS));
+			assertArrayEquals(data, second.get(10, TimeUnit.SECONDS));
+		} finally {
+			release.countDown();
+			pool.shutdownNow();
+		}
+		assertEquals(1, calls.get());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.getHitCount());
+	}
+
+	@Test
+	public void testStuckRequestDoesNotBlockWaiters() throws Exception {
+		DiskUploadPackCache cache = new DiskUploadPackCache(dir, 100, 0,
+				TimeUnit.SECONDS);
+		cache.setMaxWait(50, TimeUnit.MILLISECONDS);
+		byte[] data = { 1, 2, 3 };
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger calls = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(1);
+		try {
+			Future<byte[]> stuck = writeAsync(pool, cache, key(id(1)),
+					blocked(release, calls, data));
+			for (int i = 0; i < 500 && calls.get() == 0; i++)
+				Thread.sleep(10);
+
+			assertArrayEquals(data, write(cache, key(id(1)), data));
+			assertEquals(1, cache.getWaitCount());
+			assertEquals(2, cache.getMissCount());
+			assertEquals(0, cache.getCachedBytes());
+
+			release.countDown();
+			assertArrayEquals(data, stuck.get(10, TimeUnit.SECONDS));
+		} finally {
+			release.countDown();
+			pool.shutdownNow();
+		}
+		assertEquals(3, cache.getCachedBytes());
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsGarbageCollector;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.transport.resolver.ReceivePackFactory;
+import org.eclipse.jgit.transport.resolver.UploadPackFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FetchProcessTest {
+	private static final RefSpec HEADS = new RefSpec(
+			"+refs/heads/*:refs/remotes/origin/*");
+
+	private TestProtocol<Object> proto;
+
+	private TestRepository<InMemoryRepository> remote;
+
+	private InMemoryRepository client;
+
+	private URIish uri;
+
+	private int packsSent;
+
+	@Before
+	public void setUp() throws Exception {
+		remote = new TestRepository<InMemoryRepository>(new InMemoryRepository(
+				new DfsRepositoryDescription("remote")));
+		client = new InMemoryRepository(new DfsRepositoryDescription("client"));
+		proto = new TestProtocol<Object>(new UploadPackFactory<Object>() {
+			@Override
+			public UploadPack create(Object req, Repository db) {
+				UploadPack up = new UploadPack(db);
+				up.setPreUploadHook(new PreUploadHook() {
+					@Override
+					public void onBeginNegotiateRound(UploadPack u,
+							Collection<? extends ObjectId> wants,
+							int cntOffered) {
+						// Not counted.
+					}
+
+					@Override
+					public void onEndNegotiateRound(UploadPack u,
+							Collection<? extends ObjectId> wants,
+							int cntCommon, int cntNotFound, boolean ready) {
+						// Not counted.
+					}
+
+					@Override
+					public void onSendPack(UploadPack u,
+							Collection<? extends ObjectId> wants,
+							Collection<? extends ObjectId> haves) {
+						packsSent++;
+					}
+				});
+				return up;
+			}
+		}, new ReceivePackFactory<Object>() {
+			@Override
+			public ReceivePack create(Object req, Repository db) {
+				return new ReceivePack(db);
+			}
+		});
+		Transport.register(proto);
+		uri = proto.register(new Object(), remote.getRepository());
+	}
+
+	@After
+	public void tearDown() {
+		Transport.unregister(proto);
+	}
+
+	private void fetch(boolean useBitmaps) throws Exception {
+		try (Transport tn = Transport.open(client, uri)) {
+			tn.setCheckFetchedObjects(true);
+			tn.setUseBitmapsForConnectivity(useBitmaps);
+			tn.fetch(NullProgressMonitor.INSTANCE,
+					Collections.singletonList(HEADS));
+		}
+	}
+
+	private void gcClient() throws Exception {
+		assertTrue(new DfsGarbageCollector(client)
+				.pack(NullProgressMonitor.INSTANCE));
+		client.scanForRepoChanges();
+	}
+
+	@Test
+	public void testWantKnownByBitmapNotFetched() throws Exception {
+		RevCommit a = remote.commit().message("a").create();
+		RevCommit b = remote.commit().message("b").parent(a).create();
+		remote.update("master", b);
+		fetch(true);
+		assertEquals(1, packsSent);
+		gcClient();
+
+		// Everything the new branch needs is reachable from a bitmap.
+		remote.update("other", a);
+		fetch(true);
+		assertEquals(1, packsSent);
+		assertEquals(a, client.resolve("refs/remotes/origin/other"));
+	}
+
+	@Test
+	public void testFetchOnTopOfBitmappedHistory() throws Exception {
+		RevCommit a = remote.commit().message("a").create();
+		remote.update("master", a);
+		fetch(true);
+		gcClient();
+
+		RevCommit b = remote.commit().add("f", "b").parent(a).create();
+		remote.update("master", b);
+		fetch(true);
+		assertEquals(b, client.resolve("refs/remotes/origin/master"));
+
+		RevCommit c = remote.commit().add("f", "c").parent(b).create();
+		remote.update("master", c);
+		fetch(false);
+		assertEquals(c, client.resolve("refs/remotes/origin/master"));
+		assertEquals(3, packsSent);
+	}
+}
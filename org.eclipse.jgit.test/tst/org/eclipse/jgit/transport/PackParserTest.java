@@ -64,6 +64,8 @@
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.internal.storage.file.ObjectDirectoryPackParser;
 import org.eclipse.jgit.internal.storage.file.PackFile;
+import org.eclipse.jgit.internal.storage.file.PackIndex;
+import org.eclipse.jgit.internal.storage.file.PackObjectSizeIndex;
 import org.eclipse.jgit.junit.JGitTestUtil;
 import org.eclipse.jgit.junit.RepositoryTestCase;
 import org.eclipse.jgit.junit.TestRepository;
@@ -146,6 +148,30 @@ public void test2() throws  IOException {
 		}
 	}
 
+	@Test
+	public void testObjectSizeIndexWritten() throws IOException {
+		db.getConfig().setBoolean("pack", null, "writeobjectsizeindex", true);
+		File packFile = JGitTestUtil.getTestResourceFile("pack-34be9032ac282b11fa9babdc2b2a93ca996c9c2f.pack");
+		final InputStream is = new FileInputStream(packFile);
+		try {
+			ObjectDirectoryPackParser p = (ObjectDirectoryPackParser) index(is);
+			p.parse(NullProgressMonitor.INSTANCE);
+			File pack = p.getPackFile().getPackFile();
+			String base = pack.getPath().substring(0,
+					pack.getPath().length() - ".pack".length());
+
+			PackIndex idx = PackIndex.open(new File(base + ".idx"));
+			PackObjectSizeIndex sizes = PackObjectSizeIndex
+					.open(new File(base + ".objsize"));
+			assertEquals(idx.getObjectCount(), sizes.getObjectCount());
+			for (int i = 0; i < idx.getObjectCount(); i++)
+				assertEquals(db.open(idx.getObjectId(i)).getSize(),
+						sizes.getSize(i));
+		} finally {
+			is.close();
+		}
+	}
+
 	@Test
 	public void testTinyThinPack() throws Exception {
 		TestRepository d = new TestRepository<Repository>(db);
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.errors.UnpackException;
+import org.eclipse.jgit.internal.storage.dfs.DfsGarbageCollector;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.internal.storage.pack.PackWriter;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Connectivity checks of {@link ReceivePack} using a bitmap index. */
+public class ReceivePackBitmapTest {
+	private TestRepository<InMemoryRepository> server;
+
+	private TestRepository<InMemoryRepository> client;
+
+	private RevBlob shared;
+
+	private RevCommit base;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new TestRepository<InMemoryRepository>(new InMemoryRepository(
+				new DfsRepositoryDescription("server")));
+		client = new TestRepository<InMemoryRepository>(new InMemoryRepository(
+				new DfsRepositoryDescription("client")));
+
+		shared = server.blob("shared");
+		base = server.commit().add("shared", shared).create();
+		server.update("master", base);
+		for (int i = 0; i < 20; i++)
+			server.update("refs/tags/t" + i, base);
+		assertTrue(new DfsGarbageCollector(server.getRepository())
+				.pack(NullProgressMonitor.INSTANCE));
+		server.getRepository().scanForRepoChanges();
+
+		// Recreate the same history on the client to build on it.
+		assertEquals(base, client.commit()
+				.add("shared", client.blob("shared")).create());
+	}
+
+	private void push(RevCommit commit, RevObject... objects)
+			throws Exception {
+		ByteArrayOutputStream in = new ByteArrayOutputStream();
+		PacketLineOut pckOut = new PacketLineOut(in);
+		pckOut.writeString(base.name() + ' ' + commit.name()
+				+ " refs/heads/master\0report-status");
+		pckOut.end();
+		try (PackWriter pw = new PackWriter(new PackConfig(),
+				client.getRepository().newObjectReader())) {
+			pw.preparePack(Arrays.asList(objects).iterator());
+			pw.writePack(NullProgressMonitor.INSTANCE,
+					NullProgressMonitor.INSTANCE, in);
+		}
+
+		ReceivePack rp = new ReceivePack(server.getRepository());
+		rp.setCheckReceivedObjects(true);
+		rp.setBiDirectionalPipe(false);
+		rp.receive(new ByteArrayInputStream(in.toByteArray()),
+				new ByteArrayOutputStream(), null);
+	}
+
+	@Test
+	public void testPushOnTopOfBitmappedHistory() throws Exception {
+		RevBlob added = client.blob("added");
+		RevCommit c = client.commit().parent(base).add("added", added)
+				.create();
+		client.parseBody(c);
+
+		// The base commit and shared blob exist only on the server and are
+		// known through its bitmaps.
+		push(c, c, c.getTree(), added);
+		assertEquals(c, server.getRepository().resolve("master"));
+	}
+
+	@Test
+	public void testPushMissingBlobFails() throws Exception {
+		RevBlob missing = client.blob("missing");
+		RevCommit c = client.commit().parent(base).add("missing", missing)
+				.create();
+		client.parseBody(c);
+
+		try {
+			push(c, c, c.getTree());
+			fail("Expected UnpackException");
+		} catch (UnpackException failed) {
+			assertTrue(failed.getCause() instanceof MissingObjectException);
+			assertEquals(missing, ((MissingObjectException) failed.getCause())
+					.getObjectId());
+		}
+		assertEquals(base, server.getRepository().resolve("master"));
+	}
+}
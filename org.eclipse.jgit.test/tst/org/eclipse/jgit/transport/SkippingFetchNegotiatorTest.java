@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.transport.resolver.ReceivePackFactory;
+import org.eclipse.jgit.transport.resolver.UploadPackFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SkippingFetchNegotiatorTest {
+	private static final RefSpec HEADS = new RefSpec(
+			"+refs/heads/*:refs/remotes/origin/*");
+
+	private TestProtocol<Object> proto;
+
+	private TestRepository<InMemoryRepository> remote;
+
+	private TestRepository<InMemoryRepository> client;
+
+	private URIish uri;
+
+	private int havesOffered;
+
+	@Before
+	public void setUp() throws Exception {
+		remote = new TestRepository<InMemoryRepository>(
+				new InMemoryRepository(new DfsRepositoryDescription("remote")));
+		client = new TestRepository<InMemoryRepository>(
+				new InMemoryRepository(new DfsRepositoryDescription("client")));
+		proto = new TestProtocol<Object>(new UploadPackFactory<Object>() {
+			@Override
+			public UploadPack create(Object req, Repository db) {
+				UploadPack up = new UploadPack(db);
+				up.setPreUploadHook(new CountingHook());
+				return up;
+			}
+		}, new ReceivePackFactory<Object>() {
+			@Override
+			public ReceivePack create(Object req, Repository db) {
+				return new ReceivePack(db);
+			}
+		});
+		Transport.register(proto);
+		uri = proto.register(new Object(), remote.getRepository());
+	}
+
+	@After
+	public void tearDown() {
+		Transport.unregister(proto);
+	}
+
+	private class CountingHook implements PreUploadHook {
+		@Override
+		public void onBeginNegotiateRound(UploadPack up,
+				Collection<? extends ObjectId> wants, int cntOffered) {
+			havesOffered += cntOffered;
+		}
+
+		@Override
+		public void onEndNegotiateRound(UploadPack up,
+				Collection<? extends ObjectId> wants, int cntCommon,
+				int cntNotFound, boolean ready) {
+			// Not counted.
+		}
+
+		@Override
+		public void onSendPack(UploadPack up,
+				Collection<? extends ObjectId> wants,
+				Collection<? extends ObjectId> haves) {
+			// Not counted.
+		}
+	}
+
+	private void fetch() throws Exception {
+		try (Git git = new Git(client.getRepository())) {
+			git.fetch().setRemote(uri.toString()).setRefSpecs(HEADS).call();
+		}
+	}
+
+	private RevCommit divergedClient(int localCommits) throws Exception {
+		RevCommit base = remote.commit().message("base").create();
+		remote.update("master", base);
+		fetch();
+
+		RevCommit local = client.getRevWalk()
+				.parseCommit(client.getRepository().resolve("origin/master"));
+		for (int i = 0; i < localCommits; i++) {
+			local = client.commit().message("local " + i).parent(local)
+					.create();
+		}
+		client.update("refs/heads/local", local);
+
+		RevCommit update = remote.commit().message("update").parent(base)
+				.create();
+		remote.update("master", update);
+		havesOffered = 0;
+		return update;
+	}
+
+	@Test
+	public void testDefaultOffersAllLocalCommits() throws Exception {
+		RevCommit update = divergedClient(100);
+		fetch();
+		assertTrue(client.getRepository().hasObject(update));
+		assertTrue(havesOffered > 100);
+	}
+
+	@Test
+	public void testSkippingOffersFewCommits() throws Exception {
+		RevCommit update = divergedClient(100);
+		client.getRepository().getConfig().setString(
+				ConfigConstants.CONFIG_FETCH_SECTION, null,
+				ConfigConstants.CONFIG_KEY_NEGOTIATION_ALGORITHM, "skipping");
+		fetch();
+		assertTrue(client.getRepository().hasObject(update));
+		assertTrue("offered " + havesOffered, havesOffered < 20);
+	}
+
+	@Test
+	public void testSkippingFindsCommonBelowLocalHistory() throws Exception {
+		RevCommit update = divergedClient(100);
+		// Without a ref pointing at it the shared base is only reachable
+		// through the local history, and must still be offered.
+		RefUpdate u = client.getRepository()
+				.updateRef("refs/remotes/origin/master");
+		u.setForceUpdate(true);
+		assertEquals(RefUpdate.Result.FORCED, u.delete());
+		try (Transport tn = Transport.open(client.getRepository(), uri)) {
+			tn.setFetchNegotiatorFactory(FetchNegotiatorFactory.SKIPPING);
+			tn.fetch(NullProgressMonitor.INSTANCE,
+					Collections.singletonList(HEADS));
+		}
+		assertTrue(client.getRepository().hasObject(update));
+		assertTrue("offered " + havesOffered, havesOffered < 20);
+	}
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.errors.PackProtocolException;
+import org.eclipse.jgit.internal.storage.dfs.DfsGarbageCollector;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.transport.resolver.ReceivePackFactory;
+import org.eclipse.jgit.transport.resolver.UploadPackFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for UploadPack using the in-memory {@link TestProtocol}.
+ */
+public class UploadPackTest {
+	private static final RefSpec HEADS = new RefSpec("+refs/heads/*:refs/heads/*");
+
+	private List<TransportProtocol> protos;
+
+	private TestRepository<InMemoryRepository> remote;
+
+	private InMemoryRepository client;
+
+	@Before
+	public void setUp() throws Exception {
+		protos = new ArrayList<TransportProtocol>();
+		client = newRepo("client");
+		remote = new TestRepository<InMemoryRepository>(newRepo("remote"));
+	}
+
+	@After
+	public void tearDown() {
+		for (TransportProtocol proto : protos) {
+			Transport.unregister(proto);
+		}
+	}
+
+	private static InMemoryRepository newRepo(String name) {
+		return new InMemoryRepository(new DfsRepositoryDescription(name));
+	}
+
+	private URIish register(final Repository server) {
+		TestProtocol<Object> proto = new TestProtocol<Object>(
+				new UploadPackFactory<Object>() {
+					@Override
+					public UploadPack create(Object req, Repository db) {
+						return new UploadPack(db);
+					}
+				}, new ReceivePackFactory<Object>() {
+					@Override
+					public ReceivePack create(Object req, Repository db) {
+						return new ReceivePack(db);
+					}
+				});
+		protos.add(proto);
+		Transport.register(proto);
+		return proto.register(new Object(), server);
+	}
+
+	private void allowFilter() {
+		remote.getRepository().getConfig().setBoolean("uploadpack", null,
+				"allowfilter", true);
+	}
+
+	private void fetch(URIish uri, FilterSpec filter) throws Exception {
+		try (Git git = new Git(client)) {
+			git.fetch()
+					.setRemote(uri.toString())
+					.setRefSpecs(HEADS)
+					.setFilterSpec(filter)
+					.call();
+		}
+	}
+
+	@Test
+	public void testFetchWithBlobNoneFilter() throws Exception {
+		RevBlob blob1 = remote.blob("foobar");
+		RevBlob blob2 = remote.blob("fooba");
+		RevTree tree = remote.tree(remote.file("1", blob1),
+				remote.file("2", blob2));
+		RevCommit commit = remote.commit(tree);
+		remote.update("master", commit);
+		allowFilter();
+
+		fetch(register(remote.getRepository()), FilterSpec.withBlobLimit(0));
+
+		assertTrue(client.hasObject(commit));
+		assertTrue(client.hasObject(tree));
+		assertFalse(client.hasObject(blob1));
+		assertFalse(client.hasObject(blob2));
+	}
+
+	@Test
+	public void testFetchWithBlobLimitFilter() throws Exception {
+		RevBlob longBlob = remote.blob("foobar");
+		RevBlob shortBlob = remote.blob("fooba");
+		RevTree tree = remote.tree(remote.file("1", longBlob),
+				remote.file("2", shortBlob));
+		RevCommit commit = remote.commit(tree);
+		remote.update("master", commit);
+		allowFilter();
+
+		fetch(register(remote.getRepository()),
+				FilterSpec.fromFilterLine("blob:limit=6"));
+
+		assertTrue(client.hasObject(commit));
+		assertFalse(client.hasObject(longBlob));
+		assertTrue(client.hasObject(shortBlob));
+	}
+
+	@Test
+	public void testFetchWithBlobLimitFilterUsingBitmaps() throws Exception {
+		RevBlob longBlob = remote.blob("foobar");
+		RevBlob shortBlob = remote.blob("fooba");
+		RevTree tree = remote.tree(remote.file("1", longBlob),
+				remote.file("2", shortBlob));
+		RevCommit commit = remote.commit(tree);
+		remote.update("master", commit);
+		allowFilter();
+		gcRemote();
+		try (ObjectReader reader = remote.getRepository().newObjectReader()) {
+			assertNotNull(reader.getBitmapIndex());
+		}
+
+		fetch(register(remote.getRepository()),
+				FilterSpec.fromFilterLine("blob:limit=6"));
+
+		assertTrue(client.hasObject(commit));
+		assertTrue(client.hasObject(tree));
+		assertFalse(client.hasObject(longBlob));
+		assertTrue(client.hasObject(shortBlob));
+	}
+
+	@Test
+	public void testFetchWithTreeDepthFilter() throws Exception {
+		RevBlob top = remote.blob("top");
+		RevBlob nested = remote.blob("nested");
+		RevCommit commit = remote.commit()
+				.add("top.txt", top)
+				.add("dir/nested.txt", nested)
+				.create();
+		remote.update("master", commit);
+		allowFilter();
+
+		fetch(register(remote.getRepository()),
+				FilterSpec.withTreeDepthLimit(2));
+
+		RevTree root = remote.getRevWalk().parseCommit(commit).getTree();
+		assertTrue(client.hasObject(commit));
+		assertTrue(client.hasObject(root));
+		assertTrue(client.hasObject(top));
+		assertTrue(client.hasObject(remote.get(root, "dir")));
+		assertFalse(client.hasObject(nested));
+	}
+
+	@Test
+	public void testFetchWithTreeDepthFilterSharedSubtree() throws Exception {
+		RevBlob blob = remote.blob("shared");
+		RevTree shared = remote.tree(remote.file("file.txt", blob));
+		// "a/deep" is walked before "z", so the shared subtree is first
+		// seen below the depth limit and then again above it.
+		RevCommit commit = remote.commit()
+				.add("a/deep/file.txt", blob)
+				.add("z/file.txt", blob)
+				.create();
+		remote.update("master", commit);
+		allowFilter();
+
+		fetch(register(remote.getRepository()),
+				FilterSpec.withTreeDepthLimit(2));
+
+		RevTree root = remote.getRevWalk().parseCommit(commit).getTree();
+		assertEquals(shared, remote.get(root, "z"));
+		assertEquals(shared, remote.get(root, "a/deep"));
+		assertTrue(client.hasObject(remote.get(root, "a")));
+		assertTrue(client.hasObject(shared));
+		assertFalse(client.hasObject(blob));
+	}
+
+	@Test
+	public void testFetchWithFilterNotAllowed() throws Exception {
+		RevBlob blob = remote.blob("foobar");
+		RevCommit commit = remote.commit(remote.tree(remote.file("1", blob)));
+		remote.update("master", commit);
+
+		// Without uploadpack.allowfilter the server does not advertise the
+		// capability and the client falls back to a full fetch.
+		fetch(register(remote.getRepository()), FilterSpec.withBlobLimit(0));
+
+		assertTrue(client.hasObject(commit));
+		assertTrue(client.hasObject(blob));
+	}
+
+	private static void uploadPackRequest(UploadPack up, ObjectId... wants)
+			throws Exception {
+		ByteArrayOutputStream send = new ByteArrayOutputStream();
+		PacketLineOut pckOut = new PacketLineOut(send);
+		boolean first = true;
+		for (ObjectId want : wants) {
+			pckOut.writeString("want " + want.name()
+					+ (first ? " multi_ack_detailed\n" : "\n"));
+			first = false;
+		}
+		pckOut.end();
+		pckOut.writeString("done\n");
+		up.upload(new ByteArrayInputStream(send.toByteArray()),
+				new ByteArrayOutputStream(), null);
+	}
+
+	private UploadPack newReachableCommitUploadPack() {
+		UploadPack up = new UploadPack(remote.getRepository());
+		up.setBiDirectionalPipe(false);
+		up.setRequestPolicy(UploadPack.RequestPolicy.REACHABLE_COMMIT);
+		return up;
+	}
+
+	private void assertWantNotValid(ObjectId want) throws Exception {
+		try {
+			uploadPackRequest(newReachableCommitUploadPack(), want);
+			fail("want " + want.name() + " should not be valid");
+		} catch (UploadPackInternalServerErrorException e) {
+			assertTrue(e.getCause() instanceof WantNotValidException);
+		}
+	}
+
+	private void gcRemote() throws Exception {
+		assertTrue(new DfsGarbageCollector(remote.getRepository())
+				.pack(NullProgressMonitor.INSTANCE));
+		remote.getRepository().scanForRepoChanges();
+	}
+
+	@Test
+	public void testReachableWantCoveredByBitmap() throws Exception {
+		RevCommit a = remote.commit().message("a").create();
+		RevCommit b = remote.commit().message("b").parent(a).create();
+		RevCommit unreachable = remote.commit().message("c").parent(a)
+				.create();
+		remote.update("master", b);
+		gcRemote();
+
+		uploadPackRequest(newReachableCommitUploadPack(), a);
+		assertWantNotValid(unreachable);
+	}
+
+	@Test
+	public void testReachableWantAboveBitmap() throws Exception {
+		RevCommit a = remote.commit().message("a").create();
+		RevCommit b = remote.commit().message("b").parent(a).create();
+		remote.update("master", b);
+		gcRemote();
+
+		// The new tip has no bitmap, so wants not covered by the bitmap of
+		// another tip must be verified by walking from it.
+		RevCommit c = remote.commit().message("c").parent(b).create();
+		RevCommit d = remote.commit().message("d").parent(c).create();
+		RevCommit unreachable = remote.commit().message("e").parent(b)
+				.create();
+		remote.update("master", d);
+
+		uploadPackRequest(newReachableCommitUploadPack(), a, c);
+		assertWantNotValid(unreachable);
+	}
+
+	private String negotiate(ObjectId want, ObjectId... haves)
+			throws Exception {
+		ByteArrayOutputStream send = new ByteArrayOutputStream();
+		PacketLineOut pckOut = new PacketLineOut(send);
+		pckOut.writeString("want " + want.name() + " multi_ack_detailed\n");
+		pckOut.end();
+		for (ObjectId have : haves)
+			pckOut.writeString("have " + have.name() + "\n");
+		pckOut.end();
+
+		UploadPack up = new UploadPack(remote.getRepository());
+		up.setBiDirectionalPipe(false);
+		ByteArrayOutputStream recv = new ByteArrayOutputStream();
+		up.upload(new ByteArrayInputStream(send.toByteArray()), recv, null);
+		return new String(recv.toByteArray(), "UTF-8");
+	}
+
+	@Test
+	public void testReadyComputedFromBitmap() throws Exception {
+		RevCommit a = remote.commit().message("a").create();
+		RevCommit b = remote.commit().message("b").parent(a).create();
+		RevCommit side = remote.commit().message("side").parent(a).create();
+		remote.update("master", b);
+		remote.update("side", side);
+		gcRemote();
+
+		assertTrue(negotiate(b, a).contains("ACK " + a.name() + " ready"));
+		assertFalse(negotiate(b, side).contains(" ready"));
+
+		// The new tip has no bitmap; the walk stops at its bitmapped parent.
+		RevCommit c = remote.commit().message("c").parent(b).create();
+		remote.update("master", c);
+		assertTrue(negotiate(c, a).contains("ACK " + a.name() + " ready"));
+		assertFalse(negotiate(c, side).contains(" ready"));
+	}
+
+	@Test
+	public void testFilterSpecParsing() throws Exception {
+		assertEquals(0, FilterSpec.fromFilterLine("blob:none").getBlobLimit());
+		assertEquals(1024,
+				FilterSpec.fromFilterLine("blob:limit=1k").getBlobLimit());
+		assertEquals(3,
+				FilterSpec.fromFilterLine("tree:3").getTreeDepthLimit());
+		assertEquals("blob:limit=2048",
+				FilterSpec.fromFilterLine("blob:limit=2k").getFilterLine());
+		assertTrue(FilterSpec.NO_FILTER.isNoOp());
+	}
+
+	@Test(expected = PackProtocolException.class)
+	public void testFilterSpecRejectsNegativeLimit() throws Exception {
+		FilterSpec.fromFilterLine("blob:limit=-1");
+	}
+
+	@Test(expected = PackProtocolException.class)
+	public void testFilterSpecRejectsUnknownFilter() throws Exception {
+		FilterSpec.fromFilterLine("sparse:oid=1234");
+	}
+}
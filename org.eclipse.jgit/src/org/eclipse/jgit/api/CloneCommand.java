@@ -104,6 +104,8 @@ public class CloneCommand extends TransportCommand<CloneCommand, Git> {
 
 	private boolean noCheckout;
 
+	private boolean useCloneBundle;
+
 	private Collection<String> branchesToClone;
 
 	/**
@@ -207,6 +209,7 @@ private FetchResult fetch(Repository clonedRepo, URIish u)
 		command.setRemote(remote);
 		command.setProgressMonitor(monitor);
 		command.setTagOpt(TagOpt.FETCH_TAGS);
+		command.setUseCloneBundle(useCloneBundle);
 		configure(command);
 
 		List<RefSpec> specs = calculateRefSpecs(dst);
@@ -522,6 +525,20 @@ public CloneCommand setNoCheckout(boolean noCheckout) {
 		return this;
 	}
 
+	/**
+	 * @param useCloneBundle
+	 *            if set to <code>true</code> and the server advertises a
+	 *            clone bundle, the bundle is downloaded before the remaining
+	 *            objects are fetched. An interrupted bundle download is
+	 *            resumed by the next clone of the same repository.
+	 * @return {@code this}
+	 * @since 4.7
+	 */
+	public CloneCommand setUseCloneBundle(boolean useCloneBundle) {
+		this.useCloneBundle = useCloneBundle;
+		return this;
+	}
+
 	private static void validateDirs(File directory, File gitDir, boolean bare)
 			throws IllegalStateException {
 		if (directory != null) {
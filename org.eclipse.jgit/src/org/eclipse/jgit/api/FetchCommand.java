@@ -61,6 +61,7 @@
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.StoredConfig;
 import org.eclipse.jgit.transport.FetchResult;
+import org.eclipse.jgit.transport.FilterSpec;
 import org.eclipse.jgit.transport.RefSpec;
 import org.eclipse.jgit.transport.TagOpt;
 import org.eclipse.jgit.transport.Transport;
@@ -91,6 +92,10 @@ public class FetchCommand extends TransportCommand<FetchCommand, FetchResult> {
 
 	private TagOpt tagOption;
 
+	private FilterSpec filterSpec = FilterSpec.NO_FILTER;
+
+	private boolean useCloneBundle;
+
 	/**
 	 * @param repo
 	 */
@@ -123,6 +128,8 @@ public FetchResult call() throws GitAPIException, InvalidRemoteException,
 			if (tagOption != null)
 				transport.setTagOpt(tagOption);
 			transport.setFetchThin(thin);
+			transport.setFilterSpec(filterSpec);
+			transport.setUseCloneBundle(useCloneBundle);
 			configure(transport);
 
 			FetchResult result = transport.fetch(monitor, refSpecs);
@@ -320,6 +327,58 @@ public FetchCommand setThin(boolean thin) {
 		return this;
 	}
 
+	/**
+	 * @return the filter requested for a partial fetch
+	 * @since 4.7
+	 */
+	public FilterSpec getFilterSpec() {
+		return filterSpec;
+	}
+
+	/**
+	 * Sets the filter for a partial fetch, e.g. to omit all blobs.
+	 *
+	 * The filter is ignored if the remote does not support it.
+	 *
+	 * @param filterSpec
+	 *            the filter, or {@link FilterSpec#NO_FILTER} to fetch all
+	 *            objects
+	 * @return {@code this}
+	 * @since 4.7
+	 */
+	public FetchCommand setFilterSpec(FilterSpec filterSpec) {
+		checkCallable();
+		this.filterSpec = filterSpec != null ? filterSpec
+				: FilterSpec.NO_FILTER;
+		return this;
+	}
+
+	/**
+	 * @return true if an initial fetch may start from a clone bundle
+	 *         advertised by the server
+	 * @since 4.7
+	 */
+	public boolean isUseCloneBundle() {
+		return useCloneBundle;
+	}
+
+	/**
+	 * Sets whether an initial fetch over HTTP may first download a prebuilt
+	 * bundle advertised by the server.
+	 *
+	 * An interrupted bundle download is resumed by the next fetch, and only
+	 * the objects the bundle does not contain are negotiated afterwards.
+	 *
+	 * @param useCloneBundle
+	 * @return {@code this}
+	 * @since 4.7
+	 */
+	public FetchCommand setUseCloneBundle(boolean useCloneBundle) {
+		checkCallable();
+		this.useCloneBundle = useCloneBundle;
+		return this;
+	}
+
 	/**
 	 * Sets the specification of annotated tag behavior during fetch
 	 *
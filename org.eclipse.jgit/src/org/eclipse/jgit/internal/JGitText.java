@@ -68,6 +68,7 @@ public static JGitText get() {
 	/***/ public String advertisementOfCameBefore;
 	/***/ public String amazonS3ActionFailed;
 	/***/ public String amazonS3ActionFailedGivingUp;
+	/***/ public String amazonS3InvalidResponse;
 	/***/ public String ambiguousObjectAbbreviation;
 	/***/ public String aNewObjectIdIsRequired;
 	/***/ public String anExceptionOccurredWhileTryingToAddTheIdOfHEAD;
@@ -175,6 +176,9 @@ public static JGitText get() {
 	/***/ public String checkoutConflictWithFiles;
 	/***/ public String checkoutUnexpectedResult;
 	/***/ public String classCastNotA;
+	/***/ public String cloneBundleDownloadFailed;
+	/***/ public String cloneBundleInsecureUrl;
+	/***/ public String cloneBundleNotUsed;
 	/***/ public String cloneNonEmptyDirectory;
 	/***/ public String closed;
 	/***/ public String collisionOn;
@@ -270,6 +274,9 @@ public static JGitText get() {
 	/***/ public String credentialPassword;
 	/***/ public String credentialUsername;
 	/***/ public String daemonAlreadyRunning;
+	/***/ public String daemonServiceBusy;
+	/***/ public String daemonTooManyConnections;
+	/***/ public String daemonTooManyConnectionsFromAddress;
 	/***/ public String daysAgo;
 	/***/ public String deleteBranchUnexpectedResult;
 	/***/ public String deleteFileFailed;
@@ -289,6 +296,8 @@ public static JGitText get() {
 	/***/ public String doesNotHandleMode;
 	/***/ public String downloadCancelled;
 	/***/ public String downloadCancelledDuringIndexing;
+	/***/ public String downloadsStillRunning;
+	/***/ public String downloadingCloneBundle;
 	/***/ public String duplicateAdvertisementsOf;
 	/***/ public String duplicateRef;
 	/***/ public String duplicateRemoteRefUpdateIsIllegal;
@@ -399,6 +408,7 @@ public static JGitText get() {
 	/***/ public String invalidDepth;
 	/***/ public String invalidEncryption;
 	/***/ public String invalidExpandWildcard;
+	/***/ public String invalidFilter;
 	/***/ public String invalidGitdirRef;
 	/***/ public String invalidGitType;
 	/***/ public String invalidId;
@@ -422,6 +432,7 @@ public static JGitText get() {
 	/***/ public String invalidReflogRevision;
 	/***/ public String invalidRefName;
 	/***/ public String invalidRemote;
+	/***/ public String invalidS3PartSize;
 	/***/ public String invalidShallowObject;
 	/***/ public String invalidStageForPath;
 	/***/ public String invalidTagOption;
@@ -609,6 +620,7 @@ public static JGitText get() {
 	/***/ public String repositoryState_rebaseOrApplyMailbox;
 	/***/ public String repositoryState_rebaseWithMerge;
 	/***/ public String requiredHashFunctionNotAvailable;
+	/***/ public String reservedCacheSizeTooLarge;
 	/***/ public String resettingHead;
 	/***/ public String resolvingDeltas;
 	/***/ public String resultLengthIncorrect;
@@ -51,10 +51,13 @@
 
 import java.io.IOException;
 import java.text.MessageFormat;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -159,6 +162,15 @@ public static enum State {
 	 */
 	private final List<Proposal> queued;
 
+	/** Sum of {@link Proposal#estimateSize()} for {@link #queued}. */
+	private long queuedBytes;
+
+	/**
+	 * Delayed start of the next round while the leader waits for more
+	 * proposals to group with the first; null if no start is delayed.
+	 */
+	private ScheduledFuture<?> groupCommit;
+
 	/**
 	 * State of the repository's RefTree after applying all entries in
 	 * {@link #queued}. New proposals must be consistent with this tree to be
@@ -346,10 +358,18 @@ public void queueProposal(Proposal proposal)
 			}
 
 			queued.add(proposal);
+			queuedBytes += proposal.estimateSize();
 			proposal.notifyState(QUEUED);
 
 			if (idle) {
-				scheduleLeader();
+				scheduleLeader(state == LEADER
+						? system.getGroupCommitWindow()
+						: Duration.ZERO);
+			} else if (groupCommit != null && isRoundFull()) {
+				// The group is full; start it without waiting any longer.
+				if (groupCommit.cancel(false)) {
+					scheduleLeader(Duration.ZERO);
+				}
 			}
 		} finally {
 			lock.unlock();
@@ -372,20 +392,33 @@ private void initialize() throws IOException {
 		}
 	}
 
-	private void scheduleLeader() {
+	private boolean isRoundFull() {
+		return queued.size() >= system.getMaxProposalsPerRound()
+				|| queuedBytes >= system.getMaxProposalBytesPerRound();
+	}
+
+	private void scheduleLeader(Duration delay) {
 		idle = false;
-		system.getExecutor().execute(new Runnable() {
+		Runnable task = new Runnable() {
 			@Override
 			public void run() {
 				runLeader();
 			}
-		});
+		};
+		if (delay.isZero() || delay.isNegative()) {
+			groupCommit = null;
+			system.getExecutor().execute(task);
+		} else {
+			groupCommit = system.getExecutor().schedule(task,
+					delay.toMillis(), TimeUnit.MILLISECONDS);
+		}
 	}
 
 	private void runLeader() {
 		Round round;
 		lock.lock();
 		try {
+			groupCommit = null;
 			switch (state) {
 			case CANDIDATE:
 				round = new ElectionRound(this, headIndex);
@@ -421,8 +454,27 @@ private void runLeader() {
 	}
 
 	private ProposalRound newProposalRound() {
-		List<Proposal> todo = new ArrayList<>(queued);
-		queued.clear();
+		int max = system.getMaxProposalsPerRound();
+		long maxBytes = system.getMaxProposalBytesPerRound();
+		int n = 0;
+		long bytes = 0;
+		while (n < queued.size() && (n == 0 || n < max)) {
+			long sz = queued.get(n).estimateSize();
+			if (n > 0 && bytes + sz > maxBytes) {
+				break;
+			}
+			bytes += sz;
+			n++;
+		}
+
+		List<Proposal> todo = new ArrayList<>(queued.subList(0, n));
+		queued.subList(0, n).clear();
+		queuedBytes -= bytes;
+		if (!queued.isEmpty()) {
+			// refTree also reflects proposals left for a later round, so
+			// this round must rebuild its tree from the accepted state.
+			return new ProposalRound(this, headIndex, todo, null);
+		}
 		roundHoldsReferenceToRefTree = true;
 		return new ProposalRound(this, headIndex, todo, refTree);
 	}
@@ -520,9 +572,10 @@ void onReplicaUpdate(KetchReplica replica) {
 						committedIndex.describeForLog(),
 						Long.valueOf(term));
 			}
+			Round done = runningRound;
 			nextRound();
 			commitAsync(replica);
-			notifySuccess(runningRound);
+			notifySuccess(done);
 			if (log.isDebugEnabled()) {
 				log.debug("Leader state:\n{}", snapshot()); //$NON-NLS-1$
 			}
@@ -573,7 +626,7 @@ void nextRound() {
 			// Caller holds lock. Reschedule leader on a new thread so
 			// the call stack can unwind and lock is not held unexpectedly
 			// during prepare for the next round.
-			scheduleLeader();
+			scheduleLeader(Duration.ZERO);
 		}
 	}
 
@@ -64,6 +64,7 @@
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
 
@@ -169,6 +170,7 @@ public enum State {
 	private final CommitSpeed commitSpeed;
 	private final long minRetryMillis;
 	private final long maxRetryMillis;
+	private final int maxInFlight;
 	private final Map<ObjectId, List<ReceiveCommand>> staged;
 	private final Map<String, ReceiveCommand> running;
 	private final Map<String, ReceiveCommand> waiting;
@@ -199,6 +201,15 @@ public enum State {
 	private long lastRetryMillis;
 	private long retryAtMillis;
 
+	/** Number of push requests started and not yet completed. */
+	private int inFlight;
+
+	/** Duration of the most recent successful push. */
+	private long lastLatencyMillis;
+
+	/** Moving average of successful push durations. */
+	private long avgLatencyMillis;
+
 	/**
 	 * Configure a replica representation.
 	 *
@@ -217,6 +228,7 @@ protected KetchReplica(KetchLeader leader, String name, ReplicaConfig cfg) {
 		this.commitSpeed = cfg.getCommitSpeed();
 		this.minRetryMillis = cfg.getMinRetry(MILLISECONDS);
 		this.maxRetryMillis = cfg.getMaxRetry(MILLISECONDS);
+		this.maxInFlight = cfg.getMaxInFlight();
 		this.staged = new HashMap<>();
 		this.running = new HashMap<>();
 		this.waiting = new HashMap<>();
@@ -281,9 +293,24 @@ ReplicaSnapshot snapshot() {
 		s.state = state;
 		s.error = error;
 		s.retryAtMillis = waitingForRetry() ? retryAtMillis : 0;
+		s.inFlight = inFlight;
+		s.lag = lag();
+		s.lastLatencyMillis = lastLatencyMillis;
+		s.avgLatencyMillis = avgLatencyMillis;
 		return s;
 	}
 
+	private long lag() {
+		LogIndex head = leader.getHead();
+		if (head == null || hasAccepted(head)) {
+			return 0;
+		} else if (txnAccepted instanceof LogIndex) {
+			return Math.max(0, head.getIndex()
+					- ((LogIndex) txnAccepted).getIndex());
+		}
+		return -1;
+	}
+
 	/**
 	 * Update the leader's view of the replica after a poll.
 	 * <p>
@@ -418,13 +445,22 @@ && shouldPushUnbatchedCommit(committed, leader.isIdle())) {
 			pushCommitAsync(committed);
 		}
 
-		if (queued.isEmpty() || !running.isEmpty() || waitingForRetry()) {
+		if (queued.isEmpty() || inFlight >= maxInFlight || waitingForRetry()) {
 			return;
 		}
 
-		// Collapse all queued requests into a single request.
+		// Collapse queued requests into a single request. A request touching
+		// a reference still being pushed must wait for that push to finish.
+		// Requests after it wait too, even on other references, so pushes
+		// leave in log order and a replica never records a commit before
+		// it has accepted that state.
 		Map<String, ReceiveCommand> cmdMap = new HashMap<>();
+		int n = 0;
 		for (ReplicaPushRequest req : queued) {
+			if (touches(req, running.keySet())) {
+				break;
+			}
+			n++;
 			for (ReceiveCommand cmd : req.getCommands()) {
 				String name = cmd.getRefName();
 				ReceiveCommand old = cmdMap.remove(name);
@@ -436,14 +472,59 @@ && shouldPushUnbatchedCommit(committed, leader.isIdle())) {
 				cmdMap.put(name, cmd);
 			}
 		}
-		queued.clear();
+		rebaseCommit(cmdMap);
+		queued.subList(0, n).clear();
 		waiting.clear();
+		for (ReplicaPushRequest req : queued) {
+			for (ReceiveCommand cmd : req.getCommands()) {
+				waiting.put(cmd.getRefName(), cmd);
+			}
+		}
+		if (cmdMap.isEmpty()) {
+			return;
+		}
 
 		List<ReceiveCommand> next = new ArrayList<>(cmdMap.values());
 		for (ReceiveCommand cmd : next) {
 			running.put(cmd.getRefName(), cmd);
 		}
-		startPush(new ReplicaPushRequest(this, next));
+		send(new ReplicaPushRequest(this, next));
+	}
+
+	/**
+	 * Update a queued commit to start from the replica's current view.
+	 * <p>
+	 * A commit may have been queued behind another push of the committed
+	 * reference, making its old id stale. Sending it unchanged would fail
+	 * and abort any accept collapsed into the same request.
+	 */
+	private void rebaseCommit(Map<String, ReceiveCommand> cmdMap) {
+		String name = getSystem().getTxnCommitted();
+		ReceiveCommand cmd = cmdMap.get(name);
+		if (cmd == null || txnCommitted == null
+				|| AnyObjectId.equals(cmd.getOldId(), txnCommitted)) {
+			return;
+		}
+
+		ObjectId newId = cmd.getNewId();
+		if (AnyObjectId.equals(newId, txnCommitted)
+				|| (newId instanceof LogIndex
+						&& txnCommitted instanceof LogIndex
+						&& ((LogIndex) newId)
+								.isBefore((LogIndex) txnCommitted))) {
+			cmdMap.remove(name);
+		} else {
+			cmdMap.put(name, new ReceiveCommand(txnCommitted, newId, name));
+		}
+	}
+
+	private static boolean touches(ReplicaPushRequest req, Set<String> refs) {
+		for (ReceiveCommand cmd : req.getCommands()) {
+			if (refs.contains(cmd.getRefName())) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	private void pushAsync(ReplicaPushRequest req) {
@@ -457,14 +538,25 @@ private void pushAsync(ReplicaPushRequest req) {
 			for (ReceiveCommand cmd : req.getCommands()) {
 				running.put(cmd.getRefName(), cmd);
 			}
-			startPush(req);
+			send(req);
 		}
 	}
 
+	private void send(ReplicaPushRequest req) {
+		inFlight++;
+		req.startMillis = SystemReader.getInstance().getCurrentTime();
+		startPush(req);
+	}
+
 	private boolean defer(ReplicaPushRequest req) {
 		if (waitingForRetry()) {
 			// Prior communication failure; everything is deferred.
 			return true;
+		} else if (inFlight >= maxInFlight) {
+			return true;
+		} else if (!queued.isEmpty()) {
+			// Earlier requests are still queued; do not overtake them.
+			return true;
 		}
 
 		for (ReceiveCommand nextCmd : req.getCommands()) {
@@ -598,6 +690,7 @@ void afterPush(@Nullable Repository repo, ReplicaPushRequest req) {
 			for (ReceiveCommand cmd : req.getCommands()) {
 				running.remove(cmd.getRefName());
 			}
+			inFlight--;
 
 			Throwable err = req.getException();
 			if (err != null) {
@@ -610,6 +703,7 @@ void afterPush(@Nullable Repository repo, ReplicaPushRequest req) {
 
 			lastRetryMillis = 0;
 			error = null;
+			updateLatency(req);
 			updateView(req, acceptId, commitCmd);
 
 			if (acceptCmd != null && acceptCmd.getResult() == OK) {
@@ -628,6 +722,16 @@ void afterPush(@Nullable Repository repo, ReplicaPushRequest req) {
 		}
 	}
 
+	private void updateLatency(ReplicaPushRequest req) {
+		long now = SystemReader.getInstance().getCurrentTime();
+		lastLatencyMillis = Math.max(0, now - req.startMillis);
+		if (avgLatencyMillis == 0) {
+			avgLatencyMillis = lastLatencyMillis;
+		} else {
+			avgLatencyMillis = (3 * avgLatencyMillis + lastLatencyMillis) / 4;
+		}
+	}
+
 	private void updateView(ReplicaPushRequest req, @Nullable ObjectId acceptId,
 			ReceiveCommand commitCmd) {
 		if (acceptId != null) {
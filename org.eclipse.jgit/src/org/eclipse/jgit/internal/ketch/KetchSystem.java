@@ -57,6 +57,8 @@
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
@@ -91,7 +93,16 @@ public static ScheduledExecutorService defaultExecutor() {
 		return DefaultExecutorHolder.I;
 	}
 
+	/**
+	 * @return default executor for replica communication, starting threads
+	 *         as needed so a slow replica does not delay the others.
+	 */
+	public static ExecutorService defaultReplicaExecutor() {
+		return DefaultReplicaExecutorHolder.I;
+	}
+
 	private final ScheduledExecutorService executor;
+	private final Executor replicaExecutor;
 	private final MonotonicClock clock;
 	private final String txnNamespace;
 	private final String txnAccepted;
@@ -100,7 +111,8 @@ public static ScheduledExecutorService defaultExecutor() {
 
 	/** Create a default system with a thread pool of 1 thread per CPU. */
 	public KetchSystem() {
-		this(defaultExecutor(), new MonotonicSystemClock(), DEFAULT_TXN_NAMESPACE);
+		this(defaultExecutor(), defaultReplicaExecutor(),
+				new MonotonicSystemClock(), DEFAULT_TXN_NAMESPACE);
 	}
 
 	/**
@@ -117,7 +129,31 @@ public KetchSystem() {
 	 */
 	public KetchSystem(ScheduledExecutorService executor, MonotonicClock clock,
 			String txnNamespace) {
+		this(executor, executor, clock, txnNamespace);
+	}
+
+	/**
+	 * Create a Ketch system with separate executors for leader work and
+	 * replica communication.
+	 *
+	 * @param executor
+	 *            thread pool to run leader operations and retry timers.
+	 * @param replicaExecutor
+	 *            thread pool to push to and fetch from replicas. Requests to
+	 *            all replicas of a round run concurrently, so this pool should
+	 *            allow at least one thread per replica.
+	 * @param clock
+	 *            clock to create timestamps.
+	 * @param txnNamespace
+	 *            reference namespace for the RefTree graph and associated
+	 *            transaction state. Must begin with {@code "refs/"} and end
+	 *            with {@code '/'}, for example {@code "refs/txn/"}.
+	 */
+	public KetchSystem(ScheduledExecutorService executor,
+			Executor replicaExecutor, MonotonicClock clock,
+			String txnNamespace) {
 		this.executor = executor;
+		this.replicaExecutor = replicaExecutor;
 		this.clock = clock;
 		this.txnNamespace = txnNamespace;
 		this.txnAccepted = txnNamespace + ACCEPTED;
@@ -130,6 +166,11 @@ public ScheduledExecutorService getExecutor() {
 		return executor;
 	}
 
+	/** @return executor to communicate with replicas. */
+	public Executor getReplicaExecutor() {
+		return replicaExecutor;
+	}
+
 	/** @return clock to obtain timestamps from. */
 	public MonotonicClock getClock() {
 		return clock;
@@ -144,6 +185,40 @@ public Duration getMaxWaitForMonotonicClock() {
 		return Duration.ofSeconds(5);
 	}
 
+	/**
+	 * Get how long an idle leader waits to group proposals into one round.
+	 * <p>
+	 * Proposals arriving while a round is running are always combined into
+	 * the next round. This window additionally delays the start of a round
+	 * after an idle period, so a burst of small pushes shares a single
+	 * replication cycle. The wait ends early once the round reaches
+	 * {@link #getMaxProposalsPerRound()} or
+	 * {@link #getMaxProposalBytesPerRound()}.
+	 *
+	 * @return group commit window. Defaults to 0, starting rounds
+	 *         immediately.
+	 */
+	public Duration getGroupCommitWindow() {
+		return Duration.ZERO;
+	}
+
+	/**
+	 * @return maximum number of proposals combined into one round. Defaults
+	 *         to 256.
+	 */
+	public int getMaxProposalsPerRound() {
+		return 256;
+	}
+
+	/**
+	 * @return approximate maximum size in bytes of the reference updates
+	 *         combined into one round. A single larger proposal still runs
+	 *         in its own round. Defaults to 1 MiB.
+	 */
+	public long getMaxProposalBytesPerRound() {
+		return 1 << 20;
+	}
+
 	/**
 	 * @return true if elections should require monotonically increasing commit
 	 *         timestamps. This requires a very good {@link MonotonicClock}.
@@ -313,6 +388,24 @@ private DefaultExecutorHolder() {
 		}
 	}
 
+	static class DefaultReplicaExecutorHolder {
+		static final ExecutorService I = Executors.newCachedThreadPool(
+				new ThreadFactory() {
+					private final AtomicInteger threadCnt = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						int id = threadCnt.incrementAndGet();
+						Thread thr = new Thread(r);
+						thr.setName("KetchReplica-" + id); //$NON-NLS-1$
+						return thr;
+					}
+				});
+
+		private DefaultReplicaExecutorHolder() {
+		}
+	}
+
 	/**
 	 * Compute a delay in a {@code min..max} interval with random jitter.
 	 *
@@ -138,6 +138,13 @@ private static void debug(StringBuilder b, ReplicaSnapshot s) {
 		debug(b, replica.getName(), s.getAccepted(), s.getCommitted());
 		b.append(String.format(" %-8s %s", //$NON-NLS-1$
 				replica.getParticipation(), s.getState()));
+		if (s.getLag() > 0) {
+			b.append(" lag ").append(s.getLag()); //$NON-NLS-1$
+		}
+		if (s.getAverageLatencyMillis() > 0) {
+			b.append(" avg ").append(s.getAverageLatencyMillis()) //$NON-NLS-1$
+					.append(" ms"); //$NON-NLS-1$
+		}
 		if (s.getState() == OFFLINE) {
 			String err = s.getErrorMessage();
 			if (err != null) {
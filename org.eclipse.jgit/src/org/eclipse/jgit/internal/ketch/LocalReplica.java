@@ -118,7 +118,7 @@ void initialize(Repository repo) throws IOException {
 
 	@Override
 	protected void startPush(final ReplicaPushRequest req) {
-		getSystem().getExecutor().execute(new Runnable() {
+		getSystem().getReplicaExecutor().execute(new Runnable() {
 			@Override
 			public void run() {
 				MonotonicClock clk = getSystem().getClock();
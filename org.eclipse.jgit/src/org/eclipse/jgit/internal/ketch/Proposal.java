@@ -61,6 +61,7 @@
 import org.eclipse.jgit.annotations.Nullable;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.internal.storage.reftree.Command;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Ref;
@@ -166,6 +167,18 @@ private static List<Command> asCommandList(RevWalk rw,
 		return Collections.unmodifiableList(commands);
 	}
 
+	/**
+	 * @return approximate size in bytes of the reference updates and message
+	 *         of this proposal, used to bound rounds.
+	 */
+	long estimateSize() {
+		long n = message != null ? message.length() : 0;
+		for (Command c : commands) {
+			n += c.getRefName().length() + Constants.OBJECT_ID_LENGTH;
+		}
+		return n;
+	}
+
 	/** @return commands from this proposal. */
 	public Collection<Command> getCommands() {
 		return commands;
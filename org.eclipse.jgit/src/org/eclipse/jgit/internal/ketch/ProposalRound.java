@@ -162,7 +162,7 @@ private ObjectId insertProposals(Repository git, ProposedTimestamp ts)
 				id = insertMultiProposal(git, ts, inserter);
 			}
 
-			stageCommands = makeStageList(git, inserter);
+			stageCommands = makeStageList(git, inserter, id);
 			inserter.flush();
 		}
 		return id;
@@ -275,7 +275,7 @@ void success() {
 	}
 
 	private List<ReceiveCommand> makeStageList(Repository git,
-			ObjectInserter inserter) throws IOException {
+			ObjectInserter inserter, ObjectId txnId) throws IOException {
 		// For each branch, collapse consecutive updates to only most recent,
 		// avoiding sending multiple objects in a rapid fast-forward chain, or
 		// rewritten content.
@@ -293,9 +293,11 @@ private List<ReceiveCommand> makeStageList(Repository git,
 		}
 
 		Set<ObjectId> newObjs = new HashSet<>(byRef.values());
+		// acceptedNewIndex is not assigned until runAsync; name the
+		// stage references after the commit this round proposes.
 		StageBuilder b = new StageBuilder(
 				leader.getSystem().getTxnStage(),
-				acceptedNewIndex);
+				txnId);
 		return b.makeStageList(newObjs, git, inserter);
 	}
 
@@ -128,7 +128,7 @@ protected String describeForLog() {
 
 	@Override
 	protected void startPush(final ReplicaPushRequest req) {
-		getSystem().getExecutor().execute(new Runnable() {
+		getSystem().getReplicaExecutor().execute(new Runnable() {
 			@Override
 			public void run() {
 				try (Repository git = getLeader().openRepository()) {
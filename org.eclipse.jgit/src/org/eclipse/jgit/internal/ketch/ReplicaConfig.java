@@ -85,6 +85,7 @@ public static ReplicaConfig newFromConfig(Config cfg, String name) {
 	private CommitSpeed commitSpeed = CommitSpeed.BATCHED;
 	private long minRetry = SECONDS.toMillis(5);
 	private long maxRetry = MINUTES.toMillis(1);
+	private int maxInFlight = 4;
 
 	/** @return participation of the replica in the system. */
 	public Participation getParticipation() {
@@ -123,6 +124,19 @@ public long getMaxRetry(TimeUnit unit) {
 		return unit.convert(maxRetry, MILLISECONDS);
 	}
 
+	/**
+	 * Get the maximum number of push requests running at once.
+	 * <p>
+	 * Requests updating different references, such as a commit of one round
+	 * and the proposal of the next, are sent concurrently up to this limit.
+	 * Requests touching the same reference are always sent in order.
+	 *
+	 * @return maximum number of concurrent requests to the replica.
+	 */
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
 	/**
 	 * Update the configuration from a config block.
 	 *
@@ -144,6 +158,8 @@ public ReplicaConfig fromConfig(Config cfg, String name) {
 				commitSpeed);
 		minRetry = getMillis(cfg, name, "ketch-minRetry", minRetry); //$NON-NLS-1$
 		maxRetry = getMillis(cfg, name, "ketch-maxRetry", maxRetry); //$NON-NLS-1$
+		maxInFlight = Math.max(1, cfg.getInt(CONFIG_KEY_REMOTE, name,
+				"ketch-maxInFlight", maxInFlight)); //$NON-NLS-1$
 		return this;
 	}
 
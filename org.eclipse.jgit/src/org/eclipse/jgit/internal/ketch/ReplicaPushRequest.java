@@ -66,6 +66,9 @@ public class ReplicaPushRequest {
 	private Throwable exception;
 	private boolean notified;
 
+	/** Time the request was handed to the replica, for latency tracking. */
+	long startMillis;
+
 	/**
 	 * Construct a new push request for a replica.
 	 *
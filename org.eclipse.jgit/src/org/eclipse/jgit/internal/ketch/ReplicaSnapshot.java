@@ -60,6 +60,10 @@ public class ReplicaSnapshot {
 	KetchReplica.State state;
 	String error;
 	long retryAtMillis;
+	int inFlight;
+	long lag;
+	long lastLatencyMillis;
+	long avgLatencyMillis;
 
 	ReplicaSnapshot(KetchReplica replica) {
 		this.replica = replica;
@@ -97,6 +101,36 @@ public String getErrorMessage() {
 		return error;
 	}
 
+	/** @return number of push requests currently running to the replica. */
+	public int getInFlightRequests() {
+		return inFlight;
+	}
+
+	/**
+	 * @return number of leader log entries the replica has not yet accepted;
+	 *         0 if it is current; -1 if unknown, such as before the leader
+	 *         first reaches the replica.
+	 */
+	public long getLag() {
+		return lag;
+	}
+
+	/**
+	 * @return duration in milliseconds of the most recent successful push to
+	 *         the replica; 0 if none completed yet.
+	 */
+	public long getLastLatencyMillis() {
+		return lastLatencyMillis;
+	}
+
+	/**
+	 * @return moving average in milliseconds of successful push durations;
+	 *         0 if none completed yet.
+	 */
+	public long getAverageLatencyMillis() {
+		return avgLatencyMillis;
+	}
+
 	/**
 	 * @return time (usually in the future) when the leader will retry
 	 *         communication with the offline or lagging replica; null if no
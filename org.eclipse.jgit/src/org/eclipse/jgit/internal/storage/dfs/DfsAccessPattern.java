@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.dfs;
+
+/**
+ * Detects sequential access to one pack file through a {@link DfsReader}.
+ * <p>
+ * Each block read from storage is reported with its position. A read that
+ * starts where the previous one ended extends a sequential run, and the read
+ * size doubles with every further block of the run, up to a limit. Any other
+ * read starts a new run and fetches a single block, keeping latency low for
+ * random object lookups. Scans such as copying a pack as-is or compacting
+ * packs quickly ramp up to large reads, while the reader of an object
+ * lookup never pays for data it does not use.
+ * <p>
+ * The counters describe the reads of one pack by one reader, and are
+ * available through {@link DfsReader#getAccessPattern(DfsPackFile)}.
+ */
+public final class DfsAccessPattern {
+	/** Position following the last byte read; -1 before the first read. */
+	private long nextPosition = -1;
+
+	/** Number of consecutive sequential reads, including the current one. */
+	private int run;
+
+	private long sequentialReads;
+
+	private long randomReads;
+
+	private long blocksRead;
+
+	private long readAheadBlocks;
+
+	/**
+	 * Compute how many bytes to read for a cache miss.
+	 *
+	 * @param position
+	 *            block aligned position that missed the cache.
+	 * @param blockSize
+	 *            size of one block of the pack.
+	 * @param limit
+	 *            maximum number of bytes to read at once.
+	 * @return number of bytes to read starting at {@code position}; a
+	 *         multiple of {@code blockSize} of at least one block.
+	 */
+	int readSize(long position, int blockSize, int limit) {
+		if (position == nextPosition) {
+			run++;
+			sequentialReads++;
+		} else {
+			run = 0;
+			randomReads++;
+		}
+		if (run == 0 || limit <= blockSize)
+			return blockSize;
+		int blocks = 1 << Math.min(run, 16);
+		return (int) Math.min((long) blocks * blockSize,
+				(limit / blockSize) * blockSize);
+	}
+
+	/**
+	 * Record the completion of a read.
+	 *
+	 * @param position
+	 *            first byte read.
+	 * @param length
+	 *            number of bytes read.
+	 * @param blockSize
+	 *            size of one block of the pack.
+	 */
+	void read(long position, int length, int blockSize) {
+		nextPosition = position + length;
+		int blocks = (length + blockSize - 1) / blockSize;
+		blocksRead += blocks;
+		readAheadBlocks += blocks - 1;
+	}
+
+	/** @return reads that continued the previous read. */
+	public long getSequentialReads() {
+		return sequentialReads;
+	}
+
+	/** @return reads that did not continue the previous read. */
+	public long getRandomReads() {
+		return randomReads;
+	}
+
+	/** @return blocks read from storage. */
+	public long getBlocksRead() {
+		return blocksRead;
+	}
+
+	/** @return blocks read in addition to the one that missed the cache. */
+	public long getReadAheadBlocks() {
+		return readAheadBlocks;
+	}
+}
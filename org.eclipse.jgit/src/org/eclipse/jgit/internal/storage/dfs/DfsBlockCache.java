@@ -45,15 +45,20 @@
 package org.eclipse.jgit.internal.storage.dfs;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.text.MessageFormat;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.pack.PackExt;
 
 /**
  * Caches slices of a {@link DfsPackFile} in memory for faster read access.
@@ -64,15 +69,26 @@
  * tiny reads into larger block-sized IO operations.
  * <p>
  * Whenever a cache miss occurs, loading is invoked by exactly one thread for
- * the given <code>(DfsPackKey,position)</code> key tuple. This is ensured by an
- * array of locks, with the tuple hashed to a lock instance.
+ * the given <code>(DfsPackKey,position)</code> key tuple. The loading thread
+ * registers the pending load in a concurrent map; other threads missing on the
+ * same key wait for that load to complete, while misses on unrelated keys
+ * proceed in parallel.
  * <p>
  * Its too expensive during object access to be accurate with a least recently
  * used (LRU) algorithm. Strictly ordering every read is a lot of overhead that
  * typically doesn't yield a corresponding benefit to the application. This
  * cache implements a clock replacement algorithm, giving each block one chance
  * to have been accessed during a sweep of the cache to save itself from
- * eviction.
+ * eviction. The clock is split into independently locked segments, with each
+ * block assigned to a segment by its key, so insertions of unrelated blocks
+ * rarely contend. The cache size is still bounded as a whole: when it is full,
+ * space is reclaimed from the segment of the new block first, and then from
+ * the others.
+ * <p>
+ * Each entry is tagged with the {@link PackExt} it was read from. Statistics
+ * are kept per extension, and {@link DfsBlockCacheConfig#getReservedSize}
+ * protects entries of an extension from eviction while they stay within
+ * their reservation, so pack indexes survive heavy churn of pack data.
  * <p>
  * Entities created by the cache are held under hard references, preventing the
  * Java VM from clearing anything. Blocks are discarded by the replacement
@@ -82,13 +98,16 @@
  * The key tuple is passed through to methods as a pair of parameters rather
  * than as a single Object, thus reducing the transient memory allocations of
  * callers. It is more efficient to avoid the allocation, as we can't be 100%
- * sure that a JIT would be able to stack-allocate a key tuple.
+ * sure that a JIT would be able to stack-allocate a key tuple. Only a cache
+ * miss allocates a key, to register the pending load.
  * <p>
  * The internal hash table does not expand at runtime, instead it is fixed in
- * size at cache creation time. The internal lock table used to gate load
- * invocations is also fixed in size.
+ * size at cache creation time. The number of clock segments is also fixed, and
+ * taken from {@link DfsBlockCacheConfig#getConcurrencyLevel()}.
  */
 public final class DfsBlockCache {
+	private static final int PACK_POS = PackExt.PACK.getPosition();
+
 	private static volatile DfsBlockCache cache;
 
 	static {
@@ -129,8 +148,11 @@ public static DfsBlockCache getInstance() {
 	/** Hash bucket directory; entries are chained below. */
 	private final AtomicReferenceArray<HashEntry> table;
 
-	/** Locks to prevent concurrent loads for same (PackFile,position). */
-	private final ReentrantLock[] loadLocks;
+	/** Blocks currently being read, to prevent concurrent loads of a key. */
+	private final ConcurrentHashMap<LoadKey, PendingLoad> loading;
+
+	/** Independently locked parts of the clock. */
+	private final ClockSegment[] clock;
 
 	/** Maximum number of bytes the cache should hold. */
 	private final long maxBytes;
@@ -159,59 +181,84 @@ public static DfsBlockCache getInstance() {
 	/** View of pack files in the pack cache. */
 	private final Collection<DfsPackFile> packFiles;
 
-	/** Number of times a block was found in the cache. */
-	private final AtomicLong statHit;
+	/** Number of times an entry was found in the cache, per extension. */
+	private final AtomicLongArray statHit;
 
-	/** Number of times a block was not found, and had to be loaded. */
-	private final AtomicLong statMiss;
+	/** Number of times an entry was not found and was loaded, per extension. */
+	private final AtomicLongArray statMiss;
 
-	/** Number of blocks evicted due to cache being full. */
-	private volatile long statEvict;
+	/** Number of entries evicted due to cache being full, per extension. */
+	private final AtomicLongArray statEvict;
 
-	/** Protects the clock and its related data. */
-	private final ReentrantLock clockLock;
+	/** Number of bytes currently loaded in the cache. */
+	private final AtomicLong liveBytes;
 
-	/** Current position of the clock. */
-	private Ref clockHand;
+	/** Number of bytes currently loaded in the cache, per extension. */
+	private final AtomicLongArray liveBytesByExt;
 
-	/** Number of bytes currently loaded in the cache. */
-	private volatile long liveBytes;
+	/** Bytes per extension protected from eviction. */
+	private final long[] reservedBytes;
 
-	@SuppressWarnings("unchecked")
 	private DfsBlockCache(final DfsBlockCacheConfig cfg) {
 		tableSize = tableSize(cfg);
 		if (tableSize < 1)
 			throw new IllegalArgumentException(JGitText.get().tSizeMustBeGreaterOrEqual1);
 
 		table = new AtomicReferenceArray<HashEntry>(tableSize);
-		loadLocks = new ReentrantLock[cfg.getConcurrencyLevel()];
-		for (int i = 0; i < loadLocks.length; i++)
-			loadLocks[i] = new ReentrantLock(true /* fair */);
+		int segments = Math.max(1, cfg.getConcurrencyLevel());
+		loading = new ConcurrentHashMap<LoadKey, PendingLoad>(16, 0.75f,
+				segments);
+		clock = new ClockSegment[segments];
+		for (int i = 0; i < clock.length; i++)
+			clock[i] = new ClockSegment(i);
 
 		maxBytes = cfg.getBlockLimit();
 		maxStreamThroughCache = (long) (maxBytes * cfg.getStreamRatio());
 		blockSize = cfg.getBlockSize();
 		blockSizeShift = Integer.numberOfTrailingZeros(blockSize);
 
-		clockLock = new ReentrantLock(true /* fair */);
-		clockHand = new Ref<Object>(new DfsPackKey(), -1, 0, null);
-		clockHand.next = clockHand;
-
 		packCache = new ConcurrentHashMap<DfsPackDescription, DfsPackFile>(
 				16, 0.75f, 1);
 		packFiles = Collections.unmodifiableCollection(packCache.values());
 
-		statHit = new AtomicLong();
-		statMiss = new AtomicLong();
+		reservedBytes = new long[PackExt.MAX_EXTENSIONS];
+		long reserved = 0;
+		for (PackExt ext : PackExt.values()) {
+			reservedBytes[ext.getPosition()] = cfg.getReservedSize(ext);
+			reserved += cfg.getReservedSize(ext);
+		}
+		if (reserved >= maxBytes)
+			throw new IllegalArgumentException(MessageFormat.format(
+					JGitText.get().reservedCacheSizeTooLarge,
+					Long.valueOf(reserved), Long.valueOf(maxBytes)));
+
+		statHit = new AtomicLongArray(PackExt.MAX_EXTENSIONS);
+		statMiss = new AtomicLongArray(PackExt.MAX_EXTENSIONS);
+		statEvict = new AtomicLongArray(PackExt.MAX_EXTENSIONS);
+		liveBytes = new AtomicLong();
+		liveBytesByExt = new AtomicLongArray(PackExt.MAX_EXTENSIONS);
 	}
 
 	boolean shouldCopyThroughCache(long length) {
 		return length <= maxStreamThroughCache;
 	}
 
+	long getMaxStreamThroughCache() {
+		return maxStreamThroughCache;
+	}
+
 	/** @return total number of bytes in the cache. */
 	public long getCurrentSize() {
-		return liveBytes;
+		return liveBytes.get();
+	}
+
+	/**
+	 * @param ext
+	 *            kind of file.
+	 * @return number of bytes in the cache holding {@code ext} entries.
+	 */
+	public long getCurrentSize(PackExt ext) {
+		return liveBytesByExt.get(ext.getPosition());
 	}
 
 	/** @return 0..100, defining how full the cache is. */
@@ -221,12 +268,31 @@ public long getFillPercentage() {
 
 	/** @return number of requests for items in the cache. */
 	public long getHitCount() {
-		return statHit.get();
+		return sum(statHit);
+	}
+
+	/**
+	 * @param ext
+	 *            kind of file.
+	 * @return number of requests for {@code ext} entries found in the cache.
+	 */
+	public long getHitCount(PackExt ext) {
+		return statHit.get(ext.getPosition());
 	}
 
 	/** @return number of requests for items not in the cache. */
 	public long getMissCount() {
-		return statMiss.get();
+		return sum(statMiss);
+	}
+
+	/**
+	 * @param ext
+	 *            kind of file.
+	 * @return number of requests for {@code ext} entries that had to be
+	 *         loaded.
+	 */
+	public long getMissCount(PackExt ext) {
+		return statMiss.get(ext.getPosition());
 	}
 
 	/** @return total number of requests (hit + miss). */
@@ -236,8 +302,8 @@ public long getTotalRequestCount() {
 
 	/** @return 0..100, defining number of cache hits. */
 	public long getHitRatio() {
-		long hits = statHit.get();
-		long miss = statMiss.get();
+		long hits = getHitCount();
+		long miss = getMissCount();
 		long total = hits + miss;
 		if (total == 0)
 			return 0;
@@ -246,7 +312,36 @@ public long getHitRatio() {
 
 	/** @return number of evictions performed due to cache being full. */
 	public long getEvictions() {
-		return statEvict;
+		return sum(statEvict);
+	}
+
+	/**
+	 * @param ext
+	 *            kind of file.
+	 * @return number of {@code ext} entries evicted due to cache being full.
+	 */
+	public long getEvictions(PackExt ext) {
+		return statEvict.get(ext.getPosition());
+	}
+
+	private static long sum(AtomicLongArray a) {
+		long r = 0;
+		for (int i = 0; i < a.length(); i++)
+			r += a.get(i);
+		return r;
+	}
+
+	/**
+	 * Record a lookup of an entry held outside of {@link #getOrLoad}, such as
+	 * a pack index referenced directly by its {@link DfsPackFile}.
+	 *
+	 * @param ext
+	 *            kind of entry looked up.
+	 * @param hit
+	 *            true if the entry was still cached.
+	 */
+	void countLookup(PackExt ext, boolean hit) {
+		(hit ? statHit : statMiss).incrementAndGet(ext.getPosition());
 	}
 
 	/**
@@ -314,164 +409,232 @@ private static int tableSize(final DfsBlockCacheConfig cfg) {
 	 */
 	DfsBlock getOrLoad(DfsPackFile pack, long position, DfsReader ctx)
 			throws IOException {
+		return getOrLoad(pack, PackExt.PACK, position, ctx);
+	}
+
+	/**
+	 * Lookup a cached block of one of the pack's files, loading it if it
+	 * doesn't exist.
+	 *
+	 * @param pack
+	 *            the pack that "contains" the cached block.
+	 * @param ext
+	 *            file of the pack to read, {@link PackExt#PACK} or
+	 *            {@link PackExt#INDEX}.
+	 * @param position
+	 *            offset within the file.
+	 * @param ctx
+	 *            current thread's reader.
+	 * @return the block.
+	 * @throws IOException
+	 *             the block was not in the cache and could not be loaded.
+	 */
+	DfsBlock getOrLoad(DfsPackFile pack, PackExt ext, long position,
+			DfsReader ctx) throws IOException {
 		final long requestedPosition = position;
-		position = pack.alignToBlock(position);
+		position = pack.alignToBlock(ext, position);
 
-		DfsPackKey key = pack.key;
+		DfsPackKey key = pack.blockKey(ext);
+		int p = ext.getPosition();
 		int slot = slot(key, position);
-		HashEntry e1 = table.get(slot);
-		DfsBlock v = scan(e1, key, position);
+		DfsBlock v = scan(table.get(slot), key, position);
 		if (v != null) {
-			statHit.incrementAndGet();
+			statHit.incrementAndGet(p);
 			return v;
 		}
 
-		reserveSpace(blockSize);
-		ReentrantLock regionLock = lockFor(key, position);
-		regionLock.lock();
-		try {
-			HashEntry e2 = table.get(slot);
-			if (e2 != e1) {
-				v = scan(e2, key, position);
-				if (v != null) {
-					statHit.incrementAndGet();
-					creditSpace(blockSize);
-					return v;
-				}
-			}
-
-			statMiss.incrementAndGet();
-			boolean credit = true;
+		LoadKey loadKey = new LoadKey(key, position);
+		PendingLoad load = new PendingLoad();
+		PendingLoad running = loading.putIfAbsent(loadKey, load);
+		if (running != null) {
+			// Another thread is reading this block; share its result. The
+			// block was not in the cache when requested, so this is a miss.
+			statMiss.incrementAndGet(p);
+			v = running.await();
+		} else {
 			try {
-				v = pack.readOneBlock(position, ctx);
-				credit = false;
+				v = load(pack, ext, position, slot, ctx);
+				load.done(v);
+			} catch (IOException e) {
+				load.failed(e);
+				throw e;
+			} catch (RuntimeException e) {
+				load.failed(e);
+				throw e;
+			} catch (Error e) {
+				load.failed(e);
+				throw e;
 			} finally {
-				if (credit)
-					creditSpace(blockSize);
-			}
-			if (position != v.start) {
-				// The file discovered its blockSize and adjusted.
-				position = v.start;
-				slot = slot(key, position);
-				e2 = table.get(slot);
-			}
-
-			key.cachedSize.addAndGet(v.size());
-			Ref<DfsBlock> ref = new Ref<DfsBlock>(key, position, v.size(), v);
-			ref.hot = true;
-			for (;;) {
-				HashEntry n = new HashEntry(clean(e2), ref);
-				if (table.compareAndSet(slot, e2, n))
-					break;
-				e2 = table.get(slot);
+				loading.remove(loadKey, load);
 			}
-			addToClock(ref, blockSize - v.size());
-		} finally {
-			regionLock.unlock();
 		}
 
 		// If the block size changed from the default, it is possible the block
 		// that was loaded is the wrong block for the requested position.
-		if (v.contains(pack.key, requestedPosition))
+		if (v.contains(key, requestedPosition))
 			return v;
-		return getOrLoad(pack, requestedPosition, ctx);
+		return getOrLoad(pack, ext, requestedPosition, ctx);
 	}
 
-	@SuppressWarnings("unchecked")
-	private void reserveSpace(int reserve) {
-		clockLock.lock();
-		try {
-			long live = liveBytes + reserve;
-			if (maxBytes < live) {
-				Ref prev = clockHand;
-				Ref hand = clockHand.next;
-				do {
-					if (hand.hot) {
-						// Value was recently touched. Clear
-						// hot and give it another chance.
-						hand.hot = false;
-						prev = hand;
-						hand = hand.next;
-						continue;
-					} else if (prev == hand)
-						break;
+	private DfsBlock load(DfsPackFile pack, PackExt ext, long position,
+			int slot, DfsReader ctx) throws IOException {
+		// A load of the same key may have finished between the scan by
+		// the caller and registering this load.
+		DfsPackKey key = pack.blockKey(ext);
+		int p = ext.getPosition();
+		DfsBlock v = scan(table.get(slot), key, position);
+		if (v != null) {
+			statHit.incrementAndGet(p);
+			return v;
+		}
 
-					// No recent access since last scan, kill
-					// value and remove from clock.
-					Ref dead = hand;
-					hand = hand.next;
-					prev.next = hand;
-					dead.next = null;
-					dead.value = null;
-					live -= dead.size;
-					dead.pack.cachedSize.addAndGet(-dead.size);
-					statEvict++;
-				} while (maxBytes < live);
-				clockHand = prev;
-			}
-			liveBytes = live;
+		statMiss.incrementAndGet(p);
+		ClockSegment segment = segmentFor(key, position);
+		reserveSpace(segment, blockSize);
+		boolean credit = true;
+		try {
+			v = pack.readOneBlock(ext, position, ctx);
+			credit = false;
 		} finally {
-			clockLock.unlock();
+			if (credit)
+				creditSpace(blockSize);
 		}
+		return store(key, ext, v, blockSize);
 	}
 
-	private void creditSpace(int credit) {
-		clockLock.lock();
-		liveBytes -= credit;
-		clockLock.unlock();
+	/**
+	 * Insert a block read ahead of its use.
+	 * <p>
+	 * The block is skipped if it is already cached, or if another thread is
+	 * loading it. Otherwise it is registered as a pending load while it is
+	 * stored, so concurrent requests for it wait for and share this copy.
+	 *
+	 * @param v
+	 *            block of the pack file read in addition to a missed block.
+	 */
+	void putReadAhead(DfsBlock v) {
+		DfsPackKey key = v.pack;
+		if (scan(table.get(slot(key, v.start)), key, v.start) != null)
+			return;
+
+		LoadKey loadKey = new LoadKey(key, v.start);
+		PendingLoad load = new PendingLoad();
+		if (loading.putIfAbsent(loadKey, load) != null)
+			return;
+		DfsBlock r = v;
+		try {
+			reserveSpace(segmentFor(key, v.start), v.size());
+			r = store(key, PackExt.PACK, v, v.size());
+		} finally {
+			load.done(r);
+			loading.remove(loadKey, load);
+		}
 	}
 
-	@SuppressWarnings("unchecked")
-	private void addToClock(Ref ref, int credit) {
-		clockLock.lock();
+	/**
+	 * Link a block into the cache, unless a copy was stored concurrently.
+	 *
+	 * @param key
+	 *            key of the file the block belongs to.
+	 * @param ext
+	 *            kind of file.
+	 * @param v
+	 *            the block.
+	 * @param reserved
+	 *            bytes already reserved for the block by
+	 *            {@link #reserveSpace(ClockSegment, int)}.
+	 * @return the cached block; either {@code v} or the existing copy.
+	 */
+	private DfsBlock store(DfsPackKey key, PackExt ext, DfsBlock v,
+			int reserved) {
+		long position = v.start;
+		int slot = slot(key, position);
+		ClockSegment segment = segmentFor(key, position);
+		segment.lock.lock();
 		try {
-			if (credit != 0)
-				liveBytes -= credit;
-			Ref ptr = clockHand;
-			ref.next = ptr.next;
-			ptr.next = ref;
-			clockHand = ref;
+			// put() may have stored the same block while it was read.
+			DfsBlock e = scan(table.get(slot), key, position);
+			if (e != null) {
+				creditSpace(reserved);
+				return e;
+			}
+
+			key.cachedSize.addAndGet(v.size());
+			liveBytesByExt.addAndGet(ext.getPosition(), v.size());
+			Ref<DfsBlock> ref = new Ref<DfsBlock>(key, ext, position,
+					v.size(), v);
+			ref.hot = true;
+			if (reserved != v.size())
+				creditSpace(reserved - v.size());
+			segment.link(ref);
+			insert(slot, ref);
 		} finally {
-			clockLock.unlock();
+			segment.lock.unlock();
+		}
+		return v;
+	}
+
+	private void insert(int slot, Ref ref) {
+		for (;;) {
+			HashEntry e = table.get(slot);
+			HashEntry n = new HashEntry(clean(e), ref);
+			if (table.compareAndSet(slot, e, n))
+				return;
 		}
 	}
 
+	private void reserveSpace(ClockSegment segment, int reserve) {
+		if (liveBytes.addAndGet(reserve) <= maxBytes)
+			return;
+
+		// Evict from the segment the new entry joins first, then move
+		// through the others until the cache is within its limit.
+		int start = segment.index;
+		for (int i = 0; i < clock.length; i++) {
+			if (liveBytes.get() <= maxBytes)
+				return;
+			clock[(start + i) % clock.length].evict();
+		}
+	}
+
+	private boolean isReserved(PackExt ext) {
+		int p = ext.getPosition();
+		long r = reservedBytes[p];
+		return r > 0 && liveBytesByExt.get(p) <= r;
+	}
+
+	private void creditSpace(int credit) {
+		liveBytes.addAndGet(-credit);
+	}
+
 	void put(DfsBlock v) {
-		put(v.pack, v.start, v.size(), v);
+		put(v.pack, PackExt.PACK, v.start, v.size(), v);
 	}
 
-	<T> Ref<T> put(DfsPackKey key, long pos, int size, T v) {
+	<T> Ref<T> put(DfsPackKey key, PackExt ext, long pos, int size, T v) {
 		int slot = slot(key, pos);
-		HashEntry e1 = table.get(slot);
-		Ref<T> ref = scanRef(e1, key, pos);
+		Ref<T> ref = scanRef(table.get(slot), key, pos);
 		if (ref != null)
 			return ref;
 
-		reserveSpace(size);
-		ReentrantLock regionLock = lockFor(key, pos);
-		regionLock.lock();
+		ClockSegment segment = segmentFor(key, pos);
+		reserveSpace(segment, size);
+		segment.lock.lock();
 		try {
-			HashEntry e2 = table.get(slot);
-			if (e2 != e1) {
-				ref = scanRef(e2, key, pos);
-				if (ref != null) {
-					creditSpace(size);
-					return ref;
-				}
+			ref = scanRef(table.get(slot), key, pos);
+			if (ref != null) {
+				creditSpace(size);
+				return ref;
 			}
 
 			key.cachedSize.addAndGet(size);
-			ref = new Ref<T>(key, pos, size, v);
+			liveBytesByExt.addAndGet(ext.getPosition(), size);
+			ref = new Ref<T>(key, ext, pos, size, v);
 			ref.hot = true;
-			for (;;) {
-				HashEntry n = new HashEntry(clean(e2), ref);
-				if (table.compareAndSet(slot, e2, n))
-					break;
-				e2 = table.get(slot);
-			}
-			addToClock(ref, 0);
+			segment.link(ref);
+			insert(slot, ref);
 		} finally {
-			regionLock.unlock();
+			segment.lock.unlock();
 		}
 		return ref;
 	}
@@ -484,9 +647,9 @@ boolean contains(DfsPackKey key, long position) {
 	<T> T get(DfsPackKey key, long position) {
 		T val = (T) scan(table.get(slot(key, position)), key, position);
 		if (val == null)
-			statMiss.incrementAndGet();
+			statMiss.incrementAndGet(PACK_POS);
 		else
-			statHit.incrementAndGet();
+			statHit.incrementAndGet(PACK_POS);
 		return val;
 	}
 
@@ -513,8 +676,8 @@ private int slot(DfsPackKey pack, long position) {
 		return (hash(pack.hash, position) >>> 1) % tableSize;
 	}
 
-	private ReentrantLock lockFor(DfsPackKey pack, long position) {
-		return loadLocks[(hash(pack.hash, position) >>> 1) % loadLocks.length];
+	private ClockSegment segmentFor(DfsPackKey pack, long position) {
+		return clock[(hash(pack.hash, position) >>> 1) % clock.length];
 	}
 
 	private static HashEntry clean(HashEntry top) {
@@ -526,6 +689,157 @@ private static HashEntry clean(HashEntry top) {
 		return n == top.next ? top : new HashEntry(n, top.ref);
 	}
 
+	/** One ring of the clock, with its own lock and hand. */
+	private final class ClockSegment {
+		final ReentrantLock lock = new ReentrantLock();
+
+		/** Position of this segment in {@link DfsBlockCache#clock}. */
+		final int index;
+
+		/** Placeholder keeping the ring non-empty; never evicted. */
+		private final Ref head;
+
+		/** Current position of the hand. */
+		private Ref clockHand;
+
+		/** Number of entries in the ring, excluding {@link #head}. */
+		private int entries;
+
+		ClockSegment(int index) {
+			this.index = index;
+			head = new Ref<Object>(new DfsPackKey(), PackExt.PACK, -1, 0,
+					null);
+			head.next = head;
+			clockHand = head;
+		}
+
+		/** Insert behind the hand; caller must hold {@link #lock}. */
+		@SuppressWarnings("unchecked")
+		void link(Ref ref) {
+			Ref ptr = clockHand;
+			ref.next = ptr.next;
+			ptr.next = ref;
+			clockHand = ref;
+			entries++;
+		}
+
+		/**
+		 * Sweep this segment, discarding blocks not accessed since the last
+		 * sweep, until the cache fits its limit or the segment is empty.
+		 */
+		@SuppressWarnings("unchecked")
+		void evict() {
+			lock.lock();
+			try {
+				Ref prev = clockHand;
+				Ref hand = clockHand.next;
+				int skipped = 0;
+				while (maxBytes < liveBytes.get()) {
+					if (skipped > entries)
+						break; // Everything left is reserved.
+					if (hand == head) {
+						if (head.next == head)
+							break;
+						prev = hand;
+						hand = hand.next;
+						continue;
+					} else if (hand.hot) {
+						// Value was recently touched. Clear
+						// hot and give it another chance.
+						hand.hot = false;
+						prev = hand;
+						hand = hand.next;
+						skipped = 0;
+						continue;
+					} else if (isReserved(hand.ext)) {
+						prev = hand;
+						hand = hand.next;
+						skipped++;
+						continue;
+					}
+
+					// No recent access since last scan, kill
+					// value and remove from clock.
+					Ref dead = hand;
+					hand = hand.next;
+					prev.next = hand;
+					dead.next = null;
+					dead.value = null;
+					liveBytes.addAndGet(-dead.size);
+					liveBytesByExt.addAndGet(dead.ext.getPosition(), -dead.size);
+					dead.pack.cachedSize.addAndGet(-dead.size);
+					statEvict.incrementAndGet(dead.ext.getPosition());
+					entries--;
+					skipped = 0;
+				}
+				clockHand = prev;
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/** Identity of a block being loaded. */
+	private static final class LoadKey {
+		final DfsPackKey pack;
+
+		final long position;
+
+		LoadKey(DfsPackKey pack, long position) {
+			this.pack = pack;
+			this.position = position;
+		}
+
+		@Override
+		public int hashCode() {
+			return pack.hash * 31 + (int) (position ^ (position >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o instanceof LoadKey) {
+				LoadKey k = (LoadKey) o;
+				return pack == k.pack && position == k.position;
+			}
+			return false;
+		}
+	}
+
+	/** Result of a block load, shared with threads waiting for it. */
+	private static final class PendingLoad {
+		private final CountDownLatch finished = new CountDownLatch(1);
+
+		private DfsBlock block;
+
+		private Throwable error;
+
+		void done(DfsBlock b) {
+			block = b;
+			finished.countDown();
+		}
+
+		void failed(Throwable e) {
+			error = e;
+			finished.countDown();
+		}
+
+		DfsBlock await() throws IOException {
+			try {
+				finished.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+			if (error instanceof IOException)
+				throw (IOException) error;
+			if (error instanceof RuntimeException)
+				throw (RuntimeException) error;
+			if (error instanceof Error)
+				throw (Error) error;
+			return block;
+		}
+	}
+
 	private static final class HashEntry {
 		/** Next entry in the hash table's chain list. */
 		final HashEntry next;
@@ -541,14 +855,16 @@ private static final class HashEntry {
 
 	static final class Ref<T> {
 		final DfsPackKey pack;
+		final PackExt ext;
 		final long position;
 		final int size;
 		volatile T value;
 		Ref next;
 		volatile boolean hot;
 
-		Ref(DfsPackKey pack, long position, int size, T v) {
+		Ref(DfsPackKey pack, PackExt ext, long position, int size, T v) {
 			this.pack = pack;
+			this.ext = ext;
 			this.position = position;
 			this.size = size;
 			this.value = v;
@@ -45,14 +45,17 @@
 
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_CORE_SECTION;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_DFS_SECTION;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_BITMAP_INDEX_RESERVE;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_BLOCK_LIMIT;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_BLOCK_SIZE;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_CONCURRENCY_LEVEL;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_INDEX_RESERVE;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_STREAM_RATIO;
 
 import java.text.MessageFormat;
 
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.pack.PackExt;
 import org.eclipse.jgit.lib.Config;
 
 /** Configuration parameters for {@link DfsBlockCache}. */
@@ -68,6 +71,9 @@ public class DfsBlockCacheConfig {
 	private double streamRatio;
 	private int concurrencyLevel;
 
+	/** Bytes protected from eviction, indexed by {@link PackExt#getPosition()}. */
+	private final long[] reservedSize = new long[PackExt.MAX_EXTENSIONS];
+
 	/** Create a default configuration. */
 	public DfsBlockCacheConfig() {
 		setBlockLimit(32 * MB);
@@ -158,6 +164,40 @@ public DfsBlockCacheConfig setStreamRatio(double ratio) {
 		return this;
 	}
 
+	/**
+	 * @param ext
+	 *            kind of file cached.
+	 * @return bytes of {@code ext} entries the cache keeps even when pack
+	 *         data needs space. <b>Default is 0.</b>
+	 */
+	public long getReservedSize(PackExt ext) {
+		return reservedSize[ext.getPosition()];
+	}
+
+	/**
+	 * Reserve part of the cache for one kind of file.
+	 * <p>
+	 * As long as the cached entries of {@code ext} do not take more than
+	 * {@code size} bytes, the replacement algorithm skips them. A reservation
+	 * for {@link PackExt#INDEX} or {@link PackExt#BITMAP_INDEX} keeps the
+	 * indexes of frequently used packs in memory while large reads churn
+	 * through the pack data. Reverse indexes are derived from the pack index
+	 * and count against the {@link PackExt#INDEX} reservation.
+	 * <p>
+	 * The sum of all reservations must be less than {@link #getBlockLimit()}.
+	 *
+	 * @param ext
+	 *            kind of file cached.
+	 * @param size
+	 *            number of bytes to reserve; 0 to compete for space with all
+	 *            other entries.
+	 * @return {@code this}
+	 */
+	public DfsBlockCacheConfig setReservedSize(PackExt ext, long size) {
+		reservedSize[ext.getPosition()] = Math.max(0, size);
+		return this;
+	}
+
 	/**
 	 * Update properties by setting fields from the configuration.
 	 * <p>
@@ -187,6 +227,18 @@ public DfsBlockCacheConfig fromConfig(final Config rc) {
 				CONFIG_KEY_CONCURRENCY_LEVEL,
 				getConcurrencyLevel()));
 
+		setReservedSize(PackExt.INDEX, rc.getLong(
+				CONFIG_CORE_SECTION,
+				CONFIG_DFS_SECTION,
+				CONFIG_KEY_INDEX_RESERVE,
+				getReservedSize(PackExt.INDEX)));
+
+		setReservedSize(PackExt.BITMAP_INDEX, rc.getLong(
+				CONFIG_CORE_SECTION,
+				CONFIG_DFS_SECTION,
+				CONFIG_KEY_BITMAP_INDEX_RESERVE,
+				getReservedSize(PackExt.BITMAP_INDEX)));
+
 		String v = rc.getString(
 				CONFIG_CORE_SECTION,
 				CONFIG_DFS_SECTION,
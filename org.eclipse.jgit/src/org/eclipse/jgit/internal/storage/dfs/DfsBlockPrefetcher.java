@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.dfs;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.eclipse.jgit.util.IntList;
+
+/**
+ * Loads the blocks holding a sequence of objects ahead of their use.
+ * <p>
+ * Objects are added in the order they will be opened, which should be sorted
+ * by pack and offset so neighboring objects share blocks. Before opening
+ * each object the caller waits for its block; meanwhile the blocks of the
+ * next objects are read concurrently on the executor, each task using its
+ * own reader. Blocks enter the {@link DfsBlockCache}, where the caller then
+ * finds them.
+ * <p>
+ * Prefetching is best effort. A block that fails to load is not reported
+ * here; opening the object loads it again and reports the error.
+ */
+final class DfsBlockPrefetcher {
+	private final DfsObjDatabase db;
+
+	private final Executor executor;
+
+	private final int readAhead;
+
+	/** Distinct blocks, in the order they are first needed. */
+	private final List<Block> blocks = new ArrayList<Block>();
+
+	/** Index into {@link #blocks} for each object; -1 if not found. */
+	private final IntList objectBlock = new IntList();
+
+	/** Next object the caller will open. */
+	private int nextObject;
+
+	/** Number of {@link #blocks} handed to the executor. */
+	private int submitted;
+
+	/** Set by {@link #cancel()}; no further blocks are awaited. */
+	private boolean cancelled;
+
+	DfsBlockPrefetcher(DfsObjDatabase db, Executor executor, int readAhead) {
+		this.db = db;
+		this.executor = executor;
+		this.readAhead = Math.max(1, readAhead);
+	}
+
+	/**
+	 * Append the next object to be opened.
+	 *
+	 * @param pack
+	 *            pack holding the object; null if the object is missing.
+	 * @param offset
+	 *            position of the object in {@code pack}.
+	 */
+	void add(DfsPackFile pack, long offset) {
+		if (pack == null) {
+			objectBlock.add(-1);
+			return;
+		}
+		long position = pack.alignToBlock(offset);
+		Block last = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+		if (last == null || last.pack != pack || last.position != position)
+			blocks.add(new Block(pack, position));
+		objectBlock.add(blocks.size() - 1);
+	}
+
+	/**
+	 * Wait until the block of the next object is loaded, and start loading
+	 * the blocks of the objects after it.
+	 *
+	 * @throws InterruptedIOException
+	 *             the thread was interrupted while waiting.
+	 */
+	void awaitNext() throws InterruptedIOException {
+		if (cancelled || nextObject >= objectBlock.size())
+			return;
+		int b = objectBlock.get(nextObject++);
+		if (b < 0)
+			return;
+		submitThrough(b + readAhead);
+		blocks.get(b).await();
+	}
+
+	/**
+	 * Stop loading blocks not yet started.
+	 * <p>
+	 * Later calls to {@link #awaitNext()} return immediately; the caller
+	 * loads any block it still needs on its own.
+	 */
+	void cancel() {
+		cancelled = true;
+		for (Block b : blocks)
+			b.task.cancel(false);
+		submitted = blocks.size();
+	}
+
+	private void submitThrough(int last) {
+		for (; submitted < blocks.size() && submitted <= last; submitted++) {
+			Block b = blocks.get(submitted);
+			if (b.pack.isBlockCached(b.position)) {
+				b.task.run();
+				continue;
+			}
+			try {
+				executor.execute(b.task);
+			} catch (RejectedExecutionException e) {
+				b.task.run();
+			}
+		}
+	}
+
+	private final class Block implements Callable<Void> {
+		final DfsPackFile pack;
+
+		final long position;
+
+		final FutureTask<Void> task;
+
+		Block(DfsPackFile pack, long position) {
+			this.pack = pack;
+			this.position = position;
+			this.task = new FutureTask<Void>(this);
+		}
+
+		@Override
+		public Void call() throws Exception {
+			if (!pack.isBlockCached(position)) {
+				try (DfsReader ctx = new DfsReader(db)) {
+					pack.getOrLoadBlock(position, ctx);
+				}
+			}
+			return null;
+		}
+
+		void await() throws InterruptedIOException {
+			if (task.isCancelled())
+				return;
+			try {
+				task.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			} catch (ExecutionException e) {
+				// Opening the object reads the block again and reports
+				// the failure to the caller.
+			}
+		}
+	}
+}
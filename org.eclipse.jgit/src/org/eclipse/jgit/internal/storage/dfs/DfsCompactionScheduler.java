@@ -0,0 +1,436 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.dfs;
+
+import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.COMPACT;
+import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.INSERT;
+import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.RECEIVE;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.events.ListenerHandle;
+import org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackList;
+import org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compacts small packs of a repository automatically in the background.
+ * <p>
+ * The scheduler listens for {@link DfsPacksChangedEvent}s and, when the pack
+ * list of the repository changes, decides on an executor whether packs should
+ * be combined by a {@link DfsPackCompactor}. Packs created by inserters,
+ * pushes and earlier compactions are grouped into size tiers; each tier spans
+ * a factor of {@link #getTierRatio()} in size. Once a tier holds
+ * {@link #getPacksPerTier()} packs they are compacted into a single pack of
+ * the next tier. Independently of the tiers, the smallest packs are compacted
+ * whenever the repository holds more than {@link #getMaxPackCount()} packs,
+ * bounding the number of packs a reader has to search.
+ * <p>
+ * Packs written by {@link DfsGarbageCollector} are never selected, running
+ * garbage collection remains the responsibility of the caller. Compaction
+ * runs concurrently with readers, which keep using the old packs until the
+ * new pack is committed.
+ */
+public class DfsCompactionScheduler implements DfsPacksChangedListener {
+	private static final Logger LOG = LoggerFactory
+			.getLogger(DfsCompactionScheduler.class);
+
+	private final DfsRepository repo;
+
+	private final Executor executor;
+
+	private final AtomicBoolean running = new AtomicBoolean();
+
+	private final AtomicBoolean pending = new AtomicBoolean();
+
+	private volatile Thread worker;
+
+	private final AtomicLong compactions = new AtomicLong();
+
+	private final AtomicLong compactedPacks = new AtomicLong();
+
+	private final AtomicLong compactedBytes = new AtomicLong();
+
+	private long tierBaseSize = 1024 * 1024;
+
+	private int tierRatio = 4;
+
+	private int packsPerTier = 4;
+
+	private int maxPackCount = 50;
+
+	private long maxBytesPerCompaction = 512 * 1024 * 1024;
+
+	/**
+	 * Initialize a scheduler.
+	 *
+	 * @param repository
+	 *            repository to compact.
+	 * @param executor
+	 *            executor to run compactions on. Only one compaction of the
+	 *            repository runs at a time.
+	 */
+	public DfsCompactionScheduler(DfsRepository repository,
+			Executor executor) {
+		this.repo = repository;
+		this.executor = executor;
+	}
+
+	/**
+	 * Register this scheduler for pack changes of the repository, and check
+	 * the current packs.
+	 *
+	 * @return handle to remove the registration again.
+	 */
+	public ListenerHandle start() {
+		ListenerHandle handle = repo.getListenerList().addListener(
+				DfsPacksChangedListener.class, this);
+		schedule();
+		return handle;
+	}
+
+	@Override
+	public void onPacksChanged(DfsPacksChangedEvent event) {
+		// Changes made by the running compaction are checked by its loop.
+		if (Thread.currentThread() != worker)
+			schedule();
+	}
+
+	/** Check the packs of the repository on the executor. */
+	public void schedule() {
+		pending.set(true);
+		if (running.compareAndSet(false, true)) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					runPending();
+				}
+			});
+		}
+	}
+
+	private void runPending() {
+		worker = Thread.currentThread();
+		try {
+			while (pending.getAndSet(false)) {
+				while (compact(NullProgressMonitor.INSTANCE)) {
+					// Continue until no tier needs compaction.
+				}
+			}
+		} catch (IOException e) {
+			LOG.error(MessageFormat.format(DfsText.get().compactionFailed,
+					repo.getDescription().getRepositoryName()), e);
+		} catch (RuntimeException e) {
+			LOG.error(MessageFormat.format(DfsText.get().compactionFailed,
+					repo.getDescription().getRepositoryName()), e);
+		} finally {
+			worker = null;
+			running.set(false);
+		}
+		if (pending.get())
+			schedule();
+	}
+
+	/**
+	 * Compact one group of packs selected by {@link #selectPacks()}, in the
+	 * calling thread.
+	 *
+	 * @param pm
+	 *            progress monitor, may be null.
+	 * @return true if packs were compacted; false if no compaction is needed.
+	 * @throws IOException
+	 *             the packs cannot be compacted.
+	 */
+	public boolean compact(ProgressMonitor pm) throws IOException {
+		// List the storage again, packs committed by other writers may not
+		// have been added to the cached list yet.
+		DfsObjDatabase objdb = repo.getObjectDatabase();
+		PackList list = objdb.scanPacks(objdb.getPackList());
+		List<DfsPackFile> packs = selectPacks(list.packs);
+		if (packs.isEmpty())
+			return false;
+
+		DfsPackCompactor compactor = new DfsPackCompactor(repo);
+		long bytes = 0;
+		for (DfsPackFile pack : packs) {
+			compactor.add(pack);
+			bytes += pack.getPackDescription().getFileSize(PACK);
+		}
+		compactor.compact(pm);
+		objdb.scanPacks(list);
+
+		compactions.incrementAndGet();
+		compactedPacks.addAndGet(packs.size());
+		compactedBytes.addAndGet(bytes);
+		return true;
+	}
+
+	/**
+	 * Select the packs the next compaction would combine.
+	 *
+	 * @return packs to compact; empty if no compaction is needed.
+	 * @throws IOException
+	 *             the pack list cannot be read.
+	 */
+	public List<DfsPackFile> selectPacks() throws IOException {
+		return selectPacks(repo.getObjectDatabase().getPacks());
+	}
+
+	private List<DfsPackFile> selectPacks(DfsPackFile[] all) {
+		List<DfsPackFile> candidates = new ArrayList<DfsPackFile>();
+		for (DfsPackFile pack : all) {
+			if (isCompactable(pack.getPackDescription().getPackSource()))
+				candidates.add(pack);
+		}
+		Collections.sort(candidates, new Comparator<DfsPackFile>() {
+			@Override
+			public int compare(DfsPackFile a, DfsPackFile b) {
+				return Long.signum(size(a) - size(b));
+			}
+		});
+
+		// Smallest tier holding enough packs to be combined.
+		for (int i = 0; i < candidates.size();) {
+			int tier = tier(size(candidates.get(i)));
+			int end = i + 1;
+			while (end < candidates.size()
+					&& tier(size(candidates.get(end))) == tier)
+				end++;
+			if (end - i >= packsPerTier)
+				return withinBudget(candidates.subList(i, end), end - i);
+			i = end;
+		}
+
+		// Too many packs; combining n packs removes n - 1 of them.
+		int excess = all.length - maxPackCount;
+		if (excess > 0)
+			return withinBudget(candidates, excess + 1);
+		return Collections.emptyList();
+	}
+
+	private List<DfsPackFile> withinBudget(List<DfsPackFile> packs,
+			int limit) {
+		List<DfsPackFile> r = new ArrayList<DfsPackFile>(limit);
+		long bytes = 0;
+		for (DfsPackFile pack : packs) {
+			if (r.size() == limit)
+				break;
+			bytes += size(pack);
+			if (bytes > maxBytesPerCompaction && !r.isEmpty())
+				break;
+			r.add(pack);
+		}
+		if (r.size() < 2)
+			return Collections.emptyList();
+		return r;
+	}
+
+	private static boolean isCompactable(PackSource source) {
+		return source == INSERT || source == RECEIVE || source == COMPACT;
+	}
+
+	private static long size(DfsPackFile pack) {
+		return pack.getPackDescription().getFileSize(PACK);
+	}
+
+	private int tier(long size) {
+		int tier = 0;
+		for (long limit = tierBaseSize; limit <= size
+				&& limit <= Long.MAX_VALUE / tierRatio; limit *= tierRatio)
+			tier++;
+		return tier;
+	}
+
+	/**
+	 * Count the packs of the repository by their source.
+	 *
+	 * @return statistics for each source with at least one pack.
+	 * @throws IOException
+	 *             the pack list cannot be read.
+	 */
+	public Map<PackSource, SourceStatistics> getSourceStatistics()
+			throws IOException {
+		Map<PackSource, SourceStatistics> r = new EnumMap<PackSource, SourceStatistics>(
+				PackSource.class);
+		for (DfsPackFile pack : repo.getObjectDatabase().getPacks()) {
+			PackSource src = pack.getPackDescription().getPackSource();
+			SourceStatistics s = r.get(src);
+			if (s == null) {
+				s = new SourceStatistics();
+				r.put(src, s);
+			}
+			s.packCount++;
+			s.totalSize += size(pack);
+		}
+		return r;
+	}
+
+	/** @return number of compactions completed by this scheduler. */
+	public long getCompactionCount() {
+		return compactions.get();
+	}
+
+	/** @return number of packs combined by this scheduler. */
+	public long getCompactedPackCount() {
+		return compactedPacks.get();
+	}
+
+	/** @return number of pack bytes read by compactions of this scheduler. */
+	public long getCompactedBytes() {
+		return compactedBytes.get();
+	}
+
+	/** @return size below which packs belong to the smallest tier. */
+	public long getTierBaseSize() {
+		return tierBaseSize;
+	}
+
+	/**
+	 * @param size
+	 *            size below which packs belong to the smallest tier.
+	 * @return {@code this}
+	 */
+	public DfsCompactionScheduler setTierBaseSize(long size) {
+		tierBaseSize = Math.max(1, size);
+		return this;
+	}
+
+	/** @return factor between the sizes of packs in adjacent tiers. */
+	public int getTierRatio() {
+		return tierRatio;
+	}
+
+	/**
+	 * @param ratio
+	 *            factor between the sizes of packs in adjacent tiers.
+	 * @return {@code this}
+	 */
+	public DfsCompactionScheduler setTierRatio(int ratio) {
+		tierRatio = Math.max(2, ratio);
+		return this;
+	}
+
+	/** @return number of packs in one tier that triggers a compaction. */
+	public int getPacksPerTier() {
+		return packsPerTier;
+	}
+
+	/**
+	 * @param count
+	 *            number of packs in one tier that triggers a compaction.
+	 * @return {@code this}
+	 */
+	public DfsCompactionScheduler setPacksPerTier(int count) {
+		packsPerTier = Math.max(2, count);
+		return this;
+	}
+
+	/** @return number of packs above which the smallest are compacted. */
+	public int getMaxPackCount() {
+		return maxPackCount;
+	}
+
+	/**
+	 * @param count
+	 *            number of packs above which the smallest are compacted.
+	 * @return {@code this}
+	 */
+	public DfsCompactionScheduler setMaxPackCount(int count) {
+		maxPackCount = Math.max(1, count);
+		return this;
+	}
+
+	/** @return maximum number of pack bytes read by one compaction. */
+	public long getMaxBytesPerCompaction() {
+		return maxBytesPerCompaction;
+	}
+
+	/**
+	 * Limit the I/O of a single compaction.
+	 * <p>
+	 * Packs are added to a compaction smallest first until their total size
+	 * would exceed this budget. Larger sets are compacted over several
+	 * rounds, letting readers and writers of the repository proceed between
+	 * them.
+	 *
+	 * @param bytes
+	 *            maximum number of pack bytes read by one compaction.
+	 * @return {@code this}
+	 */
+	public DfsCompactionScheduler setMaxBytesPerCompaction(long bytes) {
+		maxBytesPerCompaction = Math.max(0, bytes);
+		return this;
+	}
+
+	/** Number and size of the packs created by one {@link PackSource}. */
+	public static class SourceStatistics {
+		int packCount;
+
+		long totalSize;
+
+		/** @return number of packs. */
+		public int getPackCount() {
+			return packCount;
+		}
+
+		/** @return total size of the pack files in bytes. */
+		public long getTotalSize() {
+			return totalSize;
+		}
+	}
+}
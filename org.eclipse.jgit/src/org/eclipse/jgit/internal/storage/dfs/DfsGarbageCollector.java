@@ -52,6 +52,7 @@
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.UNREACHABLE_GARBAGE;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.BITMAP_INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.OBJECT_SIZE_INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
 
 import java.io.IOException;
@@ -101,6 +102,8 @@ public class DfsGarbageCollector {
 
 	private DfsReader ctx;
 
+	private DfsOutputCloser closer;
+
 	private PackConfig packConfig;
 
 	// See packIsCoalesceableGarbage(), below, for how these two variables
@@ -268,15 +271,19 @@ else if (RefTreeNames.isRefTree(refdb, ref.getName()))
 			tagTargets.addAll(allHeads);
 
 			boolean rollback = true;
+			closer = new DfsOutputCloser(objdb.getWriteExecutor());
 			try {
 				packHeads(pm);
 				packRest(pm);
 				packRefTreeGraph(pm);
 				packGarbage(pm);
+				closer.await();
 				objdb.commitPack(newPackDesc, toPrune());
 				rollback = false;
 				return true;
 			} finally {
+				closer.close();
+				closer = null;
 				if (rollback)
 					objdb.rollbackPack(newPackDesc);
 			}
@@ -574,26 +581,37 @@ private DfsPackDescription writePack(PackSource source, PackWriter pw,
 				estimatedPackSize);
 		newPackDesc.add(pack);
 
-		try (DfsOutputStream out = objdb.writeFile(pack, PACK)) {
-			pw.writePack(pm, pm, out);
-			pack.addFileExt(PACK);
-		}
-
-		try (CountingOutputStream cnt =
-				new CountingOutputStream(objdb.writeFile(pack, INDEX))) {
-			pw.writeIndex(cnt);
-			pack.addFileExt(INDEX);
-			pack.setFileSize(INDEX, cnt.getCount());
-			pack.setIndexVersion(pw.getIndexVersion());
+		// Each completed file is closed in the background while the next
+		// one is generated; the PackWriter itself is used sequentially.
+		DfsOutputStream out = closer.track(objdb.writeFile(pack, PACK));
+		pw.writePack(pm, pm, out);
+		pack.addFileExt(PACK);
+		closer.finish(out);
+
+		out = closer.track(objdb.writeFile(pack, INDEX));
+		CountingOutputStream cnt = new CountingOutputStream(out);
+		pw.writeIndex(cnt);
+		pack.addFileExt(INDEX);
+		pack.setFileSize(INDEX, cnt.getCount());
+		pack.setIndexVersion(pw.getIndexVersion());
+		closer.finish(out);
+
+		if (packConfig.isWriteObjectSizeIndex()) {
+			out = closer.track(objdb.writeFile(pack, OBJECT_SIZE_INDEX));
+			cnt = new CountingOutputStream(out);
+			pw.writeObjectSizeIndex(cnt);
+			pack.addFileExt(OBJECT_SIZE_INDEX);
+			pack.setFileSize(OBJECT_SIZE_INDEX, cnt.getCount());
+			closer.finish(out);
 		}
 
 		if (pw.prepareBitmapIndex(pm)) {
-			try (CountingOutputStream cnt = new CountingOutputStream(
-					objdb.writeFile(pack, BITMAP_INDEX))) {
-				pw.writeBitmapIndex(cnt);
-				pack.addFileExt(BITMAP_INDEX);
-				pack.setFileSize(BITMAP_INDEX, cnt.getCount());
-			}
+			out = closer.track(objdb.writeFile(pack, BITMAP_INDEX));
+			cnt = new CountingOutputStream(out);
+			pw.writeBitmapIndex(cnt);
+			pack.addFileExt(BITMAP_INDEX);
+			pack.setFileSize(BITMAP_INDEX, cnt.getCount());
+			closer.finish(out);
 		}
 
 		PackStatistics stats = pw.getStatistics();
@@ -44,6 +44,7 @@
 package org.eclipse.jgit.internal.storage.dfs;
 
 import static org.eclipse.jgit.internal.storage.pack.PackExt.INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.OBJECT_SIZE_INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
 import static org.eclipse.jgit.lib.Constants.OBJ_OFS_DELTA;
 import static org.eclipse.jgit.lib.Constants.OBJ_REF_DELTA;
@@ -74,6 +75,7 @@
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.internal.storage.file.PackIndex;
 import org.eclipse.jgit.internal.storage.file.PackIndexWriter;
+import org.eclipse.jgit.internal.storage.file.PackObjectSizeIndexWriter;
 import org.eclipse.jgit.internal.storage.pack.PackExt;
 import org.eclipse.jgit.lib.AbbreviatedObjectId;
 import org.eclipse.jgit.lib.AnyObjectId;
@@ -84,6 +86,7 @@
 import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.ObjectStream;
+import org.eclipse.jgit.storage.pack.PackConfig;
 import org.eclipse.jgit.transport.PackedObjectInfo;
 import org.eclipse.jgit.util.BlockList;
 import org.eclipse.jgit.util.IO;
@@ -109,6 +112,9 @@ public class DfsInserter extends ObjectInserter {
 	private boolean rollback;
 	private boolean checkExisting = true;
 
+	/** pack.writeObjectSizeIndex, read once when first needed. */
+	private Boolean writeObjectSizeIndex;
+
 	/**
 	 * Initialize a new inserter.
 	 *
@@ -155,7 +161,7 @@ public ObjectId insert(int type, byte[] data, int off, int len)
 		long offset = beginObject(type, len);
 		packOut.compress.write(data, off, len);
 		packOut.compress.finish();
-		return endObject(id, offset);
+		return endObject(id, offset, len);
 	}
 
 	@Override
@@ -167,6 +173,7 @@ public ObjectId insert(int type, long len, InputStream in)
 			return insert(type, buf, 0, (int) len);
 		}
 
+		long size = len;
 		long offset = beginObject(type, len);
 		MessageDigest md = digest();
 		md.update(Constants.encodedTypeString(type));
@@ -183,7 +190,7 @@ public ObjectId insert(int type, long len, InputStream in)
 			len -= n;
 		}
 		packOut.compress.finish();
-		return endObject(ObjectId.fromRaw(md.digest()), offset);
+		return endObject(ObjectId.fromRaw(md.digest()), offset, size);
 	}
 
 	private byte[] insertBuffer(long len) {
@@ -211,14 +218,21 @@ public void flush() throws IOException {
 		byte[] packHash = packOut.writePackFooter();
 		packDsc.addFileExt(PACK);
 		packDsc.setFileSize(PACK, packOut.getCount());
-		packOut.close();
-		packOut = null;
+		PackIndex index;
+		try (DfsOutputCloser closer = new DfsOutputCloser(
+				db.getWriteExecutor())) {
+			// Upload the pack while the index is sorted and written.
+			PackStream ps = packOut;
+			packOut = null;
+			ps.finish(closer);
 
-		sortObjectsById();
+			sortObjectsById();
 
-		PackIndex index = writePackIndex(packDsc, packHash, objectList);
-		db.commitPack(Collections.singletonList(packDsc), null);
-		rollback = false;
+			index = writePackIndex(packDsc, packHash, objectList, closer);
+			closer.await();
+			db.commitPack(Collections.singletonList(packDsc), null);
+			rollback = false;
+		}
 
 		DfsPackFile p = cache.getOrCreate(packDsc, packKey);
 		if (index != null)
@@ -264,9 +278,10 @@ private long beginObject(int type, long len) throws IOException {
 		return offset;
 	}
 
-	private ObjectId endObject(ObjectId id, long offset) {
+	private ObjectId endObject(ObjectId id, long offset, long size) {
 		PackedObjectInfo obj = new PackedObjectInfo(id);
 		obj.setOffset(offset);
+		obj.setFullSize(size);
 		obj.setCRC((int) packOut.crc32.getValue());
 		objectList.add(obj);
 		objectMap.addIfAbsent(obj);
@@ -296,7 +311,8 @@ private void sortObjectsById() {
 	}
 
 	PackIndex writePackIndex(DfsPackDescription pack, byte[] packHash,
-			List<PackedObjectInfo> list) throws IOException {
+			List<PackedObjectInfo> list, DfsOutputCloser closer)
+			throws IOException {
 		pack.setIndexVersion(INDEX_VERSION);
 		pack.setObjectCount(list.size());
 
@@ -311,8 +327,9 @@ PackIndex writePackIndex(DfsPackDescription pack, byte[] packHash,
 			packIndex = PackIndex.read(buf.openInputStream());
 		}
 
-		DfsOutputStream os = db.writeFile(pack, INDEX);
-		try (CountingOutputStream cnt = new CountingOutputStream(os)) {
+		DfsOutputStream os = closer.track(db.writeFile(pack, INDEX));
+		try {
+			CountingOutputStream cnt = new CountingOutputStream(os);
 			if (buf != null)
 				buf.writeTo(cnt, null);
 			else
@@ -324,9 +341,40 @@ PackIndex writePackIndex(DfsPackDescription pack, byte[] packHash,
 				buf.close();
 			}
 		}
+		closer.finish(os);
+
+		if (isWriteObjectSizeIndex() && hasFullSizes(list))
+			writeObjectSizeIndex(pack, packHash, list, closer);
 		return packIndex;
 	}
 
+	private boolean isWriteObjectSizeIndex() {
+		if (writeObjectSizeIndex == null)
+			writeObjectSizeIndex = Boolean.valueOf(new PackConfig(
+					db.getRepository()).isWriteObjectSizeIndex());
+		return writeObjectSizeIndex.booleanValue();
+	}
+
+	private void writeObjectSizeIndex(DfsPackDescription pack,
+			byte[] packHash, List<PackedObjectInfo> list,
+			DfsOutputCloser closer) throws IOException {
+		DfsOutputStream os = closer.track(
+				db.writeFile(pack, OBJECT_SIZE_INDEX));
+		CountingOutputStream cnt = new CountingOutputStream(os);
+		new PackObjectSizeIndexWriter(cnt).write(list, packHash);
+		pack.addFileExt(OBJECT_SIZE_INDEX);
+		pack.setFileSize(OBJECT_SIZE_INDEX, cnt.getCount());
+		closer.finish(os);
+	}
+
+	private static boolean hasFullSizes(List<PackedObjectInfo> list) {
+		for (PackedObjectInfo obj : list) {
+			if (obj.getFullSize() < 0)
+				return false;
+		}
+		return true;
+	}
+
 	private static void index(OutputStream out, byte[] packHash,
 			List<PackedObjectInfo> list) throws IOException {
 		PackIndexWriter.createVersion(out, INDEX_VERSION).write(list, packHash);
@@ -521,6 +569,11 @@ private long toBlockStart(long pos) {
 			return (pos / blockSize) * blockSize;
 		}
 
+		void finish(DfsOutputCloser closer) throws IOException {
+			deflater.end();
+			closer.finish(out);
+		}
+
 		@Override
 		public void close() throws IOException {
 			deflater.end();
@@ -51,13 +51,18 @@
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.eclipse.jgit.internal.storage.pack.PackExt;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.ObjectDatabase;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.util.SystemReader;
 
 /** Manages objects stored in {@link DfsPackFile} on a storage system. */
 public abstract class DfsObjDatabase extends ObjectDatabase {
@@ -76,6 +81,11 @@ void clearDirty() {
 		public void markDirty() {
 			// Always dirty.
 		}
+
+		@Override
+		void addMissing(AnyObjectId id, int cacheSize) {
+			// Shared by all repositories, never remember objects.
+		}
 	};
 
 	/** Sources for a pack file. */
@@ -148,6 +158,17 @@ public static enum PackSource {
 
 	private DfsReaderOptions readerOptions;
 
+	/** Time of the last scan caused by a missed lookup. */
+	private final AtomicLong lastMissRescan = new AtomicLong();
+
+	private final AtomicLong missRescans = new AtomicLong();
+
+	private final AtomicLong skippedRescans = new AtomicLong();
+
+	private final AtomicLong missingObjectHits = new AtomicLong();
+
+	private volatile Executor writeExecutor;
+
 	/**
 	 * Initialize an object database for our repository.
 	 *
@@ -169,6 +190,33 @@ public DfsReaderOptions getReaderOptions() {
 		return readerOptions;
 	}
 
+	/**
+	 * @return executor used to finish writing pack files in the background,
+	 *         or null if files are closed on the writing thread.
+	 * @since 4.7
+	 */
+	public Executor getWriteExecutor() {
+		return writeExecutor;
+	}
+
+	/**
+	 * Set the executor used to finish writing pack files.
+	 * <p>
+	 * When set, inserters and garbage collection close each completed file
+	 * (pack, index, bitmaps) on this executor while they continue producing
+	 * the next file of the same pack, overlapping upload latency of slow
+	 * storage with local computation. All files are closed before the pack is
+	 * committed.
+	 *
+	 * @param executor
+	 *            executor to close files on; null to close them on the
+	 *            writing thread.
+	 * @since 4.7
+	 */
+	public void setWriteExecutor(Executor executor) {
+		writeExecutor = executor;
+	}
+
 	@Override
 	public ObjectReader newReader() {
 		return new DfsReader(this);
@@ -230,6 +278,30 @@ public PackList getCurrentPackList() {
 		return packList.get();
 	}
 
+	/**
+	 * @return number of pack list scans caused by lookups of objects not in
+	 *         the known packs.
+	 */
+	public long getMissRescanCount() {
+		return missRescans.get();
+	}
+
+	/**
+	 * @return number of pack list scans skipped because of
+	 *         {@link DfsReaderOptions#getMinRescanInterval()}.
+	 */
+	public long getSkippedRescanCount() {
+		return skippedRescans.get();
+	}
+
+	/**
+	 * @return number of lookups answered from the objects remembered as
+	 *         missing from the pack list.
+	 */
+	public long getMissingObjectHitCount() {
+		return missingObjectHits.get();
+	}
+
 	/**
 	 * Does the requested object exist in this database?
 	 * <p>
@@ -432,6 +504,42 @@ void addPack(DfsPackFile newPack) throws IOException {
 		} while (!packList.compareAndSet(o, n));
 	}
 
+	/**
+	 * Get a newer pack list after a lookup missed in {@code list}.
+	 *
+	 * @param list
+	 *            pack list the lookup did not find the object in.
+	 * @return pack list holding new packs to repeat the lookup in; null if
+	 *         {@code list} is current, or a scan is not permitted yet.
+	 * @throws IOException
+	 *             the pack list cannot be scanned.
+	 */
+	PackList rescanAfterMiss(PackList list) throws IOException {
+		if (!list.dirty())
+			return null;
+		long interval = readerOptions.getMinRescanInterval();
+		if (0 < interval) {
+			long now = SystemReader.getInstance().getCurrentTime();
+			long prior = lastMissRescan.get();
+			if (now - prior < interval
+					|| !lastMissRescan.compareAndSet(prior, now)) {
+				skippedRescans.incrementAndGet();
+				return null;
+			}
+		}
+		missRescans.incrementAndGet();
+		PackList n = scanPacks(list);
+		return n != list ? n : null;
+	}
+
+	boolean isKnownMissing(PackList list, AnyObjectId id) {
+		if (list.isMissing(id)) {
+			missingObjectHits.incrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
 	PackList scanPacks(final PackList original) throws IOException {
 		PackList o, n;
 		synchronized (packList) {
@@ -530,10 +638,42 @@ public static abstract class PackList {
 
 		private long lastModified = -1;
 
+		/** Objects not found in any of {@link #packs}, lossy. */
+		private volatile AtomicReferenceArray<ObjectId> missing;
+
 		PackList(DfsPackFile[] packs) {
 			this.packs = packs;
 		}
 
+		boolean isMissing(AnyObjectId id) {
+			AtomicReferenceArray<ObjectId> m = missing;
+			if (m == null)
+				return false;
+			ObjectId e = m.get(slot(m, id));
+			return e != null && AnyObjectId.equals(e, id);
+		}
+
+		void addMissing(AnyObjectId id, int cacheSize) {
+			if (cacheSize <= 0)
+				return;
+			AtomicReferenceArray<ObjectId> m = missing;
+			if (m == null) {
+				synchronized (this) {
+					m = missing;
+					if (m == null) {
+						m = new AtomicReferenceArray<ObjectId>(cacheSize);
+						missing = m;
+					}
+				}
+			}
+			m.set(slot(m, id), id.copy());
+		}
+
+		private static int slot(AtomicReferenceArray<ObjectId> m,
+				AnyObjectId id) {
+			return (id.hashCode() >>> 1) % m.length();
+		}
+
 		/** @return last modified time of all packs, in milliseconds. */
 		public long getLastModified() {
 			if (lastModified < 0) {
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.dfs;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Closes the files of a new pack while the writer produces the next one.
+ * <p>
+ * Closing a {@link DfsOutputStream} usually uploads or flushes the file to
+ * the storage system. When an executor is supplied the close runs there,
+ * overlapping that latency with generating the next file (index, bitmaps)
+ * of the same pack. Without an executor files are closed on the calling
+ * thread, as before.
+ * <p>
+ * Callers must {@link #await()} before committing the pack, and always
+ * {@link #close()} this object, which releases any stream left open by a
+ * failure and waits for pending closes so a rollback does not race them.
+ */
+final class DfsOutputCloser implements AutoCloseable {
+	private final Executor executor;
+
+	/** Streams tracked but not yet finished. */
+	private final List<DfsOutputStream> open = new ArrayList<DfsOutputStream>();
+
+	/** Closes handed to the executor and not yet awaited. */
+	private final List<FutureTask<Void>> pending = new ArrayList<FutureTask<Void>>();
+
+	DfsOutputCloser(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Track a stream so it is closed if the writer fails.
+	 *
+	 * @param out
+	 *            newly opened stream.
+	 * @return {@code out}.
+	 */
+	DfsOutputStream track(DfsOutputStream out) {
+		open.add(out);
+		return out;
+	}
+
+	/**
+	 * Close a completely written stream, possibly in the background.
+	 *
+	 * @param out
+	 *            stream previously passed to {@link #track(DfsOutputStream)}.
+	 * @throws IOException
+	 *             the stream was closed on this thread and failed.
+	 */
+	void finish(final DfsOutputStream out) throws IOException {
+		open.remove(out);
+		if (executor == null) {
+			out.close();
+			return;
+		}
+
+		FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				out.close();
+				return null;
+			}
+		});
+		pending.add(task);
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			task.run();
+		}
+	}
+
+	/**
+	 * Wait for all finished streams to be closed.
+	 *
+	 * @throws IOException
+	 *             a stream failed to close, or the thread was interrupted.
+	 */
+	void await() throws IOException {
+		while (!pending.isEmpty()) {
+			try {
+				pending.get(0).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			} catch (ExecutionException e) {
+				pending.remove(0);
+				Throwable cause = e.getCause();
+				if (cause instanceof IOException)
+					throw (IOException) cause;
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				if (cause instanceof Error)
+					throw (Error) cause;
+				throw new IOException(cause.getMessage(), cause);
+			}
+			pending.remove(0);
+		}
+	}
+
+	/** Close streams left open and wait for pending closes, ignoring errors. */
+	@Override
+	public void close() {
+		for (DfsOutputStream out : open) {
+			try {
+				out.close();
+			} catch (IOException err) {
+				// Ignore a close failure, the pack should be removed.
+			}
+		}
+		open.clear();
+
+		for (FutureTask<Void> task : pending) {
+			try {
+				task.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (ExecutionException e) {
+				// Ignore a close failure, the pack should be removed.
+			}
+		}
+		pending.clear();
+	}
+}
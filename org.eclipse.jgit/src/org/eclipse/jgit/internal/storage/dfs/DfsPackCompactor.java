@@ -45,6 +45,7 @@
 
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.COMPACT;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.OBJECT_SIZE_INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
 import static org.eclipse.jgit.internal.storage.pack.StoredObjectRepresentation.PACK_DELTA;
 
@@ -229,6 +230,8 @@ public void compact(ProgressMonitor pm) throws IOException {
 				try {
 					writePack(objdb, pack, pw, pm);
 					writeIndex(objdb, pack, pw);
+					if (pc.isWriteObjectSizeIndex())
+						writeObjectSizeIndex(objdb, pack, pw);
 
 					PackStatistics stats = pw.getStatistics();
 					pw.close();
@@ -392,6 +395,20 @@ private static void writeIndex(DfsObjDatabase objdb,
 		}
 	}
 
+	private static void writeObjectSizeIndex(DfsObjDatabase objdb,
+			DfsPackDescription pack,
+			PackWriter pw) throws IOException {
+		DfsOutputStream out = objdb.writeFile(pack, OBJECT_SIZE_INDEX);
+		try {
+			CountingOutputStream cnt = new CountingOutputStream(out);
+			pw.writeObjectSizeIndex(cnt);
+			pack.addFileExt(OBJECT_SIZE_INDEX);
+			pack.setFileSize(OBJECT_SIZE_INDEX, cnt.getCount());
+		} finally {
+			out.close();
+		}
+	}
+
 	private static class ObjectIdWithOffset extends ObjectId {
 		final long offset;
 
@@ -48,6 +48,7 @@
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.UNREACHABLE_GARBAGE;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.BITMAP_INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.OBJECT_SIZE_INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
 
 import java.io.BufferedInputStream;
@@ -57,6 +58,7 @@
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.text.MessageFormat;
+import java.util.Arrays;
 import java.util.Set;
 import java.util.zip.CRC32;
 import java.util.zip.DataFormatException;
@@ -70,6 +72,7 @@
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.internal.storage.file.PackBitmapIndex;
 import org.eclipse.jgit.internal.storage.file.PackIndex;
+import org.eclipse.jgit.internal.storage.file.PackObjectSizeIndex;
 import org.eclipse.jgit.internal.storage.file.PackReverseIndex;
 import org.eclipse.jgit.internal.storage.pack.BinaryDelta;
 import org.eclipse.jgit.internal.storage.pack.PackExt;
@@ -106,6 +109,9 @@ public final class DfsPackFile {
 	/** Offset used to cache {@link #bitmapIndex}. See {@link #POS_INDEX}. */
 	private static final long POS_BITMAP_INDEX = -3;
 
+	/** Offset used to cache {@link #objectSizeIndex}. See {@link #POS_INDEX}. */
+	private static final long POS_OBJECT_SIZE_INDEX = -4;
+
 	/** Cache that owns this pack file and its data. */
 	private final DfsBlockCache cache;
 
@@ -115,6 +121,9 @@ public final class DfsPackFile {
 	/** Unique identity of this pack while in-memory. */
 	final DfsPackKey key;
 
+	/** Identity of blocks of the index file read by {@link #pagedIndex}. */
+	private final DfsPackKey indexKey;
+
 	/**
 	 * Total number of bytes in this pack file.
 	 * <p>
@@ -145,12 +154,24 @@ public final class DfsPackFile {
 	/** Index mapping {@link ObjectId} to position within the pack stream. */
 	private volatile DfsBlockCache.Ref<PackIndex> index;
 
+	/** Lookups into the index file through the block cache. */
+	private volatile DfsPagedPackIndex pagedIndex;
+
+	/** True if the index file cannot be read in pages. */
+	private volatile boolean pagedIndexUnsupported;
+
 	/** Reverse version of {@link #index} mapping position to {@link ObjectId}. */
 	private volatile DfsBlockCache.Ref<PackReverseIndex> reverseIndex;
 
 	/** Index of compressed bitmap mapping entire object graph. */
 	private volatile DfsBlockCache.Ref<PackBitmapIndex> bitmapIndex;
 
+	/** Inflated sizes of the objects, ordered as in {@link #index}. */
+	private volatile DfsBlockCache.Ref<PackObjectSizeIndex> objectSizeIndex;
+
+	/** True if the object size index does not describe this pack. */
+	private volatile boolean invalidObjectSizeIndex;
+
 	/**
 	 * Objects we have tried to read, and discovered to be corrupt.
 	 * <p>
@@ -174,6 +195,7 @@ public final class DfsPackFile {
 		this.cache = cache;
 		this.packDesc = desc;
 		this.key = key;
+		this.indexKey = new DfsPackKey();
 
 		length = desc.getFileSize(PACK);
 		if (length <= 0)
@@ -210,7 +232,7 @@ void setPackIndex(PackIndex idx) {
 		long objCnt = idx.getObjectCount();
 		int recSize = Constants.OBJECT_ID_LENGTH + 8;
 		int sz = (int) Math.min(objCnt * recSize, Integer.MAX_VALUE);
-		index = cache.put(key, POS_INDEX, sz, idx);
+		index = cache.put(key, INDEX, POS_INDEX, sz, idx);
 	}
 
 	/**
@@ -231,8 +253,10 @@ private PackIndex idx(DfsReader ctx) throws IOException {
 		DfsBlockCache.Ref<PackIndex> idxref = index;
 		if (idxref != null) {
 			PackIndex idx = idxref.get();
-			if (idx != null)
+			if (idx != null) {
+				cache.countLookup(INDEX, true);
 				return idx;
+			}
 		}
 
 		if (invalid)
@@ -249,6 +273,7 @@ private PackIndex idx(DfsReader ctx) throws IOException {
 					return idx;
 			}
 
+			cache.countLookup(INDEX, false);
 			PackIndex idx;
 			try {
 				ReadableChannel rc = ctx.db.openFile(packDesc, INDEX);
@@ -296,8 +321,10 @@ PackBitmapIndex getBitmapIndex(DfsReader ctx) throws IOException {
 		DfsBlockCache.Ref<PackBitmapIndex> idxref = bitmapIndex;
 		if (idxref != null) {
 			PackBitmapIndex idx = idxref.get();
-			if (idx != null)
+			if (idx != null) {
+				cache.countLookup(BITMAP_INDEX, true);
 				return idx;
+			}
 		}
 
 		if (!packDesc.hasFileExt(PackExt.BITMAP_INDEX))
@@ -311,6 +338,7 @@ PackBitmapIndex getBitmapIndex(DfsReader ctx) throws IOException {
 					return idx;
 			}
 
+			cache.countLookup(BITMAP_INDEX, false);
 			long size;
 			PackBitmapIndex idx;
 			try {
@@ -344,12 +372,94 @@ else if (bs <= 0)
 				throw e2;
 			}
 
-			bitmapIndex = cache.put(key, POS_BITMAP_INDEX,
+			bitmapIndex = cache.put(key, BITMAP_INDEX, POS_BITMAP_INDEX,
 					(int) Math.min(size, Integer.MAX_VALUE), idx);
 			return idx;
 		}
 	}
 
+	PackObjectSizeIndex getObjectSizeIndex(DfsReader ctx) throws IOException {
+		if (invalid || invalidObjectSizeIndex)
+			return null;
+		DfsBlockCache.Ref<PackObjectSizeIndex> idxref = objectSizeIndex;
+		if (idxref != null) {
+			PackObjectSizeIndex idx = idxref.get();
+			if (idx != null) {
+				cache.countLookup(OBJECT_SIZE_INDEX, true);
+				return idx;
+			}
+		}
+
+		if (!packDesc.hasFileExt(OBJECT_SIZE_INDEX))
+			return null;
+
+		synchronized (initLock) {
+			idxref = objectSizeIndex;
+			if (idxref != null) {
+				PackObjectSizeIndex idx = idxref.get();
+				if (idx != null)
+					return idx;
+			}
+
+			cache.countLookup(OBJECT_SIZE_INDEX, false);
+			long size;
+			PackObjectSizeIndex idx;
+			try {
+				ReadableChannel rc = ctx.db.openFile(packDesc,
+						OBJECT_SIZE_INDEX);
+				try {
+					InputStream in = Channels.newInputStream(rc);
+					int wantSize = 8192;
+					int bs = rc.blockSize();
+					if (0 < bs && bs < wantSize)
+						bs = (wantSize / bs) * bs;
+					else if (bs <= 0)
+						bs = wantSize;
+					in = new BufferedInputStream(in, bs);
+					idx = PackObjectSizeIndex.read(in);
+				} finally {
+					size = rc.position();
+					rc.close();
+				}
+			} catch (EOFException e) {
+				IOException e2 = new IOException(MessageFormat.format(
+						DfsText.get().shortReadOfIndex,
+						packDesc.getFileName(OBJECT_SIZE_INDEX)));
+				e2.initCause(e);
+				throw e2;
+			} catch (IOException e) {
+				IOException e2 = new IOException(MessageFormat.format(
+						DfsText.get().cannotReadIndex,
+						packDesc.getFileName(OBJECT_SIZE_INDEX)));
+				e2.initCause(e);
+				throw e2;
+			}
+
+			if (idx.getObjectCount() != getObjectCount(ctx)
+					|| !Arrays.equals(getPackChecksum(ctx),
+							idx.getPackChecksum())) {
+				invalidObjectSizeIndex = true;
+				return null;
+			}
+
+			objectSizeIndex = cache.put(key, OBJECT_SIZE_INDEX,
+					POS_OBJECT_SIZE_INDEX,
+					(int) Math.min(size, Integer.MAX_VALUE), idx);
+			return idx;
+		}
+	}
+
+	private byte[] getPackChecksum(DfsReader ctx) throws IOException {
+		// If the length hasn't been determined yet, pin to set it.
+		if (length == -1) {
+			ctx.pin(this, 0);
+			ctx.unpin();
+		}
+		byte[] sum = new byte[20];
+		readFully(length - 20, sum, 0, 20, ctx);
+		return sum;
+	}
+
 	PackReverseIndex getReverseIdx(DfsReader ctx) throws IOException {
 		DfsBlockCache.Ref<PackReverseIndex> revref = reverseIndex;
 		if (revref != null) {
@@ -370,7 +480,8 @@ PackReverseIndex getReverseIdx(DfsReader ctx) throws IOException {
 			PackReverseIndex revidx = new PackReverseIndex(idx);
 			int sz = (int) Math.min(
 					idx.getObjectCount() * 8, Integer.MAX_VALUE);
-			reverseIndex = cache.put(key, POS_REVERSE_INDEX, sz, revidx);
+			reverseIndex = cache.put(key, INDEX, POS_REVERSE_INDEX, sz,
+					revidx);
 			return revidx;
 		}
 	}
@@ -388,7 +499,7 @@ PackReverseIndex getReverseIdx(DfsReader ctx) throws IOException {
 	 *             the pack index is not available, or is corrupt.
 	 */
 	public boolean hasObject(DfsReader ctx, AnyObjectId id) throws IOException {
-		final long offset = idx(ctx).findOffset(id);
+		final long offset = findOffset(ctx, id);
 		return 0 < offset && !isCorrupt(offset);
 	}
 
@@ -406,17 +517,63 @@ public boolean hasObject(DfsReader ctx, AnyObjectId id) throws IOException {
 	 */
 	ObjectLoader get(DfsReader ctx, AnyObjectId id)
 			throws IOException {
-		long offset = idx(ctx).findOffset(id);
+		long offset = findOffset(ctx, id);
 		return 0 < offset && !isCorrupt(offset) ? load(ctx, offset) : null;
 	}
 
 	long findOffset(DfsReader ctx, AnyObjectId id) throws IOException {
+		DfsPagedPackIndex paged = pagedIdx(ctx);
+		if (paged != null)
+			return paged.findOffset(ctx, id);
 		return idx(ctx).findOffset(id);
 	}
 
+	private long findPosition(DfsReader ctx, AnyObjectId id)
+			throws IOException {
+		DfsPagedPackIndex paged = pagedIdx(ctx);
+		if (paged != null)
+			return paged.findPosition(ctx, id);
+		return idx(ctx).findPosition(id);
+	}
+
 	void resolve(DfsReader ctx, Set<ObjectId> matches, AbbreviatedObjectId id,
 			int matchLimit) throws IOException {
-		idx(ctx).resolve(matches, id, matchLimit);
+		DfsPagedPackIndex paged = pagedIdx(ctx);
+		if (paged != null)
+			paged.resolve(ctx, matches, id, matchLimit);
+		else
+			idx(ctx).resolve(matches, id, matchLimit);
+	}
+
+	/**
+	 * Get the index to search in pages through the block cache.
+	 * <p>
+	 * Large indexes are not loaded as a whole for single lookups, instead the
+	 * blocks holding the fan-out table and the probed names and offsets are
+	 * read as needed. Once the complete index is in memory, for example for
+	 * packing or bitmap use, lookups use it instead.
+	 *
+	 * @return the paged index; null if the complete index should be used.
+	 */
+	private DfsPagedPackIndex pagedIdx(DfsReader ctx) throws IOException {
+		if (pagedIndexUnsupported || isIndexLoaded())
+			return null;
+		DfsPagedPackIndex paged = pagedIndex;
+		if (paged != null)
+			return paged;
+
+		long threshold = ctx.getOptions().getPagedIndexThreshold();
+		long size = packDesc.getFileSize(INDEX);
+		if (threshold <= 0 || size < threshold)
+			return null;
+		if (invalid)
+			throw new PackInvalidException(getPackName());
+
+		paged = DfsPagedPackIndex.open(this, ctx);
+		if (paged == null)
+			pagedIndexUnsupported = true;
+		pagedIndex = paged;
+		return paged;
 	}
 
 	/** Release all memory used by this DfsPackFile instance. */
@@ -424,6 +581,7 @@ public void close() {
 		cache.remove(this);
 		index = null;
 		reverseIndex = null;
+		objectSizeIndex = null;
 	}
 
 	/**
@@ -437,6 +595,9 @@ public void close() {
 	 *             the index file cannot be loaded into memory.
 	 */
 	long getObjectCount(DfsReader ctx) throws IOException {
+		DfsPagedPackIndex paged = pagedIdx(ctx);
+		if (paged != null)
+			return paged.getObjectCount();
 		return idx(ctx).getObjectCount();
 	}
 
@@ -768,10 +929,59 @@ long alignToBlock(long pos) {
 		return (pos / size) * size;
 	}
 
+	long alignToBlock(PackExt ext, long pos) {
+		if (ext == PACK)
+			return alignToBlock(pos);
+		int size = cache.getBlockSize();
+		return (pos / size) * size;
+	}
+
+	DfsPackKey blockKey(PackExt ext) {
+		return ext == PACK ? key : indexKey;
+	}
+
+	boolean isBlockCached(long pos) {
+		return cache.contains(key, alignToBlock(pos));
+	}
+
 	DfsBlock getOrLoadBlock(long pos, DfsReader ctx) throws IOException {
 		return cache.getOrLoad(this, pos, ctx);
 	}
 
+	DfsBlock getOrLoadBlock(PackExt ext, long pos, DfsReader ctx)
+			throws IOException {
+		return cache.getOrLoad(this, ext, pos, ctx);
+	}
+
+	DfsBlock readOneBlock(PackExt ext, long pos, DfsReader ctx)
+			throws IOException {
+		if (ext == PACK)
+			return readOneBlock(pos, ctx);
+		if (ext != INDEX)
+			throw new IllegalArgumentException(ext.toString());
+		if (invalid)
+			throw new PackInvalidException(getPackName());
+
+		ReadableChannel rc = ctx.db.openFile(packDesc, INDEX);
+		try {
+			int size = cache.getBlockSize();
+			long len = packDesc.getFileSize(INDEX);
+			if (len < pos + size)
+				size = (int) Math.max(0, len - pos);
+			byte[] buf = new byte[size];
+			rc.position(pos);
+			int cnt = read(rc, ByteBuffer.wrap(buf, 0, size));
+			if (size == 0 || cnt != size) {
+				throw new EOFException(MessageFormat.format(
+						DfsText.get().shortReadOfIndex,
+						packDesc.getFileName(INDEX)));
+			}
+			return new DfsBlock(indexKey, pos, buf);
+		} finally {
+			rc.close();
+		}
+	}
+
 	DfsBlock readOneBlock(long pos, DfsReader ctx)
 			throws IOException {
 		if (invalid)
@@ -793,8 +1003,16 @@ DfsBlock readOneBlock(long pos, DfsReader ctx)
 					length = len;
 			}
 
+			// Grow the read beyond one block while the reader scans the
+			// pack sequentially. The extra blocks are put into the cache.
+			int unit = size;
+			DfsAccessPattern pattern = ctx.getAccessPattern(this);
+			size = pattern.readSize(pos, unit, readAheadLimit(ctx));
+			if (size > unit)
+				rc.setReadAheadBytes(size);
+
 			if (0 <= len && len < pos + size)
-				size = (int) (len - pos);
+				size = (int) Math.max(0, Math.min(len - pos, size));
 			if (size <= 0)
 				throw new EOFException(MessageFormat.format(
 						DfsText.get().shortReadOfBlock, Long.valueOf(pos),
@@ -824,6 +1042,9 @@ DfsBlock readOneBlock(long pos, DfsReader ctx)
 				length = len = rc.size();
 			}
 
+			pattern.read(pos, buf.length, unit);
+			if (buf.length > unit)
+				return splitReadAhead(pos, buf, unit);
 			DfsBlock v = new DfsBlock(key, pos, buf);
 			return v;
 		} finally {
@@ -831,6 +1052,23 @@ DfsBlock readOneBlock(long pos, DfsReader ctx)
 		}
 	}
 
+	private int readAheadLimit(DfsReader ctx) {
+		long max = Math.min(ctx.getOptions().getReadAheadLimit(),
+				cache.getMaxStreamThroughCache());
+		return (int) Math.max(0, max);
+	}
+
+	private DfsBlock splitReadAhead(long pos, byte[] buf, int unit) {
+		// Only the first block is returned to the caller, which inserts it
+		// into the cache. The blocks after it were read ahead.
+		for (int off = unit; off < buf.length; off += unit) {
+			int end = Math.min(buf.length, off + unit);
+			cache.putReadAhead(new DfsBlock(key, pos + off,
+					Arrays.copyOfRange(buf, off, end)));
+		}
+		return new DfsBlock(key, pos, Arrays.copyOf(buf, unit));
+	}
+
 	private int blockSize(ReadableChannel rc) {
 		// If the block alignment is not yet known, discover it. Prefer the
 		// larger size from either the cache or the file itself.
@@ -1090,10 +1328,26 @@ int getObjectType(DfsReader ctx, long pos) throws IOException {
 	}
 
 	long getObjectSize(DfsReader ctx, AnyObjectId id) throws IOException {
-		final long offset = idx(ctx).findOffset(id);
+		PackObjectSizeIndex sizeIdx = getObjectSizeIndex(ctx);
+		if (sizeIdx != null) {
+			long p = findPosition(ctx, id);
+			return 0 <= p ? sizeIdx.getSize(p) : -1;
+		}
+		final long offset = findOffset(ctx, id);
 		return 0 < offset ? getObjectSize(ctx, offset) : -1;
 	}
 
+	long getObjectSize(DfsReader ctx, AnyObjectId id, long pos)
+			throws IOException {
+		PackObjectSizeIndex sizeIdx = getObjectSizeIndex(ctx);
+		if (sizeIdx != null) {
+			long p = findPosition(ctx, id);
+			if (0 <= p)
+				return sizeIdx.getSize(p);
+		}
+		return getObjectSize(ctx, pos);
+	}
+
 	long getObjectSize(DfsReader ctx, long pos)
 			throws IOException {
 		final byte[] ib = ctx.tempId;
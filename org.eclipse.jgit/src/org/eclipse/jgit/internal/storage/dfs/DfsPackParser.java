@@ -144,16 +144,22 @@ public PackLock parse(ProgressMonitor receiving, ProgressMonitor resolving)
 			buffer(packHash, 0, packHash.length);
 			if (currEnd != 0)
 				flushBlock();
-			out.close();
-			out = null;
 			currBuf = null;
 			readBlock = null;
 			packDsc.addFileExt(PACK);
 			packDsc.setFileSize(PACK, packEnd);
 
-			writePackIndex();
-			objdb.commitPack(Collections.singletonList(packDsc), null);
-			rollback = false;
+			try (DfsOutputCloser closer = new DfsOutputCloser(
+					objdb.getWriteExecutor())) {
+				DfsOutputStream pack = out;
+				out = null;
+				closer.finish(pack);
+
+				writePackIndex(closer);
+				closer.await();
+				objdb.commitPack(Collections.singletonList(packDsc), null);
+				rollback = false;
+			}
 
 			DfsPackFile p = blockCache.getOrCreate(packDsc, packKey);
 			p.setBlockSize(blockSize);
@@ -446,8 +452,8 @@ protected void onEndThinPack() throws IOException {
 		packHash = packDigest.digest();
 	}
 
-	private void writePackIndex() throws IOException {
+	private void writePackIndex(DfsOutputCloser closer) throws IOException {
 		List<PackedObjectInfo> list = getSortedObjectList(null /* by ObjectId */);
-		packIndex = objins.writePackIndex(packDsc, packHash, list);
+		packIndex = objins.writePackIndex(packDsc, packHash, list, closer);
 	}
 }
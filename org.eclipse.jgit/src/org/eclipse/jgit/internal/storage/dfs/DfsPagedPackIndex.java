@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.dfs;
+
+import static org.eclipse.jgit.internal.storage.pack.PackExt.INDEX;
+import static org.eclipse.jgit.lib.Constants.OBJECT_ID_LENGTH;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Set;
+
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Searches a version 2 pack index file through the {@link DfsBlockCache}.
+ * <p>
+ * Only the fan-out table is held in memory. A lookup binary searches the
+ * object names of one fan-out bucket by loading the blocks of the index
+ * file that hold the probed names, followed by the block holding the offset
+ * of the object found. A cold lookup therefore reads a handful of blocks
+ * instead of the entire index, and blocks are evicted individually.
+ */
+final class DfsPagedPackIndex {
+	private static final int FANOUT = 256;
+
+	private static final int HEADER = 8 + 4 * FANOUT;
+
+	private static final long IS_O64 = 1L << 31;
+
+	/**
+	 * Read the fan-out table of an index.
+	 *
+	 * @param pack
+	 *            pack whose index is read.
+	 * @param ctx
+	 *            reader to load blocks with.
+	 * @return the index; null if the file is not a version 2 index.
+	 * @throws IOException
+	 *             the index cannot be read.
+	 */
+	static DfsPagedPackIndex open(DfsPackFile pack, DfsReader ctx)
+			throws IOException {
+		byte[] hdr = new byte[HEADER];
+		read(pack, ctx, 0, hdr, hdr.length);
+		if (hdr[0] != -1 || hdr[1] != 't' || hdr[2] != 'O' || hdr[3] != 'c'
+				|| NB.decodeInt32(hdr, 4) != 2)
+			return null;
+
+		long[] fanout = new long[FANOUT];
+		for (int k = 0; k < FANOUT; k++) {
+			fanout[k] = NB.decodeUInt32(hdr, 8 + k * 4);
+			if (0 < k && fanout[k] < fanout[k - 1])
+				throw new IOException(MessageFormat.format(
+						JGitText.get().indexFileCorruptedNegativeBucketCount,
+						Long.valueOf(fanout[k] - fanout[k - 1])));
+		}
+		return new DfsPagedPackIndex(pack, fanout);
+	}
+
+	private final DfsPackFile pack;
+
+	private final long[] fanout;
+
+	private final long objectCnt;
+
+	private DfsPagedPackIndex(DfsPackFile pack, long[] fanout) {
+		this.pack = pack;
+		this.fanout = fanout;
+		this.objectCnt = fanout[FANOUT - 1];
+	}
+
+	long getObjectCount() {
+		return objectCnt;
+	}
+
+	/**
+	 * Locate an object.
+	 *
+	 * @param ctx
+	 *            reader to load blocks with.
+	 * @param id
+	 *            object to find.
+	 * @return offset of the object in the pack; -1 if it is not in the pack.
+	 * @throws IOException
+	 *             the index cannot be read.
+	 */
+	long findOffset(DfsReader ctx, AnyObjectId id) throws IOException {
+		long p = findPosition(ctx, id);
+		return p < 0 ? -1 : getOffset(ctx, p);
+	}
+
+	/**
+	 * Locate the position of an object in the index.
+	 *
+	 * @param ctx
+	 *            reader to load blocks with.
+	 * @param id
+	 *            object to find.
+	 * @return position of the object in the sorted name table; -1 if it is not
+	 *         in the pack.
+	 * @throws IOException
+	 *             the index cannot be read.
+	 */
+	long findPosition(DfsReader ctx, AnyObjectId id) throws IOException {
+		int b = id.getFirstByte();
+		long low = b == 0 ? 0 : fanout[b - 1];
+		long high = fanout[b];
+		byte[] name = new byte[OBJECT_ID_LENGTH];
+		while (low < high) {
+			long p = (low + high) >>> 1;
+			readName(ctx, p, name);
+			int cmp = id.compareTo(name, 0);
+			if (cmp < 0)
+				high = p;
+			else if (cmp == 0)
+				return p;
+			else
+				low = p + 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Find objects matching an abbreviation.
+	 *
+	 * @param ctx
+	 *            reader to load blocks with.
+	 * @param matches
+	 *            set to add matching objects to.
+	 * @param id
+	 *            abbreviation to resolve.
+	 * @param matchLimit
+	 *            stop after finding more than this many objects.
+	 * @throws IOException
+	 *             the index cannot be read.
+	 */
+	void resolve(DfsReader ctx, Set<ObjectId> matches,
+			AbbreviatedObjectId id, int matchLimit) throws IOException {
+		int b = id.getFirstByte();
+		long low = b == 0 ? 0 : fanout[b - 1];
+		long max = fanout[b];
+		long high = max;
+		byte[] name = new byte[OBJECT_ID_LENGTH];
+		while (low < high) {
+			long p = (low + high) >>> 1;
+			readName(ctx, p, name);
+			int cmp = id.prefixCompare(name, 0);
+			if (cmp < 0)
+				high = p;
+			else if (cmp > 0)
+				low = p + 1;
+			else {
+				// Move backwards to the first match, then walk forwards.
+				while (p > (b == 0 ? 0 : fanout[b - 1])) {
+					readName(ctx, p - 1, name);
+					if (id.prefixCompare(name, 0) != 0)
+						break;
+					p--;
+				}
+				for (; p < max; p++) {
+					readName(ctx, p, name);
+					if (id.prefixCompare(name, 0) != 0)
+						break;
+					matches.add(ObjectId.fromRaw(name));
+					if (matches.size() > matchLimit)
+						break;
+				}
+				return;
+			}
+		}
+	}
+
+	private void readName(DfsReader ctx, long nth, byte[] name)
+			throws IOException {
+		read(pack, ctx, HEADER + nth * OBJECT_ID_LENGTH, name,
+				OBJECT_ID_LENGTH);
+	}
+
+	private long getOffset(DfsReader ctx, long nth) throws IOException {
+		byte[] buf = new byte[8];
+		long offset32 = HEADER + objectCnt * (OBJECT_ID_LENGTH + 4);
+		read(pack, ctx, offset32 + nth * 4, buf, 4);
+		long offset = NB.decodeUInt32(buf, 0);
+		if ((offset & IS_O64) == 0)
+			return offset;
+
+		long offset64 = offset32 + objectCnt * 4;
+		read(pack, ctx, offset64 + (offset & ~IS_O64) * 8, buf, 8);
+		return NB.decodeUInt64(buf, 0);
+	}
+
+	private static void read(DfsPackFile pack, DfsReader ctx, long pos,
+			byte[] dst, int cnt) throws IOException {
+		int off = 0;
+		while (off < cnt) {
+			DfsBlock b = pack.getOrLoadBlock(INDEX, pos + off, ctx);
+			off += b.copy(pos + off, dst, off, cnt - off);
+		}
+	}
+}
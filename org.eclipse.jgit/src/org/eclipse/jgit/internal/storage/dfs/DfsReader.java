@@ -53,10 +53,12 @@
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
@@ -114,6 +116,8 @@ public final class DfsReader extends ObjectReader implements ObjectReuseAsIs {
 
 	private boolean avoidUnreachable;
 
+	private Map<DfsPackKey, DfsAccessPattern> accessPatterns;
+
 	DfsReader(DfsObjDatabase db) {
 		this.db = db;
 		this.streamFileThreshold = db.getReaderOptions().getStreamFileThreshold();
@@ -123,6 +127,25 @@ DfsReaderOptions getOptions() {
 		return db.getReaderOptions();
 	}
 
+	/**
+	 * Get the statistics of this reader's block reads from a pack.
+	 *
+	 * @param pack
+	 *            the pack file.
+	 * @return access pattern tracking the reads of {@code pack} made by this
+	 *         reader; its counters are zero if none were made yet.
+	 */
+	public DfsAccessPattern getAccessPattern(DfsPackFile pack) {
+		if (accessPatterns == null)
+			accessPatterns = new HashMap<DfsPackKey, DfsAccessPattern>();
+		DfsAccessPattern p = accessPatterns.get(pack.key);
+		if (p == null) {
+			p = new DfsAccessPattern();
+			accessPatterns.put(pack.key, p);
+		}
+		return p;
+	}
+
 	DeltaBaseCache getDeltaBaseCache() {
 		if (baseCache == null)
 			baseCache = new DeltaBaseCache(this);
@@ -194,14 +217,32 @@ public boolean has(AnyObjectId objectId) throws IOException {
 				&& last.hasObject(this, objectId))
 			return true;
 		PackList packList = db.getPackList();
-		if (hasImpl(packList, objectId)) {
+		if (!db.isKnownMissing(packList, objectId)
+				&& hasImpl(packList, objectId)) {
 			return true;
-		} else if (packList.dirty()) {
-			return hasImpl(db.scanPacks(packList), objectId);
 		}
+		PackList rescanned = db.rescanAfterMiss(packList);
+		if (rescanned != null) {
+			if (hasImpl(rescanned, objectId))
+				return true;
+			packList = rescanned;
+		}
+		rememberMissing(packList, objectId);
 		return false;
 	}
 
+	/**
+	 * Remember an object was not found in any pack of a list.
+	 * <p>
+	 * Misses are only recorded if garbage packs were searched too, so the
+	 * entry holds for every reader.
+	 */
+	private void rememberMissing(PackList packList, AnyObjectId objectId) {
+		if (!avoidUnreachable)
+			packList.addMissing(objectId,
+					getOptions().getMissingObjectCacheSize());
+	}
+
 	private boolean hasImpl(PackList packList, AnyObjectId objectId)
 			throws IOException {
 		for (DfsPackFile pack : packList.packs) {
@@ -228,16 +269,21 @@ public ObjectLoader open(AnyObjectId objectId, int typeHint)
 		}
 
 		PackList packList = db.getPackList();
-		ldr = openImpl(packList, objectId);
-		if (ldr != null) {
-			return checkType(ldr, objectId, typeHint);
+		if (!db.isKnownMissing(packList, objectId)) {
+			ldr = openImpl(packList, objectId);
+			if (ldr != null) {
+				return checkType(ldr, objectId, typeHint);
+			}
 		}
-		if (packList.dirty()) {
-			ldr = openImpl(db.scanPacks(packList), objectId);
+		PackList rescanned = db.rescanAfterMiss(packList);
+		if (rescanned != null) {
+			ldr = openImpl(rescanned, objectId);
 			if (ldr != null) {
 				return checkType(ldr, objectId, typeHint);
 			}
+			packList = rescanned;
 		}
+		rememberMissing(packList, objectId);
 
 		if (typeHint == OBJ_ANY)
 			throw new MissingObjectException(objectId.copy(),
@@ -375,6 +421,18 @@ private boolean skipGarbagePack(DfsPackFile pack) {
 		return avoidUnreachable && pack.isGarbage();
 	}
 
+	private <T extends ObjectId> DfsBlockPrefetcher prefetch(
+			Iterable<FoundObject<T>> order) {
+		DfsReaderOptions opts = getOptions();
+		if (opts.getAsyncReadExecutor() == null)
+			return null;
+		DfsBlockPrefetcher p = new DfsBlockPrefetcher(db,
+				opts.getAsyncReadExecutor(), opts.getAsyncReadAhead());
+		for (FoundObject<T> f : order)
+			p.add(f.pack, f.offset);
+		return p;
+	}
+
 	@Override
 	public <T extends ObjectId> AsyncObjectLoaderQueue<T> open(
 			Iterable<T> objectIds, final boolean reportMissing) {
@@ -389,12 +447,15 @@ public <T extends ObjectId> AsyncObjectLoaderQueue<T> open(
 
 		final Iterator<FoundObject<T>> idItr = order.iterator();
 		final IOException findAllError = error;
+		final DfsBlockPrefetcher prefetcher = prefetch(order);
 		return new AsyncObjectLoaderQueue<T>() {
 			private FoundObject<T> cur;
 
 			public boolean next() throws MissingObjectException, IOException {
 				if (idItr.hasNext()) {
 					cur = idItr.next();
+					if (prefetcher != null)
+						prefetcher.awaitNext();
 					return true;
 				} else if (findAllError != null) {
 					throw findAllError;
@@ -419,11 +480,14 @@ public ObjectLoader open() throws IOException {
 			}
 
 			public boolean cancel(boolean mayInterruptIfRunning) {
+				if (prefetcher != null)
+					prefetcher.cancel();
 				return true;
 			}
 
 			public void release() {
-				// Nothing to clean up.
+				if (prefetcher != null)
+					prefetcher.cancel();
 			}
 		};
 	}
@@ -442,6 +506,7 @@ public <T extends ObjectId> AsyncObjectSizeQueue<T> getObjectSize(
 
 		final Iterator<FoundObject<T>> idItr = order.iterator();
 		final IOException findAllError = error;
+		final DfsBlockPrefetcher prefetcher = prefetch(order);
 		return new AsyncObjectSizeQueue<T>() {
 			private FoundObject<T> cur;
 
@@ -450,10 +515,13 @@ public <T extends ObjectId> AsyncObjectSizeQueue<T> getObjectSize(
 			public boolean next() throws MissingObjectException, IOException {
 				if (idItr.hasNext()) {
 					cur = idItr.next();
+					if (prefetcher != null)
+						prefetcher.awaitNext();
 					if (cur.pack == null)
 						throw new MissingObjectException(cur.id,
 								JGitText.get().unknownObjectType2);
-					sz = cur.pack.getObjectSize(DfsReader.this, cur.offset);
+					sz = cur.pack.getObjectSize(DfsReader.this, cur.id,
+							cur.offset);
 					return true;
 				} else if (findAllError != null) {
 					throw findAllError;
@@ -475,11 +543,14 @@ public long getSize() {
 			}
 
 			public boolean cancel(boolean mayInterruptIfRunning) {
+				if (prefetcher != null)
+					prefetcher.cancel();
 				return true;
 			}
 
 			public void release() {
-				// Nothing to clean up.
+				if (prefetcher != null)
+					prefetcher.cancel();
 			}
 		};
 	}
@@ -496,16 +567,21 @@ public long getObjectSize(AnyObjectId objectId, int typeHint)
 		}
 
 		PackList packList = db.getPackList();
-		long sz = getObjectSizeImpl(packList, objectId);
-		if (0 <= sz) {
-			return sz;
+		if (!db.isKnownMissing(packList, objectId)) {
+			long sz = getObjectSizeImpl(packList, objectId);
+			if (0 <= sz) {
+				return sz;
+			}
 		}
-		if (packList.dirty()) {
-			sz = getObjectSizeImpl(packList, objectId);
+		PackList rescanned = db.rescanAfterMiss(packList);
+		if (rescanned != null) {
+			long sz = getObjectSizeImpl(rescanned, objectId);
 			if (0 <= sz) {
 				return sz;
 			}
+			packList = rescanned;
 		}
+		rememberMissing(packList, objectId);
 
 		if (typeHint == OBJ_ANY) {
 			throw new MissingObjectException(objectId.copy(),
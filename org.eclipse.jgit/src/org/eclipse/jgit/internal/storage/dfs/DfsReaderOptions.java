@@ -46,9 +46,16 @@
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_CORE_SECTION;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_DFS_SECTION;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_DELTA_BASE_CACHE_LIMIT;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_MIN_RESCAN_INTERVAL;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_MISSING_OBJECT_CACHE_SIZE;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_PAGED_INDEX_THRESHOLD;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_READ_AHEAD_LIMIT;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_STREAM_BUFFER;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_STREAM_FILE_TRESHOLD;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.storage.pack.PackConfig;
 
@@ -65,10 +72,25 @@ public class DfsReaderOptions {
 
 	private int streamPackBufferSize;
 
+	private Executor asyncReadExecutor;
+
+	private int asyncReadAhead = 16;
+
+	private int readAheadLimit;
+
+	private long pagedIndexThreshold;
+
+	private int missingObjectCacheSize;
+
+	private long minRescanInterval;
+
 	/** Create a default reader configuration. */
 	public DfsReaderOptions() {
 		setDeltaBaseCacheLimit(10 * MiB);
 		setStreamFileThreshold(PackConfig.DEFAULT_BIG_FILE_THRESHOLD);
+		setReadAheadLimit(MiB);
+		setPagedIndexThreshold(16 * MiB);
+		setMissingObjectCacheSize(1024);
 	}
 
 	/** @return maximum number of bytes to hold in per-reader DeltaBaseCache. */
@@ -125,6 +147,156 @@ public DfsReaderOptions setStreamPackBufferSize(int bufsz) {
 		return this;
 	}
 
+	/**
+	 * @return executor loading blocks for the asynchronous
+	 *         {@link org.eclipse.jgit.lib.ObjectReader#open(Iterable, boolean)}
+	 *         and
+	 *         {@link org.eclipse.jgit.lib.ObjectReader#getObjectSize(Iterable, boolean)}
+	 *         queues; null if objects are loaded one at a time by the caller.
+	 */
+	public Executor getAsyncReadExecutor() {
+		return asyncReadExecutor;
+	}
+
+	/**
+	 * Set the executor reading blocks for asynchronous object queues.
+	 * <p>
+	 * When set, the queues returned by a reader sort the requested objects
+	 * by pack and offset and read the blocks holding them in parallel on
+	 * this executor, keeping up to {@link #getAsyncReadAhead()} blocks in
+	 * flight ahead of the caller. This hides the latency of remote storage
+	 * when walking or packing many objects.
+	 *
+	 * @param executor
+	 *            executor to read blocks on; null to disable.
+	 * @return {@code this}
+	 */
+	public DfsReaderOptions setAsyncReadExecutor(Executor executor) {
+		asyncReadExecutor = executor;
+		return this;
+	}
+
+	/**
+	 * @return number of blocks an asynchronous object queue reads ahead of
+	 *         the object being opened. <b>Default is 16.</b>
+	 */
+	public int getAsyncReadAhead() {
+		return asyncReadAhead;
+	}
+
+	/**
+	 * @param blocks
+	 *            number of blocks an asynchronous object queue reads ahead of
+	 *            the object being opened.
+	 * @return {@code this}
+	 */
+	public DfsReaderOptions setAsyncReadAhead(int blocks) {
+		asyncReadAhead = Math.max(1, blocks);
+		return this;
+	}
+
+	/**
+	 * @return maximum number of bytes read from a pack at once while a reader
+	 *         scans it sequentially. <b>Default is 1 MiB.</b>
+	 */
+	public int getReadAheadLimit() {
+		return readAheadLimit;
+	}
+
+	/**
+	 * Set the maximum number of bytes read ahead of a sequential scan.
+	 * <p>
+	 * A reader starts with single blocks and doubles the size of each read
+	 * while it keeps accessing consecutive blocks of the same pack, until
+	 * this limit is reached. Blocks read ahead are stored in the block
+	 * cache. Random access always reads a single block.
+	 *
+	 * @param limit
+	 *            maximum number of bytes to read at once. Values smaller
+	 *            than the block size disable readahead.
+	 * @return {@code this}
+	 */
+	public DfsReaderOptions setReadAheadLimit(int limit) {
+		readAheadLimit = Math.max(0, limit);
+		return this;
+	}
+
+	/**
+	 * @return size of pack index files above which single lookups search the
+	 *         index in blocks instead of loading it. <b>Default is 16 MiB.</b>
+	 */
+	public long getPagedIndexThreshold() {
+		return pagedIndexThreshold;
+	}
+
+	/**
+	 * Set the size of pack index files searched in blocks.
+	 * <p>
+	 * Object lookups in a version 2 index at least this large read only the
+	 * blocks of the index holding the fan-out table and the probed entries
+	 * through the block cache, until the whole index is loaded for another
+	 * purpose such as packing.
+	 *
+	 * @param size
+	 *            minimum index file size in bytes; 0 always loads the whole
+	 *            index.
+	 * @return {@code this}
+	 */
+	public DfsReaderOptions setPagedIndexThreshold(long size) {
+		pagedIndexThreshold = Math.max(0, size);
+		return this;
+	}
+
+	/**
+	 * @return number of object ids remembered as missing from the current
+	 *         pack list. <b>Default is 1024.</b>
+	 */
+	public int getMissingObjectCacheSize() {
+		return missingObjectCacheSize;
+	}
+
+	/**
+	 * Set the number of object ids remembered as missing.
+	 * <p>
+	 * Lookups of an object found in no pack of the current pack list are
+	 * remembered, and later lookups of the same object skip searching the
+	 * packs until the pack list changes. This keeps repeated probes for
+	 * absent objects, such as the haves of a negotiation, cheap.
+	 *
+	 * @param size
+	 *            number of entries; 0 disables the cache.
+	 * @return {@code this}
+	 */
+	public DfsReaderOptions setMissingObjectCacheSize(int size) {
+		missingObjectCacheSize = Math.max(0, size);
+		return this;
+	}
+
+	/**
+	 * @return minimum time in milliseconds between pack list scans caused by
+	 *         missed lookups. <b>Default is 0.</b>
+	 */
+	public long getMinRescanInterval() {
+		return minRescanInterval;
+	}
+
+	/**
+	 * Set the minimum time between pack list scans caused by missed lookups.
+	 * <p>
+	 * When an object is not found and the pack list may be stale, readers
+	 * list the packs of the storage system again. Under a burst of lookups
+	 * for absent objects this is limited to one scan per interval for the
+	 * whole object database; lookups in between only search the known packs.
+	 *
+	 * @param millis
+	 *            minimum interval; 0 scans after every miss on a stale list.
+	 * @return {@code this}
+	 */
+	public DfsReaderOptions setMinRescanInterval(long millis) {
+		minRescanInterval = Math.max(0, millis);
+		return this;
+	}
+
 	/**
 	 * Update properties by setting fields from the configuration.
 	 * <p>
@@ -157,6 +329,31 @@ public DfsReaderOptions fromConfig(Config rc) {
 				CONFIG_DFS_SECTION,
 				CONFIG_KEY_STREAM_BUFFER,
 				getStreamPackBufferSize()));
+
+		setReadAheadLimit(rc.getInt(
+				CONFIG_CORE_SECTION,
+				CONFIG_DFS_SECTION,
+				CONFIG_KEY_READ_AHEAD_LIMIT,
+				getReadAheadLimit()));
+
+		setPagedIndexThreshold(rc.getLong(
+				CONFIG_CORE_SECTION,
+				CONFIG_DFS_SECTION,
+				CONFIG_KEY_PAGED_INDEX_THRESHOLD,
+				getPagedIndexThreshold()));
+
+		setMissingObjectCacheSize(rc.getInt(
+				CONFIG_CORE_SECTION,
+				CONFIG_DFS_SECTION,
+				CONFIG_KEY_MISSING_OBJECT_CACHE_SIZE,
+				getMissingObjectCacheSize()));
+
+		setMinRescanInterval(rc.getTimeUnit(
+				CONFIG_CORE_SECTION,
+				CONFIG_DFS_SECTION,
+				CONFIG_KEY_MIN_RESCAN_INTERVAL,
+				getMinRescanInterval(),
+				TimeUnit.MILLISECONDS));
 		return this;
 	}
 }
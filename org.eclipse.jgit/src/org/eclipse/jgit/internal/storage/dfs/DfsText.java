@@ -56,6 +56,9 @@ public static DfsText get() {
 	// @formatter:off
 	/***/ public String cannotReadIndex;
 	/***/ public String cannotReadBackDelta;
+	/***/ public String compactionFailed;
+	/***/ public String invalidPackListEntry;
+	/***/ public String invalidRefListEntry;
 	/***/ public String shortReadOfBlock;
 	/***/ public String shortReadOfIndex;
 	/***/ public String unexpectedEofInPack;
@@ -0,0 +1,844 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.dfs;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.eclipse.jgit.annotations.Nullable;
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.errors.LockFailedException;
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource;
+import org.eclipse.jgit.internal.storage.file.LockFile;
+import org.eclipse.jgit.internal.storage.pack.PackExt;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Ref.Storage;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.lib.SymbolicRef;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileBasedConfig;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.eclipse.jgit.util.FS;
+import org.eclipse.jgit.util.FileUtils;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.RawParseUtils;
+import org.eclipse.jgit.util.RefList;
+import org.eclipse.jgit.util.SystemReader;
+
+/**
+ * Git repository stored in a directory of the local file system.
+ * <p>
+ * This is a complete {@link DfsRepository}, intended to measure the DFS
+ * storage code against real I/O and to run it on a single machine. The
+ * directory holds:
+ * <ul>
+ * <li>{@code objects/pack/}: pack files and their indexes, named after the
+ * {@link DfsPackDescription}.</li>
+ * <li>{@code objects/pack-list}: the packs visible to readers, one per line.
+ * </li>
+ * <li>{@code objects/pack-garbage}: the packs removed from the pack list and
+ * when they were removed, one per line.</li>
+ * <li>{@code ref-list}: all references, one per line.</li>
+ * <li>{@code config}: the repository configuration.</li>
+ * </ul>
+ * The pack and ref lists are replaced atomically under a {@link LockFile},
+ * so several processes may share one directory. Pack files are written
+ * before they are listed and never modified afterwards; packs replaced by a
+ * compaction or garbage collection stay on disk until
+ * {@link #prunePacks(long)} removes them.
+ */
+public class LocalDiskRepository extends DfsRepository {
+	/** Builder for repositories stored on the local disk. */
+	public static class Builder
+			extends DfsRepositoryBuilder<Builder, LocalDiskRepository> {
+		private File directory;
+
+		/** @return directory holding the repository. */
+		public File getDirectory() {
+			return directory;
+		}
+
+		/**
+		 * Set the directory holding the repository.
+		 *
+		 * @param dir
+		 *            directory of the repository. It is created when the
+		 *            first file is written.
+		 * @return {@code this}
+		 */
+		public Builder setDirectory(File dir) {
+			directory = dir;
+			return self();
+		}
+
+		@Override
+		public LocalDiskRepository build() throws IOException {
+			if (directory == null)
+				throw new IllegalArgumentException();
+			if (getRepositoryDescription() == null)
+				setRepositoryDescription(
+						new DfsRepositoryDescription(directory.getName()));
+			return new LocalDiskRepository(this);
+		}
+	}
+
+	private static final String PACK_LIST = "pack-list"; //$NON-NLS-1$
+
+	private static final String PACK_GARBAGE = "pack-garbage"; //$NON-NLS-1$
+
+	private static final String REF_LIST = "ref-list"; //$NON-NLS-1$
+
+	private static final String SYMREF = "ref: "; //$NON-NLS-1$
+
+	/** Attempts made to lock a list held by another process. */
+	private static final int LOCK_ATTEMPTS = 20;
+
+	private static final SecureRandom random = new SecureRandom();
+
+	private final File directory;
+
+	private final File packDirectory;
+
+	private final File packList;
+
+	private final File packGarbage;
+
+	private final File refList;
+
+	private final FileBasedConfig config;
+
+	private final DiskObjDatabase objdb;
+
+	private final RefDatabase refdb;
+
+	private String gitwebDescription;
+
+	LocalDiskRepository(Builder builder) throws IOException {
+		super(builder);
+		directory = builder.getDirectory();
+		File objects = new File(directory, "objects"); //$NON-NLS-1$
+		packDirectory = new File(objects, "pack"); //$NON-NLS-1$
+		packList = new File(objects, PACK_LIST);
+		packGarbage = new File(objects, PACK_GARBAGE);
+		refList = new File(directory, REF_LIST);
+
+		config = new FileBasedConfig(new File(directory, Constants.CONFIG),
+				FS.DETECTED);
+		try {
+			config.load();
+		} catch (ConfigInvalidException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+
+		DfsReaderOptions options = builder.getReaderOptions();
+		if (options == null)
+			options = new DfsReaderOptions().fromConfig(config);
+		objdb = new DiskObjDatabase(options);
+		refdb = new DiskRefDatabase();
+	}
+
+	/** @return directory holding the repository. */
+	public File getDirectory() {
+		return directory;
+	}
+
+	@Override
+	public DfsObjDatabase getObjectDatabase() {
+		return objdb;
+	}
+
+	@Override
+	public RefDatabase getRefDatabase() {
+		return refdb;
+	}
+
+	@Override
+	public StoredConfig getConfig() {
+		return config;
+	}
+
+	@Override
+	public void create(boolean bare) throws IOException {
+		FileUtils.mkdirs(packDirectory, true);
+		super.create(bare);
+	}
+
+	@Override
+	@Nullable
+	public String getGitwebDescription() {
+		return gitwebDescription;
+	}
+
+	@Override
+	public void setGitwebDescription(@Nullable String d) {
+		gitwebDescription = d;
+	}
+
+	/**
+	 * Delete the files of packs removed from the pack list.
+	 * <p>
+	 * Readers that listed a pack before it was replaced may still read from
+	 * it, a pack is therefore only deleted once it was removed from the list
+	 * at least the given time ago. Files of packs that were never listed are
+	 * kept: they cannot be told apart from a pack still being written.
+	 *
+	 * @param minAge
+	 *            minimum time in milliseconds since the packs to delete were
+	 *            removed from the pack list.
+	 * @return number of files deleted.
+	 * @throws IOException
+	 *             the pack lists cannot be read or a file cannot be deleted.
+	 */
+	public int prunePacks(long minAge) throws IOException {
+		Set<String> listed = new HashSet<String>();
+		for (DfsPackDescription desc : objdb.readPackList())
+			listed.add(packName(desc));
+
+		long expire = SystemReader.getInstance().getCurrentTime() - minAge;
+		int deleted = 0;
+		LockFile lck = lock(packGarbage);
+		try {
+			StringBuilder keep = new StringBuilder();
+			for (String line : readLines(packGarbage)) {
+				String[] f = line.split(" "); //$NON-NLS-1$
+				long removed;
+				try {
+					if (f.length != 2)
+						throw new IllegalArgumentException();
+					removed = Long.parseLong(f[1]);
+				} catch (IllegalArgumentException e) {
+					throw new IOException(MessageFormat.format(
+							DfsText.get().invalidPackListEntry, packGarbage,
+							line), e);
+				}
+				if (expire <= removed || listed.contains(f[0])) {
+					keep.append(line).append('\n');
+					continue;
+				}
+				for (PackExt ext : PackExt.values()) {
+					File file = new File(packDirectory,
+							f[0] + '.' + ext.getExtension());
+					if (file.exists()) {
+						FileUtils.delete(file, FileUtils.SKIP_MISSING);
+						deleted++;
+					}
+				}
+			}
+			commit(lck, packGarbage, keep);
+		} finally {
+			lck.unlock();
+		}
+		return deleted;
+	}
+
+	private static String packName(DfsPackDescription desc) {
+		String name = desc.getFileName(PackExt.PACK);
+		return name.substring(0, name.lastIndexOf('.'));
+	}
+
+	private static LockFile lock(File file) throws IOException {
+		LockFile lck = new LockFile(file);
+		lck.setFSync(true);
+		for (int attempt = 1; !lck.lock(); attempt++) {
+			if (attempt == LOCK_ATTEMPTS)
+				throw new LockFailedException(file);
+			try {
+				Thread.sleep(attempt * 10);
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+		}
+		return lck;
+	}
+
+	private static void commit(LockFile lck, File file, StringBuilder content)
+			throws IOException {
+		lck.write(Constants.encode(content.toString()));
+		if (!lck.commit())
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unableToWrite, file));
+	}
+
+	private static List<String> readLines(File file) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		byte[] raw;
+		try {
+			raw = IO.readFully(file);
+		} catch (FileNotFoundException noFile) {
+			return lines;
+		}
+		for (String line : RawParseUtils.decode(raw).split("\n")) { //$NON-NLS-1$
+			if (!line.isEmpty())
+				lines.add(line);
+		}
+		return lines;
+	}
+
+	private class DiskObjDatabase extends DfsObjDatabase {
+		DiskObjDatabase(DfsReaderOptions options) {
+			super(LocalDiskRepository.this, options);
+		}
+
+		@Override
+		protected List<DfsPackDescription> listPacks() throws IOException {
+			return readPackList();
+		}
+
+		@Override
+		protected DfsPackDescription newPack(PackSource source) {
+			String name = "pack-" //$NON-NLS-1$
+					+ Long.toHexString(
+							SystemReader.getInstance().getCurrentTime())
+					+ '-' + Integer.toHexString(random.nextInt())
+					+ '-' + source.name();
+			DfsPackDescription desc = new DfsPackDescription(
+					getDescription(), name);
+			return desc.setPackSource(source);
+		}
+
+		@Override
+		protected synchronized void commitPackImpl(
+				Collection<DfsPackDescription> desc,
+				Collection<DfsPackDescription> replace) throws IOException {
+			LockFile lck = lock(packList);
+			try {
+				long now = SystemReader.getInstance().getCurrentTime();
+				List<DfsPackDescription> n = new ArrayList<DfsPackDescription>();
+				for (DfsPackDescription d : desc) {
+					if (d.getLastModified() <= 0)
+						d.setLastModified(now);
+					n.add(d);
+				}
+				List<DfsPackDescription> removed = new ArrayList<DfsPackDescription>();
+				for (DfsPackDescription d : readPackList()) {
+					if (n.contains(d))
+						continue;
+					if (replace == null || !replace.contains(d))
+						n.add(d);
+					else
+						removed.add(d);
+				}
+				writePackList(lck, n);
+				// Record the removal only once the new list is committed.
+				markGarbage(removed, now);
+			} finally {
+				lck.unlock();
+			}
+		}
+
+		private void markGarbage(List<DfsPackDescription> packs, long now)
+				throws IOException {
+			if (packs.isEmpty())
+				return;
+			LockFile lck = lock(packGarbage);
+			try {
+				StringBuilder b = new StringBuilder();
+				for (String line : readLines(packGarbage))
+					b.append(line).append('\n');
+				for (DfsPackDescription d : packs)
+					b.append(packName(d)).append(' ').append(now).append('\n');
+				commit(lck, packGarbage, b);
+			} finally {
+				lck.unlock();
+			}
+		}
+
+		@Override
+		protected void rollbackPack(Collection<DfsPackDescription> desc) {
+			for (DfsPackDescription d : desc) {
+				for (PackExt ext : PackExt.values()) {
+					try {
+						FileUtils.delete(file(d, ext), FileUtils.SKIP_MISSING);
+					} catch (IOException e) {
+						// Ignore, the file is not listed and will be pruned.
+					}
+				}
+			}
+		}
+
+		@Override
+		protected ReadableChannel openFile(DfsPackDescription desc, PackExt ext)
+				throws FileNotFoundException, IOException {
+			return new FileReadableChannel(
+					new RandomAccessFile(file(desc, ext), "r").getChannel()); //$NON-NLS-1$
+		}
+
+		@Override
+		protected DfsOutputStream writeFile(DfsPackDescription desc,
+				PackExt ext) throws IOException {
+			FileUtils.mkdirs(packDirectory, true);
+			return new FileOut(FileChannel.open(file(desc, ext).toPath(),
+					StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING,
+					StandardOpenOption.READ, StandardOpenOption.WRITE));
+		}
+
+		private File file(DfsPackDescription desc, PackExt ext) {
+			return new File(packDirectory, desc.getFileName(ext));
+		}
+
+		List<DfsPackDescription> readPackList() throws IOException {
+			List<DfsPackDescription> packs = new ArrayList<DfsPackDescription>();
+			for (String line : readLines(packList)) {
+				try {
+					packs.add(parsePack(line));
+				} catch (IllegalArgumentException e) {
+					throw new IOException(MessageFormat.format(
+							DfsText.get().invalidPackListEntry, packList,
+							line), e);
+				}
+			}
+			return packs;
+		}
+
+		/**
+		 * Parse a line of the pack list.
+		 * <p>
+		 * The line holds the pack name, source, modification time, object
+		 * and delta counts, index version, followed by {@code ext:size} for
+		 * each file of the pack.
+		 */
+		private DfsPackDescription parsePack(String line) {
+			String[] f = line.split(" "); //$NON-NLS-1$
+			if (f.length < 7)
+				throw new IllegalArgumentException();
+			DfsPackDescription desc = new DfsPackDescription(
+					getDescription(), f[0]);
+			desc.setPackSource(PackSource.valueOf(f[1]));
+			desc.setLastModified(Long.parseLong(f[2]));
+			desc.setObjectCount(Long.parseLong(f[3]));
+			desc.setDeltaCount(Long.parseLong(f[4]));
+			desc.setIndexVersion(Integer.parseInt(f[5]));
+			for (int i = 6; i < f.length; i++) {
+				int colon = f[i].indexOf(':');
+				if (colon < 0)
+					throw new IllegalArgumentException();
+				PackExt ext = extension(f[i].substring(0, colon));
+				desc.addFileExt(ext);
+				desc.setFileSize(ext,
+						Long.parseLong(f[i].substring(colon + 1)));
+			}
+			return desc;
+		}
+
+		private PackExt extension(String name) {
+			for (PackExt ext : PackExt.values())
+				if (ext.getExtension().equals(name))
+					return ext;
+			throw new IllegalArgumentException(name);
+		}
+
+		private void writePackList(LockFile lck,
+				List<DfsPackDescription> packs) throws IOException {
+			StringBuilder b = new StringBuilder();
+			for (DfsPackDescription d : packs) {
+				b.append(packName(d));
+				b.append(' ').append(d.getPackSource().name());
+				b.append(' ').append(d.getLastModified());
+				b.append(' ').append(d.getObjectCount());
+				b.append(' ').append(d.getDeltaCount());
+				b.append(' ').append(d.getIndexVersion());
+				for (PackExt ext : PackExt.values()) {
+					if (d.hasFileExt(ext))
+						b.append(' ').append(ext.getExtension()).append(':')
+								.append(d.getFileSize(ext));
+				}
+				b.append('\n');
+			}
+			commit(lck, packList, b);
+		}
+	}
+
+	private static class FileReadableChannel implements ReadableChannel {
+		private final FileChannel channel;
+
+		private long position;
+
+		FileReadableChannel(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		public int read(ByteBuffer dst) throws IOException {
+			int n = channel.read(dst, position);
+			if (0 < n)
+				position += n;
+			return n;
+		}
+
+		public void close() throws IOException {
+			channel.close();
+		}
+
+		public boolean isOpen() {
+			return channel.isOpen();
+		}
+
+		public long position() {
+			return position;
+		}
+
+		public void position(long newPosition) {
+			position = newPosition;
+		}
+
+		public long size() throws IOException {
+			return channel.size();
+		}
+
+		public int blockSize() {
+			return 0;
+		}
+
+		public void setReadAheadBytes(int bufferSize) {
+			// The operating system reads ahead sequential file access.
+		}
+	}
+
+	private static class FileOut extends DfsOutputStream {
+		private final FileChannel channel;
+
+		FileOut(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		public void write(byte[] buf, int off, int len) throws IOException {
+			ByteBuffer src = ByteBuffer.wrap(buf, off, len);
+			while (src.hasRemaining())
+				channel.write(src);
+		}
+
+		@Override
+		public int read(long position, ByteBuffer buf) throws IOException {
+			return channel.read(buf, position);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (channel.isOpen()) {
+				try {
+					channel.force(true);
+				} finally {
+					channel.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * A ref database storing all refs in a single file.
+	 * <p>
+	 * Each line holds {@code <id> <name>}, optionally followed by a line
+	 * {@code ^<peeled id>} for an annotated tag, or {@code ref: <target>
+	 * <name>} for a symbolic reference.
+	 */
+	private class DiskRefDatabase extends DfsRefDatabase {
+		DiskRefDatabase() {
+			super(LocalDiskRepository.this);
+		}
+
+		@Override
+		public boolean performsAtomicTransactions() {
+			return true;
+		}
+
+		@Override
+		public BatchRefUpdate newBatchUpdate() {
+			return new BatchRefUpdate(this) {
+				@Override
+				public void execute(RevWalk walk, ProgressMonitor monitor)
+						throws IOException {
+					if (isAtomic())
+						batch(getCommands());
+					else
+						super.execute(walk, monitor);
+				}
+			};
+		}
+
+		@Override
+		protected RefCache scanAllRefs() throws IOException {
+			RefList.Builder<Ref> ids = new RefList.Builder<Ref>();
+			RefList.Builder<Ref> sym = new RefList.Builder<Ref>();
+			for (Ref ref : readRefs().values()) {
+				if (ref.isSymbolic())
+					sym.add(ref);
+				ids.add(ref);
+			}
+			ids.sort();
+			sym.sort();
+			objdb.getCurrentPackList().markDirty();
+			return new RefCache(ids.toRefList(), sym.toRefList());
+		}
+
+		@Override
+		protected boolean compareAndPut(Ref oldRef, Ref newRef)
+				throws IOException {
+			ObjectId id = newRef.getObjectId();
+			if (id != null) {
+				try (RevWalk rw = new RevWalk(getRepository())) {
+					// Validate that the target exists in a new RevWalk, as the
+					// RevWalk from the RefUpdate might be reading back
+					// unflushed objects.
+					rw.parseAny(id);
+				}
+			}
+
+			synchronized (this) {
+				LockFile lck = lock(refList);
+				try {
+					Map<String, Ref> refs = readRefs();
+					Ref cur = refs.get(newRef.getName());
+					boolean ok;
+					if (cur == null)
+						ok = oldRef == null
+								|| oldRef.getStorage() == Storage.NEW;
+					else
+						ok = oldRef != null && eq(cur, oldRef);
+					if (!ok)
+						return false;
+					refs.put(newRef.getName(), newRef);
+					writeRefs(lck, refs);
+					return true;
+				} finally {
+					lck.unlock();
+				}
+			}
+		}
+
+		@Override
+		protected synchronized boolean compareAndRemove(Ref oldRef)
+				throws IOException {
+			LockFile lck = lock(refList);
+			try {
+				Map<String, Ref> refs = readRefs();
+				Ref cur = refs.get(oldRef.getName());
+				if (cur == null || !eq(cur, oldRef))
+					return false;
+				refs.remove(oldRef.getName());
+				writeRefs(lck, refs);
+				return true;
+			} finally {
+				lck.unlock();
+			}
+		}
+
+		private void batch(List<ReceiveCommand> cmds) throws IOException {
+			// Validate that the target exists in a new RevWalk, as the RevWalk
+			// from the RefUpdate might be reading back unflushed objects.
+			Map<ObjectId, ObjectId> peeled = new HashMap<>();
+			try (RevWalk rw = new RevWalk(getRepository())) {
+				for (ReceiveCommand c : cmds) {
+					if (c.getResult() != ReceiveCommand.Result.NOT_ATTEMPTED) {
+						ReceiveCommand.abort(cmds);
+						return;
+					}
+
+					if (!ObjectId.zeroId().equals(c.getNewId())) {
+						try {
+							RevObject o = rw.parseAny(c.getNewId());
+							if (o instanceof RevTag) {
+								peeled.put(o, rw.peel(o).copy());
+							}
+						} catch (IOException e) {
+							c.setResult(ReceiveCommand.Result.REJECTED_MISSING_OBJECT);
+							ReceiveCommand.abort(cmds);
+							return;
+						}
+					}
+				}
+			}
+
+			synchronized (this) {
+				LockFile lck = lock(refList);
+				try {
+					Map<String, Ref> refs = readRefs();
+					if (!apply(cmds, refs, peeled))
+						return;
+					writeRefs(lck, refs);
+				} finally {
+					lck.unlock();
+				}
+			}
+			for (ReceiveCommand c : cmds)
+				c.setResult(ReceiveCommand.Result.OK);
+			clearCache();
+		}
+
+		private boolean apply(List<ReceiveCommand> cmds, Map<String, Ref> refs,
+				Map<ObjectId, ObjectId> peeled) {
+			// Check all references conform to expected old value.
+			for (ReceiveCommand c : cmds) {
+				Ref r = refs.get(c.getRefName());
+				if (r == null) {
+					if (c.getType() != ReceiveCommand.Type.CREATE) {
+						c.setResult(ReceiveCommand.Result.LOCK_FAILURE);
+						ReceiveCommand.abort(cmds);
+						return false;
+					}
+				} else {
+					ObjectId objectId = r.getObjectId();
+					if (r.isSymbolic() || objectId == null
+							|| !objectId.equals(c.getOldId())) {
+						c.setResult(ReceiveCommand.Result.LOCK_FAILURE);
+						ReceiveCommand.abort(cmds);
+						return false;
+					}
+				}
+			}
+
+			for (ReceiveCommand c : cmds) {
+				if (c.getType() == ReceiveCommand.Type.DELETE) {
+					refs.remove(c.getRefName());
+					continue;
+				}
+
+				ObjectId p = peeled.get(c.getNewId());
+				Ref r;
+				if (p != null) {
+					r = new ObjectIdRef.PeeledTag(Storage.PACKED,
+							c.getRefName(), c.getNewId(), p);
+				} else {
+					r = new ObjectIdRef.PeeledNonTag(Storage.PACKED,
+							c.getRefName(), c.getNewId());
+				}
+				refs.put(r.getName(), r);
+			}
+			return true;
+		}
+
+		private Map<String, Ref> readRefs() throws IOException {
+			Map<String, Ref> refs = new TreeMap<String, Ref>();
+			Ref last = null;
+			for (String line : readLines(refList)) {
+				try {
+					if (line.charAt(0) == '^') {
+						if (last == null || last.isSymbolic())
+							throw new IllegalArgumentException();
+						last = new ObjectIdRef.PeeledTag(Storage.PACKED,
+								last.getName(), last.getObjectId(),
+								ObjectId.fromString(line.substring(1)));
+					} else if (line.startsWith(SYMREF)) {
+						int sp = line.indexOf(' ', SYMREF.length());
+						if (sp < 0)
+							throw new IllegalArgumentException();
+						String target = line.substring(SYMREF.length(), sp);
+						last = new SymbolicRef(line.substring(sp + 1),
+								new ObjectIdRef.Unpeeled(Storage.NEW, target,
+										null));
+					} else {
+						int sp = line.indexOf(' ');
+						if (sp != Constants.OBJECT_ID_STRING_LENGTH)
+							throw new IllegalArgumentException();
+						last = new ObjectIdRef.Unpeeled(Storage.PACKED,
+								line.substring(sp + 1),
+								ObjectId.fromString(line.substring(0, sp)));
+					}
+				} catch (IllegalArgumentException e) {
+					throw new IOException(MessageFormat.format(
+							DfsText.get().invalidRefListEntry, refList,
+							line), e);
+				}
+				refs.put(last.getName(), last);
+			}
+			return refs;
+		}
+
+		private void writeRefs(LockFile lck, Map<String, Ref> refs)
+				throws IOException {
+			StringBuilder b = new StringBuilder();
+			for (Ref r : refs.values()) {
+				if (r.isSymbolic()) {
+					b.append(SYMREF).append(r.getTarget().getName());
+				} else if (r.getObjectId() != null) {
+					b.append(r.getObjectId().name());
+				} else {
+					continue;
+				}
+				b.append(' ').append(r.getName()).append('\n');
+				if (r.getPeeledObjectId() != null)
+					b.append('^').append(r.getPeeledObjectId().name())
+							.append('\n');
+			}
+			commit(lck, refList, b);
+		}
+
+		private boolean eq(Ref a, Ref b) {
+			if (!Objects.equals(a.getName(), b.getName()))
+				return false;
+			if (a.isSymbolic() != b.isSymbolic())
+				return false;
+			if (a.isSymbolic())
+				return Objects.equals(a.getTarget().getName(), b.getTarget().getName());
+			else
+				return Objects.equals(a.getObjectId(), b.getObjectId());
+		}
+	}
+}
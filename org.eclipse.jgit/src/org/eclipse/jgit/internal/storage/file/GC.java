@@ -45,6 +45,7 @@
 
 import static org.eclipse.jgit.internal.storage.pack.PackExt.BITMAP_INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.OBJECT_SIZE_INDEX;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -106,6 +107,7 @@
 import org.eclipse.jgit.revwalk.RevObject;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.storage.pack.PackConfig;
+import org.eclipse.jgit.transport.BundleWriter;
 import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.treewalk.filter.TreeFilter;
 import org.eclipse.jgit.util.FileUtils;
@@ -137,6 +139,9 @@ public class GC {
 	private static final String BITMAP_EXT = "." //$NON-NLS-1$
 			+ PackExt.BITMAP_INDEX.getExtension();
 
+	private static final String OBJECT_SIZE_EXT = "." //$NON-NLS-1$
+			+ PackExt.OBJECT_SIZE_INDEX.getExtension();
+
 	private static final String INDEX_EXT = "." + PackExt.INDEX.getExtension(); //$NON-NLS-1$
 
 	private static final int DEFAULT_AUTOPACKLIMIT = 50;
@@ -201,6 +206,9 @@ public GC(FileRepository repo) {
 	 * If {@link #setAuto(boolean)} was set to {@code true} {@code gc} will
 	 * first check whether any housekeeping is required; if not, it exits
 	 * without performing any work.
+	 * <p>
+	 * If {@code gc.writeCloneBundle} is set the clone bundle is rewritten, see
+	 * {@link #writeCloneBundle()}.
 	 *
 	 * @return the collection of {@link PackFile}'s which are newly created
 	 * @throws IOException
@@ -218,9 +226,52 @@ public Collection<PackFile> gc() throws IOException, ParseException {
 		Collection<PackFile> newPacks = repack();
 		prune(Collections.<ObjectId> emptySet());
 		// TODO: implement rerere_gc(pm);
+		if (repo.getConfig().getBoolean(ConfigConstants.CONFIG_GC_SECTION,
+				ConfigConstants.CONFIG_KEY_WRITE_CLONE_BUNDLE, false))
+			writeCloneBundle();
 		return newPacks;
 	}
 
+	/**
+	 * Write a bundle of all branches and tags to
+	 * {@code objects/info/clone.bundle}.
+	 * <p>
+	 * The bundle is a static file a server can offer to cloning clients (see
+	 * {@code uploadpack.cloneBundleUri}). Clients download it with resumable
+	 * HTTP range requests and afterwards fetch only what changed since it was
+	 * written. An existing bundle is replaced atomically.
+	 *
+	 * @return the bundle file.
+	 * @throws IOException
+	 *             the bundle could not be written.
+	 * @since 4.7
+	 */
+	public File writeCloneBundle() throws IOException {
+		File info = new File(repo.getObjectsDirectory(), "info"); //$NON-NLS-1$
+		FileUtils.mkdirs(info, true);
+		File bundle = new File(info, "clone.bundle"); //$NON-NLS-1$
+		File tmp = File.createTempFile("clone_", ".bundle_tmp", info); //$NON-NLS-1$ //$NON-NLS-2$
+		try {
+			BundleWriter writer = new BundleWriter(repo);
+			writer.setPackConfig(
+					pconfig == null ? new PackConfig(repo) : pconfig);
+			for (Ref ref : getAllRefs()) {
+				String name = ref.getName();
+				if (!ref.isSymbolic() && ref.getObjectId() != null
+						&& (name.startsWith(Constants.R_HEADS)
+								|| name.startsWith(Constants.R_TAGS)))
+					writer.include(ref);
+			}
+			try (OutputStream out = new FileOutputStream(tmp)) {
+				writer.writeBundle(pm, out);
+			}
+			FileUtils.rename(tmp, bundle, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			FileUtils.delete(tmp, FileUtils.SKIP_MISSING);
+		}
+		return bundle;
+	}
+
 	/**
 	 * Loosen objects in a pack file which are not also in the newly-created
 	 * pack files.
@@ -815,6 +866,7 @@ private void deleteOrphans() {
 					.filter(name -> {
 						return (name.endsWith(PACK_EXT)
 								|| name.endsWith(BITMAP_EXT)
+								|| name.endsWith(OBJECT_SIZE_EXT)
 								|| name.endsWith(INDEX_EXT));
 					}).sorted(Collections.reverseOrder())
 					.collect(Collectors.toList());
@@ -975,8 +1027,9 @@ public int compare(PackExt o1, PackExt o2) {
 					}
 
 				});
-		try (PackWriter pw = new PackWriter(
-				(pconfig == null) ? new PackConfig(repo) : pconfig,
+		PackConfig packConfig = (pconfig == null) ? new PackConfig(repo)
+				: pconfig;
+		try (PackWriter pw = new PackWriter(packConfig,
 				repo.newObjectReader())) {
 			// prepare the PackWriter
 			pw.setDeltaBaseAsOffset(true);
@@ -1028,6 +1081,27 @@ public int compare(PackExt o1, PackExt o2) {
 				fos.close();
 			}
 
+			if (packConfig.isWriteObjectSizeIndex()) {
+				File tmpSizeIdx = new File(packdir, tmpBase + ".objsize_tmp"); //$NON-NLS-1$
+				tmpExts.put(OBJECT_SIZE_INDEX, tmpSizeIdx);
+
+				if (!tmpSizeIdx.createNewFile())
+					throw new IOException(MessageFormat.format(
+							JGitText.get().cannotCreateIndexfile,
+							tmpSizeIdx.getPath()));
+
+				fos = new FileOutputStream(tmpSizeIdx);
+				idxChannel = fos.getChannel();
+				idxStream = Channels.newOutputStream(idxChannel);
+				try {
+					pw.writeObjectSizeIndex(idxStream);
+				} finally {
+					idxChannel.force(true);
+					idxStream.close();
+					fos.close();
+				}
+			}
+
 			if (pw.prepareBitmapIndex(pm)) {
 				File tmpBitmapIdx = new File(packdir, tmpBase + ".bitmap_tmp"); //$NON-NLS-1$
 				tmpExts.put(BITMAP_INDEX, tmpBitmapIdx);
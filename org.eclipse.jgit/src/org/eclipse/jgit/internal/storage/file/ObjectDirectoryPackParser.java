@@ -66,6 +66,7 @@
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.storage.pack.PackConfig;
 import org.eclipse.jgit.transport.PackParser;
 import org.eclipse.jgit.transport.PackedObjectInfo;
 import org.eclipse.jgit.util.FileUtils;
@@ -92,6 +93,9 @@ public class ObjectDirectoryPackParser extends PackParser {
 	/** If true, pack with 0 objects will be stored. Usually these are deleted. */
 	private boolean keepEmpty;
 
+	/** If true, a pack-*.objsize file is written next to the index. */
+	private final boolean writeObjectSizeIndex;
+
 	/** Path of the temporary file holding the pack data. */
 	private File tmpPack;
 
@@ -101,6 +105,9 @@ public class ObjectDirectoryPackParser extends PackParser {
 	 */
 	private File tmpIdx;
 
+	/** Path of the object size index created for the pack, if any. */
+	private File tmpSizeIdx;
+
 	/** Read/write handle to {@link #tmpPack} while it is being parsed. */
 	private RandomAccessFile out;
 
@@ -129,6 +136,8 @@ public class ObjectDirectoryPackParser extends PackParser {
 		this.tailDigest = Constants.newMessageDigest();
 
 		indexVersion = db.getConfig().get(CoreConfig.KEY).getPackIndexVersion();
+		writeObjectSizeIndex = new PackConfig(db.getConfig())
+				.isWriteObjectSizeIndex();
 	}
 
 	/**
@@ -199,10 +208,16 @@ public PackLock parse(ProgressMonitor receiving, ProgressMonitor resolving)
 			out.getChannel().force(true);
 			out.close();
 
-			writeIdx();
+			List<PackedObjectInfo> list = getSortedObjectList(
+					null /* by ObjectId */);
+			writeIdx(list);
+			if (writeObjectSizeIndex && hasFullSizes(list))
+				writeObjectSizeIdx(list);
 
 			tmpPack.setReadOnly();
 			tmpIdx.setReadOnly();
+			if (tmpSizeIdx != null)
+				tmpSizeIdx.setReadOnly();
 
 			return renameAndOpenPack(getLockMessage());
 		} finally {
@@ -317,6 +332,8 @@ private static String baseName(File tmpPack) {
 	}
 
 	private void cleanupTemporaryFiles() {
+		if (tmpSizeIdx != null && !tmpSizeIdx.delete() && tmpSizeIdx.exists())
+			tmpSizeIdx.deleteOnExit();
 		if (tmpIdx != null && !tmpIdx.delete() && tmpIdx.exists())
 			tmpIdx.deleteOnExit();
 		if (tmpPack != null && !tmpPack.delete() && tmpPack.exists())
@@ -408,8 +425,7 @@ protected void onEndThinPack() throws IOException {
 		packHash = packDigest.digest();
 	}
 
-	private void writeIdx() throws IOException {
-		List<PackedObjectInfo> list = getSortedObjectList(null /* by ObjectId */);
+	private void writeIdx(List<PackedObjectInfo> list) throws IOException {
 		final FileOutputStream os = new FileOutputStream(tmpIdx);
 		try {
 			final PackIndexWriter iw;
@@ -424,6 +440,24 @@ private void writeIdx() throws IOException {
 		}
 	}
 
+	private void writeObjectSizeIdx(List<PackedObjectInfo> list)
+			throws IOException {
+		tmpSizeIdx = new File(db.getDirectory(),
+				baseName(tmpPack) + ".objsize"); //$NON-NLS-1$
+		try (FileOutputStream os = new FileOutputStream(tmpSizeIdx)) {
+			new PackObjectSizeIndexWriter(os).write(list, packHash);
+			os.getChannel().force(true);
+		}
+	}
+
+	private static boolean hasFullSizes(List<PackedObjectInfo> list) {
+		for (PackedObjectInfo obj : list) {
+			if (obj.getFullSize() < 0)
+				return false;
+		}
+		return true;
+	}
+
 	private PackLock renameAndOpenPack(final String lockMessage)
 			throws IOException {
 		if (!keepEmpty && getObjectCount() == 0) {
@@ -443,6 +477,8 @@ private PackLock renameAndOpenPack(final String lockMessage)
 		final File packDir = new File(db.getDirectory(), "pack"); //$NON-NLS-1$
 		final File finalPack = new File(packDir, "pack-" + name + ".pack"); //$NON-NLS-1$ //$NON-NLS-2$
 		final File finalIdx = new File(packDir, "pack-" + name + ".idx"); //$NON-NLS-1$ //$NON-NLS-2$
+		final File finalSizeIdx = new File(packDir,
+				"pack-" + name + ".objsize"); //$NON-NLS-1$ //$NON-NLS-2$
 		final PackLock keep = new PackLock(finalPack, db.getFS());
 
 		if (!packDir.exists() && !packDir.mkdir() && !packDir.exists()) {
@@ -498,6 +534,15 @@ private PackLock renameAndOpenPack(final String lockMessage)
 					JGitText.get().cannotMoveIndexTo, finalIdx), e);
 		}
 
+		if (tmpSizeIdx != null) {
+			try {
+				FileUtils.rename(tmpSizeIdx, finalSizeIdx,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				// The index is optional, sizes are read from the pack.
+			}
+		}
+
 		try {
 			newPack = db.openPack(finalPack);
 		} catch (IOException err) {
@@ -506,6 +551,8 @@ private PackLock renameAndOpenPack(final String lockMessage)
 				FileUtils.delete(finalPack);
 			if (finalIdx.exists())
 				FileUtils.delete(finalIdx);
+			if (finalSizeIdx.exists())
+				FileUtils.delete(finalSizeIdx);
 			throw err;
 		}
 
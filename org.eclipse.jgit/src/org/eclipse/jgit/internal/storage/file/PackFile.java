@@ -46,6 +46,7 @@
 package org.eclipse.jgit.internal.storage.file;
 
 import static org.eclipse.jgit.internal.storage.pack.PackExt.BITMAP_INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.OBJECT_SIZE_INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.KEEP;
 
@@ -126,6 +127,8 @@ public int compare(final PackFile a, final PackFile b) {
 
 	private boolean invalidBitmap;
 
+	private boolean invalidObjectSizeIndex;
+
 	private byte[] packChecksum;
 
 	private PackIndex loadedIdx;
@@ -134,6 +137,8 @@ public int compare(final PackFile a, final PackFile b) {
 
 	private PackBitmapIndex bitmapIdx;
 
+	private PackObjectSizeIndex objectSizeIdx;
+
 	/**
 	 * Objects we have tried to read, and discovered to be corrupt.
 	 * <p>
@@ -277,6 +282,7 @@ public void close() {
 		synchronized (this) {
 			loadedIdx = null;
 			reverseIdx = null;
+			objectSizeIdx = null;
 		}
 	}
 
@@ -963,6 +969,11 @@ int getObjectType(final WindowCursor curs, long pos) throws IOException {
 
 	long getObjectSize(final WindowCursor curs, final AnyObjectId id)
 			throws IOException {
+		final PackObjectSizeIndex sizeIdx = getObjectSizeIndex();
+		if (sizeIdx != null) {
+			final long p = idx().findPosition(id);
+			return 0 <= p ? sizeIdx.getSize(p) : -1;
+		}
 		final long offset = idx().findOffset(id);
 		return 0 < offset ? getObjectSize(curs, offset) : -1;
 	}
@@ -1087,6 +1098,30 @@ synchronized PackBitmapIndex getBitmapIndex() throws IOException {
 		return bitmapIdx;
 	}
 
+	synchronized PackObjectSizeIndex getObjectSizeIndex() throws IOException {
+		if (invalid || invalidObjectSizeIndex)
+			return null;
+		if (objectSizeIdx == null && hasExt(OBJECT_SIZE_INDEX)) {
+			final PackIndex packIdx = idx();
+			final PackObjectSizeIndex idx;
+			try {
+				idx = PackObjectSizeIndex.open(extFile(OBJECT_SIZE_INDEX));
+			} catch (IOException e) {
+				// The sizes are also in the pack; read them from there.
+				invalidObjectSizeIndex = true;
+				return null;
+			}
+
+			// At this point, idx() will have set packChecksum.
+			if (Arrays.equals(packChecksum, idx.getPackChecksum())
+					&& idx.getObjectCount() == packIdx.getObjectCount())
+				objectSizeIdx = idx;
+			else
+				invalidObjectSizeIndex = true;
+		}
+		return objectSizeIdx;
+	}
+
 	private synchronized PackReverseIndex getReverseIdx() throws IOException {
 		if (reverseIdx == null)
 			reverseIdx = new PackReverseIndex(idx());
@@ -275,6 +275,16 @@ public final ObjectId getObjectId(final int nthPosition) {
 	 */
 	public abstract long findOffset(AnyObjectId objId);
 
+	/**
+	 * Locate the position of an object in the sorted order of this index.
+	 *
+	 * @param objId
+	 *            name of the object to locate within the index.
+	 * @return position of the object as returned by {@link #iterator()}; -1
+	 *         if the object does not exist in this index.
+	 */
+	public abstract long findPosition(AnyObjectId objId);
+
 	/**
 	 * Retrieve stored CRC32 checksum of the requested object raw-data
 	 * (including header).
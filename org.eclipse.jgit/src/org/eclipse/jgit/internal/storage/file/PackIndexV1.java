@@ -156,6 +156,28 @@ long getOffset(long nthPosition) {
 		return NB.decodeUInt32(idxdata[levelOne], p);
 	}
 
+	@Override
+	public long findPosition(AnyObjectId objId) {
+		final int levelOne = objId.getFirstByte();
+		byte[] data = idxdata[levelOne];
+		if (data == null)
+			return -1;
+		int high = data.length / (4 + Constants.OBJECT_ID_LENGTH);
+		int low = 0;
+		do {
+			final int mid = (low + high) >>> 1;
+			final int cmp = objId.compareTo(data, idOffset(mid));
+			if (cmp < 0)
+				high = mid;
+			else if (cmp == 0) {
+				long base = levelOne > 0 ? idxHeader[levelOne - 1] : 0;
+				return base + mid;
+			} else
+				low = mid + 1;
+		} while (low < high);
+		return -1;
+	}
+
 	@Override
 	public long findOffset(final AnyObjectId objId) {
 		final int levelOne = objId.getFirstByte();
@@ -220,6 +220,16 @@ public long findOffset(final AnyObjectId objId) {
 		return getOffset(levelOne, levelTwo);
 	}
 
+	@Override
+	public long findPosition(AnyObjectId objId) {
+		final int levelOne = objId.getFirstByte();
+		final int levelTwo = binarySearchLevelTwo(objId, levelOne);
+		if (levelTwo == -1)
+			return -1;
+		long base = levelOne > 0 ? fanoutTable[levelOne - 1] : 0;
+		return base + levelTwo;
+	}
+
 	private long getOffset(final int levelOne, final int levelTwo) {
 		final long p = NB.decodeUInt32(offset32[levelOne], levelTwo << 2);
 		if ((p & IS_O64) != 0)
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.MessageFormat;
+import java.util.Arrays;
+
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Inflated sizes of the objects of a pack file.
+ * <p>
+ * The index is an optional companion of the pack index. It stores the size
+ * of every object of the pack, after inflating it and applying any delta,
+ * in the sorted order of the pack index. Looking up the size of an object
+ * takes one search in the pack index, no access to the pack data.
+ * <p>
+ * The file starts with the 4 byte signature {@code \377sIx}, a 4 byte
+ * version (1) and the 4 byte object count. A table of one 4 byte size per
+ * object follows; sizes above {@code 2^31-1} have the high bit set and the
+ * remaining bits point into a following table of 8 byte sizes. The file
+ * ends with the checksum of the pack and the SHA-1 of the preceding bytes.
+ *
+ * @see PackObjectSizeIndexWriter
+ */
+public class PackObjectSizeIndex {
+	static final byte[] MAGIC = { -1, 's', 'I', 'x' };
+
+	static final int VERSION = 1;
+
+	static final long IS_SIZE_64 = 1L << 31;
+
+	/**
+	 * Read an object size index from a file.
+	 *
+	 * @param idxFile
+	 *            existing object size index file.
+	 * @return the index.
+	 * @throws IOException
+	 *             the file cannot be read or is not an object size index.
+	 */
+	public static PackObjectSizeIndex open(File idxFile) throws IOException {
+		final FileInputStream fd = new FileInputStream(idxFile);
+		try {
+			return read(new BufferedInputStream(fd));
+		} catch (IOException ioe) {
+			final String path = idxFile.getAbsolutePath();
+			final IOException err;
+			err = new IOException(MessageFormat.format(
+					JGitText.get().unreadablePackIndex, path));
+			err.initCause(ioe);
+			throw err;
+		} finally {
+			try {
+				fd.close();
+			} catch (IOException err2) {
+				// ignore
+			}
+		}
+	}
+
+	/**
+	 * Read an object size index from a stream.
+	 *
+	 * @param fd
+	 *            stream to read the index file from. The caller is
+	 *            responsible for closing the stream.
+	 * @return the index.
+	 * @throws IOException
+	 *             the stream cannot be read or is not an object size index.
+	 */
+	public static PackObjectSizeIndex read(InputStream fd)
+			throws IOException {
+		return new PackObjectSizeIndex(fd);
+	}
+
+	private final int[] sizes32;
+
+	private final long[] sizes64;
+
+	private final byte[] packChecksum;
+
+	private PackObjectSizeIndex(InputStream fd) throws IOException {
+		byte[] hdr = new byte[12];
+		IO.readFully(fd, hdr, 0, hdr.length);
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (hdr[i] != MAGIC[i]) {
+				throw new IOException(MessageFormat.format(
+						JGitText.get().expectedGot, Arrays.toString(MAGIC),
+						Arrays.toString(Arrays.copyOf(hdr, MAGIC.length))));
+			}
+		}
+		int version = NB.decodeInt32(hdr, 4);
+		if (version != VERSION)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unsupportedPackIndexVersion,
+					Integer.valueOf(version)));
+		long cnt = NB.decodeUInt32(hdr, 8);
+		if (cnt > Integer.MAX_VALUE / 4)
+			throw new IOException(JGitText.get().indexFileIsTooLargeForJgit);
+
+		byte[] raw = new byte[(int) cnt * 4];
+		IO.readFully(fd, raw, 0, raw.length);
+		sizes32 = new int[(int) cnt];
+		int cnt64 = 0;
+		for (int i = 0; i < sizes32.length; i++) {
+			sizes32[i] = NB.decodeInt32(raw, i * 4);
+			if ((sizes32[i] & IS_SIZE_64) != 0)
+				cnt64++;
+		}
+
+		sizes64 = new long[cnt64];
+		byte[] buf = new byte[8];
+		for (int i = 0; i < cnt64; i++) {
+			IO.readFully(fd, buf, 0, 8);
+			sizes64[i] = NB.decodeInt64(buf, 0);
+		}
+
+		packChecksum = new byte[Constants.OBJECT_ID_LENGTH];
+		IO.readFully(fd, packChecksum, 0, packChecksum.length);
+	}
+
+	/** @return number of objects in the index. */
+	public long getObjectCount() {
+		return sizes32.length;
+	}
+
+	/**
+	 * Get the size of an object.
+	 *
+	 * @param position
+	 *            position of the object in the pack index, as returned by
+	 *            {@link PackIndex#findPosition(org.eclipse.jgit.lib.AnyObjectId)}.
+	 * @return inflated size of the object in bytes.
+	 */
+	public long getSize(long position) {
+		int s = sizes32[(int) position];
+		if ((s & IS_SIZE_64) != 0)
+			return sizes64[(int) (s & ~IS_SIZE_64)];
+		return s;
+	}
+
+	/** @return checksum of the pack file this index was created for. */
+	public byte[] getPackChecksum() {
+		return packChecksum;
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static org.eclipse.jgit.internal.storage.file.PackObjectSizeIndex.IS_SIZE_64;
+import static org.eclipse.jgit.internal.storage.file.PackObjectSizeIndex.MAGIC;
+import static org.eclipse.jgit.internal.storage.file.PackObjectSizeIndex.VERSION;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.util.List;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.transport.PackedObjectInfo;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Creates an object size index file for a pack.
+ *
+ * @see PackObjectSizeIndex
+ */
+public class PackObjectSizeIndexWriter {
+	private static final long MAX_SIZE_32 = IS_SIZE_64 - 1;
+
+	private final DigestOutputStream out;
+
+	private final byte[] tmp = new byte[8];
+
+	/**
+	 * Create a new writer.
+	 *
+	 * @param dst
+	 *            the stream the index data will be written to. The caller is
+	 *            responsible for closing the stream.
+	 */
+	public PackObjectSizeIndexWriter(OutputStream dst) {
+		out = new DigestOutputStream(dst instanceof BufferedOutputStream ? dst
+				: new BufferedOutputStream(dst), Constants.newMessageDigest());
+	}
+
+	/**
+	 * Write the index for a pack.
+	 *
+	 * @param objs
+	 *            objects of the pack, sorted by name, with
+	 *            {@link PackedObjectInfo#getFullSize()} known for each.
+	 * @param packDataChecksum
+	 *            checksum at the end of the pack file.
+	 * @throws IOException
+	 *             the index cannot be written.
+	 * @throws IllegalArgumentException
+	 *             an object has no known size.
+	 */
+	public void write(List<? extends PackedObjectInfo> objs,
+			byte[] packDataChecksum) throws IOException {
+		out.write(MAGIC);
+		NB.encodeInt32(tmp, 0, VERSION);
+		out.write(tmp, 0, 4);
+		NB.encodeInt32(tmp, 0, objs.size());
+		out.write(tmp, 0, 4);
+
+		int cnt64 = 0;
+		for (PackedObjectInfo oe : objs) {
+			long sz = oe.getFullSize();
+			if (sz < 0)
+				throw new IllegalArgumentException(oe.name());
+			if (sz <= MAX_SIZE_32)
+				NB.encodeInt32(tmp, 0, (int) sz);
+			else
+				NB.encodeInt32(tmp, 0, (int) (IS_SIZE_64 | cnt64++));
+			out.write(tmp, 0, 4);
+		}
+		for (PackedObjectInfo oe : objs) {
+			long sz = oe.getFullSize();
+			if (sz > MAX_SIZE_32) {
+				NB.encodeInt64(tmp, 0, sz);
+				out.write(tmp, 0, 8);
+			}
+		}
+
+		out.write(packDataChecksum);
+		out.on(false);
+		out.write(out.getMessageDigest().digest());
+		out.flush();
+	}
+}
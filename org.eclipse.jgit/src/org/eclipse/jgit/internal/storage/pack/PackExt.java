@@ -45,6 +45,12 @@
 
 /** A pack file extension. */
 public class PackExt {
+	/**
+	 * Maximum number of extensions that can be registered; every
+	 * {@link #getPosition()} is below this bound.
+	 */
+	public static final int MAX_EXTENSIONS = 32;
+
 	private static volatile PackExt[] VALUES = new PackExt[] {};
 
 	/** A pack file extension. */
@@ -59,6 +65,9 @@ public class PackExt {
 	/** A pack bitmap index file extension. */
 	public static final PackExt BITMAP_INDEX = newPackExt("bitmap"); //$NON-NLS-1$
 
+	/** An object size index file extension. */
+	public static final PackExt OBJECT_SIZE_INDEX = newPackExt("objsize"); //$NON-NLS-1$
+
 	/** @return all of the PackExt values. */
 	public static PackExt[] values() {
 		return VALUES;
@@ -80,7 +89,7 @@ public synchronized static PackExt newPackExt(String ext) {
 				return packExt;
 			dst[i] = packExt;
 		}
-		if (VALUES.length >= 32)
+		if (VALUES.length >= MAX_EXTENSIONS)
 			throw new IllegalStateException(
 					"maximum number of pack extensions exceeded"); //$NON-NLS-1$
 
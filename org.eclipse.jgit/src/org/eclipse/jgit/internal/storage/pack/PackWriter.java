@@ -90,6 +90,7 @@
 import org.eclipse.jgit.internal.storage.file.PackBitmapIndexBuilder;
 import org.eclipse.jgit.internal.storage.file.PackBitmapIndexWriterV1;
 import org.eclipse.jgit.internal.storage.file.PackIndexWriter;
+import org.eclipse.jgit.internal.storage.file.PackObjectSizeIndexWriter;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.AsyncObjectSizeQueue;
 import org.eclipse.jgit.lib.BatchingProgressMonitor;
@@ -117,6 +118,7 @@
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.storage.pack.PackConfig;
 import org.eclipse.jgit.storage.pack.PackStatistics;
+import org.eclipse.jgit.transport.FilterSpec;
 import org.eclipse.jgit.transport.ObjectCountCallback;
 import org.eclipse.jgit.transport.WriteAbortedException;
 import org.eclipse.jgit.util.BlockList;
@@ -284,6 +286,8 @@ public static Iterable<PackWriter> getInstances() {
 
 	private Collection<? extends ObjectId> unshallowObjects;
 
+	private FilterSpec filterSpec = FilterSpec.NO_FILTER;
+
 	private PackBitmapIndexBuilder writeBitmaps;
 
 	private CRC32 crc32;
@@ -575,6 +579,31 @@ public void setShallowPack(int depth,
 		this.unshallowObjects = unshallow;
 	}
 
+	/**
+	 * @return the filter restricting which blobs and trees are packed.
+	 * @since 4.7
+	 */
+	public FilterSpec getFilterSpec() {
+		return filterSpec;
+	}
+
+	/**
+	 * Restrict the objects written to the pack, for a partial clone.
+	 * <p>
+	 * Blobs and trees omitted by the filter are not included in the pack,
+	 * unless they were explicitly requested as a "want". Cached packs are not
+	 * used while a filter is active, and bitmaps are only used for filters
+	 * that do not depend on the tree depth of an object.
+	 *
+	 * @param filter
+	 *            the filter to apply; null or {@link FilterSpec#NO_FILTER}
+	 *            to pack all reachable objects.
+	 * @since 4.7
+	 */
+	public void setFilterSpec(FilterSpec filter) {
+		filterSpec = filter != null ? filter : FilterSpec.NO_FILTER;
+	}
+
 	/**
 	 * Returns objects number in a pack file that was created by this writer.
 	 *
@@ -906,6 +935,38 @@ public void writeBitmapIndex(final OutputStream bitmapIndexStream)
 		stats.timeWriting += System.currentTimeMillis() - writeStart;
 	}
 
+	/**
+	 * Create an object size index file to match the pack file just written.
+	 * <p>
+	 * Sizes of objects written from their inflated content are already
+	 * known. Sizes of objects reused as-is from other packs, in particular
+	 * deltas, are read through the object reader.
+	 * <p>
+	 * Must be called before {@link #prepareBitmapIndex(ProgressMonitor)},
+	 * which releases the object lists.
+	 *
+	 * @param sizeIndexStream
+	 *            output for the object size index data. Caller is responsible
+	 *            for closing this stream.
+	 * @throws IOException
+	 *             the size of an object cannot be read, or the index data
+	 *             could not be written to the supplied stream.
+	 */
+	public void writeObjectSizeIndex(OutputStream sizeIndexStream)
+			throws IOException {
+		if (isIndexDisabled())
+			throw new IOException(JGitText.get().cachedPacksPreventsIndexCreation);
+
+		long writeStart = System.currentTimeMillis();
+		List<ObjectToPack> list = sortByName();
+		for (ObjectToPack otp : list) {
+			if (otp.getFullSize() < 0)
+				otp.setFullSize(reader.getObjectSize(otp, otp.getType()));
+		}
+		new PackObjectSizeIndexWriter(sizeIndexStream).write(list, packcsum);
+		stats.timeWriting += System.currentTimeMillis() - writeStart;
+	}
+
 	private List<ObjectToPack> sortByName() {
 		if (sortedByName == null) {
 			int cnt = 0;
@@ -1566,6 +1627,7 @@ private void writeWholeObjectDeflate(PackOutputStream out,
 		crc32.reset();
 		otp.setOffset(out.length());
 		out.writeHeader(otp, ldr.getSize());
+		otp.setFullSize(ldr.getSize());
 
 		deflater.reset();
 		DeflaterOutputStream dst = new DeflaterOutputStream(out, deflater);
@@ -1656,8 +1718,10 @@ private void findObjectsToPack(@NonNull ProgressMonitor countingMonitor,
 		canBuildBitmaps = config.isBuildBitmaps()
 				&& !shallowPack
 				&& have.isEmpty()
+				&& filterSpec.isNoOp()
 				&& (excludeInPacks == null || excludeInPacks.length == 0);
-		if (!shallowPack && useBitmaps) {
+		if (!shallowPack && useBitmaps
+				&& filterSpec.getTreeDepthLimit() < 0) {
 			BitmapIndex bitmapIndex = reader.getBitmapIndex();
 			if (bitmapIndex != null) {
 				PackWriterBitmapWalker bitmapWalker = new PackWriterBitmapWalker(
@@ -1835,6 +1899,8 @@ private void findObjectsToPack(@NonNull ProgressMonitor countingMonitor,
 					continue;
 				if (exclude(o))
 					continue;
+				if (!filterSpec.isNoOp() && !include(walker, o, want))
+					continue;
 
 				int pathHash = walker.getPathHashCode();
 				byte[] pathBuf = walker.getPathBuffer();
@@ -1850,6 +1916,8 @@ private void findObjectsToPack(@NonNull ProgressMonitor countingMonitor,
 					continue;
 				if (exclude(o))
 					continue;
+				if (!filterSpec.isNoOp() && !include(walker, o, want))
+					continue;
 				addObject(o, walker.getPathHashCode());
 				countingMonitor.update(1);
 			}
@@ -1874,16 +1942,24 @@ private void findObjectsToPackUsingBitmaps(
 		BitmapBuilder needBitmap = wantBitmap.andNot(haveBitmap);
 
 		if (useCachedPacks && reuseSupport != null && !reuseValidate
+				&& filterSpec.isNoOp()
 				&& (excludeInPacks == null || excludeInPacks.length == 0))
 			cachedPacks.addAll(
 					reuseSupport.getCachedPacksAndUpdate(needBitmap));
 
+		long blobLimit = filterSpec.getBlobLimit();
 		for (BitmapObject obj : needBitmap) {
 			ObjectId objectId = obj.getObjectId();
 			if (exclude(objectId)) {
 				needBitmap.remove(objectId);
 				continue;
 			}
+			if (0 <= blobLimit && obj.getType() == OBJ_BLOB
+					&& !want.contains(objectId)
+					&& !includeBlob(objectId, blobLimit)) {
+				needBitmap.remove(objectId);
+				continue;
+			}
 			addObject(objectId, obj.getType(), 0);
 		}
 
@@ -1891,6 +1967,45 @@ private void findObjectsToPackUsingBitmaps(
 			haveObjects = haveBitmap;
 	}
 
+	/**
+	 * Apply {@link #filterSpec} to an object found by the object walk.
+	 *
+	 * @param walker
+	 *            the walk that just returned {@code o}.
+	 * @param o
+	 *            the object to test.
+	 * @param want
+	 *            objects explicitly requested; these are never filtered.
+	 * @return true if {@code o} should be included in the pack.
+	 * @throws IOException
+	 *             the size of a blob could not be determined.
+	 */
+	private boolean include(ObjectWalk walker, RevObject o,
+			Set<? extends ObjectId> want) throws IOException {
+		int type = o.getType();
+		if ((type != OBJ_TREE && type != OBJ_BLOB) || want.contains(o))
+			return true;
+
+		long treeDepthLimit = filterSpec.getTreeDepthLimit();
+		if (0 <= treeDepthLimit && treeDepthLimit <= walker.getTreeDepth()) {
+			// Nothing below an omitted tree can be included either. The
+			// object may still be needed if it appears at a shallower depth
+			// through another path, so the walk must not remember it.
+			walker.skipObject(o);
+			return false;
+		}
+
+		long blobLimit = filterSpec.getBlobLimit();
+		if (0 <= blobLimit && type == OBJ_BLOB)
+			return includeBlob(o, blobLimit);
+		return true;
+	}
+
+	private boolean includeBlob(AnyObjectId id, long blobLimit)
+			throws IOException {
+		return blobLimit > 0 && reader.getObjectSize(id, OBJ_BLOB) < blobLimit;
+	}
+
 	private static void pruneEdgesFromObjectList(List<ObjectToPack> list) {
 		final int size = list.size();
 		int src = 0;
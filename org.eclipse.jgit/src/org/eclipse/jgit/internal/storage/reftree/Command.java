@@ -54,7 +54,6 @@
 import java.io.IOException;
 
 import org.eclipse.jgit.annotations.Nullable;
-import org.eclipse.jgit.dircache.DirCacheEntry;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.lib.ObjectId;
@@ -276,21 +275,20 @@ private static void append(StringBuilder s, Ref r, String nullName) {
 	/**
 	 * Check the entry is consistent with either the old or the new ref.
 	 *
-	 * @param entry
-	 *            current entry; null if the entry does not exist.
+	 * @param mode
+	 *            raw mode of the current entry; 0 if the entry does not exist.
+	 * @param id
+	 *            object the current entry points to; ignored if mode is 0.
 	 * @return true if entry matches {@link #getOldRef()} or
 	 *         {@link #getNewRef()}; otherwise false.
 	 */
-	boolean checkRef(@Nullable DirCacheEntry entry) {
-		if (entry != null && entry.getRawMode() == 0) {
-			entry = null;
-		}
-		return check(entry, oldRef) || check(entry, newRef);
+	boolean checkRef(int mode, @Nullable ObjectId id) {
+		return check(mode, id, oldRef) || check(mode, id, newRef);
 	}
 
-	private static boolean check(@Nullable DirCacheEntry cur,
+	private static boolean check(int mode, @Nullable ObjectId cur,
 			@Nullable Ref exp) {
-		if (cur == null) {
+		if (mode == 0) {
 			// Does not exist, ok if oldRef does not exist.
 			return exp == null;
 		} else if (exp == null) {
@@ -300,12 +298,11 @@ private static boolean check(@Nullable DirCacheEntry cur,
 
 		if (exp.isSymbolic()) {
 			String dst = exp.getTarget().getName();
-			return cur.getRawMode() == TYPE_SYMLINK
-					&& cur.getObjectId().equals(symref(dst));
+			return mode == TYPE_SYMLINK && symref(dst).equals(cur);
 		}
 
-		return cur.getRawMode() == TYPE_GITLINK
-				&& cur.getObjectId().equals(exp.getObjectId());
+		return mode == TYPE_GITLINK && exp.getObjectId() != null
+				&& exp.getObjectId().equals(cur);
 	}
 
 	static ObjectId symref(String s) {
@@ -47,10 +47,9 @@
 import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
 import static org.eclipse.jgit.lib.Constants.R_REFS;
 import static org.eclipse.jgit.lib.Constants.encode;
-import static org.eclipse.jgit.lib.FileMode.GITLINK;
-import static org.eclipse.jgit.lib.FileMode.SYMLINK;
 import static org.eclipse.jgit.lib.FileMode.TYPE_GITLINK;
 import static org.eclipse.jgit.lib.FileMode.TYPE_SYMLINK;
+import static org.eclipse.jgit.lib.FileMode.TYPE_TREE;
 import static org.eclipse.jgit.lib.Ref.Storage.NEW;
 import static org.eclipse.jgit.lib.Ref.Storage.PACKED;
 import static org.eclipse.jgit.lib.RefDatabase.MAX_SYMBOLIC_REF_DEPTH;
@@ -58,22 +57,21 @@
 import static org.eclipse.jgit.transport.ReceiveCommand.Result.REJECTED_OTHER_REASON;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.eclipse.jgit.annotations.Nullable;
-import org.eclipse.jgit.dircache.DirCache;
-import org.eclipse.jgit.dircache.DirCacheBuilder;
-import org.eclipse.jgit.dircache.DirCacheEditor;
-import org.eclipse.jgit.dircache.DirCacheEditor.DeletePath;
-import org.eclipse.jgit.dircache.DirCacheEditor.PathEdit;
-import org.eclipse.jgit.dircache.DirCacheEntry;
 import org.eclipse.jgit.errors.CorruptObjectException;
-import org.eclipse.jgit.errors.DirCacheNameConflictException;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectIdRef;
@@ -82,7 +80,10 @@
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.SymbolicRef;
+import org.eclipse.jgit.lib.TreeFormatter;
 import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.util.Paths;
 import org.eclipse.jgit.util.RawParseUtils;
 
 /**
@@ -104,19 +105,50 @@
  * <code>"tags/v1.0 ^"</code> stores the commit the tag annotates.
  * <p>
  * {@code HEAD} is a special case and stored as {@code "..HEAD"}.
+ * <p>
+ * Each directory is held as an immutable node shared between copies of the
+ * tree. {@link #apply(Collection)} copies only the directories along the
+ * paths it modifies, and {@link #writeTree(ObjectInserter)} only formats the
+ * directories that changed since they were last read or written. Parsed and
+ * written directories are kept in a process wide cache keyed by tree id, so
+ * reading the tree produced by the previous transaction does not need to
+ * parse it again. The cache holds up to 2^19 directory entries by default,
+ * see {@link #setCacheSize(long)}.
  */
 public class RefTree {
 	/** Suffix applied to GITLINK to indicate its the peeled value of a tag. */
 	public static final String PEELED_SUFFIX = " ^"; //$NON-NLS-1$
 	static final String ROOT_DOTDOT = ".."; //$NON-NLS-1$
 
+	/** Default number of directory entries held by {@link #CACHE}. */
+	static final long DEFAULT_CACHE_ENTRIES = 1 << 19;
+	private static final NodeCache CACHE = new NodeCache(DEFAULT_CACHE_ENTRIES);
+
+	/**
+	 * Set the size of the cache of directories shared by all reference trees
+	 * of the process.
+	 * <p>
+	 * The size counts the entries of the cached directories, a directory
+	 * listing {@code n} references costs {@code n + 1}. Directories beyond the
+	 * new size are dropped at once, least recently used first.
+	 *
+	 * @param entries
+	 *            maximum number of directory entries to keep; 0 disables the
+	 *            cache. The default is 2^19.
+	 */
+	public static void setCacheSize(long entries) {
+		if (entries < 0)
+			throw new IllegalArgumentException(String.valueOf(entries));
+		CACHE.setMaxEntries(entries);
+	}
+
 	/**
 	 * Create an empty reference tree.
 	 *
 	 * @return a new empty reference tree.
 	 */
 	public static RefTree newEmptyTree() {
-		return new RefTree(DirCache.newInCore());
+		return new RefTree(new Node(null, 4));
 	}
 
 	/**
@@ -139,14 +171,37 @@ public static RefTree newEmptyTree() {
 	public static RefTree read(ObjectReader reader, RevTree tree)
 			throws MissingObjectException, IncorrectObjectTypeException,
 			CorruptObjectException, IOException {
-		return new RefTree(DirCache.read(reader, tree));
+		Node root = Node.load(reader, tree);
+		root.loadAll(reader);
+		return new RefTree(root);
+	}
+
+	/**
+	 * Open a reference tree for lookups only.
+	 * <p>
+	 * Only the root directory is read immediately. Subdirectories are read on
+	 * demand by {@link #exactRef(ObjectReader, String)}, so a single lookup
+	 * touches only the directories on the path to the reference. The returned
+	 * tree must not be passed to {@link #apply(Collection)}.
+	 *
+	 * @param reader
+	 *            reader to scan the reference tree with.
+	 * @param tree
+	 *            the tree to read.
+	 * @return the ref tree read from the commit.
+	 * @throws IOException
+	 *             the repository cannot be accessed through the reader.
+	 */
+	static RefTree readLazy(ObjectReader reader, RevTree tree)
+			throws IOException {
+		return new RefTree(Node.load(reader, tree));
 	}
 
-	private DirCache contents;
+	private Node root;
 	private Map<ObjectId, String> pendingBlobs;
 
-	private RefTree(DirCache dc) {
-		this.contents = dc;
+	private RefTree(Node root) {
+		this.root = root;
 	}
 
 	/**
@@ -178,29 +233,30 @@ public Ref exactRef(ObjectReader reader, String name) throws IOException {
 			return resolve(reader, r, 0);
 		}
 
-		DirCacheEntry p = contents.getEntry(peeledPath(name));
-		if (p != null && p.getRawMode() == TYPE_GITLINK) {
+		byte[][] path = split(peeledPath(name));
+		Node dir = findDir(reader, path);
+		int i = dir != null ? dir.lookup(path[path.length - 1]) : -1;
+		if (i >= 0 && dir.modes[i] == TYPE_GITLINK) {
 			return new ObjectIdRef.PeeledTag(PACKED, r.getName(),
-					r.getObjectId(), p.getObjectId());
+					r.getObjectId(), dir.ids[i]);
 		}
 		return r;
 	}
 
 	private Ref readRef(ObjectReader reader, String name) throws IOException {
-		DirCacheEntry e = contents.getEntry(refPath(name));
-		return e != null ? toRef(reader, e, name) : null;
+		byte[][] path = split(refPath(name));
+		Node dir = findDir(reader, path);
+		int i = dir != null ? dir.lookup(path[path.length - 1]) : -1;
+		return i >= 0 ? toRef(reader, dir.modes[i], dir.ids[i], name) : null;
 	}
 
-	private Ref toRef(ObjectReader reader, DirCacheEntry e, String name)
+	private Ref toRef(ObjectReader reader, int mode, ObjectId id, String name)
 			throws IOException {
-		int mode = e.getRawMode();
 		if (mode == TYPE_GITLINK) {
-			ObjectId id = e.getObjectId();
 			return new ObjectIdRef.PeeledNonTag(PACKED, name, id);
 		}
 
 		if (mode == TYPE_SYMLINK) {
-			ObjectId id = e.getObjectId();
 			String n = pendingBlobs != null ? pendingBlobs.get(id) : null;
 			if (n == null) {
 				byte[] bin = reader.open(id, OBJ_BLOB).getCachedBytes();
@@ -226,6 +282,20 @@ private Ref resolve(ObjectReader reader, Ref ref, int depth)
 		return ref;
 	}
 
+	@Nullable
+	private Node findDir(ObjectReader reader, byte[][] path)
+			throws IOException {
+		Node dir = root;
+		for (int k = 0; k < path.length - 1; k++) {
+			int i = dir.lookup(path[k]);
+			if (i < 0 || dir.modes[i] != TYPE_TREE) {
+				return null;
+			}
+			dir = dir.child(i, reader);
+		}
+		return dir;
+	}
+
 	/**
 	 * Attempt a batch of commands against this RefTree.
 	 * <p>
@@ -241,25 +311,46 @@ private Ref resolve(ObjectReader reader, Ref ref, int depth)
 	 * @return true if the commands applied; false if they were rejected.
 	 */
 	public boolean apply(Collection<Command> cmdList) {
+		for (Command cmd : cmdList) {
+			if (!isValidRef(cmd)) {
+				cmd.setResult(REJECTED_OTHER_REASON,
+						JGitText.get().funnyRefname);
+				Command.abort(cmdList, null);
+				return false;
+			}
+		}
+
+		// Deletes run first so a batch can replace a reference with a
+		// directory of the same name, or the other way around.
+		List<Command> todo = new ArrayList<>(cmdList.size());
+		for (Command cmd : cmdList) {
+			if (cmd.getNewRef() == null) {
+				todo.add(cmd);
+			}
+		}
+		for (Command cmd : cmdList) {
+			if (cmd.getNewRef() != null) {
+				todo.add(cmd);
+			}
+		}
+
 		try {
-			DirCacheEditor ed = contents.editor();
-			for (Command cmd : cmdList) {
-				if (!isValidRef(cmd)) {
-					cmd.setResult(REJECTED_OTHER_REASON,
-							JGitText.get().funnyRefname);
-					Command.abort(cmdList, null);
-					return false;
-				}
+			Editor ed = new Editor(root);
+			for (Command cmd : todo) {
 				apply(ed, cmd);
 			}
-			ed.finish();
+			root = ed.root;
+			if (ed.blobs != null) {
+				if (pendingBlobs == null) {
+					pendingBlobs = ed.blobs;
+				} else {
+					pendingBlobs.putAll(ed.blobs);
+				}
+			}
 			return true;
-		} catch (DirCacheNameConflictException e) {
-			String r1 = refName(e.getPath1());
-			String r2 = refName(e.getPath2());
+		} catch (NameConflictException e) {
 			for (Command cmd : cmdList) {
-				if (r1.equals(cmd.getRefName())
-						|| r2.equals(cmd.getRefName())) {
+				if (e.conflictsWith(cmd.getRefName())) {
 					cmd.setResult(LOCK_FAILURE);
 					break;
 				}
@@ -277,70 +368,43 @@ private static boolean isValidRef(Command cmd) {
 		return HEAD.equals(n) || Repository.isValidRefName(n);
 	}
 
-	private void apply(DirCacheEditor ed, final Command cmd) {
-		String path = refPath(cmd.getRefName());
+	private static void apply(Editor ed, Command cmd) {
+		byte[][] path = split(refPath(cmd.getRefName()));
 		Ref oldRef = cmd.getOldRef();
-		final Ref newRef = cmd.getNewRef();
+		Ref newRef = cmd.getNewRef();
 
+		ed.checkRef(path, cmd);
 		if (newRef == null) {
-			checkRef(contents.getEntry(path), cmd);
-			ed.add(new DeletePath(path));
+			ed.delete(path);
 			cleanupPeeledRef(ed, oldRef);
 			return;
 		}
 
 		if (newRef.isSymbolic()) {
-			final String dst = newRef.getTarget().getName();
-			ed.add(new PathEdit(path) {
-				@Override
-				public void apply(DirCacheEntry ent) {
-					checkRef(ent, cmd);
-					ObjectId id = Command.symref(dst);
-					ent.setFileMode(SYMLINK);
-					ent.setObjectId(id);
-					if (pendingBlobs == null) {
-						pendingBlobs = new HashMap<>(4);
-					}
-					pendingBlobs.put(id, dst);
-				}
-			}.setReplace(false));
+			String dst = newRef.getTarget().getName();
+			ObjectId id = Command.symref(dst);
+			ed.put(path, TYPE_SYMLINK, id, cmd);
+			if (ed.blobs == null) {
+				ed.blobs = new HashMap<>(4);
+			}
+			ed.blobs.put(id, dst);
 			cleanupPeeledRef(ed, oldRef);
 			return;
 		}
 
-		ed.add(new PathEdit(path) {
-			@Override
-			public void apply(DirCacheEntry ent) {
-				checkRef(ent, cmd);
-				ent.setFileMode(GITLINK);
-				ent.setObjectId(newRef.getObjectId());
-			}
-		}.setReplace(false));
-
+		ed.put(path, TYPE_GITLINK, newRef.getObjectId(), cmd);
 		if (newRef.getPeeledObjectId() != null) {
-			ed.add(new PathEdit(peeledPath(newRef.getName())) {
-				@Override
-				public void apply(DirCacheEntry ent) {
-					ent.setFileMode(GITLINK);
-					ent.setObjectId(newRef.getPeeledObjectId());
-				}
-			}.setReplace(false));
+			ed.put(split(peeledPath(newRef.getName())), TYPE_GITLINK,
+					newRef.getPeeledObjectId(), cmd);
 		} else {
 			cleanupPeeledRef(ed, oldRef);
 		}
 	}
 
-	private static void checkRef(@Nullable DirCacheEntry ent, Command cmd) {
-		if (!cmd.checkRef(ent)) {
-			cmd.setResult(LOCK_FAILURE);
-			throw new LockFailureException();
-		}
-	}
-
-	private static void cleanupPeeledRef(DirCacheEditor ed, Ref ref) {
+	private static void cleanupPeeledRef(Editor ed, Ref ref) {
 		if (ref != null && !ref.isSymbolic()
 				&& (!ref.isPeeled() || ref.getPeeledObjectId() != null)) {
-			ed.add(new DeletePath(peeledPath(ref.getName())));
+			ed.delete(split(peeledPath(ref.getName())));
 		}
 	}
 
@@ -370,6 +434,27 @@ private static String peeledPath(String name) {
 		return refPath(name) + PEELED_SUFFIX;
 	}
 
+	private static byte[][] split(String path) {
+		byte[] raw = encode(path);
+		int n = 1;
+		for (byte b : raw) {
+			if (b == '/') {
+				n++;
+			}
+		}
+		byte[][] r = new byte[n][];
+		int s = 0;
+		for (int k = 0; k < n; k++) {
+			int e = s;
+			while (e < raw.length && raw[e] != '/') {
+				e++;
+			}
+			r[k] = Arrays.copyOfRange(raw, s, e);
+			s = e + 1;
+		}
+		return r;
+	}
+
 	/**
 	 * Write this reference tree.
 	 *
@@ -388,24 +473,426 @@ public ObjectId writeTree(ObjectInserter inserter) throws IOException {
 			}
 			pendingBlobs = null;
 		}
-		return contents.writeTree(inserter);
+		return root.write(inserter);
 	}
 
-	/** @return a deep copy of this RefTree. */
+	/** @return a copy of this RefTree; directories are shared until modified. */
 	public RefTree copy() {
-		RefTree r = new RefTree(DirCache.newInCore());
-		DirCacheBuilder b = r.contents.builder();
-		for (int i = 0; i < contents.getEntryCount(); i++) {
-			b.add(new DirCacheEntry(contents.getEntry(i)));
-		}
-		b.finish();
+		RefTree r = new RefTree(root);
 		if (pendingBlobs != null) {
 			r.pendingBlobs = new HashMap<>(pendingBlobs);
 		}
 		return r;
 	}
 
+	/** Copies directories on the path of each modification, once per batch. */
+	private static final class Editor {
+		Node root;
+		Map<ObjectId, String> blobs;
+
+		Editor(Node root) {
+			this.root = root;
+		}
+
+		void checkRef(byte[][] path, Command cmd) {
+			Node dir = findDir(path);
+			int i = dir != null ? dir.lookup(path[path.length - 1]) : -1;
+			boolean ok;
+			if (i < 0 || dir.modes[i] == TYPE_TREE) {
+				ok = cmd.checkRef(0, null);
+			} else {
+				ok = cmd.checkRef(dir.modes[i], dir.ids[i]);
+			}
+			if (!ok) {
+				cmd.setResult(LOCK_FAILURE);
+				throw new LockFailureException();
+			}
+		}
+
+		@Nullable
+		private Node findDir(byte[][] path) {
+			Node dir = root;
+			for (int k = 0; k < path.length - 1; k++) {
+				int i = dir.lookup(path[k]);
+				if (i < 0 || dir.modes[i] != TYPE_TREE) {
+					return null;
+				}
+				dir = dir.loadedChild(i);
+			}
+			return dir;
+		}
+
+		void put(byte[][] path, int mode, ObjectId id, Command cmd) {
+			root = root.editable(this);
+			Node dir = root;
+			for (int k = 0; k < path.length - 1; k++) {
+				byte[] name = path[k];
+				int i = dir.lookup(name);
+				Node sub;
+				if (i < 0) {
+					sub = new Node(this, 4);
+					dir.insert(-(dir.find(name, TYPE_TREE) + 1), name,
+							TYPE_TREE, sub);
+				} else if (dir.modes[i] != TYPE_TREE) {
+					throw new NameConflictException(cmd.getRefName(),
+							refName(join(path, k + 1)), false);
+				} else {
+					sub = dir.loadedChild(i).editable(this);
+					dir.setChild(i, sub);
+				}
+				dir = sub;
+			}
+
+			byte[] name = path[path.length - 1];
+			int i = dir.lookup(name);
+			if (i < 0) {
+				dir.insert(-(i + 1), name, mode, null);
+				i = -(i + 1);
+			} else if (dir.modes[i] == TYPE_TREE) {
+				throw new NameConflictException(cmd.getRefName(),
+						refName(join(path, path.length)), true);
+			}
+			dir.set(i, mode, id.copy());
+		}
+
+		void delete(byte[][] path) {
+			Node dir = findDir(path);
+			int i = dir != null ? dir.lookup(path[path.length - 1]) : -1;
+			if (i < 0 || dir.modes[i] == TYPE_TREE) {
+				return;
+			}
+			root = root.editable(this);
+			delete(root, path, 0);
+		}
+
+		private void delete(Node dir, byte[][] path, int k) {
+			int i = dir.lookup(path[k]);
+			if (k == path.length - 1) {
+				dir.remove(i);
+				return;
+			}
+			Node sub = dir.loadedChild(i).editable(this);
+			dir.setChild(i, sub);
+			delete(sub, path, k + 1);
+			if (sub.cnt == 0) {
+				dir.remove(i);
+			}
+		}
+
+		private static String join(byte[][] path, int n) {
+			StringBuilder b = new StringBuilder();
+			for (int k = 0; k < n; k++) {
+				if (k > 0) {
+					b.append('/');
+				}
+				b.append(RawParseUtils.decode(path[k]));
+			}
+			return b.toString();
+		}
+	}
+
+	/**
+	 * One directory of the tree.
+	 * <p>
+	 * Entries are kept in Git tree order. A node is immutable once published,
+	 * except for the lazily loaded {@link #kids}; only the {@link Editor} that
+	 * created a node may modify it. Subdirectories modified since the last
+	 * write have a null entry in {@link #ids}.
+	 */
+	private static final class Node {
+		private final Object owner;
+		private volatile ObjectId id;
+		private volatile boolean complete;
+
+		int cnt;
+		byte[][] names;
+		int[] modes;
+		ObjectId[] ids;
+		private Node[] kids;
+
+		Node(@Nullable Object owner, int capacity) {
+			this.owner = owner;
+			names = new byte[capacity][];
+			modes = new int[capacity];
+			ids = new ObjectId[capacity];
+			kids = new Node[capacity];
+			complete = true;
+		}
+
+		private Node(Node src, Object owner) {
+			this.owner = owner;
+			int n = src.cnt + 4;
+			cnt = src.cnt;
+			names = Arrays.copyOf(src.names, n);
+			modes = Arrays.copyOf(src.modes, n);
+			ids = Arrays.copyOf(src.ids, n);
+			synchronized (src) {
+				kids = Arrays.copyOf(src.kids, n);
+			}
+			complete = src.complete;
+		}
+
+		static Node load(ObjectReader reader, AnyObjectId treeId)
+				throws IOException {
+			Node n = CACHE.get(treeId);
+			if (n != null) {
+				return n.detach();
+			}
+			n = parse(reader, treeId);
+			CACHE.put(n.id, n.detach());
+			return n;
+		}
+
+		private static Node parse(ObjectReader reader, AnyObjectId treeId)
+				throws IOException {
+			CanonicalTreeParser p = new CanonicalTreeParser(null, reader,
+					treeId);
+			Node n = new Node(null, 8);
+			for (; !p.eof(); p.next()) {
+				byte[] name = new byte[p.getNameLength()];
+				p.getName(name, 0);
+				int mode = p.getEntryRawMode();
+				n.insert(n.cnt, name, mode, null);
+				n.ids[n.cnt - 1] = p.getEntryObjectId();
+				if (mode == TYPE_TREE) {
+					n.complete = false;
+				}
+			}
+			n.id = treeId.copy();
+			return n;
+		}
+
+		/**
+		 * Copy this read or written directory without its loaded
+		 * subdirectories. The copy retains only its own entries, and
+		 * subdirectories loaded through it are not shared with this node.
+		 */
+		Node detach() {
+			Node n = new Node(null, 0);
+			n.cnt = cnt;
+			n.names = Arrays.copyOf(names, cnt);
+			n.modes = Arrays.copyOf(modes, cnt);
+			n.ids = Arrays.copyOf(ids, cnt);
+			n.kids = new Node[cnt];
+			for (int i = 0; i < cnt; i++) {
+				if (n.ids[i] == null) {
+					n.ids[i] = kids[i].id;
+				}
+				if (n.modes[i] == TYPE_TREE) {
+					n.complete = false;
+				}
+			}
+			n.id = id;
+			return n;
+		}
+
+		Node editable(Object editor) {
+			return owner == editor ? this : new Node(this, editor);
+		}
+
+		int find(byte[] name, int mode) {
+			int lo = 0;
+			int hi = cnt;
+			while (lo < hi) {
+				int m = (lo + hi) >>> 1;
+				byte[] n = names[m];
+				int c = Paths.compare(n, 0, n.length, modes[m], name, 0,
+						name.length, mode);
+				if (c < 0) {
+					lo = m + 1;
+				} else if (c > 0) {
+					hi = m;
+				} else {
+					return m;
+				}
+			}
+			return -(lo + 1);
+		}
+
+		/**
+		 * @return position of {@code name}, or the insertion point for a
+		 *         non-tree entry encoded as {@code -(pos + 1)}.
+		 */
+		int lookup(byte[] name) {
+			int i = find(name, TYPE_GITLINK);
+			if (i < 0) {
+				int t = find(name, TYPE_TREE);
+				if (t >= 0) {
+					return t;
+				}
+			}
+			return i;
+		}
+
+		synchronized Node child(int i, ObjectReader reader)
+				throws IOException {
+			Node c = kids[i];
+			if (c == null) {
+				c = load(reader, ids[i]);
+				kids[i] = c;
+			}
+			return c;
+		}
+
+		synchronized Node loadedChild(int i) {
+			Node c = kids[i];
+			if (c == null) {
+				throw new IllegalStateException();
+			}
+			return c;
+		}
+
+		void loadAll(ObjectReader reader) throws IOException {
+			if (complete) {
+				return;
+			}
+			for (int i = 0; i < cnt; i++) {
+				if (modes[i] == TYPE_TREE) {
+					child(i, reader).loadAll(reader);
+				}
+			}
+			complete = true;
+		}
+
+		void insert(int pos, byte[] name, int mode, @Nullable Node kid) {
+			if (cnt == names.length) {
+				int n = Math.max(8, cnt * 2);
+				names = Arrays.copyOf(names, n);
+				modes = Arrays.copyOf(modes, n);
+				ids = Arrays.copyOf(ids, n);
+				kids = Arrays.copyOf(kids, n);
+			}
+			int tail = cnt - pos;
+			System.arraycopy(names, pos, names, pos + 1, tail);
+			System.arraycopy(modes, pos, modes, pos + 1, tail);
+			System.arraycopy(ids, pos, ids, pos + 1, tail);
+			System.arraycopy(kids, pos, kids, pos + 1, tail);
+			names[pos] = name;
+			modes[pos] = mode;
+			ids[pos] = null;
+			kids[pos] = kid;
+			cnt++;
+			id = null;
+		}
+
+		void remove(int pos) {
+			int tail = cnt - pos - 1;
+			System.arraycopy(names, pos + 1, names, pos, tail);
+			System.arraycopy(modes, pos + 1, modes, pos, tail);
+			System.arraycopy(ids, pos + 1, ids, pos, tail);
+			System.arraycopy(kids, pos + 1, kids, pos, tail);
+			cnt--;
+			names[cnt] = null;
+			ids[cnt] = null;
+			kids[cnt] = null;
+			id = null;
+		}
+
+		void set(int pos, int mode, ObjectId objectId) {
+			modes[pos] = mode;
+			ids[pos] = objectId;
+			kids[pos] = null;
+			id = null;
+		}
+
+		void setChild(int pos, Node kid) {
+			ids[pos] = null;
+			kids[pos] = kid;
+			id = null;
+		}
+
+		ObjectId write(ObjectInserter ins) throws IOException {
+			ObjectId r = id;
+			if (r != null) {
+				return r;
+			}
+			TreeFormatter fmt = new TreeFormatter();
+			for (int i = 0; i < cnt; i++) {
+				ObjectId e = ids[i];
+				if (e == null) {
+					e = kids[i].write(ins);
+				}
+				fmt.append(names[i], FileMode.fromBits(modes[i]), e);
+			}
+			r = ins.insert(fmt);
+			id = r;
+			CACHE.put(r, detach());
+			return r;
+		}
+	}
+
+	/**
+	 * Least recently used directories, bounded by their entry count.
+	 * <p>
+	 * Only {@link Node#detach() detached} nodes are cached and handed out as
+	 * new copies, so a cached node never holds loaded subdirectories and the
+	 * bound covers everything the cache retains.
+	 */
+	private static final class NodeCache {
+		private long maxEntries;
+		private final LinkedHashMap<ObjectId, Node> map;
+		private long entries;
+
+		NodeCache(long maxEntries) {
+			this.maxEntries = maxEntries;
+			this.map = new LinkedHashMap<>(16, 0.75f, true);
+		}
+
+		synchronized Node get(AnyObjectId id) {
+			return map.get(id);
+		}
+
+		synchronized void setMaxEntries(long max) {
+			maxEntries = max;
+			evict();
+		}
+
+		synchronized void put(ObjectId id, Node n) {
+			if (maxEntries == 0) {
+				return;
+			}
+			Node old = map.put(id, n);
+			if (old != null) {
+				entries -= old.cnt + 1;
+			}
+			entries += n.cnt + 1;
+			evict();
+		}
+
+		private void evict() {
+			// Keep the most recent directory even if it alone is too large.
+			Iterator<Node> itr = map.values().iterator();
+			while (entries > maxEntries
+					&& (map.size() > 1 || maxEntries == 0)) {
+				entries -= itr.next().cnt + 1;
+				itr.remove();
+			}
+		}
+	}
+
 	private static class LockFailureException extends RuntimeException {
 		private static final long serialVersionUID = 1L;
 	}
+
+	private static class NameConflictException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		private final String name;
+		private final String existing;
+		private final boolean directory;
+
+		NameConflictException(String name, String existing,
+				boolean directory) {
+			this.name = name;
+			this.existing = existing;
+			this.directory = directory;
+		}
+
+		boolean conflictsWith(String refName) {
+			if (name.equals(refName) || existing.equals(refName)) {
+				return true;
+			}
+			return directory && refName.startsWith(existing + '/');
+		}
+	}
 }
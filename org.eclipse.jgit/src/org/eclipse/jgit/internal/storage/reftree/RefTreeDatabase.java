@@ -69,6 +69,7 @@
 import org.eclipse.jgit.lib.SymbolicRef;
 import org.eclipse.jgit.revwalk.RevObject;
 import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.util.RefList;
 import org.eclipse.jgit.util.RefMap;
@@ -206,33 +207,38 @@ public Ref exactRef(String name) throws IOException {
 			return null;
 		}
 
-		boolean partial = false;
 		Ref src = bootstrap.exactRef(txnCommitted);
 		Scanner.Result c = refs;
 		if (c == null || !c.refTreeId.equals(idOf(src))) {
-			c = Scanner.scanRefTree(repo, src, prefixOf(name), false);
-			partial = true;
+			return readRefTree(src, name);
 		}
 
 		Ref r = c.all.get(name);
 		if (r != null && r.isSymbolic()) {
 			r = c.sym.get(name);
-			if (partial && r.getObjectId() == null) {
-				// Attempting exactRef("HEAD") with partial scan will leave
-				// an unresolved symref as its target e.g. refs/heads/master
-				// was not read by the partial scan. Scan everything instead.
-				return getRefs(ALL).get(name);
-			}
 		}
 		return r;
 	}
 
-	private static String prefixOf(String name) {
-		int s = name.lastIndexOf('/');
-		if (s >= 0) {
-			return name.substring(0, s);
+	@Nullable
+	private Ref readRefTree(@Nullable Ref src, String name)
+			throws IOException {
+		ObjectId srcId = idOf(src);
+		if (ObjectId.zeroId().equals(srcId)) {
+			return null;
 		}
-		return ""; //$NON-NLS-1$
+
+		Ref r;
+		try (RevWalk rw = new RevWalk(repo)) {
+			RevTree t = rw.parseTree(srcId);
+			r = RefTree.readLazy(rw.getObjectReader(), t)
+					.exactRef(rw.getObjectReader(), name);
+		}
+		if (r != null && r.isSymbolic() && r.getObjectId() == null) {
+			// Broken symbolic references are hidden by the full scan.
+			return getRefs(ALL).get(name);
+		}
+		return r;
 	}
 
 	@Override
@@ -182,6 +182,20 @@ public class ConfigConstants {
 	 */
 	public static final String CONFIG_KEY_CONCURRENCY_LEVEL = "concurrencyLevel";
 
+	/**
+	 * The "indexReserve" key
+	 *
+	 * @since 4.7
+	 */
+	public static final String CONFIG_KEY_INDEX_RESERVE = "indexReserve";
+
+	/**
+	 * The "bitmapIndexReserve" key
+	 *
+	 * @since 4.7
+	 */
+	public static final String CONFIG_KEY_BITMAP_INDEX_RESERVE = "bitmapIndexReserve";
+
 	/** The "deltaBaseCacheLimit" key */
 	public static final String CONFIG_KEY_DELTA_BASE_CACHE_LIMIT = "deltaBaseCacheLimit";
 
@@ -356,12 +370,48 @@ public class ConfigConstants {
 	 */
 	public static final String CONFIG_KEY_PRUNE = "prune";
 
+	/**
+	 * The "negotiationAlgorithm" key in the "fetch" section
+	 * @since 4.7
+	 */
+	public static final String CONFIG_KEY_NEGOTIATION_ALGORITHM = "negotiationAlgorithm";
+
+	/**
+	 * The "writeCloneBundle" key in the "gc" section
+	 * @since 4.7
+	 */
+	public static final String CONFIG_KEY_WRITE_CLONE_BUNDLE = "writeCloneBundle";
+
 	/**
 	 * The "streamBuffer" key
 	 * @since 4.0
 	 */
 	public static final String CONFIG_KEY_STREAM_BUFFER = "streamBuffer";
 
+	/**
+	 * The "readAheadLimit" key
+	 * @since 4.7
+	 */
+	public static final String CONFIG_KEY_READ_AHEAD_LIMIT = "readAheadLimit";
+
+	/**
+	 * The "pagedIndexThreshold" key
+	 * @since 4.7
+	 */
+	public static final String CONFIG_KEY_PAGED_INDEX_THRESHOLD = "pagedIndexThreshold";
+
+	/**
+	 * The "missingObjectCacheSize" key
+	 * @since 4.7
+	 */
+	public static final String CONFIG_KEY_MISSING_OBJECT_CACHE_SIZE = "missingObjectCacheSize";
+
+	/**
+	 * The "minRescanInterval" key
+	 * @since 4.7
+	 */
+	public static final String CONFIG_KEY_MIN_RESCAN_INTERVAL = "minRescanInterval";
+
 	/**
 	 * The "streamRatio" key
 	 * @since 4.0
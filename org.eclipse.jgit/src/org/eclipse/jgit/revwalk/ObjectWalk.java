@@ -414,6 +414,7 @@ public RevObject nextObject() throws MissingObjectException,
 				if (o instanceof RevTree) {
 					tv = newTreeVisit(o);
 					tv.parent = null;
+					tv.depth = 0;
 					currVisit = tv;
 				}
 				return o;
@@ -425,10 +426,50 @@ private RevObject enterTree(RevObject obj) throws MissingObjectException,
 			IncorrectObjectTypeException, IOException {
 		TreeVisit tv = newTreeVisit(obj);
 		tv.parent = currVisit;
+		tv.depth = currVisit != null ? currVisit.depth + 1 : 0;
 		currVisit = tv;
 		return obj;
 	}
 
+	/**
+	 * Skips the object most recently returned by {@link #nextObject()}.
+	 * <p>
+	 * The object is no longer marked as seen, so it is returned again if it
+	 * is also reachable through another path, for example a tree that was
+	 * moved to a different directory. If the object is a tree its entries are
+	 * not walked.
+	 *
+	 * @param obj
+	 *            the object most recently returned by {@link #nextObject()}.
+	 * @since 4.7
+	 */
+	public void skipObject(RevObject obj) {
+		obj.flags &= ~SEEN;
+		TreeVisit tv = currVisit;
+		if (tv != null && tv.nameEnd == 0 && tv.obj == obj) {
+			tv.ptr = tv.buf.length;
+		}
+	}
+
+	/**
+	 * Get the depth of the current object within its tree.
+	 * <p>
+	 * A root tree of a commit (or a tree or blob named directly as a starting
+	 * point) has depth 0, the entries of a root tree have depth 1, and so on.
+	 *
+	 * @return depth of the object most recently returned by
+	 *         {@link #nextObject()}.
+	 * @since 4.7
+	 */
+	public int getTreeDepth() {
+		TreeVisit tv = currVisit;
+		if (tv == null) {
+			return 0;
+		}
+		// When nameEnd == 0 the tree itself is the current object.
+		return tv.nameEnd == 0 ? tv.depth : tv.depth + 1;
+	}
+
 	private static int findObjectId(byte[] buf, int ptr) {
 		// Skip over the mode and name until the NUL before the ObjectId
 		// can be located. Skip the NUL as the function returns.
@@ -788,5 +829,8 @@ private static class TreeVisit {
 
 		/** Number of bytes in the path leading up to this tree. */
 		int pathLen;
+
+		/** Number of trees above this one, 0 for a root tree. */
+		int depth;
 	}
 }
@@ -152,6 +152,14 @@ public class PackConfig {
 	 */
 	public static final boolean DEFAULT_BUILD_BITMAPS = true;
 
+	/**
+	 * Default value of the write object size index option: {@value}
+	 *
+	 * @see #setWriteObjectSizeIndex(boolean)
+	 * @since 4.7
+	 */
+	public static final boolean DEFAULT_WRITE_OBJECT_SIZE_INDEX = false;
+
 	/**
 	 * Default count of most recent commits to select for bitmaps. Only applies
 	 * when bitmaps are enabled: {@value}
@@ -246,6 +254,8 @@ public class PackConfig {
 
 	private boolean buildBitmaps = DEFAULT_BUILD_BITMAPS;
 
+	private boolean writeObjectSizeIndex = DEFAULT_WRITE_OBJECT_SIZE_INDEX;
+
 	private int bitmapContiguousCommitCount = DEFAULT_BITMAP_CONTIGUOUS_COMMIT_COUNT;
 
 	private int bitmapRecentCommitCount = DEFAULT_BITMAP_RECENT_COMMIT_COUNT;
@@ -313,6 +323,7 @@ public PackConfig(PackConfig cfg) {
 		this.executor = cfg.executor;
 		this.indexVersion = cfg.indexVersion;
 		this.buildBitmaps = cfg.buildBitmaps;
+		this.writeObjectSizeIndex = cfg.writeObjectSizeIndex;
 		this.bitmapContiguousCommitCount = cfg.bitmapContiguousCommitCount;
 		this.bitmapRecentCommitCount = cfg.bitmapRecentCommitCount;
 		this.bitmapRecentCommitSpan = cfg.bitmapRecentCommitSpan;
@@ -835,6 +846,35 @@ public void setBuildBitmaps(boolean buildBitmaps) {
 		this.buildBitmaps = buildBitmaps;
 	}
 
+	/**
+	 * True if an object size index is written next to new packs.
+	 *
+	 * Default setting: {@value #DEFAULT_WRITE_OBJECT_SIZE_INDEX}
+	 *
+	 * @return true if an object size index is written.
+	 * @since 4.7
+	 */
+	public boolean isWriteObjectSizeIndex() {
+		return writeObjectSizeIndex;
+	}
+
+	/**
+	 * Set whether an object size index is written next to new packs.
+	 *
+	 * The object size index records the inflated size of every object in
+	 * the pack, so the size of an object can be found without reading its
+	 * data or applying deltas.
+	 *
+	 * Default setting: {@value #DEFAULT_WRITE_OBJECT_SIZE_INDEX}
+	 *
+	 * @param write
+	 *            true to write an object size index.
+	 * @since 4.7
+	 */
+	public void setWriteObjectSizeIndex(boolean write) {
+		this.writeObjectSizeIndex = write;
+	}
+
 	/**
 	 * Get the count of most recent commits for which to build bitmaps.
 	 *
@@ -1028,6 +1068,8 @@ public void fromConfig(final Config rc) {
 				rc.getBoolean("pack", "cutdeltachains", getCutDeltaChains())); //$NON-NLS-1$ //$NON-NLS-2$
 		setBuildBitmaps(
 				rc.getBoolean("pack", "buildbitmaps", isBuildBitmaps())); //$NON-NLS-1$ //$NON-NLS-2$
+		setWriteObjectSizeIndex(rc.getBoolean("pack", "writeobjectsizeindex", //$NON-NLS-1$ //$NON-NLS-2$
+				isWriteObjectSizeIndex()));
 		setBitmapContiguousCommitCount(
 				rc.getInt("pack", "bitmapcontiguouscommitcount", //$NON-NLS-1$ //$NON-NLS-2$
 						getBitmapContiguousCommitCount()));
@@ -1060,6 +1102,7 @@ public String toString() {
 		b.append(", reuseObjects=").append(isReuseObjects()); //$NON-NLS-1$
 		b.append(", deltaCompress=").append(isDeltaCompress()); //$NON-NLS-1$
 		b.append(", buildBitmaps=").append(isBuildBitmaps()); //$NON-NLS-1$
+		b.append(", writeObjectSizeIndex=").append(isWriteObjectSizeIndex()); //$NON-NLS-1$
 		b.append(", bitmapContiguousCommitCount=") //$NON-NLS-1$
 				.append(getBitmapContiguousCommitCount());
 		b.append(", bitmapRecentCommitCount=") //$NON-NLS-1$
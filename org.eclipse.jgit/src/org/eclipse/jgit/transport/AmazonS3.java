@@ -49,6 +49,7 @@
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.Proxy;
@@ -75,6 +76,14 @@
 import java.util.SortedMap;
 import java.util.TimeZone;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
@@ -119,7 +128,15 @@ public class AmazonS3 {
 
 	private static final String X_AMZ_META = "x-amz-meta-"; //$NON-NLS-1$
 
+	/** Query parameters S3 requires to be part of the signed resource. */
+	private static final Set<String> SIGNED_SUBRESOURCES;
+
 	static {
+		SIGNED_SUBRESOURCES = new HashSet<String>();
+		SIGNED_SUBRESOURCES.add("partNumber"); //$NON-NLS-1$
+		SIGNED_SUBRESOURCES.add("uploadId"); //$NON-NLS-1$
+		SIGNED_SUBRESOURCES.add("uploads"); //$NON-NLS-1$
+
 		SIGNED_HEADERS = new HashSet<String>();
 		SIGNED_HEADERS.add("content-type"); //$NON-NLS-1$
 		SIGNED_HEADERS.add("content-md5"); //$NON-NLS-1$
@@ -186,6 +203,21 @@ private static MessageDigest newMD5() {
 	/** S3 Bucket Domain. */
 	private final String domain;
 
+	/** Smallest part S3 accepts in a multipart upload, except the last. */
+	static final long MIN_PART_SIZE = 5 * 1024 * 1024;
+
+	/** Largest part S3 accepts in a multipart upload. */
+	static final long MAX_PART_SIZE = 5L * 1024 * 1024 * 1024;
+
+	/** Size of the parts of a multipart upload; 0 to disable multipart. */
+	private final long partSize;
+
+	/** Maximum number of parts uploaded in parallel. */
+	private final int uploadThreads;
+
+	/** Uploads the parts of multipart uploads; created on first use. */
+	private ThreadPoolExecutor uploader;
+
 	/** Property names used in amazon connection configuration file. */
 	interface Keys {
 		String ACCESS_KEY = "accesskey"; //$NON-NLS-1$
@@ -197,6 +229,8 @@ interface Keys {
 		String DOMAIN = "domain"; //$NON-NLS-1$
 		String HTTP_RETRY = "httpclient.retry-max"; //$NON-NLS-1$
 		String TMP_DIR = "tmpdir"; //$NON-NLS-1$
+		String MULTIPART_PART_SIZE = "multipart.part-size"; //$NON-NLS-1$
+		String MULTIPART_THREADS = "multipart.threads"; //$NON-NLS-1$
 	}
 
 	/**
@@ -222,6 +256,12 @@ interface Keys {
 	 * # Number of times to retry after internal error from S3.
 	 * httpclient.retry-max: 3
 	 *
+	 * # Objects larger than the part size are uploaded in parts, several of
+	 * # them in parallel. S3 requires parts between 5 MiB and 5 GiB; 0
+	 * # uploads every object with a single request.
+	 * multipart.part-size: 8388608
+	 * multipart.threads: 4
+	 *
 	 * # End-to-end encryption (hides content from S3 owners)
 	 * password: &lt;encryption pass-phrase&gt;
 	 * crypto.algorithm: PBEWithMD5AndDES
@@ -267,6 +307,17 @@ else if (StringUtils.equalsIgnoreCase("PUBLIC_READ", pacl)) //$NON-NLS-1$
 
 		String tmp = props.getProperty(Keys.TMP_DIR);
 		tmpDir = tmp != null && tmp.length() > 0 ? new File(tmp) : null;
+
+		partSize = Long.parseLong(props.getProperty(Keys.MULTIPART_PART_SIZE,
+				String.valueOf(8 * 1024 * 1024)));
+		if (partSize != 0
+				&& (partSize < MIN_PART_SIZE || MAX_PART_SIZE < partSize))
+			throw new IllegalArgumentException(MessageFormat.format(
+					JGitText.get().invalidS3PartSize, String.valueOf(partSize),
+					String.valueOf(MIN_PART_SIZE),
+					String.valueOf(MAX_PART_SIZE)));
+		uploadThreads = Math.max(1, Integer.parseInt(
+				props.getProperty(Keys.MULTIPART_THREADS, "4"))); //$NON-NLS-1$
 	}
 
 	/**
@@ -443,13 +494,19 @@ public void put(final String bucket, final String key, final byte[] data)
 	 * total number of written bytes starts to exceed an internal limit the data
 	 * is spooled to a temporary file on the local drive.
 	 * <p>
-	 * Network transmission is attempted only when <code>close()</code> gets
-	 * called at the end of output. Closing the returned stream can therefore
-	 * take significant time, especially if the written content is very large.
+	 * Content smaller than the configured part size is transmitted only when
+	 * <code>close()</code> gets called at the end of output. Larger content is
+	 * sent as a multipart upload: each part is spooled to a temporary file and
+	 * uploaded in the background as soon as it is complete, several parts in
+	 * parallel, while the caller continues writing. Closing the returned
+	 * stream waits for all parts, and can therefore still take significant
+	 * time. A part failing with an internal or communication error is retried
+	 * on its own; if the upload fails it is aborted and the object is left
+	 * unchanged.
 	 * <p>
 	 * End-to-end data integrity is assured by internally computing the MD5
-	 * checksum of the supplied data and transmitting the checksum along with
-	 * the data itself.
+	 * checksum of the supplied data (or each part) and transmitting the
+	 * checksum along with the data itself.
 	 *
 	 * @param bucket
 	 *            name of the bucket storing the object.
@@ -467,6 +524,11 @@ public void put(final String bucket, final String key, final byte[] data)
 	public OutputStream beginPut(final String bucket, final String key,
 			final ProgressMonitor monitor, final String monitorTask)
 			throws IOException {
+		if (partSize > 0) {
+			return encryption.encrypt(
+					new MultipartOutputStream(bucket, key, monitor, monitorTask));
+		}
+
 		final MessageDigest md5 = newMD5();
 		final TemporaryBuffer buffer = new TemporaryBuffer.LocalFile(tmpDir) {
 			@Override
@@ -522,6 +584,229 @@ void putImpl(final String bucket, final String key,
 		throw maxAttempts(JGitText.get().s3ActionWriting, key);
 	}
 
+	private String initiateMultipart(final String bucket, final String key)
+			throws IOException {
+		final Map<String, String> args = new TreeMap<String, String>();
+		args.put("uploads", ""); //$NON-NLS-1$ //$NON-NLS-2$
+		for (int curAttempt = 0; curAttempt < maxAttempts; curAttempt++) {
+			final HttpURLConnection c = open("POST", bucket, key, args); //$NON-NLS-1$
+			c.setRequestProperty(X_AMZ_ACL, acl);
+			encryption.request(c, X_AMZ_META);
+			authorize(c);
+			switch (HttpSupport.response(c)) {
+			case HttpURLConnection.HTTP_OK:
+				final String uploadId = readElement(c, "UploadId"); //$NON-NLS-1$
+				if (uploadId == null || uploadId.length() == 0)
+					throw new IOException(MessageFormat.format(
+							JGitText.get().amazonS3InvalidResponse,
+							JGitText.get().s3ActionWriting, key));
+				return uploadId;
+			case HttpURLConnection.HTTP_INTERNAL_ERROR:
+				continue;
+			default:
+				throw error(JGitText.get().s3ActionWriting, key, c);
+			}
+		}
+		throw maxAttempts(JGitText.get().s3ActionWriting, key);
+	}
+
+	String uploadPart(final String bucket, final String key,
+			final String uploadId, final int partNumber, final byte[] csum,
+			final TemporaryBuffer buf) throws IOException {
+		final Map<String, String> args = new TreeMap<String, String>();
+		args.put("partNumber", String.valueOf(partNumber)); //$NON-NLS-1$
+		args.put("uploadId", uploadId); //$NON-NLS-1$
+		final String md5str = Base64.encodeBytes(csum);
+		final long len = buf.length();
+		IOException lastError = null;
+		for (int curAttempt = 0; curAttempt < maxAttempts; curAttempt++) {
+			final HttpURLConnection c = open("PUT", bucket, key, args); //$NON-NLS-1$
+			c.setFixedLengthStreamingMode(len);
+			c.setRequestProperty("Content-MD5", md5str); //$NON-NLS-1$
+			authorize(c);
+			c.setDoOutput(true);
+			final int status;
+			try {
+				final OutputStream os = c.getOutputStream();
+				try {
+					buf.writeTo(os, null);
+				} finally {
+					os.close();
+				}
+				status = HttpSupport.response(c);
+			} catch (IOException e) {
+				// Only this part is lost; send it again.
+				lastError = e;
+				continue;
+			}
+
+			switch (status) {
+			case HttpURLConnection.HTTP_OK:
+				final String etag = c.getHeaderField("ETag"); //$NON-NLS-1$
+				if (etag == null)
+					throw new IOException(MessageFormat.format(
+							JGitText.get().amazonS3InvalidResponse,
+							JGitText.get().s3ActionWriting, key));
+				return etag;
+			case HttpURLConnection.HTTP_INTERNAL_ERROR:
+				continue;
+			default:
+				throw error(JGitText.get().s3ActionWriting, key, c);
+			}
+		}
+		final IOException err = maxAttempts(JGitText.get().s3ActionWriting,
+				key);
+		if (lastError != null)
+			err.initCause(lastError);
+		throw err;
+	}
+
+	private void completeMultipart(final String bucket, final String key,
+			final String uploadId, final List<String> etags)
+			throws IOException {
+		final StringBuilder xml = new StringBuilder();
+		xml.append("<CompleteMultipartUpload>"); //$NON-NLS-1$
+		for (int i = 0; i < etags.size(); i++) {
+			xml.append("<Part><PartNumber>").append(i + 1) //$NON-NLS-1$
+					.append("</PartNumber><ETag>").append(etags.get(i)) //$NON-NLS-1$
+					.append("</ETag></Part>"); //$NON-NLS-1$
+		}
+		xml.append("</CompleteMultipartUpload>"); //$NON-NLS-1$
+		final byte[] body = xml.toString().getBytes("UTF-8"); //$NON-NLS-1$
+
+		final Map<String, String> args = new TreeMap<String, String>();
+		args.put("uploadId", uploadId); //$NON-NLS-1$
+		for (int curAttempt = 0; curAttempt < maxAttempts; curAttempt++) {
+			final HttpURLConnection c = open("POST", bucket, key, args); //$NON-NLS-1$
+			c.setRequestProperty("Content-Type", "application/xml"); //$NON-NLS-1$ //$NON-NLS-2$
+			authorize(c);
+			c.setDoOutput(true);
+			c.setFixedLengthStreamingMode(body.length);
+			final OutputStream os = c.getOutputStream();
+			try {
+				os.write(body);
+			} finally {
+				os.close();
+			}
+
+			switch (HttpSupport.response(c)) {
+			case HttpURLConnection.HTTP_OK:
+				// S3 may report a failure after it already sent the status.
+				final String code = readElement(c, "Code"); //$NON-NLS-1$
+				if (code == null)
+					return;
+				if (!"InternalError".equals(code)) //$NON-NLS-1$
+					throw new IOException(MessageFormat.format(
+							JGitText.get().amazonS3ActionFailed,
+							JGitText.get().s3ActionWriting, key,
+							Integer.valueOf(HttpURLConnection.HTTP_OK), code));
+				continue;
+			case HttpURLConnection.HTTP_INTERNAL_ERROR:
+				continue;
+			default:
+				throw error(JGitText.get().s3ActionWriting, key, c);
+			}
+		}
+		throw maxAttempts(JGitText.get().s3ActionWriting, key);
+	}
+
+	private void abortMultipart(final String bucket, final String key,
+			final String uploadId) throws IOException {
+		final Map<String, String> args = new TreeMap<String, String>();
+		args.put("uploadId", uploadId); //$NON-NLS-1$
+		for (int curAttempt = 0; curAttempt < maxAttempts; curAttempt++) {
+			final HttpURLConnection c = open("DELETE", bucket, key, args); //$NON-NLS-1$
+			authorize(c);
+			switch (HttpSupport.response(c)) {
+			case HttpURLConnection.HTTP_NO_CONTENT:
+			case HttpURLConnection.HTTP_NOT_FOUND:
+				return;
+			case HttpURLConnection.HTTP_INTERNAL_ERROR:
+				continue;
+			default:
+				throw error(JGitText.get().s3ActionDeletion, key, c);
+			}
+		}
+		throw maxAttempts(JGitText.get().s3ActionDeletion, key);
+	}
+
+	private static String readElement(final HttpURLConnection c,
+			final String element) throws IOException {
+		final XMLReader xr;
+		try {
+			xr = XMLReaderFactory.createXMLReader();
+		} catch (SAXException e) {
+			throw new IOException(JGitText.get().noXMLParserAvailable);
+		}
+		final StringBuilder[] value = new StringBuilder[1];
+		xr.setContentHandler(new DefaultHandler() {
+			private StringBuilder data;
+
+			@Override
+			public void startElement(final String uri, final String name,
+					final String qName, final Attributes attributes)
+					throws SAXException {
+				if (element.equals(name) && value[0] == null)
+					data = value[0] = new StringBuilder();
+			}
+
+			@Override
+			public void characters(final char[] ch, final int s, final int n)
+					throws SAXException {
+				if (data != null)
+					data.append(ch, s, n);
+			}
+
+			@Override
+			public void endElement(final String uri, final String name,
+					final String qName) throws SAXException {
+				data = null;
+			}
+		});
+		final InputStream in = c.getInputStream();
+		try {
+			xr.parse(new InputSource(in));
+		} catch (SAXException parsingError) {
+			final IOException p = new IOException(MessageFormat.format(
+					JGitText.get().amazonS3InvalidResponse,
+					JGitText.get().s3ActionWriting, c.getURL().getPath()));
+			p.initCause(parsingError);
+			throw p;
+		} finally {
+			in.close();
+		}
+		return value[0] != null ? value[0].toString() : null;
+	}
+
+	private synchronized ThreadPoolExecutor getUploader() {
+		if (uploader == null) {
+			uploader = new ThreadPoolExecutor(uploadThreads, uploadThreads,
+					30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+					new UploadThreadFactory());
+			uploader.allowCoreThreadTimeOut(true);
+		}
+		return uploader;
+	}
+
+	private static <T> T waitFor(final Future<T> f) throws IOException {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			final InterruptedIOException err = new InterruptedIOException();
+			err.initCause(e);
+			throw err;
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IOException(cause.getMessage(), cause);
+		}
+	}
+
 	IOException error(final String action, final String key,
 			final HttpURLConnection c) throws IOException {
 		final IOException err = new IOException(MessageFormat.format(
@@ -586,8 +871,10 @@ HttpURLConnection open(final String method, final String bucket,
 			while (i.hasNext()) {
 				final Map.Entry<String, String> e = i.next();
 				urlstr.append(e.getKey());
-				urlstr.append('=');
-				HttpSupport.encode(urlstr, e.getValue());
+				if (e.getValue().length() > 0) {
+					urlstr.append('=');
+					HttpSupport.encode(urlstr, e.getValue());
+				}
 				if (i.hasNext())
 					urlstr.append('&');
 			}
@@ -637,6 +924,7 @@ void authorize(final HttpURLConnection c) throws IOException {
 		s.append('/');
 		s.append(host.substring(0, host.length() - domain.length() - 1));
 		s.append(c.getURL().getPath());
+		appendSubresources(s, c.getURL().getQuery());
 
 		final String sec;
 		try {
@@ -651,6 +939,24 @@ void authorize(final HttpURLConnection c) throws IOException {
 		c.setRequestProperty("Authorization", "AWS " + publicKey + ":" + sec); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 	}
 
+	private static void appendSubresources(final StringBuilder s,
+			final String query) {
+		if (query == null)
+			return;
+		final SortedMap<String, String> sub = new TreeMap<String, String>();
+		for (final String param : query.split("&")) { //$NON-NLS-1$
+			final int eq = param.indexOf('=');
+			final String name = eq < 0 ? param : param.substring(0, eq);
+			if (SIGNED_SUBRESOURCES.contains(name))
+				sub.put(name, param);
+		}
+		char sep = '?';
+		for (final String param : sub.values()) {
+			s.append(sep).append(param);
+			sep = '&';
+		}
+	}
+
 	static Properties properties(final File authFile)
 			throws FileNotFoundException, IOException {
 		final Properties p = new Properties();
@@ -663,6 +969,190 @@ static Properties properties(final File authFile)
 		return p;
 	}
 
+	private static class UploadThreadFactory implements ThreadFactory {
+		private static final AtomicInteger cnt = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			int n = cnt.incrementAndGet();
+			Thread t = new Thread(r, "JGit-S3-Upload-" + n); //$NON-NLS-1$
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
+	/**
+	 * Spools written data into parts and uploads them in the background.
+	 * <p>
+	 * The multipart upload is only started once more than one part worth of
+	 * data has been written; smaller content is sent with a single PUT on
+	 * close.
+	 */
+	private final class MultipartOutputStream extends OutputStream {
+		private final String bucket;
+
+		private final String key;
+
+		private final ProgressMonitor monitor;
+
+		private final String monitorTask;
+
+		private final List<Future<String>> parts = new ArrayList<Future<String>>();
+
+		private final List<Long> partLengths = new ArrayList<Long>();
+
+		private final MessageDigest md5 = newMD5();
+
+		private TemporaryBuffer part;
+
+		private long partLen;
+
+		private String uploadId;
+
+		private boolean closed;
+
+		/** Set once the upload failed; parts not yet sent are skipped. */
+		private volatile boolean aborted;
+
+		MultipartOutputStream(String bucket, String key,
+				ProgressMonitor monitor, String monitorTask) {
+			this.bucket = bucket;
+			this.key = key;
+			this.monitor = monitor != null ? monitor
+					: NullProgressMonitor.INSTANCE;
+			this.monitorTask = monitorTask != null ? monitorTask
+					: MessageFormat.format(
+							JGitText.get().progressMonUploading, key);
+			part = new TemporaryBuffer.LocalFile(tmpDir);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (partLen == partSize)
+					sendPart();
+				final int n = (int) Math.min(len, partSize - partLen);
+				part.write(b, off, n);
+				md5.update(b, off, n);
+				partLen += n;
+				off += n;
+				len -= n;
+			}
+		}
+
+		private void sendPart() throws IOException {
+			try {
+				if (uploadId == null)
+					uploadId = initiateMultipart(bucket, key);
+
+				// Bound the spooled data by waiting for an older part.
+				final int pending = parts.size() - 2 * uploadThreads;
+				if (pending >= 0)
+					waitFor(parts.get(pending));
+			} catch (IOException e) {
+				abort();
+				throw e;
+			}
+
+			part.close();
+			final TemporaryBuffer buf = part;
+			final byte[] csum = md5.digest();
+			final int partNumber = parts.size() + 1;
+			final String id = uploadId;
+			parts.add(getUploader().submit(new Callable<String>() {
+				@Override
+				public String call() throws IOException {
+					try {
+						if (aborted)
+							return null;
+						return uploadPart(bucket, key, id, partNumber, csum,
+								buf);
+					} finally {
+						buf.destroy();
+					}
+				}
+			}));
+			partLengths.add(Long.valueOf(partLen));
+
+			part = new TemporaryBuffer.LocalFile(tmpDir);
+			partLen = 0;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed)
+				return;
+			closed = true;
+
+			if (uploadId == null) {
+				try {
+					part.close();
+					putImpl(bucket, key, md5.digest(), part, monitor,
+							monitorTask);
+				} finally {
+					part.destroy();
+				}
+				return;
+			}
+
+			try {
+				sendPart();
+			} catch (IOException e) {
+				abort();
+				throw e;
+			}
+			long total = 0;
+			for (Long n : partLengths)
+				total += n.longValue();
+			monitor.beginTask(monitorTask, (int) (total / 1024));
+			try {
+				final List<String> etags = new ArrayList<String>(parts.size());
+				for (int i = 0; i < parts.size(); i++) {
+					etags.add(waitFor(parts.get(i)));
+					monitor.update((int) (partLengths.get(i).longValue() / 1024));
+				}
+				completeMultipart(bucket, key, uploadId, etags);
+			} catch (IOException e) {
+				abort();
+				throw e;
+			} catch (RuntimeException e) {
+				abort();
+				throw e;
+			} finally {
+				monitor.endTask();
+			}
+		}
+
+		private void abort() {
+			if (aborted)
+				return;
+			aborted = true;
+			closed = true;
+			part.destroy();
+			if (uploadId == null)
+				return;
+			// A part completing after the abort would be stored again, so
+			// wait for the parts being sent.
+			for (Future<String> f : parts) {
+				try {
+					waitFor(f);
+				} catch (Exception e) {
+					// Failed or cancelled, nothing to clean up.
+				}
+			}
+			try {
+				abortMultipart(bucket, key, uploadId);
+			} catch (IOException e) {
+				// The bucket's lifecycle rules must remove the parts.
+			}
+		}
+	}
+
 	private final class ListParser extends DefaultHandler {
 		final List<String> entries = new ArrayList<String>();
 
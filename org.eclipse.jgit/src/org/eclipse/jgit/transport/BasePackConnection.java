@@ -271,6 +271,20 @@ protected boolean isCapableOf(final String option) {
 		return remoteCapablities.contains(option);
 	}
 
+	/**
+	 * @param option
+	 *            name of a capability advertised as {@code option=value}.
+	 * @return the advertised value; null if the capability is absent.
+	 */
+	String getCapabilityValue(String option) {
+		for (String c : remoteCapablities) {
+			if (c.length() > option.length() && c.startsWith(option)
+					&& c.charAt(option.length()) == '=')
+				return c.substring(option.length() + 1);
+		}
+		return null;
+	}
+
 	protected boolean wantCapability(final StringBuilder b, final String option) {
 		if (!isCapableOf(option))
 			return false;
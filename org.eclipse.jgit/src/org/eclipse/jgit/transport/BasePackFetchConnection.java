@@ -64,6 +64,7 @@
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Config.SectionParser;
+import org.eclipse.jgit.lib.ConfigConstants;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.MutableObjectId;
 import org.eclipse.jgit.lib.NullProgressMonitor;
@@ -78,7 +79,6 @@
 import org.eclipse.jgit.revwalk.RevSort;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.revwalk.filter.CommitTimeRevFilter;
-import org.eclipse.jgit.revwalk.filter.RevFilter;
 import org.eclipse.jgit.transport.GitProtocolConstants.MultiAck;
 import org.eclipse.jgit.transport.PacketLineIn.AckNackResult;
 import org.eclipse.jgit.util.TemporaryBuffer;
@@ -200,6 +200,12 @@ public abstract class BasePackFetchConnection extends BasePackConnection
 	 */
 	public static final String OPTION_ALLOW_REACHABLE_SHA1_IN_WANT = GitProtocolConstants.OPTION_ALLOW_REACHABLE_SHA1_IN_WANT;
 
+	/**
+	 * The client supports a "filter" line restricting the objects sent.
+	 * @since 4.7
+	 */
+	public static final String OPTION_FILTER = GitProtocolConstants.OPTION_FILTER;
+
 	private final RevWalk walk;
 
 	/** All commits that are immediately reachable by a local ref. */
@@ -231,6 +237,12 @@ public abstract class BasePackFetchConnection extends BasePackConnection
 
 	private boolean noProgress;
 
+	private final FilterSpec filterSpec;
+
+	private boolean filterSent;
+
+	private final FetchNegotiator negotiator;
+
 	private String lockMessage;
 
 	private PackLock packLock;
@@ -249,14 +261,19 @@ public abstract class BasePackFetchConnection extends BasePackConnection
 	public BasePackFetchConnection(final PackTransport packTransport) {
 		super(packTransport);
 
+		FetchNegotiatorFactory n = transport.getFetchNegotiatorFactory();
 		if (local != null) {
 			final FetchConfig cfg = local.getConfig().get(FetchConfig.KEY);
 			allowOfsDelta = cfg.allowOfsDelta;
+			if (n == null && cfg.skippingNegotiation)
+				n = FetchNegotiatorFactory.SKIPPING;
 		} else {
 			allowOfsDelta = true;
 		}
 		includeTags = transport.getTagOpt() != TagOpt.NO_TAGS;
 		thinPack = transport.isFetchThin();
+		filterSpec = transport.getFilterSpec();
+		negotiator = (n != null ? n : FetchNegotiatorFactory.DEFAULT).create();
 
 		if (local != null) {
 			walk = new RevWalk(local);
@@ -287,8 +304,13 @@ public FetchConfig parse(final Config cfg) {
 
 		final boolean allowOfsDelta;
 
+		final boolean skippingNegotiation;
+
 		FetchConfig(final Config c) {
 			allowOfsDelta = c.getBoolean("repack", "usedeltabaseoffset", true); //$NON-NLS-1$ //$NON-NLS-2$
+			skippingNegotiation = "skipping".equalsIgnoreCase(c.getString( //$NON-NLS-1$
+					ConfigConstants.CONFIG_FETCH_SECTION, null,
+					ConfigConstants.CONFIG_KEY_NEGOTIATION_ALGORITHM));
 		}
 	}
 
@@ -316,6 +338,19 @@ public boolean didFetchTestConnectivity() {
 		return false;
 	}
 
+	/**
+	 * Whether the last fetch asked the peer to omit objects.
+	 * <p>
+	 * A filter is only sent if the peer advertised support for it; peers
+	 * without support send the complete object graph instead.
+	 *
+	 * @return true if a {@link FilterSpec} was sent to the peer.
+	 * @since 4.7
+	 */
+	public boolean didSendFilter() {
+		return filterSent;
+	}
+
 	public void setPackLockMessage(final String message) {
 		lockMessage = message;
 	}
@@ -492,6 +527,10 @@ private boolean sendWants(final Collection<Ref> want) throws IOException {
 		}
 		if (first)
 			return false;
+		if (!filterSpec.isNoOp() && isCapableOf(OPTION_FILTER)) {
+			p.writeString(filterSpec.toProtocolLine());
+			filterSent = true;
+		}
 		p.end();
 		outNeedsEnd = false;
 		return true;
@@ -551,7 +590,7 @@ private void negotiate(final ProgressMonitor monitor) throws IOException,
 
 		negotiateBegin();
 		SEND_HAVES: for (;;) {
-			final RevCommit c = walk.next();
+			final RevCommit c = negotiator.next();
 			if (c == null)
 				break SEND_HAVES;
 
@@ -695,33 +734,7 @@ private void negotiate(final ProgressMonitor monitor) throws IOException,
 
 	private void negotiateBegin() throws IOException {
 		walk.resetRetain(REACHABLE, ADVERTISED);
-		walk.markStart(reachableCommits);
-		walk.sort(RevSort.COMMIT_TIME_DESC);
-		walk.setRevFilter(new RevFilter() {
-			@Override
-			public RevFilter clone() {
-				return this;
-			}
-
-			@Override
-			public boolean include(final RevWalk walker, final RevCommit c) {
-				final boolean remoteKnowsIsCommon = c.has(COMMON);
-				if (c.has(ADVERTISED)) {
-					// Remote advertised this, and we have it, hence common.
-					// Whether or not the remote knows that fact is tested
-					// before we added the flag. If the remote doesn't know
-					// we have to still send them this object.
-					//
-					c.add(COMMON);
-				}
-				return !remoteKnowsIsCommon;
-			}
-
-			@Override
-			public boolean requiresCommitBody() {
-				return false;
-			}
-		});
+		negotiator.init(walk, reachableCommits, COMMON, ADVERTISED);
 	}
 
 	private void markRefsAdvertised() {
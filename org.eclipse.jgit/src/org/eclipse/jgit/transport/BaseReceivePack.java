@@ -77,6 +77,7 @@
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.internal.storage.file.PackLock;
 import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.BitmapIndex.BitmapBuilder;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Config.SectionParser;
 import org.eclipse.jgit.lib.Constants;
@@ -1424,7 +1425,17 @@ private void checkConnectivity() throws IOException {
 					continue;
 				ow.markStart(ow.parseAny(cmd.getNewId()));
 			}
+			// Objects reachable from haves with a bitmap need not be walked.
+			// Checking referenced objects are reachable relies on the
+			// uninteresting flags of the walk, so it cannot use bitmaps.
+			BitmapBuilder known = null;
+			if (baseObjects == null)
+				known = NotInBitmapFilter.knownObjects(ow, advertisedHaves);
+			if (known != null)
+				NotInBitmapFilter.skipKnown(ow, known);
 			for (final ObjectId have : advertisedHaves) {
+				if (known != null && known.contains(have))
+					continue;
 				RevObject o = ow.parseAny(have);
 				ow.markUninteresting(o);
 
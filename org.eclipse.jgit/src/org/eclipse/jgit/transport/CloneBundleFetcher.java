@@ -0,0 +1,373 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import static org.eclipse.jgit.util.HttpSupport.HDR_CONTENT_LENGTH;
+import static org.eclipse.jgit.util.HttpSupport.HDR_CONTENT_RANGE;
+import static org.eclipse.jgit.util.HttpSupport.HDR_ETAG;
+import static org.eclipse.jgit.util.HttpSupport.HDR_IF_RANGE;
+import static org.eclipse.jgit.util.HttpSupport.HDR_LOCATION;
+import static org.eclipse.jgit.util.HttpSupport.HDR_RANGE;
+import static org.eclipse.jgit.util.HttpSupport.METHOD_GET;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.file.PackLock;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.TransportHttp.AcceptEncoding;
+import org.eclipse.jgit.transport.http.HttpConnection;
+import org.eclipse.jgit.util.FileUtils;
+import org.eclipse.jgit.util.HttpSupport;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.RawParseUtils;
+
+/**
+ * Downloads a prebuilt bundle advertised by the server and unpacks it into
+ * the local repository.
+ * <p>
+ * The bundle is first copied into a partial file named after the bundle URL,
+ * in a {@code clone-bundle} directory of the local repository that only its
+ * owner can access. Keeping it out of the shared temporary directory stops
+ * other local users from planting or extending the file. If the transfer is
+ * interrupted, a later attempt
+ * asks the server only for the missing tail using an HTTP range request,
+ * guarded by the entity tag of the earlier response so a bundle that was
+ * rebuilt in the meantime is downloaded again from the start.
+ * <p>
+ * The additional headers and credentials of the transport are only sent to
+ * the origin (scheme, host and port) of the remote repository; a bundle
+ * stored elsewhere is requested anonymously. Redirects are followed here
+ * rather than by the connection so that every hop is checked, and a bundle
+ * of an https repository is never downloaded over plain http.
+ */
+class CloneBundleFetcher {
+	private static final int HTTP_PARTIAL = java.net.HttpURLConnection.HTTP_PARTIAL;
+
+	private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+	private static final int HTTP_MOVED_TEMP = java.net.HttpURLConnection.HTTP_MOVED_TEMP;
+
+	private static final int HTTP_SEE_OTHER = java.net.HttpURLConnection.HTTP_SEE_OTHER;
+
+	private static final int HTTP_TEMPORARY_REDIRECT = 307;
+
+	private static final int HTTP_PERMANENT_REDIRECT = 308;
+
+	private static final int MAX_ATTEMPTS = 5;
+
+	private static final int MAX_REDIRECTS = 5;
+
+	private final TransportHttp transport;
+
+	private final URL url;
+
+	private final File dir;
+
+	private final File part;
+
+	private final File etagFile;
+
+	private final List<PackLock> packLocks = new ArrayList<PackLock>();
+
+	CloneBundleFetcher(TransportHttp transport, String location)
+			throws IOException {
+		this.transport = transport;
+		this.url = checkSecure(transport.baseUrl,
+				new URL(transport.baseUrl, location));
+
+		String name = "jgit-clone-bundle-" //$NON-NLS-1$
+				+ ObjectId.fromRaw(Constants.newMessageDigest()
+						.digest(Constants.encode(url.toString()))).name();
+		this.dir = bundleDirectory(transport.local);
+		this.part = new File(dir, name + ".part"); //$NON-NLS-1$
+		this.etagFile = new File(dir, name + ".etag"); //$NON-NLS-1$
+	}
+
+	private static File bundleDirectory(Repository local) throws IOException {
+		File gitDir = local.getDirectory();
+		if (gitDir == null) {
+			// Nothing to resume into; use a new private directory.
+			return Files.createTempDirectory("jgit-clone-bundle").toFile(); //$NON-NLS-1$
+		}
+		File d = new File(gitDir, "clone-bundle"); //$NON-NLS-1$
+		FileUtils.mkdirs(d, true);
+		try {
+			Files.setPosixFilePermissions(d.toPath(),
+					PosixFilePermissions.fromString("rwx------")); //$NON-NLS-1$
+		} catch (UnsupportedOperationException e) {
+			// Not a POSIX file system; rely on the repository's permissions.
+		}
+		return d;
+	}
+
+	/** @return locks on the packs created while unpacking the bundle. */
+	Collection<PackLock> getPackLocks() {
+		return packLocks;
+	}
+
+	/**
+	 * Download the bundle and copy its objects into the local repository.
+	 *
+	 * @param monitor
+	 *            progress of the download and of indexing the bundle.
+	 * @return the references listed in the bundle header. Their objects are
+	 *         now available locally.
+	 * @throws IOException
+	 *             the bundle could not be downloaded or unpacked. A partial
+	 *             download is kept so the next attempt can resume it.
+	 */
+	Collection<Ref> fetch(ProgressMonitor monitor) throws IOException {
+		download(monitor);
+		try {
+			return unbundle(monitor);
+		} finally {
+			FileUtils.delete(part, FileUtils.SKIP_MISSING);
+			FileUtils.delete(etagFile, FileUtils.SKIP_MISSING);
+			// Fails harmlessly while other partial bundles remain.
+			FileUtils.delete(dir,
+					FileUtils.SKIP_MISSING | FileUtils.IGNORE_ERRORS);
+		}
+	}
+
+	private void download(ProgressMonitor monitor) throws IOException {
+		IOException last = null;
+		for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+			if (monitor.isCancelled())
+				throw new InterruptedIOException(
+						JGitText.get().downloadCancelled);
+			try {
+				if (tryDownload(monitor))
+					return;
+			} catch (FileNotFoundException notFound) {
+				throw notFound;
+			} catch (InterruptedIOException cancelled) {
+				throw cancelled;
+			} catch (IOException err) {
+				last = err;
+			}
+		}
+		throw new IOException(MessageFormat.format(
+				JGitText.get().cloneBundleDownloadFailed, url), last);
+	}
+
+	/**
+	 * @return true if the partial file holds the complete bundle; false if
+	 *         the server closed the connection before the whole bundle was
+	 *         received and another attempt may continue it.
+	 */
+	private boolean tryDownload(ProgressMonitor monitor) throws IOException {
+		long offset = part.exists() ? part.length() : 0;
+		String etag = offset > 0 ? readEtag() : null;
+		if (etag == null)
+			offset = 0;
+
+		URL at = url;
+		HttpConnection c = open(at, offset, etag);
+		int status = HttpSupport.response(c);
+		for (int redirects = 0; isRedirect(status)
+				&& redirects < MAX_REDIRECTS; redirects++) {
+			String location = c.getHeaderField(HDR_LOCATION);
+			if (location == null)
+				break;
+			c.getInputStream().close();
+			at = checkSecure(at, new URL(at, location));
+			c = open(at, offset, etag);
+			status = HttpSupport.response(c);
+		}
+		if (status == HTTP_RANGE_NOT_SATISFIABLE && offset > 0)
+			return true;
+		if (status == HttpConnection.HTTP_NOT_FOUND)
+			throw new FileNotFoundException(url.toString());
+		if (status == HTTP_PARTIAL && offset > 0) {
+			String range = c.getHeaderField(HDR_CONTENT_RANGE);
+			if (range == null || !range.startsWith("bytes " + offset + "-")) //$NON-NLS-1$ //$NON-NLS-2$
+				offset = -1;
+		} else if (status == HttpConnection.HTTP_OK) {
+			offset = 0;
+		} else {
+			offset = -1;
+		}
+		if (offset < 0) {
+			c.getInputStream().close();
+			throw new IOException(url.toString() + ": " //$NON-NLS-1$
+					+ status + " " + c.getResponseMessage()); //$NON-NLS-1$
+		}
+
+		writeEtag(c.getHeaderField(HDR_ETAG));
+		long remaining = contentLength(c);
+		int total = remaining > 0
+				? (int) ((offset + remaining) / 1024)
+				: ProgressMonitor.UNKNOWN;
+		monitor.beginTask(JGitText.get().downloadingCloneBundle, total);
+		monitor.update((int) (offset / 1024));
+		try (InputStream in = c.getInputStream();
+				FileOutputStream out = new FileOutputStream(part,
+						offset > 0)) {
+			byte[] buf = new byte[8192];
+			long received = 0;
+			long reported = 0;
+			int n;
+			while ((n = in.read(buf)) > 0) {
+				out.write(buf, 0, n);
+				received += n;
+				int kb = (int) ((received - reported) / 1024);
+				if (kb > 0) {
+					monitor.update(kb);
+					reported += kb * 1024L;
+				}
+				if (monitor.isCancelled())
+					throw new InterruptedIOException(
+							JGitText.get().downloadCancelled);
+			}
+			return remaining < 0 || received >= remaining;
+		} finally {
+			monitor.endTask();
+		}
+	}
+
+	private HttpConnection open(URL u, long offset, String etag)
+			throws IOException {
+		HttpConnection c = transport.httpOpen(METHOD_GET, u,
+				AcceptEncoding.UNSPECIFIED, sameOrigin(u));
+		c.setInstanceFollowRedirects(false);
+		if (offset > 0) {
+			c.setRequestProperty(HDR_RANGE, "bytes=" + offset + "-"); //$NON-NLS-1$ //$NON-NLS-2$
+			c.setRequestProperty(HDR_IF_RANGE, etag);
+		}
+		return c;
+	}
+
+	private boolean sameOrigin(URL u) {
+		URL base = transport.baseUrl;
+		return base.getProtocol().equalsIgnoreCase(u.getProtocol())
+				&& base.getHost().equalsIgnoreCase(u.getHost())
+				&& port(base) == port(u);
+	}
+
+	private static int port(URL u) {
+		return u.getPort() != -1 ? u.getPort() : u.getDefaultPort();
+	}
+
+	private static URL checkSecure(URL from, URL to) throws IOException {
+		String scheme = to.getProtocol();
+		if ("https".equalsIgnoreCase(scheme) //$NON-NLS-1$
+				|| ("http".equalsIgnoreCase(scheme) //$NON-NLS-1$
+						&& !"https".equalsIgnoreCase(from.getProtocol()))) //$NON-NLS-1$
+			return to;
+		throw new IOException(MessageFormat.format(
+				JGitText.get().cloneBundleInsecureUrl, to));
+	}
+
+	private static boolean isRedirect(int status) {
+		return status == HttpConnection.HTTP_MOVED_PERM
+				|| status == HTTP_MOVED_TEMP
+				|| status == HTTP_SEE_OTHER
+				|| status == HTTP_TEMPORARY_REDIRECT
+				|| status == HTTP_PERMANENT_REDIRECT;
+	}
+
+	private static long contentLength(HttpConnection c) {
+		String len = c.getHeaderField(HDR_CONTENT_LENGTH);
+		if (len == null)
+			return -1;
+		try {
+			return Long.parseLong(len.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private String readEtag() {
+		try {
+			String etag = RawParseUtils.decode(IO.readFully(etagFile)).trim();
+			return etag.length() > 0 ? etag : null;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private void writeEtag(String etag) throws IOException {
+		if (etag == null || etag.startsWith("W/")) { //$NON-NLS-1$
+			// A weak validator cannot guard a range request.
+			FileUtils.delete(etagFile, FileUtils.SKIP_MISSING);
+			return;
+		}
+		try (FileOutputStream out = new FileOutputStream(etagFile)) {
+			out.write(Constants.encode(etag));
+		}
+	}
+
+	private Collection<Ref> unbundle(ProgressMonitor monitor)
+			throws IOException {
+		try (TransportBundleStream bundle = new TransportBundleStream(
+				transport.local, new URIish(url), new FileInputStream(part));
+				FetchConnection c = bundle.openFetch()) {
+			try {
+				c.fetch(monitor, c.getRefs(), Collections.<ObjectId> emptySet());
+			} finally {
+				packLocks.addAll(c.getPackLocks());
+			}
+			return c.getRefs();
+		}
+	}
+}
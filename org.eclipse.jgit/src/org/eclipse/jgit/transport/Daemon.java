@@ -52,6 +52,13 @@
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketAddress;
+import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
 import org.eclipse.jgit.internal.JGitText;
@@ -85,6 +92,20 @@ public class Daemon {
 
 	private PackConfig packConfig;
 
+	private volatile Executor executor;
+
+	/** Expires clients queued by busy services; guarded by {@code this}. */
+	private Timer queueTimer;
+
+	private volatile int maxConnections;
+
+	private volatile int maxConnectionsPerAddress;
+
+	/** Active connections by client address; also guards {@link #connections}. */
+	private final Map<InetAddress, Integer> connectionsByAddress = new HashMap<InetAddress, Integer>();
+
+	private int connections;
+
 	private volatile RepositoryResolver<DaemonClient> repositoryResolver;
 
 	volatile UploadPackFactory<DaemonClient> uploadPackFactory;
@@ -231,6 +252,87 @@ public void setPackConfig(PackConfig pc) {
 		this.packConfig = pc;
 	}
 
+	/**
+	 * @return executor running client sessions; null if each session runs on
+	 *         its own new thread.
+	 * @since 4.7
+	 */
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Set the executor running client sessions.
+	 * <p>
+	 * By default every accepted connection is served by a new thread. A
+	 * bounded thread pool caps the number of threads regardless of how many
+	 * clients connect. If the executor rejects a session, the client receives
+	 * an error message and is disconnected. The daemon does not shut the
+	 * executor down when it is stopped.
+	 *
+	 * @param executor
+	 *            the executor; null to start a thread per connection.
+	 * @since 4.7
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * @return maximum number of concurrent client connections; 0 if
+	 *         unlimited.
+	 * @since 4.7
+	 */
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * Limit the number of client connections served at the same time.
+	 * <p>
+	 * Connections beyond the limit receive an error message and are closed
+	 * immediately. Connections waiting for a busy service (see
+	 * {@link DaemonService#setMaxSessions(int)}) count against this limit.
+	 *
+	 * @param max
+	 *            maximum number of connections; 0 for no limit.
+	 * @since 4.7
+	 */
+	public void setMaxConnections(int max) {
+		maxConnections = Math.max(max, 0);
+	}
+
+	/**
+	 * @return maximum number of concurrent connections from one client
+	 *         address; 0 if unlimited.
+	 * @since 4.7
+	 */
+	public int getMaxConnectionsPerAddress() {
+		return maxConnectionsPerAddress;
+	}
+
+	/**
+	 * Limit the number of connections served at the same time for a single
+	 * client address.
+	 *
+	 * @param max
+	 *            maximum number of connections per address; 0 for no limit.
+	 * @since 4.7
+	 */
+	public void setMaxConnectionsPerAddress(int max) {
+		maxConnectionsPerAddress = Math.max(max, 0);
+	}
+
+	/**
+	 * @return number of client connections currently being served.
+	 * @since 4.7
+	 */
+	public int getConnectionCount() {
+		synchronized (connectionsByAddress) {
+			return connections;
+		}
+	}
+
 	/**
 	 * Set the resolver used to locate a repository by name.
 	 *
@@ -334,6 +436,17 @@ public synchronized void stop() {
 			run = false;
 			acceptThread.interrupt();
 		}
+		if (queueTimer != null) {
+			queueTimer.cancel();
+			queueTimer = null;
+		}
+	}
+
+	/** Run a task once on the daemon's timer thread after a delay. */
+	synchronized void schedule(TimerTask task, long delayMillis) {
+		if (queueTimer == null)
+			queueTimer = new Timer("Git-Daemon-Queue", true); //$NON-NLS-1$
+		queueTimer.schedule(task, delayMillis);
 	}
 
 	void startClient(final Socket s) {
@@ -343,10 +456,24 @@ void startClient(final Socket s) {
 		if (peer instanceof InetSocketAddress)
 			dc.setRemoteAddress(((InetSocketAddress) peer).getAddress());
 
-		new Thread(processors, "Git-Daemon-Client " + peer.toString()) { //$NON-NLS-1$
+		final InetAddress addr = dc.getRemoteAddress();
+		String err = admit(addr);
+		if (err != null) {
+			reject(s, err);
+			return;
+		}
+
+		dc.setOnClose(new Runnable() {
+			public void run() {
+				release(addr);
+				close(s);
+			}
+		});
+		Runnable session = new Runnable() {
 			public void run() {
+				boolean queued = false;
 				try {
-					dc.execute(s);
+					queued = !dc.execute(s);
 				} catch (ServiceNotEnabledException e) {
 					// Ignored. Client cannot use this repository.
 				} catch (ServiceNotAuthorizedException e) {
@@ -354,19 +481,104 @@ public void run() {
 				} catch (IOException e) {
 					// Ignore unexpected IO exceptions from clients
 				} finally {
-					try {
-						s.getInputStream().close();
-					} catch (IOException e) {
-						// Ignore close exceptions
-					}
-					try {
-						s.getOutputStream().close();
-					} catch (IOException e) {
-						// Ignore close exceptions
-					}
+					if (!queued)
+						dc.close();
 				}
 			}
-		}.start();
+		};
+
+		if (!runSession(session, peer)) {
+			release(addr);
+			reject(s, JGitText.get().daemonTooManyConnections);
+		}
+	}
+
+	/**
+	 * Run a client session on the executor, or on a new thread without one.
+	 *
+	 * @return false if the executor rejected the session.
+	 */
+	boolean runSession(Runnable session, Object peer) {
+		Executor e = executor;
+		if (e == null) {
+			new Thread(processors, session,
+					"Git-Daemon-Client " + peer).start(); //$NON-NLS-1$
+			return true;
+		}
+		try {
+			e.execute(session);
+			return true;
+		} catch (RejectedExecutionException busy) {
+			return false;
+		}
+	}
+
+	private String admit(InetAddress addr) {
+		synchronized (connectionsByAddress) {
+			int max = maxConnections;
+			if (0 < max && max <= connections)
+				return JGitText.get().daemonTooManyConnections;
+
+			Integer cnt = addr != null ? connectionsByAddress.get(addr) : null;
+			int n = cnt != null ? cnt.intValue() : 0;
+			int maxPerAddress = maxConnectionsPerAddress;
+			if (addr != null && 0 < maxPerAddress && maxPerAddress <= n)
+				return MessageFormat.format(
+						JGitText.get().daemonTooManyConnectionsFromAddress,
+						addr.getHostAddress());
+
+			connections++;
+			if (addr != null)
+				connectionsByAddress.put(addr, Integer.valueOf(n + 1));
+			return null;
+		}
+	}
+
+	private void release(InetAddress addr) {
+		synchronized (connectionsByAddress) {
+			connections--;
+			if (addr != null) {
+				Integer cnt = connectionsByAddress.get(addr);
+				if (cnt == null || cnt.intValue() <= 1)
+					connectionsByAddress.remove(addr);
+				else
+					connectionsByAddress.put(addr,
+							Integer.valueOf(cnt.intValue() - 1));
+			}
+		}
+	}
+
+	private static void reject(Socket s, String msg) {
+		try {
+			sendError(s.getOutputStream(), msg);
+		} catch (IOException e) {
+			// Ignored. The client is disconnected below anyway.
+		} finally {
+			close(s);
+		}
+	}
+
+	/**
+	 * Send an error the client reports to its user instead of the
+	 * advertisement it expects.
+	 */
+	static void sendError(OutputStream out, String msg) throws IOException {
+		PacketLineOut pckOut = new PacketLineOut(out);
+		pckOut.writeString("ERR " + msg + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		pckOut.flush();
+	}
+
+	private static void close(Socket s) {
+		try {
+			s.getInputStream().close();
+		} catch (IOException e) {
+			// Ignore close exceptions
+		}
+		try {
+			s.getOutputStream().close();
+		} catch (IOException e) {
+			// Ignore close exceptions
+		}
 	}
 
 	synchronized DaemonService matchService(final String cmd) {
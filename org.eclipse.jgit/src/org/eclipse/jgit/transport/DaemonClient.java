@@ -64,10 +64,24 @@ public class DaemonClient {
 
 	private OutputStream rawOut;
 
+	private Runnable onClose;
+
 	DaemonClient(final Daemon d) {
 		daemon = d;
 	}
 
+	void setOnClose(Runnable r) {
+		onClose = r;
+	}
+
+	/** Disconnect the client once its session is over. */
+	void close() {
+		Runnable r = onClose;
+		onClose = null;
+		if (r != null)
+			r.run();
+	}
+
 	void setRemoteAddress(final InetAddress ia) {
 		peer = ia;
 	}
@@ -92,7 +106,16 @@ public OutputStream getOutputStream() {
 		return rawOut;
 	}
 
-	void execute(final Socket sock) throws IOException,
+	/**
+	 * Read the client's request and run the requested service.
+	 *
+	 * @param sock
+	 *            the client's socket.
+	 * @return false if the client was queued by a busy service, which then
+	 *         owns the client and closes it; true if the caller should close
+	 *         the client.
+	 */
+	boolean execute(final Socket sock) throws IOException,
 			ServiceNotEnabledException, ServiceNotAuthorizedException {
 		rawIn = new BufferedInputStream(sock.getInputStream());
 		rawOut = new BufferedOutputStream(sock.getOutputStream());
@@ -111,8 +134,8 @@ void execute(final Socket sock) throws IOException,
 
 		final DaemonService srv = getDaemon().matchService(cmd);
 		if (srv == null)
-			return;
+			return true;
 		sock.setSoTimeout(0);
-		srv.execute(this, cmd);
+		return srv.execute(this, cmd);
 	}
 }
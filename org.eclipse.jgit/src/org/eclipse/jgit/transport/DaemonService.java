@@ -45,7 +45,14 @@
 package org.eclipse.jgit.transport;
 
 import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.TimerTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
+import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Config.SectionParser;
 import org.eclipse.jgit.lib.Repository;
@@ -62,6 +69,17 @@ public abstract class DaemonService {
 
 	private boolean overridable;
 
+	private volatile Semaphore sessions;
+
+	private volatile int maxSessions;
+
+	private volatile int maxQueued;
+
+	/** Clients waiting for a session, oldest first; guarded by itself. */
+	private final ArrayDeque<QueuedClient> queue = new ArrayDeque<>();
+
+	private volatile int maxQueueWait = 10;
+
 	DaemonService(final String cmdName, final String cfgName) {
 		command = cmdName.startsWith("git-") ? cmdName : "git-" + cmdName; //$NON-NLS-1$ //$NON-NLS-2$
 		configKey = new SectionParser<ServiceConfig>() {
@@ -108,6 +126,78 @@ public void setOverridable(final boolean on) {
 		overridable = on;
 	}
 
+	/**
+	 * @return maximum number of clients using this service at the same time;
+	 *         0 if unlimited.
+	 * @since 4.7
+	 */
+	public int getMaxSessions() {
+		return maxSessions;
+	}
+
+	/**
+	 * Limit the number of clients using this service at the same time.
+	 * <p>
+	 * Clients beyond the limit wait for a running session to finish, up to
+	 * {@link #setMaxQueued(int)} of them for at most
+	 * {@link #setMaxQueueWait(int)} seconds; other clients receive an error
+	 * message and are disconnected. Sessions already running or waiting when
+	 * the limit is changed are not affected.
+	 *
+	 * @param max
+	 *            maximum number of concurrent sessions; 0 for no limit.
+	 * @since 4.7
+	 */
+	public void setMaxSessions(int max) {
+		maxSessions = Math.max(max, 0);
+		sessions = 0 < max ? new Semaphore(max, true) : null;
+	}
+
+	/**
+	 * @return maximum number of clients waiting for this service when
+	 *         {@link #getMaxSessions()} are already running.
+	 * @since 4.7
+	 */
+	public int getMaxQueued() {
+		return maxQueued;
+	}
+
+	/**
+	 * @param max
+	 *            maximum number of clients waiting for this service when
+	 *            {@link #getMaxSessions()} are already running; 0 to reject
+	 *            them immediately.
+	 * @since 4.7
+	 */
+	public void setMaxQueued(int max) {
+		maxQueued = Math.max(max, 0);
+	}
+
+	/**
+	 * @return maximum time (in seconds) a queued client waits for a running
+	 *         session to finish.
+	 * @since 4.7
+	 */
+	public int getMaxQueueWait() {
+		return maxQueueWait;
+	}
+
+	/**
+	 * Limit how long a queued client waits for a free session.
+	 * <p>
+	 * A waiting client does not occupy a thread of the daemon's executor;
+	 * its connection is held until a running session finishes and hands
+	 * over its slot. Clients still waiting after this time receive an error
+	 * message and are disconnected.
+	 *
+	 * @param seconds
+	 *            maximum time to wait; 0 to reject queued clients at once.
+	 * @since 4.7
+	 */
+	public void setMaxQueueWait(int seconds) {
+		maxQueueWait = Math.max(seconds, 0);
+	}
+
 	/** @return name of the command requested by clients. */
 	public String getCommandName() {
 		return command;
@@ -126,9 +216,95 @@ public boolean handles(final String commandLine) {
 				&& commandLine.startsWith(command);
 	}
 
-	void execute(final DaemonClient client, final String commandLine)
+	/**
+	 * Run the service for a client, or queue the client if it is busy.
+	 *
+	 * @return false if the client was queued; the service then runs the
+	 *         session once a slot is free and closes the client afterwards.
+	 */
+	boolean execute(final DaemonClient client, final String commandLine)
 			throws IOException, ServiceNotEnabledException,
 			ServiceNotAuthorizedException {
+		Semaphore s = sessions;
+		if (s == null) {
+			executeSession(client, commandLine);
+			return true;
+		}
+
+		QueuedClient queued = null;
+		boolean acquired = false;
+		synchronized (queue) {
+			if (s.tryAcquire())
+				acquired = true;
+			else if (0 < maxQueueWait && queue.size() < maxQueued) {
+				queued = new QueuedClient(client, commandLine, s);
+				queue.add(queued);
+				client.getDaemon().schedule(queued.expiry,
+						TimeUnit.SECONDS.toMillis(maxQueueWait));
+			}
+		}
+
+		if (queued != null)
+			return false;
+		if (!acquired) {
+			Daemon.sendError(client.getOutputStream(), busyMessage());
+			return true;
+		}
+		try {
+			executeSession(client, commandLine);
+		} finally {
+			finishSession(s);
+		}
+		return true;
+	}
+
+	/**
+	 * Hand the slot of a finished session to the oldest client waiting for
+	 * it, or release the slot if none is waiting.
+	 */
+	private void finishSession(Semaphore s) {
+		for (;;) {
+			QueuedClient next = null;
+			synchronized (queue) {
+				for (Iterator<QueuedClient> i = queue.iterator(); i
+						.hasNext();) {
+					QueuedClient c = i.next();
+					if (c.sessions == s) {
+						i.remove();
+						next = c;
+						break;
+					}
+				}
+				if (next == null)
+					s.release();
+			}
+
+			if (next == null)
+				return;
+			next.expiry.cancel();
+			if (next.start())
+				return;
+			next.reject();
+		}
+	}
+
+	private void expire(QueuedClient c) {
+		boolean removed;
+		synchronized (queue) {
+			removed = queue.remove(c);
+		}
+		if (removed)
+			c.reject();
+	}
+
+	private String busyMessage() {
+		return MessageFormat.format(JGitText.get().daemonServiceBusy,
+				command);
+	}
+
+	private void executeSession(final DaemonClient client,
+			final String commandLine) throws IOException,
+			ServiceNotEnabledException, ServiceNotAuthorizedException {
 		final String name = commandLine.substring(command.length() + 1);
 		Repository db;
 		try {
@@ -159,4 +335,58 @@ private boolean isEnabledFor(final Repository db) {
 	abstract void execute(DaemonClient client, Repository db)
 			throws IOException, ServiceNotEnabledException,
 			ServiceNotAuthorizedException;
+
+	/** A client waiting for a free session, holding no thread. */
+	private class QueuedClient implements Runnable {
+		final DaemonClient client;
+
+		final String commandLine;
+
+		final Semaphore sessions;
+
+		final TimerTask expiry = new TimerTask() {
+			@Override
+			public void run() {
+				expire(QueuedClient.this);
+			}
+		};
+
+		QueuedClient(DaemonClient client, String commandLine,
+				Semaphore sessions) {
+			this.client = client;
+			this.commandLine = commandLine;
+			this.sessions = sessions;
+		}
+
+		/** @return false if the daemon could not start the session. */
+		boolean start() {
+			return client.getDaemon().runSession(this,
+					client.getRemoteAddress());
+		}
+
+		public void run() {
+			try {
+				executeSession(client, commandLine);
+			} catch (ServiceNotEnabledException e) {
+				// Ignored. Client cannot use this repository.
+			} catch (ServiceNotAuthorizedException e) {
+				// Ignored. Client cannot use this repository.
+			} catch (IOException e) {
+				// Ignore unexpected IO exceptions from clients
+			} finally {
+				finishSession(sessions);
+				client.close();
+			}
+		}
+
+		void reject() {
+			try {
+				Daemon.sendError(client.getOutputStream(), busyMessage());
+			} catch (IOException e) {
+				// Ignored. The client is disconnected below anyway.
+			} finally {
+				client.close();
+			}
+		}
+	}
 }
@@ -0,0 +1,476 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.SystemReader;
+
+/**
+ * {@link UploadPackCache} storing finished packs as files in a local
+ * directory.
+ * <p>
+ * Packs are evicted in least recently used order once the total size of the
+ * cache exceeds a limit, and are discarded once they are older than a maximum
+ * age. Concurrent requests with the same {@link UploadPackCache.Key} are
+ * deduplicated: only one of them generates the pack, the others wait for it
+ * to be stored and then copy it from disk.
+ * <p>
+ * The pack is written to the first client and to the cache at the same time,
+ * so a miss is not slower than a request without a cache. If the pack cannot
+ * be stored (for example because the disk is full) the client is still
+ * served and the pack is simply not cached.
+ *
+ * @since 4.7
+ */
+public class DiskUploadPackCache implements UploadPackCache {
+	private static final String PACK_SUFFIX = ".pack"; //$NON-NLS-1$
+
+	private static final String TMP_PREFIX = "incoming_"; //$NON-NLS-1$
+
+	private static final String TMP_SUFFIX = ".tmp"; //$NON-NLS-1$
+
+	private final File directory;
+
+	private final long maxBytes;
+
+	private final long maxAgeMillis;
+
+	/** Cached packs in least recently used order; guarded by {@code this}. */
+	private final LinkedHashMap<String, Entry> entries;
+
+	/** Total size of {@link #entries}; guarded by {@code this}. */
+	private long cachedBytes;
+
+	/** Requests currently generating a pack, by key name. */
+	private final ConcurrentMap<String, Flight> inFlight;
+
+	private final AtomicLong hitCount = new AtomicLong();
+
+	private final AtomicLong missCount = new AtomicLong();
+
+	private final AtomicLong waitCount = new AtomicLong();
+
+	private volatile long maxWaitMillis = TimeUnit.MINUTES.toMillis(1);
+
+	/**
+	 * Create a cache in a local directory.
+	 * <p>
+	 * Packs left in the directory by an earlier instance are reused, and
+	 * incomplete temporary files are deleted.
+	 *
+	 * @param directory
+	 *            directory to store packs in; created if it does not exist.
+	 * @param maxBytes
+	 *            maximum total size of all cached packs. Packs larger than
+	 *            this are never cached.
+	 * @param maxAge
+	 *            maximum time a pack is kept after it was written; 0 or less
+	 *            to keep packs until they are evicted by size.
+	 * @param unit
+	 *            unit of {@code maxAge}.
+	 * @throws IOException
+	 *             the directory cannot be created or read.
+	 */
+	public DiskUploadPackCache(File directory, long maxBytes, long maxAge,
+			TimeUnit unit) throws IOException {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		this.maxAgeMillis = unit.toMillis(maxAge);
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+		this.inFlight = new ConcurrentHashMap<String, Flight>();
+
+		if (!directory.isDirectory() && !directory.mkdirs()
+				&& !directory.isDirectory())
+			throw new IOException("Cannot create " + directory); //$NON-NLS-1$
+		load();
+	}
+
+	private void load() throws IOException {
+		File[] files = directory.listFiles();
+		if (files == null)
+			throw new IOException("Cannot read " + directory); //$NON-NLS-1$
+		synchronized (this) {
+			for (File f : files) {
+				String n = f.getName();
+				if (n.startsWith(TMP_PREFIX) && n.endsWith(TMP_SUFFIX)) {
+					delete(f);
+				} else if (n.endsWith(PACK_SUFFIX)) {
+					String name = n.substring(0,
+							n.length() - PACK_SUFFIX.length());
+					if (ObjectId.isId(name))
+						add(name, new Entry(f, f.length(), f.lastModified()));
+				}
+			}
+			evict(now());
+		}
+	}
+
+	/**
+	 * Set how long a request waits for a concurrent identical request.
+	 * <p>
+	 * If the other request has not finished its pack within this time the
+	 * waiting request generates the pack itself, without storing it.
+	 *
+	 * @param maxWait
+	 *            maximum time to wait; 0 to never wait.
+	 * @param unit
+	 *            unit of {@code maxWait}.
+	 */
+	public void setMaxWait(long maxWait, TimeUnit unit) {
+		maxWaitMillis = unit.toMillis(maxWait);
+	}
+
+	/** @return directory holding the cached packs. */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/** @return number of requests answered from the cache. */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/** @return number of requests that had to generate a pack. */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * @return number of requests that waited for a concurrent identical
+	 *         request to generate its pack.
+	 */
+	public long getWaitCount() {
+		return waitCount.get();
+	}
+
+	/** @return total size in bytes of the packs currently cached. */
+	public synchronized long getCachedBytes() {
+		return cachedBytes;
+	}
+
+	@Override
+	public void writePack(Key key, OutputStream out, PackGenerator generator)
+			throws IOException {
+		String name = key.getName();
+		for (;;) {
+			Entry cached = lookup(name);
+			if (cached != null) {
+				try {
+					copy(cached.file, out);
+					hitCount.incrementAndGet();
+					return;
+				} catch (FileNotFoundException gone) {
+					// Removed behind our back; generate it again. A
+					// concurrent request may have stored it again already,
+					// so only drop the entry that was found missing.
+					forget(name, cached);
+					continue;
+				}
+			}
+
+			Flight flight = new Flight();
+			Flight running = inFlight.putIfAbsent(name, flight);
+			if (running != null) {
+				// Another request is producing this pack. Once it finishes
+				// the pack is usually cached; if it failed, retry as the
+				// generating request. If it takes too long, do not let it
+				// hold up this client as well.
+				waitCount.incrementAndGet();
+				if (running.await(maxWaitMillis))
+					continue;
+				missCount.incrementAndGet();
+				generator.writePack(out);
+				return;
+			}
+
+			missCount.incrementAndGet();
+			try {
+				generate(name, out, generator);
+			} finally {
+				inFlight.remove(name, flight);
+				flight.done();
+			}
+			return;
+		}
+	}
+
+	private void generate(String name, OutputStream out,
+			PackGenerator generator) throws IOException {
+		File tmp = File.createTempFile(TMP_PREFIX, TMP_SUFFIX, directory);
+		CachingOutputStream tee;
+		try {
+			tee = new CachingOutputStream(out, new FileOutputStream(tmp));
+		} catch (IOException e) {
+			delete(tmp);
+			throw e;
+		}
+
+		boolean stored = false;
+		try {
+			generator.writePack(tee);
+			tee.closeCache();
+			if (tee.isCacheValid() && tee.getCachedBytes() <= maxBytes) {
+				File dst = new File(directory, name + PACK_SUFFIX);
+				rename(tmp, dst);
+				synchronized (this) {
+					add(name, new Entry(dst, tee.getCachedBytes(), now()));
+					evict(now());
+				}
+				stored = true;
+			}
+		} finally {
+			tee.closeCache();
+			if (!stored)
+				delete(tmp);
+		}
+	}
+
+	private static void rename(File src, File dst) throws IOException {
+		try {
+			Files.move(src.toPath(), dst.toPath(),
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(src.toPath(), dst.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private static void copy(File src, OutputStream out) throws IOException {
+		try (FileInputStream in = new FileInputStream(src)) {
+			byte[] buf = new byte[64 * 1024];
+			int n;
+			while ((n = in.read(buf)) > 0)
+				out.write(buf, 0, n);
+		}
+	}
+
+	private synchronized Entry lookup(String name) {
+		Entry e = entries.get(name);
+		if (e == null)
+			return null;
+		if (isExpired(e, now())) {
+			remove(name);
+			return null;
+		}
+		return e;
+	}
+
+	private synchronized void forget(String name, Entry stale) {
+		if (entries.remove(name, stale))
+			cachedBytes -= stale.size;
+	}
+
+	private synchronized void remove(String name) {
+		Entry e = entries.remove(name);
+		if (e != null) {
+			cachedBytes -= e.size;
+			delete(e.file);
+		}
+	}
+
+	private void add(String name, Entry e) {
+		Entry old = entries.put(name, e);
+		if (old != null)
+			cachedBytes -= old.size;
+		cachedBytes += e.size;
+	}
+
+	private void evict(long now) {
+		Iterator<Entry> itr = entries.values().iterator();
+		while (itr.hasNext()) {
+			Entry e = itr.next();
+			if (cachedBytes <= maxBytes && !isExpired(e, now))
+				continue;
+			itr.remove();
+			cachedBytes -= e.size;
+			delete(e.file);
+		}
+	}
+
+	private boolean isExpired(Entry e, long now) {
+		return 0 < maxAgeMillis && maxAgeMillis <= now - e.created;
+	}
+
+	private static long now() {
+		return SystemReader.getInstance().getCurrentTime();
+	}
+
+	private static void delete(File f) {
+		// Readers that already opened the file can finish copying it.
+		f.delete();
+	}
+
+	private static final class Entry {
+		final File file;
+
+		final long size;
+
+		final long created;
+
+		Entry(File file, long size, long created) {
+			this.file = file;
+			this.size = size;
+			this.created = created;
+		}
+	}
+
+	/** A pack being generated by one request while others wait for it. */
+	private static final class Flight {
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		boolean await(long timeoutMillis) throws InterruptedIOException {
+			try {
+				return done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				InterruptedIOException err = new InterruptedIOException();
+				err.initCause(e);
+				throw err;
+			}
+		}
+
+		void done() {
+			done.countDown();
+		}
+	}
+
+	/**
+	 * Copies a pack to the client and to the cache file.
+	 * <p>
+	 * Failures writing the cache file only disable caching; failures writing
+	 * to the client are passed to the caller.
+	 */
+	private static final class CachingOutputStream extends OutputStream {
+		private final OutputStream client;
+
+		private OutputStream cache;
+
+		private boolean cacheValid = true;
+
+		private long cachedBytes;
+
+		CachingOutputStream(OutputStream client, OutputStream cache) {
+			this.client = client;
+			this.cache = cache;
+		}
+
+		boolean isCacheValid() {
+			return cacheValid;
+		}
+
+		long getCachedBytes() {
+			return cachedBytes;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			client.write(b);
+			if (cacheValid) {
+				try {
+					cache.write(b);
+					cachedBytes++;
+				} catch (IOException e) {
+					cacheFailed();
+				}
+			}
+		}
+
+		@Override
+		public void write(byte[] buf, int off, int len) throws IOException {
+			client.write(buf, off, len);
+			if (cacheValid) {
+				try {
+					cache.write(buf, off, len);
+					cachedBytes += len;
+				} catch (IOException e) {
+					cacheFailed();
+				}
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			client.flush();
+		}
+
+		private void cacheFailed() {
+			cacheValid = false;
+			closeCache();
+		}
+
+		void closeCache() {
+			if (cache != null) {
+				try {
+					cache.close();
+				} catch (IOException e) {
+					cacheValid = false;
+				}
+				cache = null;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			// The client stream is owned by the caller.
+			closeCache();
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevFlag;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Chooses the local commits a fetch client offers to the server as "have"
+ * lines during negotiation.
+ * <p>
+ * The connection marks every commit the server acknowledges with the
+ * {@code common} flag (and carries it to the commit's parsed ancestors), so an
+ * implementation only needs to avoid offering commits that already carry it.
+ * Each fetch uses a new negotiator created by a
+ * {@link FetchNegotiatorFactory}. It is initialized once with
+ * {@link #init(RevWalk, Collection, RevFlag, RevFlag)}, then {@link #next()}
+ * is called until it returns null or negotiation ends.
+ *
+ * @since 4.7
+ */
+public interface FetchNegotiator {
+	/**
+	 * Prepare for a new negotiation.
+	 *
+	 * @param walk
+	 *            walk over the local repository. The walk has been reset, and
+	 *            may be configured freely by the negotiator.
+	 * @param tips
+	 *            commits directly reachable from local references.
+	 * @param common
+	 *            flag marking commits known to both sides.
+	 * @param advertised
+	 *            flag marking commits advertised by the server. These are
+	 *            common, but the server does not know the client has them
+	 *            until they are offered.
+	 * @throws IOException
+	 *             the local repository cannot be read.
+	 */
+	void init(RevWalk walk, Collection<RevCommit> tips, RevFlag common,
+			RevFlag advertised) throws IOException;
+
+	/**
+	 * Choose the next commit to offer.
+	 * <p>
+	 * Called repeatedly as negotiation proceeds; acknowledgements of earlier
+	 * offers may have marked more commits as common in between calls.
+	 *
+	 * @return next commit to offer to the server, or null when there is
+	 *         nothing more worth offering.
+	 * @throws IOException
+	 *             the local repository cannot be read.
+	 */
+	RevCommit next() throws IOException;
+}
@@ -44,6 +44,7 @@
 
 package org.eclipse.jgit.transport;
 
+import static org.eclipse.jgit.transport.GitProtocolConstants.OPTION_CLONE_BUNDLE;
 import static org.eclipse.jgit.transport.ReceiveCommand.Result.NOT_ATTEMPTED;
 import static org.eclipse.jgit.transport.ReceiveCommand.Result.OK;
 import static org.eclipse.jgit.transport.ReceiveCommand.Result.REJECTED_NONFASTFORWARD;
@@ -51,6 +52,7 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.text.MessageFormat;
@@ -60,6 +62,7 @@
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
@@ -72,6 +75,7 @@
 import org.eclipse.jgit.internal.storage.file.PackLock;
 import org.eclipse.jgit.lib.BatchRefUpdate;
 import org.eclipse.jgit.lib.BatchingProgressMonitor;
+import org.eclipse.jgit.lib.BitmapIndex.BitmapBuilder;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ProgressMonitor;
@@ -79,8 +83,13 @@
 import org.eclipse.jgit.lib.RefDatabase;
 import org.eclipse.jgit.revwalk.ObjectWalk;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 class FetchProcess {
+	private static final Logger LOG = LoggerFactory
+			.getLogger(FetchProcess.class);
+
 	/** Transport we will fetch over. */
 	private final Transport transport;
 
@@ -156,6 +165,9 @@ private void executeImp(final ProgressMonitor monitor,
 			else if (tagopt == TagOpt.FETCH_TAGS)
 				expandFetchTags();
 
+			if (transport.isUseCloneBundle() && !askFor.isEmpty())
+				fetchCloneBundle(monitor);
+
 			final boolean includedTags;
 			if (!askFor.isEmpty() && !askForIsComplete()) {
 				fetchObjects(monitor);
@@ -238,6 +250,12 @@ else if (tagopt == TagOpt.FETCH_TAGS)
 		}
 	}
 
+	private boolean didSendFilter() {
+		// A filtered pack is intentionally incomplete.
+		return conn instanceof BasePackFetchConnection
+				&& ((BasePackFetchConnection) conn).didSendFilter();
+	}
+
 	private void fetchObjects(final ProgressMonitor monitor)
 			throws TransportException {
 		try {
@@ -247,11 +265,41 @@ private void fetchObjects(final ProgressMonitor monitor)
 			packLocks.addAll(conn.getPackLocks());
 		}
 		if (transport.isCheckFetchedObjects()
+				&& !didSendFilter()
 				&& !conn.didFetchTestConnectivity() && !askForIsComplete())
 			throw new TransportException(transport.getURI(),
 					JGitText.get().peerDidNotSupplyACompleteObjectGraph);
 	}
 
+	private void fetchCloneBundle(final ProgressMonitor monitor)
+			throws TransportException {
+		if (!(transport instanceof TransportHttp)
+				|| !(conn instanceof BasePackConnection)
+				|| !localRefs().isEmpty())
+			return;
+		String location = ((BasePackConnection) conn)
+				.getCapabilityValue(OPTION_CLONE_BUNDLE);
+		if (location == null)
+			return;
+
+		CloneBundleFetcher bundle = null;
+		try {
+			bundle = new CloneBundleFetcher((TransportHttp) transport,
+					location);
+			for (Ref r : bundle.fetch(monitor))
+				have.add(r.getObjectId());
+		} catch (InterruptedIOException e) {
+			throw new TransportException(e.getMessage(), e);
+		} catch (IOException e) {
+			// The bundle is only an optimization; negotiate all objects.
+			LOG.warn(MessageFormat.format(JGitText.get().cloneBundleNotUsed,
+					location, e.getMessage()), e);
+		} finally {
+			if (bundle != null)
+				packLocks.addAll(bundle.getPackLocks());
+		}
+	}
+
 	private void closeConnection(final FetchResult result) {
 		if (conn != null) {
 			conn.close();
@@ -336,10 +384,18 @@ private void updateFETCH_HEAD(final FetchResult result) throws IOException {
 	private boolean askForIsComplete() throws TransportException {
 		try {
 			try (final ObjectWalk ow = new ObjectWalk(transport.local)) {
+				BitmapBuilder known = null;
+				if (transport.isUseBitmapsForConnectivity())
+					known = NotInBitmapFilter.knownObjects(ow, localRefIds());
+				if (known != null)
+					NotInBitmapFilter.skipKnown(ow, known);
+
 				for (final ObjectId want : askFor.keySet())
 					ow.markStart(ow.parseAny(want));
-				for (final Ref ref : localRefs().values())
-					ow.markUninteresting(ow.parseAny(ref.getObjectId()));
+				for (final Ref ref : localRefs().values()) {
+					if (known == null || !known.contains(ref.getObjectId()))
+						ow.markUninteresting(ow.parseAny(ref.getObjectId()));
+				}
 				ow.checkConnectivity();
 			}
 			return true;
@@ -454,6 +510,15 @@ private TrackingRefUpdate createUpdate(RefSpec spec, ObjectId newId)
 				newId);
 	}
 
+	private List<ObjectId> localRefIds() throws TransportException {
+		List<ObjectId> ids = new ArrayList<ObjectId>();
+		for (Ref ref : localRefs().values()) {
+			if (ref.getObjectId() != null)
+				ids.add(ref.getObjectId());
+		}
+		return ids;
+	}
+
 	private Map<String, Ref> localRefs() throws TransportException {
 		if (localRefs == null) {
 			try {
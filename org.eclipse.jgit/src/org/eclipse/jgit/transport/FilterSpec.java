@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import static org.eclipse.jgit.transport.GitProtocolConstants.OPTION_FILTER;
+
+import java.text.MessageFormat;
+
+import org.eclipse.jgit.errors.PackProtocolException;
+import org.eclipse.jgit.internal.JGitText;
+
+/**
+ * Represents either a filter specified in a protocol "filter" line, or a
+ * placeholder to indicate no filtering.
+ * <p>
+ * Supported filters are {@code blob:none}, {@code blob:limit=<n>} (with an
+ * optional {@code k}, {@code m} or {@code g} suffix) and
+ * {@code tree:<depth>}.
+ *
+ * @since 4.7
+ */
+public final class FilterSpec {
+	/** A placeholder that indicates no filtering. */
+	public static final FilterSpec NO_FILTER = new FilterSpec(-1, -1);
+
+	private final long blobLimit;
+
+	private final long treeDepthLimit;
+
+	private FilterSpec(long blobLimit, long treeDepthLimit) {
+		this.blobLimit = blobLimit;
+		this.treeDepthLimit = treeDepthLimit;
+	}
+
+	/**
+	 * Process the content of "filter" line from the protocol. It has a shape
+	 * like "blob:none" or "blob:limit=N", with limit a positive number.
+	 *
+	 * @param filterLine
+	 *            the content of the "filter" line in the protocol
+	 * @return a FilterSpec representing the given filter
+	 * @throws PackProtocolException
+	 *             the filter has an unrecognized format, or a negative or
+	 *             non-numeric limit.
+	 */
+	public static FilterSpec fromFilterLine(String filterLine)
+			throws PackProtocolException {
+		if (filterLine.equals("blob:none")) { //$NON-NLS-1$
+			return withBlobLimit(0);
+		} else if (filterLine.startsWith("blob:limit=")) { //$NON-NLS-1$
+			long blobLimit = parseSize(filterLine,
+					filterLine.substring("blob:limit=".length())); //$NON-NLS-1$
+			return withBlobLimit(blobLimit);
+		} else if (filterLine.startsWith("tree:")) { //$NON-NLS-1$
+			long depth = parseSize(filterLine,
+					filterLine.substring("tree:".length())); //$NON-NLS-1$
+			return withTreeDepthLimit(depth);
+		}
+
+		// Did not match any known filter format.
+		throw invalidFilter(filterLine);
+	}
+
+	/**
+	 * @param blobLimit
+	 *            the blob limit in a "blob:[limit]" or "blob:none" filter line
+	 * @return a filter spec which filters blobs above a certain size
+	 */
+	public static FilterSpec withBlobLimit(long blobLimit) {
+		if (blobLimit < 0) {
+			throw new IllegalArgumentException(
+					"blobLimit cannot be negative: " + blobLimit); //$NON-NLS-1$
+		}
+		return new FilterSpec(blobLimit, -1);
+	}
+
+	/**
+	 * @param treeDepthLimit
+	 *            the tree depth limit in a "tree:[depth]" filter line
+	 * @return a filter spec which filters blobs and trees beyond a certain
+	 *         tree depth
+	 */
+	public static FilterSpec withTreeDepthLimit(long treeDepthLimit) {
+		if (treeDepthLimit < 0) {
+			throw new IllegalArgumentException(
+					"treeDepthLimit cannot be negative: " + treeDepthLimit); //$NON-NLS-1$
+		}
+		return new FilterSpec(-1, treeDepthLimit);
+	}
+
+	private static long parseSize(String filterLine, String value)
+			throws PackProtocolException {
+		long unit = 1;
+		if (!value.isEmpty()) {
+			switch (Character.toLowerCase(value.charAt(value.length() - 1))) {
+			case 'g':
+				unit *= 1024;
+				//$FALL-THROUGH$
+			case 'm':
+				unit *= 1024;
+				//$FALL-THROUGH$
+			case 'k':
+				unit *= 1024;
+				value = value.substring(0, value.length() - 1);
+				break;
+			default:
+				break;
+			}
+		}
+
+		long n;
+		try {
+			n = Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			throw invalidFilter(filterLine);
+		}
+		if (n < 0 || n > Long.MAX_VALUE / unit) {
+			throw invalidFilter(filterLine);
+		}
+		return n * unit;
+	}
+
+	private static PackProtocolException invalidFilter(String filterLine) {
+		return new PackProtocolException(MessageFormat
+				.format(JGitText.get().invalidFilter, filterLine));
+	}
+
+	/**
+	 * @return -1 if this filter does not filter blobs based on size, or a
+	 *         non-negative integer representing the max size of blobs to allow
+	 */
+	public long getBlobLimit() {
+		return blobLimit;
+	}
+
+	/**
+	 * @return -1 if this filter does not filter blobs and trees based on
+	 *         depth, or a non-negative integer representing the max tree
+	 *         depth of blobs and trees to fetch
+	 */
+	public long getTreeDepthLimit() {
+		return treeDepthLimit;
+	}
+
+	/**
+	 * @return true if this filter doesn't filter out anything
+	 */
+	public boolean isNoOp() {
+		return blobLimit == -1 && treeDepthLimit == -1;
+	}
+
+	/**
+	 * @return the filter specification as it appears after "filter " in the
+	 *         protocol, or null if this filter does not filter anything.
+	 */
+	public String getFilterLine() {
+		if (blobLimit == 0) {
+			return "blob:none"; //$NON-NLS-1$
+		} else if (blobLimit > 0) {
+			return "blob:limit=" + blobLimit; //$NON-NLS-1$
+		} else if (treeDepthLimit >= 0) {
+			return "tree:" + treeDepthLimit; //$NON-NLS-1$
+		}
+		return null;
+	}
+
+	/**
+	 * @return the complete "filter" line to send to the server, or null if
+	 *         this filter does not filter anything.
+	 */
+	String toProtocolLine() {
+		String spec = getFilterLine();
+		return spec != null ? OPTION_FILTER + ' ' + spec + '\n' : null;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (blobLimit * 31 + treeDepthLimit);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o instanceof FilterSpec) {
+			FilterSpec other = (FilterSpec) o;
+			return blobLimit == other.blobLimit
+					&& treeDepthLimit == other.treeDepthLimit;
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		String spec = getFilterLine();
+		return spec != null ? spec : "none"; //$NON-NLS-1$
+	}
+}
@@ -137,6 +137,24 @@ public class GitProtocolConstants {
 	 */
 	public static final String OPTION_ALLOW_REACHABLE_SHA1_IN_WANT = "allow-reachable-sha1-in-want"; //$NON-NLS-1$
 
+	/**
+	 * The client supports a "filter" line restricting the objects sent in the
+	 * pack, used by partial clones.
+	 *
+	 * @since 4.7
+	 */
+	public static final String OPTION_FILTER = "filter"; //$NON-NLS-1$
+
+	/**
+	 * The server offers a bundle of most of its history at the location given
+	 * as the value of this capability, so a client starting from an empty
+	 * repository can download it as a static, resumable file and fetch only
+	 * the remainder.
+	 *
+	 * @since 4.7
+	 */
+	public static final String OPTION_CLONE_BUNDLE = "clone-bundle"; //$NON-NLS-1$
+
 	/**
 	 * Symbolic reference support for better negotiation.
 	 *
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import java.io.IOException;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.BitmapIndex;
+import org.eclipse.jgit.lib.BitmapIndex.Bitmap;
+import org.eclipse.jgit.lib.BitmapIndex.BitmapBuilder;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.ObjectWalk;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevFlag;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.ObjectFilter;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+
+/**
+ * Hides commits already known to be reachable, as recorded in a bitmap.
+ * <p>
+ * The parents of such commits are reachable as well, so they are marked
+ * {@link RevFlag#SEEN} and the walk does not visit them.
+ */
+final class NotInBitmapFilter extends RevFilter {
+	/**
+	 * Collect the objects reachable from tips that have a bitmap.
+	 *
+	 * @param ow
+	 *            walk whose reader supplies the bitmap index.
+	 * @param tips
+	 *            objects known to be reachable with all their history.
+	 * @return union of the bitmaps of {@code tips}; null if the repository
+	 *         has no bitmap index or none of the tips has a bitmap.
+	 * @throws IOException
+	 *             the bitmap index cannot be read.
+	 */
+	static BitmapBuilder knownObjects(ObjectWalk ow,
+			Iterable<? extends ObjectId> tips) throws IOException {
+		BitmapIndex bitmapIndex = ow.getObjectReader().getBitmapIndex();
+		if (bitmapIndex == null)
+			return null;
+
+		BitmapBuilder known = null;
+		for (ObjectId tip : tips) {
+			Bitmap bitmap = bitmapIndex.getBitmap(tip);
+			if (bitmap != null) {
+				if (known == null)
+					known = bitmapIndex.newBitmapBuilder();
+				known.or(bitmap);
+			}
+		}
+		return known;
+	}
+
+	/**
+	 * Configure a walk to skip commits, trees and blobs in a bitmap.
+	 *
+	 * @param ow
+	 *            walk to configure.
+	 * @param known
+	 *            objects the walk does not need to visit.
+	 */
+	static void skipKnown(ObjectWalk ow, final BitmapBuilder known) {
+		ow.setRevFilter(new NotInBitmapFilter(known));
+		ow.setObjectFilter(new ObjectFilter() {
+			@Override
+			public boolean include(ObjectWalk walker, AnyObjectId id) {
+				return !known.contains(id);
+			}
+		});
+	}
+
+	private final BitmapBuilder reachable;
+
+	NotInBitmapFilter(BitmapBuilder reachable) {
+		this.reachable = reachable;
+	}
+
+	@Override
+	public boolean include(RevWalk walker, RevCommit c) {
+		if (!reachable.contains(c))
+			return true;
+		for (RevCommit p : c.getParents())
+			p.add(RevFlag.SEEN);
+		return false;
+	}
+
+	@Override
+	public RevFilter clone() {
+		return this;
+	}
+
+	@Override
+	public boolean requiresCommitBody() {
+		return false;
+	}
+}
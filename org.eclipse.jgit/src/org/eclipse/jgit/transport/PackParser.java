@@ -679,6 +679,7 @@ private void resolveDeltas(DeltaVisit visit, final int type,
 			PackedObjectInfo oe;
 			oe = newInfo(tempObjectId, visit.delta, visit.parent.id);
 			oe.setOffset(visit.delta.position);
+			oe.setFullSize(visit.data.length);
 			onInflatedObjectData(oe, type, visit.data);
 			addObjectAndTrack(oe);
 			visit.id = oe;
@@ -849,6 +850,7 @@ private void resolveDeltasWithExternalBases(final ProgressMonitor progress)
 			visit.id = baseId;
 			final int typeCode = ldr.getType();
 			final PackedObjectInfo oe = newInfo(baseId, null, null);
+			oe.setFullSize(visit.data.length);
 
 			if (onAppendBase(typeCode, visit.data, oe))
 				entries[entryCount++] = oe;
@@ -1057,6 +1059,7 @@ private void whole(final long pos, final int type, final long sz)
 
 		PackedObjectInfo obj = newInfo(tempObjectId, null, null);
 		obj.setOffset(pos);
+		obj.setFullSize(sz);
 		onEndWholeObject(obj);
 		if (data != null)
 			onInflatedObjectData(obj, type, data);
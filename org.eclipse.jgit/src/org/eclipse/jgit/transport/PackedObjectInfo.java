@@ -59,6 +59,8 @@ public class PackedObjectInfo extends ObjectIdOwnerMap.Entry {
 
 	private int crc;
 
+	private long fullSize = -1;
+
 	PackedObjectInfo(final long headerOffset, final int packedCRC,
 			final AnyObjectId id) {
 		super(id);
@@ -112,4 +114,25 @@ public int getCRC() {
 	public void setCRC(final int crc) {
 		this.crc = crc;
 	}
+
+	/**
+	 * @return size of the object once inflated and with any delta applied;
+	 *         -1 if the size is not known.
+	 * @since 4.7
+	 */
+	public long getFullSize() {
+		return fullSize;
+	}
+
+	/**
+	 * Record the size of the object once inflated and with any delta
+	 * applied.
+	 *
+	 * @param size
+	 *            size of the object in bytes.
+	 * @since 4.7
+	 */
+	public void setFullSize(long size) {
+		this.fullSize = size;
+	}
 }
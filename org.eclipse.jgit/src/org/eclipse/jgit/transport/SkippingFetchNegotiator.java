@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevFlag;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Offers commits at exponentially growing distances from each local tip.
+ * <p>
+ * Starting at a tip, the tip itself is offered, then one commit is skipped,
+ * then two, four, and so on. Once the server acknowledges a
+ * commit its ancestors are no longer considered. A clone with long local
+ * histories the server has never seen finds a common commit in a logarithmic
+ * number of rounds, at the cost of possibly receiving a few objects the client
+ * already has.
+ * <p>
+ * Commits without walkable parents are always offered, so a history whose
+ * root is shared with the server is never entirely skipped.
+ * <p>
+ * Selected by {@code fetch.negotiationAlgorithm = skipping}, or by
+ * {@link FetchNegotiatorFactory#SKIPPING}.
+ *
+ * @since 4.7
+ */
+public class SkippingFetchNegotiator implements FetchNegotiator {
+	private static final Comparator<Entry> NEWEST_FIRST = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry a, Entry b) {
+			return Integer.compare(b.commit.getCommitTime(),
+					a.commit.getCommitTime());
+		}
+	};
+
+	private RevWalk walk;
+
+	private RevFlag common;
+
+	private RevFlag advertised;
+
+	private PriorityQueue<Entry> queue;
+
+	private Map<RevCommit, Entry> entries;
+
+	@Override
+	public void init(RevWalk rw, Collection<RevCommit> tips, RevFlag c,
+			RevFlag a) throws IOException {
+		walk = rw;
+		common = c;
+		advertised = a;
+		queue = new PriorityQueue<Entry>(Math.max(tips.size(), 1),
+				NEWEST_FIRST);
+		entries = new HashMap<RevCommit, Entry>();
+		for (RevCommit tip : tips)
+			push(tip, 0, 0);
+	}
+
+	@Override
+	public RevCommit next() throws IOException {
+		for (;;) {
+			Entry e = queue.poll();
+			if (e == null)
+				return null;
+			e.popped = true;
+
+			RevCommit c = e.commit;
+			if (c.has(common))
+				continue;
+			if (c.has(advertised)) {
+				// The server has it but does not know we do. Offer it and
+				// stop below it, as everything further down is common.
+				c.add(common);
+				c.carry(common);
+				return c;
+			}
+
+			int originalTtl;
+			int ttl;
+			if (e.ttl > 0) {
+				originalTtl = e.originalTtl;
+				ttl = e.ttl - 1;
+			} else {
+				originalTtl = e.originalTtl > 0 ? e.originalTtl * 2 : 1;
+				ttl = originalTtl;
+			}
+
+			boolean parentPushed = false;
+			for (RevCommit p : c.getParents())
+				parentPushed |= push(p, ttl, originalTtl);
+			if (e.ttl == 0 || !parentPushed)
+				return c;
+		}
+	}
+
+	private boolean push(RevCommit c, int ttl, int originalTtl)
+			throws IOException {
+		Entry e = entries.get(c);
+		if (e != null) {
+			if (e.popped)
+				return false;
+			if (ttl < e.ttl) {
+				// Reached on a shorter path; offer it sooner. Ordering only
+				// depends on the commit time, so the queue is unaffected.
+				e.ttl = ttl;
+				e.originalTtl = originalTtl;
+			}
+			return true;
+		}
+
+		try {
+			walk.parseHeaders(c);
+		} catch (MissingObjectException notFound) {
+			// Beyond a shallow boundary or otherwise unavailable.
+			return false;
+		}
+		e = new Entry(c, ttl, originalTtl);
+		entries.put(c, e);
+		queue.add(e);
+		return true;
+	}
+
+	private static final class Entry {
+		final RevCommit commit;
+
+		int ttl;
+
+		int originalTtl;
+
+		boolean popped;
+
+		Entry(RevCommit commit, int ttl, int originalTtl) {
+			this.commit = commit;
+			this.ttl = ttl;
+			this.originalTtl = originalTtl;
+		}
+	}
+}
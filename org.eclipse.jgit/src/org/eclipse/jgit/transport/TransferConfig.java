@@ -88,6 +88,8 @@ enum FsckMode {
 	private final boolean safeForMacOS;
 	private final boolean allowTipSha1InWant;
 	private final boolean allowReachableSha1InWant;
+	private final boolean allowFilter;
+	private final String cloneBundleUri;
 	final String[] hideRefs;
 
 	TransferConfig(final Repository db) {
@@ -140,6 +142,10 @@ enum FsckMode {
 				"uploadpack", "allowtipsha1inwant", false); //$NON-NLS-1$ //$NON-NLS-2$
 		allowReachableSha1InWant = rc.getBoolean(
 				"uploadpack", "allowreachablesha1inwant", false); //$NON-NLS-1$ //$NON-NLS-2$
+		allowFilter = rc.getBoolean(
+				"uploadpack", "allowfilter", false); //$NON-NLS-1$ //$NON-NLS-2$
+		cloneBundleUri = rc.getString(
+				"uploadpack", null, "clonebundleuri"); //$NON-NLS-1$ //$NON-NLS-2$
 		hideRefs = rc.getStringList("uploadpack", null, "hiderefs"); //$NON-NLS-1$ //$NON-NLS-2$
 	}
 
@@ -198,6 +204,24 @@ public boolean isAllowReachableSha1InWant() {
 		return allowReachableSha1InWant;
 	}
 
+	/**
+	 * @return allow clients to send a "filter" line for a partial clone?
+	 * @since 4.7
+	 */
+	public boolean isAllowFilter() {
+		return allowFilter;
+	}
+
+	/**
+	 * @return location of a bundle clients may download before an initial
+	 *         fetch, either absolute or relative to the repository URL; null
+	 *         if none is advertised.
+	 * @since 4.7
+	 */
+	public String getCloneBundleUri() {
+		return cloneBundleUri;
+	}
+
 	/**
 	 * @return {@link RefFilter} respecting configured hidden refs.
 	 * @since 3.1
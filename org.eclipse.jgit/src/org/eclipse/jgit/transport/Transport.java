@@ -738,6 +738,13 @@ private static String findTrackingRefName(final String remoteName,
 	 */
 	public static final boolean DEFAULT_PUSH_THIN = false;
 
+	/**
+	 * Default setting for {@link #getDumbFetchConcurrency()}.
+	 *
+	 * @since 4.7
+	 */
+	public static final int DEFAULT_DUMB_FETCH_CONCURRENCY = 4;
+
 	/**
 	 * Specification for fetch or push operations, to fetch or push all tags.
 	 * Acts as --tags.
@@ -778,6 +785,21 @@ private static String findTrackingRefName(final String remoteName,
 	/** Should fetch request thin-pack if remote repository can produce it. */
 	private boolean fetchThin = DEFAULT_FETCH_THIN;
 
+	/** Filter the remote should apply to objects sent during fetch. */
+	private FilterSpec filterSpec = FilterSpec.NO_FILTER;
+
+	/** Should the fetch connectivity check use the local bitmap index. */
+	private boolean useBitmapsForConnectivity = true;
+
+	/** Should an initial fetch start from a server provided clone bundle. */
+	private boolean useCloneBundle;
+
+	/** Number of parallel downloads of a dumb transport fetch. */
+	private int dumbFetchConcurrency = DEFAULT_DUMB_FETCH_CONCURRENCY;
+
+	/** Creates negotiators choosing "have" lines; null to use config. */
+	private FetchNegotiatorFactory fetchNegotiatorFactory;
+
 	/** Name of the receive pack program, if it must be executed. */
 	private String optionReceivePack = RemoteConfig.DEFAULT_RECEIVE_PACK;
 
@@ -922,6 +944,145 @@ public void setFetchThin(final boolean fetchThin) {
 		this.fetchThin = fetchThin;
 	}
 
+	/**
+	 * @return filter the remote is asked to apply to the objects it sends
+	 *         during fetch; {@link FilterSpec#NO_FILTER} if all objects are
+	 *         requested.
+	 * @since 4.7
+	 */
+	public FilterSpec getFilterSpec() {
+		return filterSpec;
+	}
+
+	/**
+	 * Request a partial fetch, omitting objects rejected by the filter.
+	 * <p>
+	 * The filter is only sent if the remote advertises support for it;
+	 * otherwise all objects are fetched. Objects omitted by the filter are
+	 * not verified to be present after the fetch completes.
+	 *
+	 * @param filter
+	 *            the filter to request; null or {@link FilterSpec#NO_FILTER}
+	 *            to fetch all reachable objects.
+	 * @since 4.7
+	 */
+	public void setFilterSpec(FilterSpec filter) {
+		filterSpec = filter != null ? filter : FilterSpec.NO_FILTER;
+	}
+
+	/**
+	 * @return true if checking the connectivity of fetched objects skips
+	 *         objects the local bitmap index shows to be reachable.
+	 * @since 4.7
+	 */
+	public boolean isUseBitmapsForConnectivity() {
+		return useBitmapsForConnectivity;
+	}
+
+	/**
+	 * Set whether checking the connectivity of fetched objects may use the
+	 * local bitmap index.
+	 * <p>
+	 * With bitmaps the check only walks objects not reachable from a local
+	 * ref with a bitmap, instead of marking every local ref uninteresting.
+	 * Both produce the same result; disabling bitmaps is mainly useful to
+	 * compare the time taken.
+	 *
+	 * @param useBitmaps
+	 *            true to use the bitmap index when available.
+	 * @since 4.7
+	 */
+	public void setUseBitmapsForConnectivity(boolean useBitmaps) {
+		useBitmapsForConnectivity = useBitmaps;
+	}
+
+	/**
+	 * @return true if a fetch into an empty repository may start from a clone
+	 *         bundle advertised by the server.
+	 * @since 4.7
+	 */
+	public boolean isUseCloneBundle() {
+		return useCloneBundle;
+	}
+
+	/**
+	 * Set whether a fetch into an empty repository may start from a clone
+	 * bundle.
+	 * <p>
+	 * Servers advertise a prebuilt bundle of their branches and tags with the
+	 * {@code clone-bundle} capability. Downloading it is a plain HTTP transfer
+	 * which can be resumed if interrupted, after which only the objects not
+	 * in the bundle are negotiated. The option is ignored by transports other
+	 * than HTTP and if the server does not offer a bundle.
+	 *
+	 * @param useCloneBundle
+	 *            true to download an advertised clone bundle.
+	 * @since 4.7
+	 */
+	public void setUseCloneBundle(boolean useCloneBundle) {
+		this.useCloneBundle = useCloneBundle;
+	}
+
+	/**
+	 * @return maximum number of files a dumb transport (HTTP without the smart
+	 *         protocol, Amazon S3) downloads in parallel during fetch.
+	 * @since 4.7
+	 */
+	public int getDumbFetchConcurrency() {
+		return dumbFetchConcurrency;
+	}
+
+	/**
+	 * Set how many files a dumb transport may download in parallel.
+	 * <p>
+	 * Dumb transports fetch objects by walking the history, downloading loose
+	 * objects and pack indexes one file at a time. With a concurrency above 1
+	 * the loose objects queued next and the indexes of newly discovered packs
+	 * are downloaded ahead of the walk, while the walk itself still processes
+	 * objects in order. Transports that cannot open files concurrently, such
+	 * as SFTP, ignore this setting.
+	 * <p>
+	 * Default setting is: {@link #DEFAULT_DUMB_FETCH_CONCURRENCY}
+	 *
+	 * @param concurrency
+	 *            maximum number of parallel downloads; 1 downloads one file
+	 *            at a time.
+	 * @since 4.7
+	 */
+	public void setDumbFetchConcurrency(int concurrency) {
+		if (concurrency < 1)
+			throw new IllegalArgumentException();
+		dumbFetchConcurrency = concurrency;
+	}
+
+	/**
+	 * @return factory of the negotiators choosing the commits offered to the
+	 *         remote during fetch; null if the negotiator is selected by the
+	 *         {@code fetch.negotiationAlgorithm} configuration.
+	 * @since 4.7
+	 */
+	public FetchNegotiatorFactory getFetchNegotiatorFactory() {
+		return fetchNegotiatorFactory;
+	}
+
+	/**
+	 * Set the factory of the negotiators choosing the commits offered to the
+	 * remote during fetch.
+	 * <p>
+	 * Each fetch creates its own negotiator. By default
+	 * {@code fetch.negotiationAlgorithm} of the local repository selects the
+	 * negotiator: {@code skipping} uses {@link SkippingFetchNegotiator}, any
+	 * other value {@link DefaultFetchNegotiator}. Only the native protocols
+	 * negotiate.
+	 *
+	 * @param factory
+	 *            the factory; null to select the negotiator by configuration.
+	 * @since 4.7
+	 */
+	public void setFetchNegotiatorFactory(FetchNegotiatorFactory factory) {
+		fetchNegotiatorFactory = factory;
+	}
+
 	/**
 	 * @return true if fetch will verify received objects are formatted
 	 *         correctly. Validating objects requires more CPU time on the
@@ -289,6 +289,11 @@ FileStream open(final String path) throws IOException {
 			return new FileStream(in, raw == in ? len : -1);
 		}
 
+		@Override
+		boolean isConcurrentOpenSupported() {
+			return true;
+		}
+
 		@Override
 		void deleteFile(final String path) throws IOException {
 			s3.delete(bucket, resolveKey(path));
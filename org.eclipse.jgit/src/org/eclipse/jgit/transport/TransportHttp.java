@@ -249,7 +249,13 @@ private static class HttpConfig {
 
 	private boolean useSmartHttp = true;
 
-	private HttpAuthMethod authMethod = HttpAuthMethod.Type.NONE.method(null);
+	/**
+	 * Authentication of the requests. Dumb fetches open files from several
+	 * threads, so the method is replaced as a whole and used under its own
+	 * lock; see {@link #httpOpen(String, URL, AcceptEncoding)}.
+	 */
+	private volatile HttpAuthMethod authMethod = HttpAuthMethod.Type.NONE
+			.method(null);
 
 	private Map<String, String> headers;
 
@@ -581,6 +587,28 @@ protected HttpConnection httpOpen(String method, URL u) throws IOException {
 	 */
 	protected HttpConnection httpOpen(String method, URL u,
 			AcceptEncoding acceptEncoding) throws IOException {
+		return httpOpen(method, u, acceptEncoding, true);
+	}
+
+	/**
+	 * Open an HTTP connection.
+	 *
+	 * @param method
+	 *            HTTP request method
+	 * @param u
+	 *            url of the HTTP connection
+	 * @param acceptEncoding
+	 *            accept-encoding header option
+	 * @param credentials
+	 *            whether to send the additional headers and the credentials
+	 *            of this transport. Must be false for a URL of another origin
+	 *            than the remote repository.
+	 * @return the HTTP connection
+	 * @throws IOException
+	 */
+	HttpConnection httpOpen(String method, URL u,
+			AcceptEncoding acceptEncoding, boolean credentials)
+			throws IOException {
 		if (method == null || u == null || acceptEncoding == null) {
 			throw new NullPointerException();
 		}
@@ -607,11 +635,18 @@ protected HttpConnection httpOpen(String method, URL u,
 			conn.setConnectTimeout(effTimeOut);
 			conn.setReadTimeout(effTimeOut);
 		}
+		if (!credentials) {
+			return conn;
+		}
 		if (this.headers != null && !this.headers.isEmpty()) {
 			for (Map.Entry<String, String> entry : this.headers.entrySet())
 				conn.setRequestProperty(entry.getKey(), entry.getValue());
 		}
-		authMethod.configureRequest(conn);
+		HttpAuthMethod auth = authMethod;
+		synchronized (auth) {
+			// Some methods, like Digest, count the requests they sign.
+			auth.configureRequest(conn);
+		}
 		return conn;
 	}
 
@@ -738,6 +773,11 @@ FileStream open(final String path) throws IOException {
 			return open(path, AcceptEncoding.UNSPECIFIED);
 		}
 
+		@Override
+		boolean isConcurrentOpenSupported() {
+			return true;
+		}
+
 		FileStream open(String path, AcceptEncoding acceptEncoding)
 				throws IOException {
 			final URL base = httpObjectsUrl;
@@ -45,8 +45,10 @@
 
 import static org.eclipse.jgit.lib.RefDatabase.ALL;
 import static org.eclipse.jgit.transport.GitProtocolConstants.OPTION_AGENT;
+import static org.eclipse.jgit.transport.GitProtocolConstants.OPTION_CLONE_BUNDLE;
 import static org.eclipse.jgit.transport.GitProtocolConstants.OPTION_ALLOW_REACHABLE_SHA1_IN_WANT;
 import static org.eclipse.jgit.transport.GitProtocolConstants.OPTION_ALLOW_TIP_SHA1_IN_WANT;
+import static org.eclipse.jgit.transport.GitProtocolConstants.OPTION_FILTER;
 import static org.eclipse.jgit.transport.GitProtocolConstants.OPTION_INCLUDE_TAG;
 import static org.eclipse.jgit.transport.GitProtocolConstants.OPTION_MULTI_ACK;
 import static org.eclipse.jgit.transport.GitProtocolConstants.OPTION_MULTI_ACK_DETAILED;
@@ -77,6 +79,9 @@
 import org.eclipse.jgit.errors.PackProtocolException;
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.internal.storage.pack.PackWriter;
+import org.eclipse.jgit.lib.BitmapIndex;
+import org.eclipse.jgit.lib.BitmapIndex.Bitmap;
+import org.eclipse.jgit.lib.BitmapIndex.BitmapBuilder;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
@@ -93,7 +98,9 @@
 import org.eclipse.jgit.revwalk.RevObject;
 import org.eclipse.jgit.revwalk.RevTag;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.AndRevFilter;
 import org.eclipse.jgit.revwalk.filter.CommitTimeRevFilter;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
 import org.eclipse.jgit.storage.pack.PackConfig;
 import org.eclipse.jgit.storage.pack.PackStatistics;
 import org.eclipse.jgit.transport.GitProtocolConstants.MultiAck;
@@ -280,6 +287,9 @@ public Set<String> getOptions() {
 	/** Desired depth from the client on a shallow request. */
 	private int depth;
 
+	/** Filter from the client restricting the objects sent in the pack. */
+	private FilterSpec filterSpec = FilterSpec.NO_FILTER;
+
 	/** Commit time of the oldest common commit, in seconds. */
 	private int oldestTime;
 
@@ -313,6 +323,8 @@ public Set<String> getOptions() {
 
 	private PackStatistics statistics;
 
+	private UploadPackCache packCache;
+
 	@SuppressWarnings("deprecation")
 	private UploadPackLogger logger = UploadPackLogger.NULL;
 
@@ -570,6 +582,31 @@ public void setPackConfig(PackConfig pc) {
 		this.packConfig = pc;
 	}
 
+	/**
+	 * @return the cache of generated packs, or null if packs are always
+	 *         generated.
+	 * @since 4.7
+	 */
+	public UploadPackCache getPackCache() {
+		return packCache;
+	}
+
+	/**
+	 * Set a cache to reuse packs generated for identical earlier requests.
+	 * <p>
+	 * When a pack is served from the cache no {@link PackWriter} runs, so
+	 * {@link #getStatistics()} returns null and the {@link PostUploadHook} is
+	 * not invoked for that request. The {@link PreUploadHook} is always
+	 * invoked.
+	 *
+	 * @param cache
+	 *            cache for this repository; null to always generate packs.
+	 * @since 4.7
+	 */
+	public void setPackCache(UploadPackCache cache) {
+		this.packCache = cache;
+	}
+
 	/**
 	 * @param tc
 	 *            configuration controlling transfer options. If null the source
@@ -887,6 +924,8 @@ public void sendAdvertisedRefs(final RefAdvertiser adv) throws IOException,
 		adv.advertiseCapability(OPTION_THIN_PACK);
 		adv.advertiseCapability(OPTION_NO_PROGRESS);
 		adv.advertiseCapability(OPTION_SHALLOW);
+		if (transferConfig.isAllowFilter())
+			adv.advertiseCapability(OPTION_FILTER);
 		if (!biDirectionalPipe)
 			adv.advertiseCapability(OPTION_NO_DONE);
 		RequestPolicy policy = getRequestPolicy();
@@ -899,6 +938,9 @@ public void sendAdvertisedRefs(final RefAdvertiser adv) throws IOException,
 				|| policy == null)
 			adv.advertiseCapability(OPTION_ALLOW_REACHABLE_SHA1_IN_WANT);
 		adv.advertiseCapability(OPTION_AGENT, UserAgent.get());
+		if (transferConfig.getCloneBundleUri() != null)
+			adv.advertiseCapability(OPTION_CLONE_BUNDLE,
+					transferConfig.getCloneBundleUri());
 		adv.setDerefTags(true);
 		Map<String, Ref> advertisedOrDefaultRefs = getAdvertisedOrDefaultRefs();
 		findSymrefs(adv, advertisedOrDefaultRefs);
@@ -965,6 +1007,13 @@ private void recvWants() throws IOException {
 				continue;
 			}
 
+			if (transferConfig.isAllowFilter()
+					&& line.startsWith(OPTION_FILTER + ' ')) {
+				filterSpec = FilterSpec.fromFilterLine(
+						line.substring(OPTION_FILTER.length() + 1));
+				continue;
+			}
+
 			if (!line.startsWith("want ") || line.length() < 45) //$NON-NLS-1$
 				throw new PackProtocolException(MessageFormat.format(JGitText.get().expectedGot, "want", line)); //$NON-NLS-1$
 
@@ -995,6 +1044,20 @@ public int getDepth() {
 		return depth;
 	}
 
+	/**
+	 * Returns the filter the client asked to apply to the pack. Valid only
+	 * after calling recvWants().
+	 *
+	 * @return the filter requested by the client, or
+	 *         {@link FilterSpec#NO_FILTER} if the client did not send one.
+	 * @since 4.7
+	 */
+	public FilterSpec getFilterSpec() {
+		if (options == null)
+			throw new RequestNotYetReadException();
+		return filterSpec;
+	}
+
 	/**
 	 * Get the user agent of the client.
 	 * <p>
@@ -1294,19 +1357,56 @@ private static void checkNotAdvertisedWants(RevWalk walk,
 		// into an advertised branch it will be marked UNINTERESTING and no commits
 		// return.
 
+		List<RevCommit> wantCommits = new ArrayList<RevCommit>(
+				notAdvertisedWants.size());
 		AsyncRevObjectQueue q = walk.parseAny(notAdvertisedWants, true);
 		try {
 			RevObject obj;
 			while ((obj = q.next()) != null) {
 				if (!(obj instanceof RevCommit))
 					throw new WantNotValidException(obj);
-				walk.markStart((RevCommit) obj);
+				wantCommits.add((RevCommit) obj);
 			}
 		} catch (MissingObjectException notFound) {
 			throw new WantNotValidException(notFound.getObjectId(), notFound);
 		} finally {
 			q.release();
 		}
+
+		BitmapIndex bitmapIndex = walk.getObjectReader().getBitmapIndex();
+		BitmapBuilder reachable = null;
+		if (bitmapIndex != null) {
+			// Everything reachable from a tip with a bitmap is known to be
+			// valid. Only wants outside of that set need to be walked, and
+			// only tips not covered by a bitmap can still reach them.
+			reachable = bitmapIndex.newBitmapBuilder();
+			for (ObjectId id : reachableFrom) {
+				Bitmap bitmap = bitmapIndex.getBitmap(id);
+				if (bitmap != null)
+					reachable.or(bitmap);
+			}
+
+			List<RevCommit> notCovered = new ArrayList<RevCommit>();
+			for (RevCommit c : wantCommits) {
+				if (!reachable.contains(c))
+					notCovered.add(c);
+			}
+			if (notCovered.isEmpty())
+				return;
+			wantCommits = notCovered;
+
+			Set<ObjectId> uncoveredTips = new HashSet<ObjectId>();
+			for (ObjectId id : reachableFrom) {
+				if (!reachable.contains(id))
+					uncoveredTips.add(id);
+			}
+			if (uncoveredTips.isEmpty())
+				throw new WantNotValidException(wantCommits.get(0));
+			reachableFrom = uncoveredTips;
+		}
+
+		for (RevCommit c : wantCommits)
+			walk.markStart(c);
 		for (ObjectId id : reachableFrom) {
 			try {
 				walk.markUninteresting(walk.parseCommit(id));
@@ -1314,12 +1414,18 @@ private static void checkNotAdvertisedWants(RevWalk walk,
 				continue;
 			}
 		}
-
-		RevCommit bad = walk.next();
-		if (bad != null) {
-			throw new WantNotValidException(bad);
+		RevFilter oldFilter = walk.getRevFilter();
+		if (reachable != null)
+			walk.setRevFilter(new NotInBitmapFilter(reachable));
+		try {
+			RevCommit bad = walk.next();
+			if (bad != null) {
+				throw new WantNotValidException(bad);
+			}
+		} finally {
+			walk.reset();
+			walk.setRevFilter(oldFilter);
 		}
-		walk.reset();
 	}
 
 	private void addCommonBase(final RevObject o) {
@@ -1357,8 +1463,16 @@ private boolean wantSatisfied(final RevObject want) throws IOException {
 
 		walk.resetRetain(SAVE);
 		walk.markStart((RevCommit) want);
-		if (oldestTime != 0)
-			walk.setRevFilter(CommitTimeRevFilter.after(oldestTime * 1000L));
+		RevFilter filter = oldestTime != 0
+				? CommitTimeRevFilter.after(oldestTime * 1000L)
+				: RevFilter.ALL;
+		BitmapIndex bitmapIndex = walk.getObjectReader().getBitmapIndex();
+		CommonInBitmapFilter bitmapFilter = null;
+		if (bitmapIndex != null) {
+			bitmapFilter = new CommonInBitmapFilter(bitmapIndex);
+			filter = AndRevFilter.create(filter, bitmapFilter);
+		}
+		walk.setRevFilter(filter);
 		for (;;) {
 			final RevCommit c = walk.next();
 			if (c == null)
@@ -1368,10 +1482,61 @@ private boolean wantSatisfied(final RevObject want) throws IOException {
 				want.add(SATISFIED);
 				return true;
 			}
+			if (bitmapFilter != null && bitmapFilter.found) {
+				want.add(SATISFIED);
+				return true;
+			}
 		}
 		return false;
 	}
 
+	/**
+	 * Answers {@link #wantSatisfied(RevObject)} from the bitmap of the first
+	 * commit with one, instead of walking the history below it.
+	 * <p>
+	 * A bitmap contains every object reachable from its commit. If it contains
+	 * none of the commits the client has, no commit below it can reach them
+	 * either, so its parents are marked {@link RevFlag#SEEN} to stop the walk.
+	 */
+	private final class CommonInBitmapFilter extends RevFilter {
+		private final BitmapIndex bitmapIndex;
+
+		boolean found;
+
+		CommonInBitmapFilter(BitmapIndex bitmapIndex) {
+			this.bitmapIndex = bitmapIndex;
+		}
+
+		@Override
+		public boolean include(RevWalk walker, RevCommit c) {
+			Bitmap bitmap = bitmapIndex.getBitmap(c);
+			if (bitmap == null)
+				return true;
+
+			BitmapBuilder reachable = bitmapIndex.newBitmapBuilder().or(bitmap);
+			for (RevObject obj : commonBase) {
+				if (obj instanceof RevCommit && obj.has(PEER_HAS)
+						&& reachable.contains(obj)) {
+					found = true;
+					return true;
+				}
+			}
+			for (RevCommit p : c.getParents())
+				p.add(RevFlag.SEEN);
+			return false;
+		}
+
+		@Override
+		public RevFilter clone() {
+			return this;
+		}
+
+		@Override
+		public boolean requiresCommitBody() {
+			return false;
+		}
+	}
+
 	private void sendPack() throws IOException {
 		final boolean sideband = options.contains(OPTION_SIDE_BAND)
 				|| options.contains(OPTION_SIDE_BAND_64K);
@@ -1429,7 +1594,6 @@ private boolean reportInternalServerErrorOverSideband() {
 		}
 	}
 
-	@SuppressWarnings("deprecation")
 	private void sendPack(final boolean sideband) throws IOException {
 		ProgressMonitor pm = NullProgressMonitor.INSTANCE;
 		OutputStream packOut = rawOut;
@@ -1468,6 +1632,51 @@ private void sendPack(final boolean sideband) throws IOException {
 			throw noPack;
 		}
 
+		if (packCache != null) {
+			final ProgressMonitor monitor = pm;
+			packCache.writePack(newCacheKey(), packOut,
+					new UploadPackCache.PackGenerator() {
+						@Override
+						public void writePack(OutputStream out)
+								throws IOException {
+							UploadPack.this.writePack(monitor, out);
+						}
+					});
+		} else {
+			writePack(pm, packOut);
+		}
+
+		if (sideband)
+			pckOut.end();
+	}
+
+	private UploadPackCache.Key newCacheKey() {
+		Set<String> packOptions = new HashSet<String>();
+		for (String opt : new String[] { OPTION_OFS_DELTA, OPTION_THIN_PACK,
+				OPTION_INCLUDE_TAG }) {
+			if (options.contains(opt))
+				packOptions.add(opt);
+		}
+
+		// Advertised refs select tag targets for a clone and the tags
+		// added by include-tag, so they are only part of the key then.
+		List<ObjectId> refIds = new ArrayList<ObjectId>();
+		if (refs != null && (commonBase.isEmpty()
+				|| options.contains(OPTION_INCLUDE_TAG))) {
+			for (Ref ref : refs.values()) {
+				if (ref.getObjectId() != null)
+					refIds.add(ref.getObjectId());
+			}
+		}
+
+		return new UploadPackCache.Key(
+				wantAll.isEmpty() ? wantIds : wantAll, commonBase,
+				clientShallowCommits, depth, filterSpec, packOptions, refIds);
+	}
+
+	@SuppressWarnings("deprecation")
+	private void writePack(ProgressMonitor pm, OutputStream packOut)
+			throws IOException {
 		PackConfig cfg = packConfig;
 		if (cfg == null)
 			cfg = new PackConfig(db);
@@ -1481,6 +1690,7 @@ private void sendPack(final boolean sideband) throws IOException {
 			pw.setDeltaBaseAsOffset(options.contains(OPTION_OFS_DELTA));
 			pw.setThin(options.contains(OPTION_THIN_PACK));
 			pw.setReuseValidatingObjects(false);
+			pw.setFilterSpec(filterSpec);
 
 			if (commonBase.isEmpty() && refs != null) {
 				Set<ObjectId> tagTargets = new HashSet<ObjectId>();
@@ -1555,9 +1765,6 @@ else if (ref.getName().startsWith(Constants.R_HEADS))
 			}
 			pw.close();
 		}
-
-		if (sideband)
-			pckOut.end();
 	}
 
 	private static void findSymrefs(
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Stores finished pack streams produced by {@link UploadPack} so identical
+ * requests can be answered without packing the objects again.
+ * <p>
+ * A cache is consulted only after negotiation has completed, once the final
+ * set of wants, common objects and options is known. Implementations must be
+ * thread-safe, as a single cache is typically shared by all
+ * {@code UploadPack} instances serving the same repository. A cache must not
+ * be shared between repositories, as {@link Key} does not identify the
+ * repository.
+ *
+ * @since 4.7
+ */
+public interface UploadPackCache {
+	/** Writes a pack stream on a cache miss. */
+	public interface PackGenerator {
+		/**
+		 * Generate the pack for the request.
+		 *
+		 * @param out
+		 *            stream to write the complete pack to.
+		 * @throws IOException
+		 *             the pack could not be written.
+		 */
+		void writePack(OutputStream out) throws IOException;
+	}
+
+	/**
+	 * Write the pack for a request to the client.
+	 * <p>
+	 * If a pack for {@code key} is cached its content is copied to
+	 * {@code out}. Otherwise the implementation calls
+	 * {@link PackGenerator#writePack(OutputStream)}, and may keep a copy of
+	 * the result for later requests.
+	 *
+	 * @param key
+	 *            normalized description of the request.
+	 * @param out
+	 *            stream to write the pack to.
+	 * @param generator
+	 *            produces the pack if it is not cached.
+	 * @throws IOException
+	 *             the pack could not be read, generated or written.
+	 */
+	void writePack(Key key, OutputStream out, PackGenerator generator)
+			throws IOException;
+
+	/**
+	 * Normalized form of an upload-pack request.
+	 * <p>
+	 * Two requests with the same key receive byte-for-byte identical packs,
+	 * so the key covers everything that influences the pack content: the
+	 * wanted and common objects, shallow state, filter and the capabilities
+	 * that change the pack encoding.
+	 */
+	public static final class Key {
+		private final String name;
+
+		Key(Collection<? extends ObjectId> wants,
+				Collection<? extends ObjectId> haves,
+				Collection<? extends ObjectId> shallow, int depth,
+				FilterSpec filter, Collection<String> options,
+				Collection<? extends ObjectId> refs) {
+			MessageDigest md = Constants.newMessageDigest();
+			section(md, "want", wants); //$NON-NLS-1$
+			section(md, "have", haves); //$NON-NLS-1$
+			section(md, "shallow", shallow); //$NON-NLS-1$
+			md.update(Constants.encode("depth " + depth + '\n')); //$NON-NLS-1$
+			md.update(Constants.encode("filter " + filter + '\n')); //$NON-NLS-1$
+			List<String> opts = new ArrayList<String>(options);
+			Collections.sort(opts);
+			for (String opt : opts)
+				md.update(Constants.encode("option " + opt + '\n')); //$NON-NLS-1$
+			section(md, "ref", refs); //$NON-NLS-1$
+			name = ObjectId.fromRaw(md.digest()).name();
+		}
+
+		private static void section(MessageDigest md, String type,
+				Collection<? extends ObjectId> ids) {
+			List<ObjectId> sorted = new ArrayList<ObjectId>(ids.size());
+			for (ObjectId id : ids)
+				sorted.add(id.copy());
+			Collections.sort(sorted);
+			byte[] prefix = Constants.encode(type + ' ');
+			byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+			for (ObjectId id : sorted) {
+				md.update(prefix);
+				id.copyRawTo(raw, 0);
+				md.update(raw);
+			}
+			md.update((byte) '\n');
+		}
+
+		/**
+		 * @return hex string uniquely naming this request, suitable for use
+		 *         as a file name.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public int hashCode() {
+			return name.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key && name.equals(((Key) o).name);
+		}
+
+		@Override
+		public String toString() {
+			return "UploadPackCache.Key[" + name + "]"; //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+}
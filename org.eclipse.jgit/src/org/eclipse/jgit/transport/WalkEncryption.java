@@ -427,8 +427,9 @@ void request(HttpURLConnection conn, String prefix) throws IOException {
 			// TODO re-factor AmazonS3.putImpl to be more transaction-like
 		}
 
-		// Shared state validate -> decrypt.
-		volatile Cipher decryptCipher;
+		// State passed from validate to decrypt. Both are called by the
+		// thread opening the object, several objects may be opened at once.
+		private final ThreadLocal<Cipher> decryptCipher = new ThreadLocal<Cipher>();
 
 		@Override
 		void validate(HttpURLConnection conn, String prefix)
@@ -458,15 +459,16 @@ void validate(HttpURLConnection conn, String prefix)
 						JGitText.get().unsupportedEncryptionVersion, vers));
 			}
 			try {
-				decryptCipher = InsecureCipherFactory.create(cipherAlgo);
+				Cipher cipher = InsecureCipherFactory.create(cipherAlgo);
 				if (cont.isEmpty()) {
-					decryptCipher.init(Cipher.DECRYPT_MODE, secretKey);
+					cipher.init(Cipher.DECRYPT_MODE, secretKey);
 				} else {
 					AlgorithmParameters params = AlgorithmParameters
 							.getInstance(paramsAlgo);
 					params.init(Base64.decode(cont));
-					decryptCipher.init(Cipher.DECRYPT_MODE, secretKey, params);
+					cipher.init(Cipher.DECRYPT_MODE, secretKey, params);
 				}
+				decryptCipher.set(cipher);
 			} catch (Exception e) {
 				throw error(e);
 			}
@@ -475,9 +477,9 @@ void validate(HttpURLConnection conn, String prefix)
 		@Override
 		InputStream decrypt(InputStream input) throws IOException {
 			try {
-				return new CipherInputStream(input, decryptCipher);
+				return new CipherInputStream(input, decryptCipher.get());
 			} finally {
-				decryptCipher = null; // Cleanup validate -> decrypt transition.
+				decryptCipher.remove(); // Cleanup validate -> decrypt transition.
 			}
 		}
 	}
@@ -50,6 +50,7 @@
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -60,6 +61,14 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.jgit.errors.CompoundException;
 import org.eclipse.jgit.errors.CorruptObjectException;
@@ -74,6 +83,7 @@
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectChecker;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectInserter;
@@ -91,6 +101,8 @@
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.util.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Generic fetch support for dumb transport protocols.
@@ -110,10 +122,22 @@
  * Instead it delegates the transfer to a {@link WalkRemoteObjectDatabase},
  * which knows how to read individual files from the remote repository and
  * supply the data as a standard Java InputStream.
+ * <p>
+ * If the remote database supports concurrent reads, the loose objects queued
+ * next in the walk and the indexes of newly listed packs are downloaded in
+ * parallel, ahead of the walk (see {@link Transport#getDumbFetchConcurrency()}).
+ * Objects are still verified, inserted and parsed by the walk one at a time,
+ * in the same order as without parallel downloads.
  *
  * @see WalkRemoteObjectDatabase
  */
 class WalkFetchConnection extends BaseFetchConnection {
+	private static final Logger LOG = LoggerFactory
+			.getLogger(WalkFetchConnection.class);
+
+	/** Seconds close() waits for running downloads to stop. */
+	private static final int CLOSE_TIMEOUT = 10;
+
 	/** The repository this transport fetches into, or pushes out of. */
 	final Repository local;
 
@@ -190,6 +214,15 @@ class WalkFetchConnection extends BaseFetchConnection {
 	/** Inserter to read objects from {@link #local}. */
 	private final ObjectReader reader;
 
+	/** Maximum number of files downloaded in parallel. */
+	private final int concurrency;
+
+	/** Downloads files ahead of the walk; created on first use. */
+	private ExecutorService downloader;
+
+	/** Loose objects being downloaded ahead of the walk. */
+	private final Map<ObjectId, LooseDownload> looseDownloads;
+
 	WalkFetchConnection(final WalkTransport t, final WalkRemoteObjectDatabase w) {
 		Transport wt = (Transport)t;
 		local = wt.local;
@@ -221,6 +254,10 @@ class WalkFetchConnection extends BaseFetchConnection {
 
 		localCommitQueue = new DateRevQueue();
 		workQueue = new LinkedList<ObjectId>();
+
+		concurrency = w.isConcurrentOpenSupported()
+				? wt.getDumbFetchConcurrency() : 1;
+		looseDownloads = new HashMap<ObjectId, LooseDownload>();
 	}
 
 	public boolean didFetchTestConnectivity() {
@@ -235,6 +272,7 @@ protected void doFetch(final ProgressMonitor monitor,
 		queueWants(want);
 
 		while (!monitor.isCancelled() && !workQueue.isEmpty()) {
+			downloadAhead();
 			final ObjectId id = workQueue.removeFirst();
 			if (!(id instanceof RevObject) || !((RevObject) id).has(COMPLETE))
 				downloadObject(monitor, id);
@@ -258,6 +296,25 @@ public void setPackLockMessage(final String message) {
 
 	@Override
 	public void close() {
+		if (downloader != null) {
+			// Let running downloads finish before their files are deleted.
+			downloader.shutdownNow();
+			try {
+				// Blocking socket reads ignore the interrupt. Do not let a
+				// stalled server hold up close(); the download threads are
+				// daemons and end when their read fails or times out.
+				if (!downloader.awaitTermination(CLOSE_TIMEOUT,
+						TimeUnit.SECONDS)) {
+					LOG.warn(MessageFormat.format(
+							JGitText.get().downloadsStillRunning,
+							remotes.get(0).getURI(),
+							Integer.valueOf(CLOSE_TIMEOUT)));
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		looseDownloads.clear();
 		inserter.close();
 		reader.close();
 		for (final RemotePack p : unfetchedPacks) {
@@ -295,6 +352,11 @@ private void queueWants(final Collection<Ref> want)
 	}
 
 	private void process(final ObjectId id) throws TransportException {
+		// A download ahead of the walk is useless once the object is here.
+		final LooseDownload ahead = looseDownloads.remove(id);
+		if (ahead != null)
+			ahead.data.cancel(false);
+
 		final RevObject obj;
 		try {
 			if (id instanceof RevObject) {
@@ -416,10 +478,7 @@ private void downloadObject(final ProgressMonitor pm, final AnyObjectId id)
 			// Search for a loose object over all alternates, starting
 			// from the one we last successfully located an object through.
 			//
-			final String idStr = id.name();
-			final String subdir = idStr.substring(0, 2);
-			final String file = idStr.substring(2);
-			final String looseName = subdir + "/" + file; //$NON-NLS-1$
+			final String looseName = looseName(id);
 
 			for (int i = lastRemoteIdx; i < remotes.size(); i++) {
 				if (downloadLooseObject(id, looseName, remotes.get(i))) {
@@ -458,6 +517,7 @@ private void downloadObject(final ProgressMonitor pm, final AnyObjectId id)
 					if (packsConsidered.add(packName))
 						unfetchedPacks.add(new RemotePack(wrr, packName));
 				}
+				downloadIndexesAhead();
 				if (downloadPackedObject(pm, id))
 					return;
 			}
@@ -602,7 +662,7 @@ private boolean downloadLooseObject(final AnyObjectId id,
 			final String looseName, final WalkRemoteObjectDatabase remote)
 			throws TransportException {
 		try {
-			final byte[] compressed = remote.open(looseName).toArray();
+			final byte[] compressed = readLooseObject(id, looseName, remote);
 			verifyAndInsertLooseObject(id, compressed);
 			return true;
 		} catch (FileNotFoundException e) {
@@ -616,6 +676,114 @@ private boolean downloadLooseObject(final AnyObjectId id,
 		}
 	}
 
+	private byte[] readLooseObject(final AnyObjectId id,
+			final String looseName, final WalkRemoteObjectDatabase remote)
+			throws IOException {
+		final LooseDownload ahead = looseDownloads.remove(id);
+		if (ahead != null) {
+			if (ahead.remote == remote)
+				return waitFor(ahead.data);
+			ahead.data.cancel(false);
+		}
+		return remote.open(looseName).toArray();
+	}
+
+	private static String looseName(final AnyObjectId id) {
+		final String idStr = id.name();
+		final String subdir = idStr.substring(0, 2);
+		final String file = idStr.substring(2);
+		return subdir + "/" + file; //$NON-NLS-1$
+	}
+
+	/**
+	 * Start downloading the loose objects the walk will try to get next.
+	 * <p>
+	 * Only objects that would be read as loose objects from the current
+	 * remote are downloaded, that is objects not found in any pack whose
+	 * index is known. If some pack index is not open yet the walk may still
+	 * find the objects in that pack, so nothing is downloaded.
+	 */
+	private void downloadAhead() throws TransportException {
+		if (concurrency <= 1)
+			return;
+		final WalkRemoteObjectDatabase remote = remotes.get(lastRemoteIdx);
+		if (!remote.isConcurrentOpenSupported())
+			return;
+		for (final RemotePack pack : unfetchedPacks) {
+			if (pack.index == null)
+				return;
+		}
+
+		final int maxPending = 2 * concurrency;
+		int scanned = 0;
+		final Iterator<ObjectId> itr = workQueue.iterator();
+		SCAN: while (itr.hasNext() && looseDownloads.size() < maxPending
+				&& scanned++ < 2 * maxPending) {
+			final ObjectId id = itr.next();
+			if (id instanceof RevObject && ((RevObject) id).has(COMPLETE))
+				continue;
+			if (looseDownloads.containsKey(id) || alreadyHave(id))
+				continue;
+			for (final RemotePack pack : unfetchedPacks) {
+				if (pack.index.hasObject(id))
+					continue SCAN;
+			}
+
+			final String looseName = looseName(id);
+			final Future<byte[]> data = getDownloader().submit(
+					new Callable<byte[]>() {
+						@Override
+						public byte[] call() throws IOException {
+							return remote.open(looseName).toArray();
+						}
+					});
+			looseDownloads.put(id.copy(), new LooseDownload(remote, data));
+		}
+	}
+
+	/** Start downloading the indexes of all packs not opened yet. */
+	private void downloadIndexesAhead() throws TransportException {
+		if (concurrency <= 1)
+			return;
+		for (final RemotePack pack : unfetchedPacks) {
+			if (pack.index == null && pack.indexDownload == null
+					&& pack.connection.isConcurrentOpenSupported()) {
+				try {
+					pack.downloadIndexAhead();
+				} catch (IOException e) {
+					throw new TransportException(e.getMessage(), e);
+				}
+			}
+		}
+	}
+
+	private ExecutorService getDownloader() {
+		if (downloader == null) {
+			downloader = Executors.newFixedThreadPool(concurrency,
+					new DownloadThreadFactory());
+		}
+		return downloader;
+	}
+
+	private static <T> T waitFor(final Future<T> download) throws IOException {
+		try {
+			return download.get();
+		} catch (InterruptedException e) {
+			final InterruptedIOException err = new InterruptedIOException();
+			err.initCause(e);
+			throw err;
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IOException(cause.getMessage(), cause);
+		}
+	}
+
 	private void verifyAndInsertLooseObject(final AnyObjectId id,
 			final byte[] compressed) throws IOException {
 		final ObjectLoader uol;
@@ -797,6 +965,29 @@ private void recordError(final AnyObjectId id, final Throwable what) {
 		errors.add(what);
 	}
 
+	private static class LooseDownload {
+		final WalkRemoteObjectDatabase remote;
+
+		final Future<byte[]> data;
+
+		LooseDownload(WalkRemoteObjectDatabase remote, Future<byte[]> data) {
+			this.remote = remote;
+			this.data = data;
+		}
+	}
+
+	private static class DownloadThreadFactory implements ThreadFactory {
+		private static final AtomicInteger cnt = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			int n = cnt.incrementAndGet();
+			Thread t = new Thread(r, "JGit-WalkFetch-" + n); //$NON-NLS-1$
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
 	private class RemotePack {
 		final WalkRemoteObjectDatabase connection;
 
@@ -808,6 +999,9 @@ private class RemotePack {
 
 		PackIndex index;
 
+		/** Download of the index ahead of the walk, if started. */
+		Future<PackIndex> indexDownload;
+
 		RemotePack(final WalkRemoteObjectDatabase c, final String pn) {
 			connection = c;
 			packName = pn;
@@ -826,15 +1020,50 @@ private class RemotePack {
 			}
 		}
 
+		void downloadIndexAhead() throws IOException {
+			final boolean reuse = tmpIdx != null;
+			if (!reuse)
+				tmpIdx = File.createTempFile("jgit-walk-", ".idx"); //$NON-NLS-1$ //$NON-NLS-2$
+			indexDownload = getDownloader().submit(new Callable<PackIndex>() {
+				@Override
+				public PackIndex call() throws IOException {
+					return readIndex(NullProgressMonitor.INSTANCE, reuse);
+				}
+			});
+		}
+
 		void openIndex(final ProgressMonitor pm) throws IOException {
 			if (index != null)
 				return;
-			if (tmpIdx == null)
+			if (indexDownload != null) {
+				try {
+					index = waitFor(indexDownload);
+				} finally {
+					indexDownload = null;
+				}
+				return;
+			}
+			final boolean reuse = tmpIdx != null;
+			if (!reuse)
 				tmpIdx = File.createTempFile("jgit-walk-", ".idx"); //$NON-NLS-1$ //$NON-NLS-2$
-			else if (tmpIdx.isFile()) {
+			index = readIndex(pm, reuse);
+		}
+
+		/**
+		 * Read the index, downloading it unless a previous fetch left it.
+		 *
+		 * @param pm
+		 *            progress of the download.
+		 * @param reuse
+		 *            whether an existing {@link #tmpIdx} may be left from a
+		 *            previous fetch.
+		 * @return the index; null if {@code pm} was cancelled.
+		 */
+		private PackIndex readIndex(final ProgressMonitor pm,
+				final boolean reuse) throws IOException {
+			if (reuse && tmpIdx.isFile()) {
 				try {
-					index = PackIndex.open(tmpIdx);
-					return;
+					return PackIndex.open(tmpIdx);
 				} catch (FileNotFoundException err) {
 					// Fall through and get the file.
 				}
@@ -867,11 +1096,11 @@ else if (tmpIdx.isFile()) {
 
 			if (pm.isCancelled()) {
 				FileUtils.delete(tmpIdx);
-				return;
+				return null;
 			}
 
 			try {
-				index = PackIndex.open(tmpIdx);
+				return PackIndex.open(tmpIdx);
 			} catch (IOException e) {
 				FileUtils.delete(tmpIdx);
 				throw e;
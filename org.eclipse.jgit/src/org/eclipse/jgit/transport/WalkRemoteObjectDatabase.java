@@ -154,6 +154,18 @@ abstract Collection<WalkRemoteObjectDatabase> getAlternates()
 	abstract FileStream open(String path) throws FileNotFoundException,
 			IOException;
 
+	/**
+	 * Whether {@link #open(String)} may be called from several threads at once.
+	 * <p>
+	 * If true {@link WalkFetchConnection} downloads several files in parallel.
+	 * The default implementation returns false.
+	 *
+	 * @return true if files can be opened concurrently.
+	 */
+	boolean isConcurrentOpenSupported() {
+		return false;
+	}
+
 	/**
 	 * Create a new connection for a discovered alternate object database
 	 * <p>